@@ -0,0 +1,70 @@
+package cn.autumnclouds.benchmark;
+
+import cn.autumnclouds.filesystem.FileSystem;
+import cn.autumnclouds.filesystem.impl.SimpleFileSystem;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * 基准测试环境: 指定基础目录、生成数据集, 并屏蔽文件系统操作的控制台输出。
+ * 必须在首次访问 SimpleFileSystem 之前调用 {@link #setUp}, 每个 JMH fork 都是独立的 JVM, 满足这一要求。
+ *
+ * @author Fu Qiujie
+ * @since 2024/4/27
+ */
+public final class BenchmarkEnvironment {
+
+    // 基准测试基础目录的系统属性名, 默认为临时目录下的 sfs-bench
+    public static final String BENCH_DIRECTORY_PROPERTY = "bench.dir";
+
+    private static PrintStream originalOut;
+
+    private BenchmarkEnvironment() {
+    }
+
+    /**
+     * 初始化基准测试环境。
+     *
+     * @param datasets 需要的数据集
+     * @return 文件系统实例
+     * @throws IOException 生成数据集失败
+     */
+    public static FileSystem setUp(Dataset... datasets) throws IOException {
+        Path baseDirectory = Paths.get(System.getProperty(BENCH_DIRECTORY_PROPERTY, Paths.get(System.getProperty("java.io.tmpdir"), "sfs-bench").toString()));
+        Files.createDirectories(baseDirectory);
+        System.setProperty(SimpleFileSystem.BASE_DIRECTORY_PROPERTY, baseDirectory.toString());
+        for (Dataset dataset : datasets) {
+            dataset.prepare(baseDirectory);
+        }
+        if (originalOut == null) {
+            originalOut = System.out;
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        }
+        return SimpleFileSystem.getInstance();
+    }
+
+    /**
+     * 恢复控制台输出。
+     */
+    public static void tearDown() {
+        if (originalOut != null) {
+            System.setOut(originalOut);
+            originalOut = null;
+        }
+    }
+
+    /**
+     * 设置整数类型的系统属性, 供文件系统在下一次操作时读取。
+     *
+     * @param name  属性名
+     * @param value 属性值
+     */
+    public static void setProperty(String name, long value) {
+        System.setProperty(name, String.valueOf(value));
+    }
+}
@@ -0,0 +1,59 @@
+package cn.autumnclouds.benchmark;
+
+import cn.autumnclouds.filesystem.FileSystem;
+import cn.autumnclouds.filesystem.impl.SimpleFileSystem;
+import cn.autumnclouds.util.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 文件/目录拷贝基准测试, 参数为数据集、拷贝线程数和 transferTo 分片大小。
+ *
+ * @author Fu Qiujie
+ * @since 2024/4/27
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CopyBenchmark {
+
+    @Param({"SMALL_FILES", "HUGE_FILES", "DEEP_TREE"})
+    private Dataset dataset;
+
+    @Param({"1", "4"})
+    private int threads;
+
+    @Param({"1048576", "8388608"})
+    private long sliceSize;
+
+    private FileSystem fs;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fs = BenchmarkEnvironment.setUp(dataset);
+        BenchmarkEnvironment.setProperty(SimpleFileSystem.COPY_PARALLELISM_PROPERTY, threads);
+        BenchmarkEnvironment.setProperty(FileUtils.COPY_SLICE_SIZE_PROPERTY, sliceSize);
+        fs.createDirectory("/bench/out");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fs.delete("/bench/out");
+        BenchmarkEnvironment.tearDown();
+    }
+
+    @Benchmark
+    public void copyTree() {
+        fs.copy(dataset.path(), "/bench/out/copy-tree", false);
+    }
+
+    @Benchmark
+    public void copyFile() {
+        fs.copy(dataset.samplePath(), "/bench/out/copy-file", false);
+    }
+}
@@ -0,0 +1,58 @@
+package cn.autumnclouds.benchmark;
+
+import cn.autumnclouds.filesystem.FileSystem;
+import cn.autumnclouds.util.CryptoUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 加解密基准测试, 参数为加解密线程数和分块大小。
+ *
+ * @author Fu Qiujie
+ * @since 2024/4/27
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CryptoBenchmark {
+
+    private static final String SOURCE = Dataset.HUGE_FILES.samplePath();
+
+    @Param({"1", "4"})
+    private int threads;
+
+    @Param({"262144", "1048576", "4194304"})
+    private int chunkSize;
+
+    private FileSystem fs;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fs = BenchmarkEnvironment.setUp(Dataset.HUGE_FILES);
+        BenchmarkEnvironment.setProperty(CryptoUtils.PARALLELISM_PROPERTY, threads);
+        BenchmarkEnvironment.setProperty(CryptoUtils.CHUNK_SIZE_PROPERTY, chunkSize);
+        fs.createDirectory("/bench/out");
+        fs.encryptFile(SOURCE, "/bench/out/prepared.enc");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fs.delete("/bench/out");
+        BenchmarkEnvironment.tearDown();
+    }
+
+    @Benchmark
+    public void encryptFile() {
+        fs.encryptFile(SOURCE, "/bench/out/encrypted.enc");
+    }
+
+    @Benchmark
+    public void decryptFile() {
+        fs.decryptFile("/bench/out/prepared.enc", "/bench/out/decrypted.log");
+    }
+}
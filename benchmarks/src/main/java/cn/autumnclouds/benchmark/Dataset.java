@@ -0,0 +1,114 @@
+package cn.autumnclouds.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * 基准测试数据集, 在基础目录下生成, 内容由固定随机种子生成, 重复运行时直接复用。
+ *
+ * @author Fu Qiujie
+ * @since 2024/4/27
+ */
+public enum Dataset {
+
+    /**
+     * 大量小文件: 5000 个 4KB 文件
+     */
+    SMALL_FILES {
+        @Override
+        void generate(Path root) throws IOException {
+            for (int i = 0; i < 5000; i++) {
+                writeFile(root.resolve("file-" + i + ".txt"), 4 * 1024, i);
+            }
+        }
+    },
+
+    /**
+     * 少量大文件: 2 个 128MB 文件
+     */
+    HUGE_FILES {
+        @Override
+        void generate(Path root) throws IOException {
+            for (int i = 0; i < 2; i++) {
+                writeFile(root.resolve("huge-" + i + ".log"), 128L * 1024 * 1024, i);
+            }
+        }
+    },
+
+    /**
+     * 深层目录树: 32 层目录, 每层 8 个 16KB 文件
+     */
+    DEEP_TREE {
+        @Override
+        void generate(Path root) throws IOException {
+            Path directory = root;
+            for (int depth = 0; depth < 32; depth++) {
+                for (int i = 0; i < 8; i++) {
+                    writeFile(directory.resolve("file-" + i + ".txt"), 16 * 1024, depth * 8L + i);
+                }
+                directory = directory.resolve("level-" + depth);
+                Files.createDirectories(directory);
+            }
+        }
+    };
+
+    /**
+     * 数据集在基础目录中的路径(以 "/" 开头, 相对于基础目录)。
+     *
+     * @return 数据集路径
+     */
+    public String path() {
+        return "/bench/" + name().toLowerCase();
+    }
+
+    /**
+     * 数据集中一个较大的文件的路径, 用于单文件操作。
+     *
+     * @return 文件路径
+     */
+    public String samplePath() {
+        return path() + (this == HUGE_FILES ? "/huge-0.log" : "/file-0.txt");
+    }
+
+    /**
+     * 在基础目录下生成数据集, 已生成时直接返回。
+     *
+     * @param baseDirectory 基础目录
+     * @throws IOException 写入文件失败
+     */
+    public void prepare(Path baseDirectory) throws IOException {
+        Path root = baseDirectory.resolve(path().substring(1));
+        Path marker = root.resolve(".complete");
+        if (Files.exists(marker)) {
+            return;
+        }
+        Files.createDirectories(root);
+        generate(root);
+        Files.createFile(marker);
+    }
+
+    abstract void generate(Path root) throws IOException;
+
+    /**
+     * 写入由文本行组成的伪随机内容, 使压缩和按行读取的测试更接近真实日志文件。
+     */
+    private static void writeFile(Path path, long size, long seed) throws IOException {
+        Random random = new Random(seed);
+        byte[] line = new byte[128];
+        try (OutputStream out = Files.newOutputStream(path)) {
+            long written = 0;
+            while (written < size) {
+                for (int i = 0; i < line.length - 1; i++) {
+                    line[i] = (byte) ('a' + random.nextInt(random.nextBoolean() ? 4 : 26));
+                }
+                line[line.length - 1] = '\n';
+                int length = (int) Math.min(line.length, size - written);
+                out.write(line, 0, length);
+                written += length;
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package cn.autumnclouds.benchmark;
+
+import cn.autumnclouds.filesystem.FileSystem;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 目录操作基准测试, 覆盖目录列表的各种形式和切换目录。
+ *
+ * @author Fu Qiujie
+ * @since 2024/4/27
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DirectoryBenchmark {
+
+    @Param({"SMALL_FILES", "DEEP_TREE"})
+    private Dataset dataset;
+
+    private FileSystem fs;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fs = BenchmarkEnvironment.setUp(dataset);
+        fs.changeDirectory(dataset.path());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkEnvironment.tearDown();
+    }
+
+    @Benchmark
+    public void listContents(Blackhole blackhole) {
+        blackhole.consume(fs.listContents());
+    }
+
+    @Benchmark
+    public void listFileVos(Blackhole blackhole) {
+        blackhole.consume(fs.listFileVos());
+    }
+
+    @Benchmark
+    public void listContentsStreaming(Blackhole blackhole) {
+        fs.listContents(fileVo -> {
+            blackhole.consume(fileVo);
+            return true;
+        });
+    }
+
+    @Benchmark
+    public void changeDirectory() {
+        fs.changeDirectory(dataset.path());
+    }
+}
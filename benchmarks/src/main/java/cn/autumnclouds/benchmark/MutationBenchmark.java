@@ -0,0 +1,98 @@
+package cn.autumnclouds.benchmark;
+
+import cn.autumnclouds.filesystem.FileSystem;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 修改操作基准测试, 覆盖创建目录、创建文件、写入文件和删除。
+ * 每轮迭代前重建临时目录, 调用之间没有额外的准备工作, 测得的时间只包括被测操作本身。
+ * 删除需要预先存在的文件, 由 {@link DeletePool} 在每轮迭代前一次创建 {@link #DELETE_BATCH} 个,
+ * 该方法按 SingleShotTime 每轮删除整批文件, 结果为删除一批的时间。
+ *
+ * @author Fu Qiujie
+ * @since 2024/4/27
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MutationBenchmark {
+
+    private static final String SCRATCH = "/bench/scratch";
+
+    // 每轮迭代删除的文件数
+    private static final int DELETE_BATCH = 1000;
+
+    @Param({"16", "4096"})
+    private int contentSize;
+
+    private FileSystem fs;
+    private String content;
+    private long counter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fs = BenchmarkEnvironment.setUp();
+        content = "x".repeat(contentSize);
+    }
+
+    @Setup(Level.Iteration)
+    public void prepareIteration() {
+        fs.delete(SCRATCH);
+        fs.createDirectory(SCRATCH);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fs.delete(SCRATCH);
+        BenchmarkEnvironment.tearDown();
+    }
+
+    /**
+     * 删除测试所用的文件池, 依赖外层状态, 在临时目录重建之后创建。
+     */
+    @State(Scope.Thread)
+    public static class DeletePool {
+        private int next;
+
+        @Setup(Level.Iteration)
+        public void createFiles(MutationBenchmark benchmark) {
+            for (int i = 0; i < DELETE_BATCH; i++) {
+                benchmark.fs.createFile(SCRATCH + "/delete-" + i);
+            }
+            next = 0;
+        }
+
+        String next() {
+            return SCRATCH + "/delete-" + next++;
+        }
+    }
+
+    @Benchmark
+    public void createDirectory() {
+        fs.createDirectory(SCRATCH + "/dir-" + ++counter);
+    }
+
+    @Benchmark
+    public void createFile() {
+        fs.createFile(SCRATCH + "/file-" + ++counter);
+    }
+
+    @Benchmark
+    public void echo() {
+        fs.echo(content, SCRATCH + "/echo-" + (++counter & 1023));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 3, batchSize = DELETE_BATCH)
+    @Measurement(iterations = 5, batchSize = DELETE_BATCH)
+    public void delete(DeletePool pool) {
+        fs.delete(pool.next());
+    }
+}
@@ -0,0 +1,60 @@
+package cn.autumnclouds.benchmark;
+
+import cn.autumnclouds.filesystem.FileSystem;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 文件读取基准测试, 覆盖 cat 及其区间、head、tail 形式。
+ *
+ * @author Fu Qiujie
+ * @since 2024/4/27
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ReadBenchmark {
+
+    @Param({"SMALL_FILES", "HUGE_FILES"})
+    private Dataset dataset;
+
+    @Param({"10", "1000"})
+    private int lines;
+
+    private FileSystem fs;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fs = BenchmarkEnvironment.setUp(dataset);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkEnvironment.tearDown();
+    }
+
+    @Benchmark
+    public void cat() {
+        fs.cat(dataset.samplePath());
+    }
+
+    @Benchmark
+    public void catRange() {
+        fs.cat(dataset.samplePath(), 1024, 128L * lines);
+    }
+
+    @Benchmark
+    public void head() {
+        fs.head(dataset.samplePath(), lines);
+    }
+
+    @Benchmark
+    public void tail() {
+        fs.tail(dataset.samplePath(), lines);
+    }
+}
@@ -0,0 +1,65 @@
+package cn.autumnclouds.benchmark;
+
+import cn.autumnclouds.filesystem.FileSystem;
+import cn.autumnclouds.filesystem.impl.SimpleFileSystem;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 压缩/解压基准测试, 参数为数据集、压缩级别和线程数。
+ *
+ * @author Fu Qiujie
+ * @since 2024/4/27
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ZipBenchmark {
+
+    @Param({"SMALL_FILES", "HUGE_FILES", "DEEP_TREE"})
+    private Dataset dataset;
+
+    @Param({"1", "6"})
+    private int level;
+
+    @Param({"1", "4"})
+    private int workers;
+
+    private FileSystem fs;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fs = BenchmarkEnvironment.setUp(dataset);
+        BenchmarkEnvironment.setProperty(SimpleFileSystem.UNZIP_PARALLELISM_PROPERTY, workers);
+        fs.createDirectory("/bench/out");
+        fs.compressFile(dataset.path(), "/bench/out/prepared.zip", level, workers);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fs.delete("/bench/out");
+        BenchmarkEnvironment.tearDown();
+    }
+
+    @Benchmark
+    public void compressFile() {
+        fs.compressFile(dataset.path(), "/bench/out/compressed.zip", level, workers);
+    }
+
+    @Benchmark
+    public void decompressFile() {
+        fs.decompressFile("/bench/out/prepared.zip", "/bench/out/decompressed", List.of());
+    }
+
+    @Benchmark
+    public void decompressSingleEntry() {
+        String entry = dataset.samplePath().substring("/bench/".length());
+        fs.decompressFile("/bench/out/prepared.zip", "/bench/out/single", List.of(entry));
+    }
+}
@@ -1,21 +1,103 @@
 package cn.autumnclouds;
 
 import cn.autumnclouds.command.CommandInterpreter;
+import cn.autumnclouds.filesystem.FileSystem;
+import cn.autumnclouds.filesystem.impl.MetricsFileSystem;
 import cn.autumnclouds.filesystem.impl.SimpleFileSystem;
+import cn.autumnclouds.filesystem.journal.JournalFileSystem;
+import cn.autumnclouds.filesystem.memory.MemoryFileSystem;
+import cn.autumnclouds.filesystem.mount.MountFileSystem;
+import cn.autumnclouds.script.ScriptRunner;
 
-import java.util.Scanner;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 
 /**
+ * 程序入口。
+ * <ul>
+ *     <li>无参数: 交互模式, 逐行读取并执行命令</li>
+ *     <li>-f script.fs: 执行脚本文件</li>
+ *     <li>-b: 将标准输入作为脚本批量执行</li>
+ *     <li>-j N: 脚本中后台命令(以 "&amp;" 结尾)的执行线程数, 默认为 CPU 核数</li>
+ *     <li>-m: 根目录使用内存文件系统代替磁盘, 数据在程序退出后丢失</li>
+ * </ul>
+ * 其他路径前缀上的挂载由系统属性 fs.mounts 配置, 见 {@link MountFileSystem}。
+ * 系统属性 fs.journal 指定日志文件时, 修改操作先写入预写日志再异步应用, 见 {@link JournalFileSystem}。
+ *
  * @author Fu Qiujie
  * @since 2024/3/17
  */
 public class Main {
-    public static void main(String[] args) {
-        CommandInterpreter commandInterpreter = new CommandInterpreter(SimpleFileSystem.getInstance(), "cn.autumnclouds.command.impl");
-        Scanner scanner = new Scanner(System.in);
+
+    private static final String USAGE = "usage: [-f script.fs | -b] [-j N] [-m]";
+
+    public static void main(String[] args) throws IOException {
+        String scriptFile = null;
+        boolean batch = false;
+        int workers = Runtime.getRuntime().availableProcessors();
+        boolean memory = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-f" -> {
+                    if (i + 1 == args.length) {
+                        printUsage("Missing value for option: -f");
+                        return;
+                    }
+                    scriptFile = args[++i];
+                }
+                case "-j" -> {
+                    workers = i + 1 == args.length ? 0 : parseWorkers(args[++i]);
+                    if (workers < 1) {
+                        printUsage("-j requires a positive thread count");
+                        return;
+                    }
+                }
+                case "-b" -> batch = true;
+                case "-m" -> memory = true;
+                default -> {
+                    printUsage("Unknown option: " + args[i]);
+                    return;
+                }
+            }
+        }
+        FileSystem fileSystem = memory ? new MemoryFileSystem() : SimpleFileSystem.getInstance();
+        CommandInterpreter commandInterpreter = new CommandInterpreter(new MetricsFileSystem(JournalFileSystem.fromProperties(MountFileSystem.fromProperties(fileSystem))), "cn.autumnclouds.command.impl");
+        if (scriptFile != null) {
+            try (BufferedReader reader = Files.newBufferedReader(Paths.get(scriptFile), StandardCharsets.UTF_8)) {
+                new ScriptRunner(commandInterpreter, workers).run(reader);
+            }
+            return;
+        }
+        if (batch) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+            new ScriptRunner(commandInterpreter, workers).run(reader);
+            return;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
         String command;
-        while (!"exit".equals(command = scanner.nextLine())) {
+        while ((command = reader.readLine()) != null && !"exit".equals(command)) {
+            String delimiter = CommandInterpreter.heredocDelimiter(command);
+            if (delimiter != null) {
+                command = command + "\n" + ScriptRunner.readHeredoc(reader, delimiter);
+            }
             commandInterpreter.interpretAndExecute(command);
         }
     }
+
+    private static int parseWorkers(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static void printUsage(String message) {
+        System.out.println(message);
+        System.out.println(USAGE);
+    }
 }
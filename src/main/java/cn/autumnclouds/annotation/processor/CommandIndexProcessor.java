@@ -0,0 +1,85 @@
+package cn.autumnclouds.annotation.processor;
+
+import cn.autumnclouds.annotation.CommandImpl;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * 命令索引注解处理器。
+ * 在编译期收集所有标记了 {@link CommandImpl} 的类, 写入 {@value #INDEX_RESOURCE},
+ * 命令解释器启动时直接读取该索引注册命令, 无需在运行时扫描类路径。
+ *
+ * @author Fu Qiujie
+ * @since 2024/4/20
+ */
+@SupportedAnnotationTypes("cn.autumnclouds.annotation.CommandImpl")
+public class CommandIndexProcessor extends AbstractProcessor {
+
+    /**
+     * 命令索引文件路径, 每行一个命令实现类的全限定名
+     */
+    public static final String INDEX_RESOURCE = "META-INF/cn.autumnclouds.commands";
+
+    private final Set<String> commandClasses = new TreeSet<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            writeIndex();
+            return false;
+        }
+        for (Element element : roundEnv.getElementsAnnotatedWith(CommandImpl.class)) {
+            if (element.getKind() == ElementKind.CLASS) {
+                commandClasses.add(((TypeElement) element).getQualifiedName().toString());
+            }
+        }
+        return false;
+    }
+
+    private void writeIndex() {
+        if (commandClasses.isEmpty()) {
+            return;
+        }
+        // 增量编译时只有部分源文件参与编译, 合并已有索引中的条目
+        try {
+            FileObject existing = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", INDEX_RESOURCE);
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(existing.openInputStream(), StandardCharsets.UTF_8))) {
+                reader.lines().map(String::trim).filter(line -> !line.isEmpty()).forEach(commandClasses::add);
+            }
+        } catch (IOException e) {
+            // 首次编译时索引文件不存在
+        }
+        try {
+            FileObject index = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", INDEX_RESOURCE);
+            try (Writer writer = index.openWriter()) {
+                for (String commandClass : commandClasses) {
+                    writer.write(commandClass);
+                    writer.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "failed to write command index: " + e.getMessage());
+        }
+    }
+}
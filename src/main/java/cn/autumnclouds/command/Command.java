@@ -3,6 +3,7 @@ package cn.autumnclouds.command;
 import cn.autumnclouds.filesystem.FileSystem;
 import cn.autumnclouds.filesystem.impl.SimpleFileSystem;
 
+import java.util.Collections;
 import java.util.Objects;
 import java.util.Set;
 
@@ -42,4 +43,13 @@ public interface Command {
      * @return 命令对象的名称
      */
     String getName();
+
+    /**
+     * 获取命令对象的别名，命令解释器按名称和别名分派命令。
+     *
+     * @return 命令对象的别名集合
+     */
+    default Set<String> getAliases() {
+        return Collections.emptySet();
+    }
 }
\ No newline at end of file
@@ -1,11 +1,17 @@
 package cn.autumnclouds.command;
 
 import cn.autumnclouds.annotation.CommandImpl;
+import cn.autumnclouds.annotation.processor.CommandIndexProcessor;
 import cn.autumnclouds.filesystem.FileSystem;
 import cn.hutool.core.util.ClassUtil;
 import cn.hutool.core.util.StrUtil;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 /**
@@ -19,40 +25,85 @@ import java.util.*;
  * @since 2024/3/16
  */
 public class CommandInterpreter {
-    // 存储注册的命令对象集合
-    private final Set<Command> commands = new HashSet<>();
+    // 默认的命令包
+    private static final String DEFAULT_COMMANDS_PACKAGE = "cn.autumnclouds.command.impl";
+
+    // here document 的起始标记前缀
+    private static final String HEREDOC_PREFIX = "<<";
+
+    // 命令名称(含别名)到命令对象的索引
+    private final Map<String, Command> commands = new HashMap<>();
+    // 自定义了 isMatch 匹配逻辑的命令, 名称索引未命中时再逐个匹配
+    private final List<Command> customMatchCommands = new ArrayList<>();
     private FileSystem fs;
 
     /**
      * 构造函数，创建命令解释器对象并关联指定的文件系统。
+     * 优先从编译期生成的命令索引中注册命令，索引不存在时扫描默认命令包。
      *
      * @param fs 文件系统对象
      */
     public CommandInterpreter(FileSystem fs) {
-        // 调用另一个构造函数，指定命令包的默认路径
-        new CommandInterpreter(fs, this.getClass().getPackageName());
+        this(fs, DEFAULT_COMMANDS_PACKAGE);
     }
 
     /**
-     * 构造函数，创建命令解释器对象并关联指定的文件系统，并从指定的包中扫描并注册命令。
+     * 构造函数，创建命令解释器对象并关联指定的文件系统，并注册指定包中的命令。
+     * 优先从编译期生成的命令索引中查找该包下的命令，索引不存在时扫描该包。
      *
      * @param fs              文件系统对象
      * @param commandsPackage 命令包的路径
      */
     public CommandInterpreter(FileSystem fs, String commandsPackage) {
         this.fs = fs;
-        // 扫描指定包下的类，并注册带有 CommandImpl 注解的命令类
-        ClassUtil.scanPackage(commandsPackage).stream()
-                .filter(clazz -> clazz.isAnnotationPresent(CommandImpl.class))
-                .forEach(clazz -> {
-                    try {
-                        // 实例化命令对象，并注册到命令解释器中
-                        registerCommand((Command) clazz.getDeclaredConstructor().newInstance());
-                    } catch (InvocationTargetException | InstantiationException | IllegalAccessException |
-                             NoSuchMethodException e) {
-                        throw new RuntimeException(e);
-                    }
-                });
+        List<String> indexedClasses = readCommandIndex();
+        if (indexedClasses.isEmpty()) {
+            // 未经注解处理器编译(如在 IDE 中直接运行)时没有索引, 退回到扫描指定包下的类
+            ClassUtil.scanPackage(commandsPackage).stream()
+                    .filter(clazz -> clazz.isAnnotationPresent(CommandImpl.class))
+                    .forEach(this::registerCommand);
+            return;
+        }
+        for (String className : indexedClasses) {
+            if (!className.startsWith(commandsPackage + ".")) {
+                continue;
+            }
+            try {
+                registerCommand(Class.forName(className));
+            } catch (ClassNotFoundException e) {
+                // 增量编译后索引中可能残留已删除的命令类
+            }
+        }
+    }
+
+    /**
+     * 读取编译期生成的命令索引。
+     *
+     * @return 命令实现类的全限定名列表，索引不存在时返回空列表
+     */
+    private static List<String> readCommandIndex() {
+        List<String> classNames = new ArrayList<>();
+        try {
+            Enumeration<URL> resources = CommandInterpreter.class.getClassLoader().getResources(CommandIndexProcessor.INDEX_RESOURCE);
+            while (resources.hasMoreElements()) {
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(resources.nextElement().openStream(), StandardCharsets.UTF_8))) {
+                    reader.lines().map(String::trim).filter(line -> !line.isEmpty()).forEach(classNames::add);
+                }
+            }
+        } catch (IOException e) {
+            return List.of();
+        }
+        return classNames;
+    }
+
+    private void registerCommand(Class<?> clazz) {
+        try {
+            // 实例化命令对象，并注册到命令解释器中
+            registerCommand((Command) clazz.getDeclaredConstructor().newInstance());
+        } catch (InvocationTargetException | InstantiationException | IllegalAccessException |
+                 NoSuchMethodException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     /**
@@ -61,11 +112,38 @@ public class CommandInterpreter {
      * @param command 要注册的命令对象
      */
     public void registerCommand(Command command) {
-        commands.add(command);
+        commands.put(command.getName(), command);
+        for (String alias : command.getAliases()) {
+            commands.putIfAbsent(alias, command);
+        }
+        try {
+            if (command.getClass().getMethod("isMatch", String.class).getDeclaringClass() != Command.class) {
+                customMatchCommands.add(command);
+            }
+        } catch (NoSuchMethodException e) {
+            // isMatch 为接口方法, 不会出现
+        }
+    }
+
+    /**
+     * 获取命令行中 here document 的结束标记, 如 "echo &lt;&lt;EOF &gt;&gt; log" 中的 EOF。
+     * 读取命令的一方应继续读取后续各行直到结束标记行, 将它们附加在命令行之后一并交给 interpretAndExecute。
+     *
+     * @param commandLine 命令行
+     * @return 结束标记, 命令中没有 here document 时返回 null
+     */
+    public static String heredocDelimiter(String commandLine) {
+        for (String token : commandLine.split(" ")) {
+            if (token.startsWith(HEREDOC_PREFIX) && token.length() > HEREDOC_PREFIX.length()) {
+                return token.substring(HEREDOC_PREFIX.length());
+            }
+        }
+        return null;
     }
 
     /**
      * 解释并执行用户输入的命令。
+     * 命令字符串包含多行时, 第一行为命令, 其余各行为 here document 的内容, 作为一个参数替换命令中的 "&lt;&lt;TAG"。
      *
      * @param commandString 用户输入的命令字符串
      */
@@ -75,13 +153,25 @@ public class CommandInterpreter {
             System.out.println("Unknown command: " + commandString);
             return;
         }
+        String heredoc = null;
+        int lineEnd = commandString.indexOf('\n');
+        if (lineEnd >= 0) {
+            heredoc = commandString.substring(lineEnd + 1);
+            commandString = commandString.substring(0, lineEnd);
+        }
         // 解析命令字符串，获取命令名称、选项和参数
         String[] tokens = commandString.split(" ");
         String commandName = tokens[0];
         Set<Character> options = new HashSet<>();
         List<String> args = new ArrayList<>();
         for (int i = 1; i < tokens.length; i++) {
-            if (tokens[i].startsWith("-")) {
+            if (heredoc != null && tokens[i].startsWith(HEREDOC_PREFIX)) {
+                args.add(heredoc);
+                heredoc = null;
+            } else if (tokens[i].startsWith("--")) {
+                // 长选项原样保留在参数中, 由命令通过 LongOptions 自行解析
+                args.add(tokens[i]);
+            } else if (tokens[i].startsWith("-")) {
                 for (int j = 1; j < tokens[i].length(); j++) {
                     options.add(tokens[i].charAt(j));
                 }
@@ -90,11 +180,18 @@ public class CommandInterpreter {
             }
         }
 
-        // 查找匹配的命令对象，并执行对应的命令
-        commands.stream()
-                .filter(command -> command.isMatch(commandName))
-                .findFirst()
-                .ifPresentOrElse(command -> command.execute(fs, options, args.toArray(String[]::new))
-                        , () -> System.out.println("Unknown command: " + commandString));
+        // 按名称查找命令对象，未命中时再尝试自定义匹配逻辑的命令
+        Command command = commands.get(commandName);
+        if (command == null) {
+            command = customMatchCommands.stream()
+                    .filter(candidate -> candidate.isMatch(commandName))
+                    .findFirst()
+                    .orElse(null);
+        }
+        if (command == null) {
+            System.out.println("Unknown command: " + commandString);
+            return;
+        }
+        command.execute(fs, options, args.toArray(String[]::new));
     }
 }
\ No newline at end of file
@@ -0,0 +1,101 @@
+package cn.autumnclouds.command;
+
+import cn.autumnclouds.entity.vo.FileVo;
+
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Locale;
+import java.util.function.Predicate;
+
+/**
+ * 根据长选项构造条目过滤条件, 供 find、grep 等命令使用。
+ * <ul>
+ *     <li>--name=GLOB: 名称匹配 glob 模式, 如 --name=*.log</li>
+ *     <li>--type=f|d: 只匹配文件或目录</li>
+ *     <li>--size=[+|-]N[k|M|G]: 大小大于(+)、小于(-)或等于 N 字节</li>
+ *     <li>--mtime=[+|-]N: 最后修改于 N 天以前(+)、N 天以内(-)或恰好 N 天前</li>
+ * </ul>
+ *
+ * @author Fu Qiujie
+ * @since 2024/5/9
+ */
+public class FileFilters {
+
+    private FileFilters() {
+    }
+
+    /**
+     * 根据长选项构造过滤条件, 未指定任何过滤选项时匹配所有条目。
+     *
+     * @param options 长选项
+     * @return 过滤条件
+     * @throws IllegalArgumentException 选项的值格式不正确
+     */
+    public static Predicate<FileVo> parse(LongOptions options) {
+        Predicate<FileVo> filter = vo -> true;
+        if (options.has("name")) {
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + options.get("name", "*"));
+            filter = filter.and(vo -> matcher.matches(Paths.get(vo.getName())));
+        }
+        if (options.has("type")) {
+            String type = switch (options.get("type", "")) {
+                case "f" -> "file";
+                case "d" -> "dir";
+                default -> throw new IllegalArgumentException("invalid type: " + options.get("type", ""));
+            };
+            filter = filter.and(vo -> type.equals(vo.getType()));
+        }
+        if (options.has("size")) {
+            String value = options.get("size", "");
+            int sign = sign(value);
+            long size = parseSize(sign == 0 ? value : value.substring(1));
+            filter = filter.and(vo -> "file".equals(vo.getType()) && compare(vo.getSize(), size, sign));
+        }
+        if (options.has("mtime")) {
+            String value = options.get("mtime", "");
+            int sign = sign(value);
+            long days = parseNumber(sign == 0 ? value : value.substring(1));
+            LocalDateTime now = LocalDateTime.now();
+            filter = filter.and(vo -> compare(Duration.between(vo.getLastModifiedTime(), now).toDays(), days, sign));
+        }
+        return filter;
+    }
+
+    private static int sign(String value) {
+        if (value.startsWith("+")) {
+            return 1;
+        }
+        return value.startsWith("-") ? -1 : 0;
+    }
+
+    private static boolean compare(long actual, long expected, int sign) {
+        if (sign > 0) {
+            return actual > expected;
+        }
+        return sign < 0 ? actual < expected : actual == expected;
+    }
+
+    private static long parseSize(String value) {
+        if (value.isEmpty()) {
+            throw new IllegalArgumentException("invalid size: " + value);
+        }
+        long unit = switch (value.toLowerCase(Locale.ROOT).charAt(value.length() - 1)) {
+            case 'k' -> 1024L;
+            case 'm' -> 1024L * 1024;
+            case 'g' -> 1024L * 1024 * 1024;
+            default -> 1;
+        };
+        return parseNumber(unit == 1 ? value : value.substring(0, value.length() - 1)) * unit;
+    }
+
+    private static long parseNumber(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid number: " + value);
+        }
+    }
+}
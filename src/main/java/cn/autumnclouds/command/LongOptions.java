@@ -0,0 +1,88 @@
+package cn.autumnclouds.command;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 长选项解析工具, 用于解析命令参数中形如 "--name=value" 或 "--name" 的长选项。
+ * 命令解释器只将 "-x" 形式的单字符选项解析为选项集合, 长选项原样保留在参数中, 由各命令自行解析。
+ *
+ * @author Fu Qiujie
+ * @since 2024/4/16
+ */
+public class LongOptions {
+
+    private final Map<String, String> options = new HashMap<>();
+    private final List<String> arguments = new ArrayList<>();
+
+    private LongOptions() {
+    }
+
+    /**
+     * 从命令参数中分离长选项和普通参数。
+     *
+     * @param args 命令参数
+     * @return 解析结果
+     */
+    public static LongOptions parse(String... args) {
+        LongOptions result = new LongOptions();
+        for (String arg : args) {
+            if (arg.startsWith("--") && arg.length() > 2) {
+                int separator = arg.indexOf('=');
+                if (separator < 0) {
+                    result.options.put(arg.substring(2), "");
+                } else {
+                    result.options.put(arg.substring(2, separator), arg.substring(separator + 1));
+                }
+            } else {
+                result.arguments.add(arg);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 判断是否指定了长选项。
+     *
+     * @param name 选项名称
+     * @return 指定了该选项时返回 true
+     */
+    public boolean has(String name) {
+        return options.containsKey(name);
+    }
+
+    /**
+     * 获取长选项的值。
+     *
+     * @param name         选项名称
+     * @param defaultValue 未指定该选项时的默认值
+     * @return 选项的值
+     */
+    public String get(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    /**
+     * 获取整数类型的长选项的值。
+     *
+     * @param name         选项名称
+     * @param defaultValue 未指定该选项时的默认值
+     * @return 选项的值
+     * @throws NumberFormatException 选项的值不是整数
+     */
+    public int getInt(String name, int defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    /**
+     * 获取除长选项以外的普通参数。
+     *
+     * @return 普通参数
+     */
+    public List<String> getArguments() {
+        return arguments;
+    }
+}
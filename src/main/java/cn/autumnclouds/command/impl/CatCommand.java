@@ -7,6 +7,14 @@ import cn.autumnclouds.filesystem.FileSystem;
 import java.util.Set;
 
 /**
+ * 显示文件内容。
+ * <ul>
+ *     <li>cat file: 显示整个文件</li>
+ *     <li>cat -h file [n]: 显示文件开头 n 行(默认 10 行)</li>
+ *     <li>cat -t file [n]: 显示文件末尾 n 行(默认 10 行)</li>
+ *     <li>cat -c file offset [length]: 显示从 offset 开始的 length 个字节(默认到文件末尾)</li>
+ * </ul>
+ *
  * @author Fu Qiujie
  * @since 2024/3/23
  */
@@ -14,9 +22,27 @@ import java.util.Set;
 public class CatCommand implements Command {
     public static final String NAME = "cat";
 
+    private static final int DEFAULT_LINES = 10;
+
     @Override
     public void execute(FileSystem fs, Set<Character> options, String... args) {
-        fs.cat(args[0]);
+        if (args.length == 0 || options.contains('c') && args.length < 2) {
+            System.out.println("usage: cat file | cat -h file [n] | cat -t file [n] | cat -c file offset [length]");
+            return;
+        }
+        try {
+            if (options.contains('h')) {
+                fs.head(args[0], args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_LINES);
+            } else if (options.contains('t')) {
+                fs.tail(args[0], args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_LINES);
+            } else if (options.contains('c')) {
+                fs.cat(args[0], Long.parseLong(args[1]), args.length > 2 ? Long.parseLong(args[2]) : -1);
+            } else {
+                fs.cat(args[0]);
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("invalid number: " + e.getMessage());
+        }
     }
 
     @Override
@@ -8,6 +8,9 @@ import java.io.IOException;
 import java.util.Set;
 
 /**
+ * cp [-d] src dest: 复制文件或目录, -d 在后台执行。
+ * cp -c [-l] src dest: 按内容去重复制, 跳过未变化的文件和分块, -l 以硬链接代替新文件的拷贝。
+ *
  * @author Fu Qiujie
  * @since 2024/3/16
  */
@@ -17,6 +20,10 @@ public class CopyCommand implements Command {
 
     @Override
     public void execute(FileSystem fs, Set<Character> options, String... args) {
+        if (options.contains('c')) {
+            fs.dedupCopy(args[0], args[1], options.contains('l'));
+            return;
+        }
         boolean runInBackground = options.contains('d');
         fs.copy(args[0], args[1], runInBackground);
     }
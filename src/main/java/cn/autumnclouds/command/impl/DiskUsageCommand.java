@@ -0,0 +1,96 @@
+package cn.autumnclouds.command.impl;
+
+import cn.autumnclouds.annotation.CommandImpl;
+import cn.autumnclouds.command.Command;
+import cn.autumnclouds.command.LongOptions;
+import cn.autumnclouds.filesystem.FileSystem;
+import cn.autumnclouds.filesystem.cache.DirectoryUsage;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 统计目录的空间占用, 默认为当前目录。
+ * <ul>
+ *     <li>du [dir]: 输出各直接子目录及目录本身的总大小、文件数</li>
+ *     <li>du [dir] --top=N: 输出目录下(任意层级)占用空间最大的 N 个子目录</li>
+ *     <li>-b: 以字节为单位输出, 默认输出带单位的大小</li>
+ * </ul>
+ *
+ * @author Fu Qiujie
+ * @since 2024/5/17
+ */
+@CommandImpl
+public class DiskUsageCommand implements Command {
+    public static final String NAME = "du";
+
+    @Override
+    public void execute(FileSystem fs, Set<Character> options, String... args) {
+        LongOptions longOptions = LongOptions.parse(args);
+        List<String> arguments = longOptions.getArguments();
+        String directory = arguments.isEmpty() ? "." : arguments.get(0);
+        boolean bytes = options.contains('b');
+        if (longOptions.has("top")) {
+            int top;
+            try {
+                top = longOptions.getInt("top", 10);
+            } catch (NumberFormatException e) {
+                System.out.println("invalid number: " + e.getMessage());
+                return;
+            }
+            if (top <= 0) {
+                System.out.println("top must be positive");
+                return;
+            }
+            DirectoryUsage root = fs.diskUsage(directory);
+            if (root == null) {
+                return;
+            }
+            for (DirectoryUsage usage : fs.largestDirectories(directory, top)) {
+                print(directory, root.directory(), usage, bytes);
+            }
+            return;
+        }
+        DirectoryUsage root = fs.diskUsage(directory);
+        if (root == null) {
+            return;
+        }
+        for (Path subdirectory : root.subdirectories()) {
+            DirectoryUsage usage = fs.diskUsage(directory + "/" + subdirectory.getFileName());
+            if (usage != null) {
+                print(directory, root.directory(), usage, bytes);
+            }
+        }
+        print(directory, root.directory(), root, bytes);
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    /**
+     * 以 "大小  文件数  路径" 的格式输出, 路径以命令参数给出的目录开头。
+     */
+    private static void print(String directory, Path root, DirectoryUsage usage, boolean bytes) {
+        String relative = root.relativize(usage.directory()).toString().replace('\\', '/');
+        String path = relative.isEmpty() ? directory : directory + "/" + relative;
+        String size = bytes ? String.valueOf(usage.bytes()) : humanReadable(usage.bytes());
+        System.out.printf("%10s  %8d files  %s\n", size, usage.files(), path);
+    }
+
+    private static String humanReadable(long bytes) {
+        if (bytes < 1024) {
+            return bytes + "B";
+        }
+        String units = "KMGTPE";
+        double value = bytes;
+        int unit = -1;
+        while (value >= 1024 && unit < units.length() - 1) {
+            value /= 1024;
+            unit++;
+        }
+        return String.format("%.1f%c", value, units.charAt(unit));
+    }
+}
@@ -4,9 +4,15 @@ import cn.autumnclouds.annotation.CommandImpl;
 import cn.autumnclouds.command.Command;
 import cn.autumnclouds.filesystem.FileSystem;
 
+import java.util.Arrays;
 import java.util.Set;
 
 /**
+ * echo content file: 将内容写入文件, 覆盖文件原有内容。
+ * echo content... &gt; file: 同上, 重定向符之前的所有参数以空格连接并以换行结尾作为内容。
+ * echo content... &gt;&gt; file: 将内容追加到文件末尾。
+ * echo &lt;&lt;TAG [&gt;|&gt;&gt;] file: 写入之后直到 TAG 行之前的多行内容(here document)。
+ *
  * @author Fu Qiujie
  * @since 2024/3/23
  */
@@ -16,6 +22,21 @@ public class EchoCommand implements Command {
 
     @Override
     public void execute(FileSystem fs, Set<Character> options, String... args) {
+        for (int i = 0; i < args.length; i++) {
+            if (">".equals(args[i]) || ">>".equals(args[i])) {
+                if (i != args.length - 2) {
+                    break;
+                }
+                // 与 shell 一致, 重定向写入的内容以换行结尾
+                String content = String.join(" ", Arrays.asList(args).subList(0, i));
+                fs.echo(content.endsWith("\n") ? content : content + "\n", args[i + 1], ">>".equals(args[i]));
+                return;
+            }
+        }
+        if (args.length != 2) {
+            System.out.println("usage: echo content [>|>>] file");
+            return;
+        }
         fs.echo(args[0], args[1]);
     }
 
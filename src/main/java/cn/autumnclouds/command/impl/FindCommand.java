@@ -0,0 +1,43 @@
+package cn.autumnclouds.command.impl;
+
+import cn.autumnclouds.annotation.CommandImpl;
+import cn.autumnclouds.command.Command;
+import cn.autumnclouds.command.FileFilters;
+import cn.autumnclouds.command.LongOptions;
+import cn.autumnclouds.entity.vo.FileVo;
+import cn.autumnclouds.filesystem.FileSystem;
+
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * find [dir] [--name=GLOB] [--type=f|d] [--size=[+|-]N[k|M|G]] [--mtime=[+|-]N]:
+ * 在目录树中并行查找条目, 默认从当前目录开始, 结果边查找边输出。
+ *
+ * @author Fu Qiujie
+ * @since 2024/5/9
+ */
+@CommandImpl
+public class FindCommand implements Command {
+    public static final String NAME = "find";
+
+    @Override
+    public void execute(FileSystem fs, Set<Character> options, String... args) {
+        LongOptions longOptions = LongOptions.parse(args);
+        List<String> arguments = longOptions.getArguments();
+        Predicate<FileVo> filter;
+        try {
+            filter = FileFilters.parse(longOptions);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            return;
+        }
+        fs.find(arguments.isEmpty() ? "." : arguments.get(0), filter, System.out::println);
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+}
@@ -0,0 +1,47 @@
+package cn.autumnclouds.command.impl;
+
+import cn.autumnclouds.annotation.CommandImpl;
+import cn.autumnclouds.command.Command;
+import cn.autumnclouds.command.FileFilters;
+import cn.autumnclouds.command.LongOptions;
+import cn.autumnclouds.entity.vo.FileVo;
+import cn.autumnclouds.filesystem.FileSystem;
+
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * grep text [dir] [--name=GLOB] [--size=...] [--mtime=...]:
+ * 在目录树中并行查找包含指定文本的行, 默认从当前目录开始, 结果边查找边输出, 二进制文件被跳过。
+ *
+ * @author Fu Qiujie
+ * @since 2024/5/9
+ */
+@CommandImpl
+public class GrepCommand implements Command {
+    public static final String NAME = "grep";
+
+    @Override
+    public void execute(FileSystem fs, Set<Character> options, String... args) {
+        LongOptions longOptions = LongOptions.parse(args);
+        List<String> arguments = longOptions.getArguments();
+        if (arguments.isEmpty() || arguments.get(0).isEmpty()) {
+            System.out.println("usage: grep text [dir] [--name=GLOB] [--size=...] [--mtime=...]");
+            return;
+        }
+        Predicate<FileVo> filter;
+        try {
+            filter = FileFilters.parse(longOptions);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            return;
+        }
+        fs.grep(arguments.size() > 1 ? arguments.get(1) : ".", arguments.get(0), filter, System.out::println);
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+}
@@ -0,0 +1,42 @@
+package cn.autumnclouds.command.impl;
+
+import cn.autumnclouds.annotation.CommandImpl;
+import cn.autumnclouds.command.Command;
+import cn.autumnclouds.filesystem.FileSystem;
+import cn.autumnclouds.job.Job;
+import cn.autumnclouds.job.JobScheduler;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 列出后台任务的编号、状态和进度。已结束的任务列出一次后移除。
+ *
+ * @author Fu Qiujie
+ * @since 2024/4/2
+ */
+@CommandImpl
+public class JobsCommand implements Command {
+    public static final String NAME = "jobs";
+
+    @Override
+    public void execute(FileSystem fs, Set<Character> options, String... args) {
+        JobScheduler scheduler = JobScheduler.getInstance();
+        List<Job> jobs = scheduler.listJobs();
+        if (jobs.isEmpty()) {
+            System.out.println("No jobs.");
+            return;
+        }
+        // 只移除显示时已经结束的任务, 显示之后才结束的任务留到下一次
+        List<Job> finished = jobs.stream().filter(Job::isFinished).toList();
+        for (Job job : jobs) {
+            System.out.println(job);
+        }
+        scheduler.removeFinished(finished);
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+}
@@ -0,0 +1,37 @@
+package cn.autumnclouds.command.impl;
+
+import cn.autumnclouds.annotation.CommandImpl;
+import cn.autumnclouds.command.Command;
+import cn.autumnclouds.filesystem.FileSystem;
+import cn.autumnclouds.job.JobScheduler;
+
+import java.util.Set;
+
+/**
+ * 取消指定编号的后台任务: kill id...。排队中的任务不再执行, 执行中的任务在下一次上报进度时中止。
+ *
+ * @author Fu Qiujie
+ * @since 2024/4/2
+ */
+@CommandImpl
+public class KillCommand implements Command {
+    public static final String NAME = "kill";
+
+    @Override
+    public void execute(FileSystem fs, Set<Character> options, String... args) {
+        for (String arg : args) {
+            try {
+                if (!JobScheduler.getInstance().cancel(Long.parseLong(arg))) {
+                    System.out.println("no such job: " + arg);
+                }
+            } catch (NumberFormatException e) {
+                System.out.println("invalid job id: " + arg);
+            }
+        }
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+}
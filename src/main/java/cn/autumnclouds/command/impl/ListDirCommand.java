@@ -2,15 +2,26 @@ package cn.autumnclouds.command.impl;
 
 import cn.autumnclouds.annotation.CommandImpl;
 import cn.autumnclouds.command.Command;
+import cn.autumnclouds.command.LongOptions;
 import cn.autumnclouds.entity.vo.FileVo;
 import cn.autumnclouds.filesystem.FileSystem;
 
-import java.io.File;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
 import java.util.Set;
 
 /**
+ * 列出当前目录的内容。
+ * <ul>
+ *     <li>-n / -t / -s: 按名称 / 修改时间 / 大小排序, -r 逆序</li>
+ *     <li>-u: 不排序, 边读取目录边输出</li>
+ *     <li>--limit=N --page=P: 分页, 只输出排序后第 P 页(从 1 开始)的 N 个条目</li>
+ *     <li>--top=K: 按排序字段逆序输出前 K 个条目, 如 -t --top=10 输出最新的 10 个条目</li>
+ * </ul>
+ * 指定分页时使用容量为 N*P 的有界堆选出所需条目, 内存占用与目录大小无关。
+ *
  * @author Fu Qiujie
  * @since 2024/3/16
  */
@@ -20,14 +31,32 @@ public class ListDirCommand implements Command {
 
     @Override
     public void execute(FileSystem fs, Set<Character> options, String... args) {
-        File[] files = fs.listContents();
-        if (files == null || files.length == 0) {
-            System.out.println("Empty directory.");
+        LongOptions longOptions = LongOptions.parse(args);
+        int limit;
+        int page;
+        try {
+            limit = longOptions.getInt("top", longOptions.getInt("limit", -1));
+            page = longOptions.getInt("page", 1);
+        } catch (NumberFormatException e) {
+            System.out.println("invalid number: " + e.getMessage());
             return;
         }
-        FileVo[] fileVos = Arrays.stream(files).map(FileVo::new).sorted(getComparator(options)).toArray(FileVo[]::new);
-        for (FileVo fileVo : fileVos) {
-            System.out.println(fileVo);
+        if (((longOptions.has("limit") || longOptions.has("top")) && limit <= 0) || page <= 0) {
+            System.out.println("limit and page must be positive");
+            return;
+        }
+        boolean empty;
+        if (options.contains('u')) {
+            empty = printUnsorted(fs, limit, page);
+        } else {
+            Comparator<FileVo> comparator = getComparator(options);
+            if (longOptions.has("top")) {
+                comparator = comparator.reversed();
+            }
+            empty = limit < 0 ? printSorted(fs, comparator) : printPage(fs, comparator, limit, page);
+        }
+        if (empty) {
+            System.out.println("Empty directory.");
         }
     }
 
@@ -36,6 +65,65 @@ public class ListDirCommand implements Command {
         return NAME;
     }
 
+    @Override
+    public Set<String> getAliases() {
+        return Set.of("dir");
+    }
+
+    /**
+     * 不排序, 边读取目录边输出, 输出足够的条目后立即停止读取。
+     *
+     * @return 目录为空时返回 true
+     */
+    private static boolean printUnsorted(FileSystem fs, int limit, int page) {
+        long skip = limit < 0 ? 0 : (long) limit * (page - 1);
+        long[] seen = {0};
+        fs.listContents(fileVo -> {
+            long index = seen[0]++;
+            if (index >= skip) {
+                System.out.println(fileVo);
+            }
+            return limit < 0 || index + 1 < skip + limit;
+        });
+        return seen[0] == 0;
+    }
+
+    private static boolean printSorted(FileSystem fs, Comparator<FileVo> comparator) {
+        List<FileVo> fileVos = new ArrayList<>();
+        fs.listContents(fileVos::add);
+        fileVos.sort(comparator);
+        for (FileVo fileVo : fileVos) {
+            System.out.println(fileVo);
+        }
+        return fileVos.isEmpty();
+    }
+
+    /**
+     * 使用有界堆选出排序后第 page 页的条目, 堆顶始终是当前保留的条目中排序最靠后的一个。
+     */
+    private static boolean printPage(FileSystem fs, Comparator<FileVo> comparator, int limit, int page) {
+        int capacity = (int) Math.min(Integer.MAX_VALUE - 8, (long) limit * page);
+        PriorityQueue<FileVo> heap = new PriorityQueue<>(Math.min(capacity, 1024), comparator.reversed());
+        boolean[] empty = {true};
+        fs.listContents(fileVo -> {
+            empty[0] = false;
+            if (heap.size() < capacity) {
+                heap.add(fileVo);
+            } else if (comparator.compare(fileVo, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(fileVo);
+            }
+            return true;
+        });
+        List<FileVo> top = new ArrayList<>(heap);
+        top.sort(comparator);
+        long skip = (long) limit * (page - 1);
+        for (long i = skip; i < top.size(); i++) {
+            System.out.println(top.get((int) i));
+        }
+        return empty[0];
+    }
+
     private static Comparator<FileVo> getComparator(Set<Character> options) {
         Comparator<FileVo> comparator = Comparator.comparing(FileVo::getName);
         if (options == null) {
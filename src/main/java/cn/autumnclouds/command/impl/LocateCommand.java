@@ -0,0 +1,50 @@
+package cn.autumnclouds.command.impl;
+
+import cn.autumnclouds.annotation.CommandImpl;
+import cn.autumnclouds.command.Command;
+import cn.autumnclouds.command.LongOptions;
+import cn.autumnclouds.filesystem.FileSystem;
+import cn.autumnclouds.filesystem.index.PathIndex;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 通过路径索引查找条目, 不遍历目录树。
+ * <ul>
+ *     <li>locate name: 名称等于 name 的条目</li>
+ *     <li>locate prefix*: 名称以 prefix 开头的条目</li>
+ *     <li>locate --ext=log: 扩展名为 log 的条目</li>
+ *     <li>locate --under=dir: 目录 dir 下的所有条目</li>
+ * </ul>
+ *
+ * @author Fu Qiujie
+ * @since 2024/5/13
+ */
+@CommandImpl
+public class LocateCommand implements Command {
+    public static final String NAME = "locate";
+
+    @Override
+    public void execute(FileSystem fs, Set<Character> options, String... args) {
+        LongOptions longOptions = LongOptions.parse(args);
+        List<String> arguments = longOptions.getArguments();
+        if (longOptions.has("ext")) {
+            fs.locate(PathIndex.QueryType.EXTENSION, longOptions.get("ext", ""), System.out::println);
+        } else if (longOptions.has("under")) {
+            fs.locate(PathIndex.QueryType.PATH_PREFIX, longOptions.get("under", "."), System.out::println);
+        } else if (!arguments.isEmpty() && arguments.get(0).endsWith("*")) {
+            String prefix = arguments.get(0);
+            fs.locate(PathIndex.QueryType.NAME_PREFIX, prefix.substring(0, prefix.length() - 1), System.out::println);
+        } else if (!arguments.isEmpty()) {
+            fs.locate(PathIndex.QueryType.NAME, arguments.get(0), System.out::println);
+        } else {
+            System.out.println("usage: locate name | locate prefix* | locate --ext=EXT | locate --under=DIR");
+        }
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+}
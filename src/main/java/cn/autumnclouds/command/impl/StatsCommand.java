@@ -0,0 +1,49 @@
+package cn.autumnclouds.command.impl;
+
+import cn.autumnclouds.annotation.CommandImpl;
+import cn.autumnclouds.command.Command;
+import cn.autumnclouds.filesystem.FileSystem;
+import cn.autumnclouds.metrics.FileSystemMetrics;
+import cn.autumnclouds.metrics.OperationMetrics;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 显示各文件系统操作的调用次数、错误数、读写字节数和延迟分位数(微秒), -r 清空统计。
+ *
+ * @author Fu Qiujie
+ * @since 2024/4/30
+ */
+@CommandImpl
+public class StatsCommand implements Command {
+    public static final String NAME = "stats";
+
+    @Override
+    public void execute(FileSystem fs, Set<Character> options, String... args) {
+        FileSystemMetrics metrics = FileSystemMetrics.getInstance();
+        if (options.contains('r')) {
+            metrics.reset();
+            return;
+        }
+        List<OperationMetrics> operations = metrics.list();
+        if (operations.isEmpty()) {
+            System.out.println("No statistics.");
+            return;
+        }
+        System.out.printf("%-8s %8s %6s %12s %12s %10s %10s %10s %10s %10s\n",
+                "op", "calls", "errors", "read", "written", "mean(us)", "p50(us)", "p99(us)", "p999(us)", "max(us)");
+        for (OperationMetrics operation : operations) {
+            System.out.printf("%-8s %8d %6d %12d %12d %10.1f %10d %10d %10d %10d\n",
+                    operation.getOperation(), operation.getCalls(), operation.getErrors(),
+                    operation.getBytesRead(), operation.getBytesWritten(), operation.getMeanLatencyMicros(),
+                    operation.getP50LatencyMicros(), operation.getP99LatencyMicros(),
+                    operation.getP999LatencyMicros(), operation.getMaxLatencyMicros());
+        }
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+}
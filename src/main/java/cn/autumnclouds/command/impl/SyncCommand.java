@@ -0,0 +1,40 @@
+package cn.autumnclouds.command.impl;
+
+import cn.autumnclouds.annotation.CommandImpl;
+import cn.autumnclouds.command.Command;
+import cn.autumnclouds.command.LongOptions;
+import cn.autumnclouds.filesystem.FileSystem;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * sync src dest [--delta] [--delete]: 增量同步目录。
+ * <ul>
+ *     <li>--delta: 变化的文件通过滚动校验只传输不同的部分</li>
+ *     <li>--delete: 删除源目录中不存在的目标条目</li>
+ * </ul>
+ *
+ * @author Fu Qiujie
+ * @since 2024/5/6
+ */
+@CommandImpl
+public class SyncCommand implements Command {
+    public static final String NAME = "sync";
+
+    @Override
+    public void execute(FileSystem fs, Set<Character> options, String... args) {
+        LongOptions longOptions = LongOptions.parse(args);
+        List<String> arguments = longOptions.getArguments();
+        if (arguments.size() < 2) {
+            System.out.println("usage: sync src dest [--delta] [--delete]");
+            return;
+        }
+        fs.sync(arguments.get(0), arguments.get(1), longOptions.has("delta"), longOptions.has("delete"));
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+}
@@ -4,9 +4,13 @@ import cn.autumnclouds.annotation.CommandImpl;
 import cn.autumnclouds.command.Command;
 import cn.autumnclouds.filesystem.FileSystem;
 
+import java.util.Arrays;
 import java.util.Set;
 
 /**
+ * 解压文件: unzip src dest [pattern...]。
+ * 指定 pattern(条目名称或 glob 模式)时只解压匹配的条目。
+ *
  * @author Fu Qiujie
  * @since 2024/3/25
  */
@@ -16,7 +20,7 @@ public class UnzipCommand implements Command {
 
     @Override
     public void execute(FileSystem fs, Set<Character> options, String... args) {
-        fs.decompressFile(args[0], args[1]);
+        fs.decompressFile(args[0], args[1], Arrays.asList(args).subList(2, args.length));
     }
 
     @Override
@@ -0,0 +1,56 @@
+package cn.autumnclouds.command.impl;
+
+import cn.autumnclouds.annotation.CommandImpl;
+import cn.autumnclouds.command.Command;
+import cn.autumnclouds.filesystem.FileSystem;
+import cn.autumnclouds.job.Job;
+import cn.autumnclouds.job.JobScheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 等待指定的后台任务结束, 不指定任务编号时等待所有任务结束。
+ *
+ * @author Fu Qiujie
+ * @since 2024/4/2
+ */
+@CommandImpl
+public class WaitCommand implements Command {
+    public static final String NAME = "wait";
+
+    @Override
+    public void execute(FileSystem fs, Set<Character> options, String... args) {
+        JobScheduler scheduler = JobScheduler.getInstance();
+        List<Job> jobs = new ArrayList<>();
+        if (args.length == 0) {
+            jobs.addAll(scheduler.listActiveJobs());
+        }
+        for (String arg : args) {
+            try {
+                Job job = scheduler.getJob(Long.parseLong(arg));
+                if (job == null) {
+                    System.out.println("no such job: " + arg);
+                } else {
+                    jobs.add(job);
+                }
+            } catch (NumberFormatException e) {
+                System.out.println("invalid job id: " + arg);
+            }
+        }
+        try {
+            for (Job job : jobs) {
+                job.await();
+                System.out.println(job);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+}
@@ -5,8 +5,12 @@ import cn.autumnclouds.command.Command;
 import cn.autumnclouds.filesystem.FileSystem;
 
 import java.util.Set;
+import java.util.zip.Deflater;
 
 /**
+ * 压缩文件或目录: zip src dest [level] [workers]。
+ * level 为压缩级别(0-9), workers 为压缩线程数(默认 CPU 核数, 为 1 时串行压缩)。
+ *
  * @author Fu Qiujie
  * @since 2024/3/25
  */
@@ -16,7 +20,17 @@ public class ZipCommand implements Command {
 
     @Override
     public void execute(FileSystem fs, Set<Character> options, String... args) {
-        fs.compressFile(args[0], args[1]);
+        try {
+            int level = args.length > 2 ? Integer.parseInt(args[2]) : Deflater.DEFAULT_COMPRESSION;
+            int workers = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+            if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+                System.out.println("invalid compression level: " + level);
+                return;
+            }
+            fs.compressFile(args[0], args[1], level, workers);
+        } catch (NumberFormatException e) {
+            System.out.println("invalid number: " + e.getMessage());
+        }
     }
 
     @Override
@@ -1,6 +1,7 @@
 package cn.autumnclouds.entity.vo;
 
 import java.io.File;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
@@ -51,6 +52,19 @@ public class FileVo {
         this.lastModifiedTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(file.lastModified()), ZoneId.systemDefault());
     }
 
+    /**
+     * 构造函数，根据一次性读取的文件属性创建 FileVo 对象。
+     *
+     * @param name       文件名或目录名
+     * @param attributes 文件属性
+     */
+    public FileVo(String name, BasicFileAttributes attributes) {
+        this.name = name;
+        this.type = attributes.isDirectory() ? "dir" : "file";
+        this.size = attributes.isDirectory() ? 0 : attributes.size();
+        this.lastModifiedTime = LocalDateTime.ofInstant(attributes.lastModifiedTime().toInstant(), ZoneId.systemDefault());
+    }
+
     /**
      * 获取文件名或目录名。
      *
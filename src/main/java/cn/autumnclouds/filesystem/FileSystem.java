@@ -1,6 +1,18 @@
 package cn.autumnclouds.filesystem;
 
+import cn.autumnclouds.entity.vo.FileVo;
+import cn.autumnclouds.filesystem.cache.DirectoryUsage;
+import cn.autumnclouds.filesystem.index.PathIndex;
+
 import java.io.File;
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.zip.Deflater;
 
 /**
  * 定义基本文件系统操作的接口。
@@ -37,6 +49,31 @@ public interface FileSystem {
      */
     void cat(String fileName);
 
+    /**
+     * 显示文件指定字节区间的内容。
+     *
+     * @param fileName 要显示的文件名称。
+     * @param offset   起始字节偏移。
+     * @param length   显示的字节数，小于 0 表示显示到文件末尾。
+     */
+    void cat(String fileName, long offset, long length);
+
+    /**
+     * 显示文件开头的若干行。
+     *
+     * @param fileName 要显示的文件名称。
+     * @param lines    显示的行数。
+     */
+    void head(String fileName, int lines);
+
+    /**
+     * 显示文件末尾的若干行。
+     *
+     * @param fileName 要显示的文件名称。
+     * @param lines    显示的行数。
+     */
+    void tail(String fileName, int lines);
+
     /**
      * 删除具有指定文件或目录
      *
@@ -45,12 +82,23 @@ public interface FileSystem {
     void delete(String path);
 
     /**
-     * 将内容写入文件。
+     * 将内容写入文件, 覆盖文件原有内容。
      *
      * @param content    要写入文件的内容。
      * @param fileName   要写入的文件名称。
      */
-    void echo(String content, String fileName);
+    default void echo(String content, String fileName) {
+        echo(content, fileName, false);
+    }
+
+    /**
+     * 将内容以 UTF-8 编码写入文件。
+     *
+     * @param content  要写入文件的内容。
+     * @param fileName 要写入的文件名称。
+     * @param append   是否追加到文件末尾, 为 false 时覆盖文件原有内容。
+     */
+    void echo(String content, String fileName, boolean append);
 
     /**
      * 列出当前目录的内容。
@@ -59,6 +107,88 @@ public interface FileSystem {
      */
     File[] listContents();
 
+    /**
+     * 列出当前目录下各条目的元数据。
+     *
+     * @return 条目元数据列表。
+     */
+    default List<FileVo> listFileVos() {
+        return Arrays.stream(listContents()).map(FileVo::new).toList();
+    }
+
+    /**
+     * 逐个访问当前目录下的条目，条目的顺序不确定。
+     * 实现应尽量边读取目录边回调，使大目录的前几个条目能尽快被处理。
+     *
+     * @param visitor 访问者，返回 false 时停止遍历。
+     */
+    default void listContents(Predicate<FileVo> visitor) {
+        for (FileVo fileVo : listFileVos()) {
+            if (!visitor.test(fileVo)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 列出指定目录下各条目的元数据。
+     *
+     * @param directoryName 目录名称。
+     * @return 条目元数据列表, 目录不存在时返回空列表。
+     */
+    List<FileVo> listFileVos(String directoryName);
+
+    /**
+     * 获取文件或目录的元数据。
+     *
+     * @param path 文件或目录的路径。
+     * @return 元数据, 路径不存在时返回 null。
+     */
+    FileVo stat(String path);
+
+    /**
+     * 打开文件用于读取, 供跨文件系统的流式拷贝使用, 由调用方关闭。
+     *
+     * @param path 文件路径。
+     * @return 文件内容的通道。
+     * @throws IOException 文件不存在或无法读取。
+     */
+    ReadableByteChannel newReadChannel(String path) throws IOException;
+
+    /**
+     * 打开文件用于写入, 文件不存在时创建, 已存在时清空, 由调用方关闭。
+     *
+     * @param path 文件路径。
+     * @return 写入文件的通道。
+     * @throws IOException 父目录不存在或无法写入。
+     */
+    WritableByteChannel newWriteChannel(String path) throws IOException;
+
+    /**
+     * 将实现自己缓冲的写入交给操作系统, 之后其他进程和崩溃后的恢复都能看到这些写入。没有写缓冲的实现无需重写。
+     */
+    default void flush() {
+    }
+
+    /**
+     * 将路径上的修改刷到磁盘, 返回后系统崩溃也不会丢失: 文件刷新内容, 目录刷新整棵目录树, 并刷新所在目录使目录项持久化;
+     * 路径不存在(已被删除)时只刷新所在目录。默认只调用 {@link #flush()}, 不落盘的实现无需重写。
+     *
+     * @param path 文件或目录路径。
+     * @throws IOException 刷新失败。
+     */
+    default void force(String path) throws IOException {
+        flush();
+    }
+
+    /**
+     * 通知文件系统路径上的文件已被绕过它的途径修改(如直接打开底层文件写入), 使相关缓存失效。没有缓存的实现无需重写。
+     *
+     * @param path 被修改的文件或目录路径。
+     */
+    default void notifyModified(String path) {
+    }
+
     /**
      * 将当前目录更改为指定目录。
      *
@@ -85,6 +215,70 @@ public interface FileSystem {
         copy(sourcePath, destinationPath, false);
     }
 
+    /**
+     * 按内容去重复制文件或目录, 跳过内容未变化的文件, 只重写内容不同的分块。
+     *
+     * @param sourcePath      源文件或目录的路径。
+     * @param destinationPath 目标路径。
+     * @param link            是否以硬链接代替新文件的拷贝。
+     */
+    void dedupCopy(String sourcePath, String destinationPath, boolean link);
+
+    /**
+     * 增量同步文件或目录, 只复制大小或修改时间发生变化的文件。
+     *
+     * @param sourcePath      源文件或目录的路径。
+     * @param destinationPath 目标路径。
+     * @param delta           是否对变化的文件只传输不同的部分。
+     * @param deleteOrphans   是否删除源路径中不存在的目标条目。
+     */
+    void sync(String sourcePath, String destinationPath, boolean delta, boolean deleteOrphans);
+
+    /**
+     * 在目录树中查找满足条件的文件和目录, 结果边查找边回调。
+     *
+     * @param directoryName 查找的根目录。
+     * @param filter        条目过滤条件。
+     * @param consumer      结果回调, 参数为条目路径。
+     */
+    void find(String directoryName, Predicate<FileVo> filter, Consumer<String> consumer);
+
+    /**
+     * 在目录树中满足条件的文件里查找包含指定文本的行, 结果边查找边回调。
+     *
+     * @param directoryName 查找的根目录。
+     * @param text          要查找的文本。
+     * @param filter        文件过滤条件。
+     * @param consumer      结果回调, 参数形如 "路径:行号:行内容"。
+     */
+    void grep(String directoryName, String text, Predicate<FileVo> filter, Consumer<String> consumer);
+
+    /**
+     * 通过路径索引查找条目。
+     *
+     * @param type     查询类型。
+     * @param key      关键字。
+     * @param consumer 结果回调, 参数为条目路径。
+     */
+    void locate(PathIndex.QueryType type, String key, Consumer<String> consumer);
+
+    /**
+     * 统计目录树的空间占用。
+     *
+     * @param directoryName 目录名称。
+     * @return 空间占用, 目录不存在时返回 null。
+     */
+    DirectoryUsage diskUsage(String directoryName);
+
+    /**
+     * 找出目录下(任意层级)占用空间最大的若干个子目录。
+     *
+     * @param directoryName 目录名称。
+     * @param n             数量。
+     * @return 按占用空间从大到小排列的子目录。
+     */
+    List<DirectoryUsage> largestDirectories(String directoryName, int n);
+
     /**
      * 使用指定的密钥加密文件。
      *
@@ -129,7 +323,19 @@ public interface FileSystem {
      * @param filePath           要压缩的文件路径。
      * @param compressedFilePath 保存压缩文件的路径。
      */
-    void compressFile(String filePath, String compressedFilePath);
+    default void compressFile(String filePath, String compressedFilePath) {
+        compressFile(filePath, compressedFilePath, Deflater.DEFAULT_COMPRESSION, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * 使用指定的压缩级别和线程数将文件压缩为压缩文件。
+     *
+     * @param filePath           要压缩的文件路径。
+     * @param compressedFilePath 保存压缩文件的路径。
+     * @param level              压缩级别（0-9，-1 表示默认级别）。
+     * @param workers            压缩线程数，为 1 时串行压缩。
+     */
+    void compressFile(String filePath, String compressedFilePath, int level, int workers);
 
     /**
      * 将压缩文件解压为原始形式。
@@ -137,5 +343,16 @@ public interface FileSystem {
      * @param filePath             要解压缩的压缩文件路径。
      * @param decompressedFilePath 保存解压缩文件的路径。
      */
-    void decompressFile(String filePath, String decompressedFilePath);
+    default void decompressFile(String filePath, String decompressedFilePath) {
+        decompressFile(filePath, decompressedFilePath, List.of());
+    }
+
+    /**
+     * 解压压缩文件中名称匹配指定模式的条目。
+     *
+     * @param filePath             要解压缩的压缩文件路径。
+     * @param decompressedFilePath 保存解压缩文件的路径。
+     * @param patterns             条目名称或 glob 模式，为空时解压全部条目。
+     */
+    void decompressFile(String filePath, String decompressedFilePath, List<String> patterns);
 }
\ No newline at end of file
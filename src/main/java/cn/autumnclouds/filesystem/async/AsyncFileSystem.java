@@ -0,0 +1,75 @@
+package cn.autumnclouds.filesystem.async;
+
+import cn.autumnclouds.filesystem.FileSystem;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * 异步文件系统接口, 供嵌入使用。
+ * 所有操作立即返回, 结果通过 {@link CompletableFuture} 提供; 操作失败时 future 正常完成, 错误记录在 {@link OperationResult} 中。
+ * 路径以 "/" 分隔, 均相对于文件系统根目录, 不受同步接口中当前目录的影响。
+ *
+ * @author Fu Qiujie
+ * @since 2024/5/21
+ */
+public interface AsyncFileSystem extends AutoCloseable {
+
+    /**
+     * 读取文件指定字节区间的内容。
+     *
+     * @param path   文件路径
+     * @param offset 起始字节偏移
+     * @param length 读取的字节数, 小于 0 表示读取到文件末尾
+     * @return 读取的内容, 已翻转为可读状态
+     */
+    CompletableFuture<OperationResult<ByteBuffer>> read(String path, long offset, long length);
+
+    /**
+     * 读取整个文件。
+     *
+     * @param path 文件路径
+     * @return 文件内容
+     */
+    default CompletableFuture<OperationResult<ByteBuffer>> read(String path) {
+        return read(path, 0, -1);
+    }
+
+    /**
+     * 写入文件, 文件不存在时创建。
+     *
+     * @param path    文件路径
+     * @param content 要写入的内容
+     * @param append  是否追加到文件末尾, 为 false 时覆盖文件原有内容
+     * @return 写入的字节数
+     */
+    CompletableFuture<OperationResult<Long>> write(String path, ByteBuffer content, boolean append);
+
+    /**
+     * 复制文件, 覆盖已存在的目标文件。源文件和目标文件是同一个文件时操作失败。
+     *
+     * @param sourcePath      源文件路径
+     * @param destinationPath 目标文件路径
+     * @return 复制的字节数
+     */
+    CompletableFuture<OperationResult<Long>> copyFile(String sourcePath, String destinationPath);
+
+    /**
+     * 异步执行同步文件系统上的任意操作, 如创建目录、删除、压缩等。
+     * 读写字节数和错误从执行线程上记录的 I/O 统计中获得。操作直接收到同步文件系统,
+     * 其中的相对路径按同步文件系统的当前目录解析, 需要相对于根目录时使用以 "/" 开头的路径。
+     *
+     * @param operation 操作名称
+     * @param action    要执行的操作
+     * @param <T>       返回值类型
+     * @return 操作结果
+     */
+    <T> CompletableFuture<OperationResult<T>> submit(String operation, Function<FileSystem, T> action);
+
+    /**
+     * 关闭异步文件系统, 已提交的操作仍会执行完成。
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,422 @@
+package cn.autumnclouds.filesystem.async;
+
+import cn.autumnclouds.filesystem.FileSystem;
+import cn.autumnclouds.metrics.FileSystemMetrics;
+import cn.autumnclouds.metrics.IoStatistics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * 基于 {@link AsynchronousFileChannel} 的异步文件系统。
+ * 读、写和文件复制通过完成回调串联, 等待 I/O 期间不占用线程, 少量 I/O 线程即可支撑大量并发操作;
+ * 其他操作提交到独立的任务线程, 在同步文件系统上执行, 不会阻塞 I/O 回调。
+ * 同步文件系统不是线程安全的, 对它的所有调用都在同一个任务线程上依次执行: 通道 I/O 开始前先刷新它缓冲的写入,
+ * 写入和复制结束后通知它文件已被修改, 使其缓存失效。
+ * 同时进行的操作数受系统属性 fs.async.maxInFlight 限制, 超出的操作排队等待, 避免耗尽文件描述符。
+ * 各操作的指标以 "async-" 为前缀计入 {@link FileSystemMetrics}。
+ *
+ * @author Fu Qiujie
+ * @since 2024/5/21
+ */
+public class ChannelAsyncFileSystem implements AsyncFileSystem {
+
+    // I/O 回调线程数的系统属性名
+    public static final String IO_THREADS_PROPERTY = "fs.async.ioThreads";
+
+    // 同时进行的最大操作数的系统属性名
+    public static final String MAX_IN_FLIGHT_PROPERTY = "fs.async.maxInFlight";
+
+    // 复制文件时的缓冲区大小(1MB)
+    private static final int COPY_BUFFER_SIZE = 1024 * 1024;
+
+    private static final Set<OpenOption> READ_OPTIONS = Set.of(StandardOpenOption.READ);
+    private static final Set<OpenOption> WRITE_OPTIONS = Set.of(StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+    private static final Set<OpenOption> TRUNCATE_OPTIONS = Set.of(StandardOpenOption.WRITE,
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+
+    private final FileSystem delegate;
+    private final Path root;
+    private final ExecutorService ioExecutor;
+    private final ExecutorService taskExecutor;
+    private final Limiter limiter;
+    private final FileSystemMetrics metrics = FileSystemMetrics.getInstance();
+
+    /**
+     * 创建异步文件系统。
+     *
+     * @param delegate 执行其他操作的同步文件系统
+     * @param root     文件系统根目录, 与同步文件系统中 "/" 对应的目录相同
+     */
+    public ChannelAsyncFileSystem(FileSystem delegate, Path root) {
+        this.delegate = delegate;
+        this.root = root.toAbsolutePath().normalize();
+        int processors = Runtime.getRuntime().availableProcessors();
+        this.ioExecutor = Executors.newFixedThreadPool(Math.max(1, Integer.getInteger(IO_THREADS_PROPERTY, Math.min(4, processors))),
+                daemonThreads("async-io"));
+        this.taskExecutor = Executors.newSingleThreadExecutor(daemonThreads("async-task"));
+        this.limiter = new Limiter(Math.max(1, Integer.getInteger(MAX_IN_FLIGHT_PROPERTY, 256)), ioExecutor);
+    }
+
+    @Override
+    public CompletableFuture<OperationResult<ByteBuffer>> read(String path, long offset, long length) {
+        return run("async-read", null, io -> {
+            AsynchronousFileChannel channel = io.open(resolve(path), READ_OPTIONS);
+            long size = channel.size();
+            long start = Math.min(Math.max(0, offset), size);
+            long end = length < 0 || length > size - start ? size : start + length;
+            if (end - start > Integer.MAX_VALUE - 8) {
+                throw new IOException("range is too large to read into memory");
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+            return readFully(channel, buffer, start).thenApply(bytes -> {
+                io.bytesRead += bytes;
+                return buffer.flip();
+            });
+        });
+    }
+
+    @Override
+    public CompletableFuture<OperationResult<Long>> write(String path, ByteBuffer content, boolean append) {
+        return run("async-write", path, io -> {
+            AsynchronousFileChannel channel = io.open(resolve(path), append ? WRITE_OPTIONS : TRUNCATE_OPTIONS);
+            // AsynchronousFileChannel 不支持 APPEND, 追加时从当前文件末尾开始写
+            long position = append ? channel.size() : 0;
+            return writeFully(channel, content, position).thenApply(bytes -> {
+                io.bytesWritten += bytes;
+                return bytes;
+            });
+        });
+    }
+
+    @Override
+    public CompletableFuture<OperationResult<Long>> copyFile(String sourcePath, String destinationPath) {
+        return run("async-copy", destinationPath, io -> {
+            Path source = resolve(sourcePath);
+            Path destination = resolve(destinationPath);
+            // 打开目标文件时会清空它, 同一个文件会丢失全部内容
+            if (source.equals(destination) || (Files.exists(source) && Files.exists(destination) && Files.isSameFile(source, destination))) {
+                throw new IOException("source and destination are the same file");
+            }
+            AsynchronousFileChannel in = io.open(source, READ_OPTIONS);
+            AsynchronousFileChannel out = io.open(destination, TRUNCATE_OPTIONS);
+            long size = in.size();
+            ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.min(COPY_BUFFER_SIZE, Math.max(1, size)));
+            CompletableFuture<Long> future = new CompletableFuture<>();
+            new CopyHandler(in, out, buffer, io, future).readNext();
+            return future;
+        });
+    }
+
+    @Override
+    public <T> CompletableFuture<OperationResult<T>> submit(String operation, Function<FileSystem, T> action) {
+        long start = System.nanoTime();
+        String name = "async-" + operation;
+        return limiter.acquire().thenApplyAsync(ignored -> {
+            IoStatistics statistics = IoStatistics.current();
+            long errors = statistics.getErrors();
+            long bytesRead = statistics.getBytesRead();
+            long bytesWritten = statistics.getBytesWritten();
+            OperationResult<T> result;
+            try {
+                T value = action.apply(delegate);
+                long newErrors = statistics.getErrors() - errors;
+                result = new OperationResult<>(name, newErrors == 0 ? value : null,
+                        statistics.getBytesRead() - bytesRead, statistics.getBytesWritten() - bytesWritten,
+                        newErrors, newErrors == 0 ? null : statistics.getLastError(), System.nanoTime() - start);
+            } catch (RuntimeException e) {
+                result = OperationResult.failure(name, String.valueOf(e.getMessage()),
+                        statistics.getBytesRead() - bytesRead, statistics.getBytesWritten() - bytesWritten, start);
+            } finally {
+                limiter.release();
+            }
+            record(result);
+            return result;
+        }, taskExecutor);
+    }
+
+    @Override
+    public void close() {
+        taskExecutor.shutdown();
+        ioExecutor.shutdown();
+    }
+
+    /**
+     * 在取得并发许可后执行异步 I/O 操作, 结束后关闭打开的通道、归还许可并记录指标。
+     * 开始前和结束后对同步文件系统的调用都在任务线程上执行。
+     *
+     * @param modifiedPath 操作修改的文件, 结束后通知同步文件系统; 只读操作为 null
+     */
+    private <T> CompletableFuture<OperationResult<T>> run(String operation, String modifiedPath, IoOperation<T> body) {
+        long start = System.nanoTime();
+        return limiter.acquire().thenComposeAsync(ignored -> {
+            IoContext io = new IoContext();
+            CompletableFuture<T> future;
+            try {
+                // 同步文件系统缓冲的写入先交给操作系统, 通道才能读到最新的内容, 写入也不会与之后的刷新交错
+                delegate.flush();
+                future = body.start(io);
+            } catch (IOException | RuntimeException e) {
+                future = CompletableFuture.failedFuture(e);
+            }
+            return future.handleAsync((value, error) -> {
+                io.closeAll();
+                Throwable failure = error;
+                if (modifiedPath != null) {
+                    try {
+                        delegate.notifyModified(delegatePath(modifiedPath));
+                    } catch (RuntimeException e) {
+                        failure = failure == null ? e : failure;
+                    }
+                }
+                limiter.release();
+                OperationResult<T> result = failure == null
+                        ? OperationResult.success(operation, value, io.bytesRead, io.bytesWritten, start)
+                        : OperationResult.failure(operation, describe(failure), io.bytesRead, io.bytesWritten, start);
+                record(result);
+                return result;
+            }, taskExecutor);
+        }, taskExecutor);
+    }
+
+    private void record(OperationResult<?> result) {
+        metrics.get(result.operation()).record(result.elapsedNanos(), result.errors(), result.bytesRead(), result.bytesWritten());
+    }
+
+    /**
+     * 将以 "/" 分隔的路径解析为根目录下的绝对路径。
+     */
+    private Path resolve(String path) throws IOException {
+        String relative = path.replace('\\', '/');
+        while (relative.startsWith("/")) {
+            relative = relative.substring(1);
+        }
+        Path resolved = root.resolve(relative).normalize();
+        if (!resolved.startsWith(root)) {
+            throw new IOException("path is outside the file system: " + path);
+        }
+        return resolved;
+    }
+
+    /**
+     * 将相对于根目录的路径转换为同步文件系统中以 "/" 开头的路径, 不受其当前目录的影响。
+     */
+    private static String delegatePath(String path) {
+        String normalized = path.replace('\\', '/');
+        return normalized.startsWith("/") ? normalized : "/" + normalized;
+    }
+
+    private static String describe(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof NoSuchFileException) {
+            return "file does not exist";
+        }
+        return cause.getMessage() == null ? cause.getClass().getSimpleName() : cause.getMessage();
+    }
+
+    private static CompletableFuture<Long> readFully(AsynchronousFileChannel channel, ByteBuffer buffer, long position) {
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        channel.read(buffer, position, null, new CompletionHandler<Integer, Void>() {
+            private long total;
+
+            @Override
+            public void completed(Integer bytes, Void attachment) {
+                if (bytes > 0) {
+                    total += bytes;
+                }
+                if (bytes < 0 || !buffer.hasRemaining()) {
+                    future.complete(total);
+                    return;
+                }
+                channel.read(buffer, position + total, null, this);
+            }
+
+            @Override
+            public void failed(Throwable error, Void attachment) {
+                future.completeExceptionally(error);
+            }
+        });
+        return future;
+    }
+
+    private static CompletableFuture<Long> writeFully(AsynchronousFileChannel channel, ByteBuffer buffer, long position) {
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        if (!buffer.hasRemaining()) {
+            future.complete(0L);
+            return future;
+        }
+        channel.write(buffer, position, null, new CompletionHandler<Integer, Void>() {
+            private long total;
+
+            @Override
+            public void completed(Integer bytes, Void attachment) {
+                total += bytes;
+                if (!buffer.hasRemaining()) {
+                    future.complete(total);
+                    return;
+                }
+                channel.write(buffer, position + total, null, this);
+            }
+
+            @Override
+            public void failed(Throwable error, Void attachment) {
+                future.completeExceptionally(error);
+            }
+        });
+        return future;
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * 一次异步 I/O 操作的主体, 返回在 I/O 完成时完成的 future。
+     */
+    @FunctionalInterface
+    private interface IoOperation<T> {
+        CompletableFuture<T> start(IoContext io) throws IOException;
+    }
+
+    /**
+     * 一次操作打开的通道和读写字节数。各阶段通过 future 串联, 不会并发访问。
+     */
+    private final class IoContext {
+        private final List<AsynchronousFileChannel> channels = new ArrayList<>(2);
+        private long bytesRead;
+        private long bytesWritten;
+
+        AsynchronousFileChannel open(Path path, Set<OpenOption> options) throws IOException {
+            AsynchronousFileChannel channel = AsynchronousFileChannel.open(path, options, ioExecutor);
+            channels.add(channel);
+            return channel;
+        }
+
+        void closeAll() {
+            for (AsynchronousFileChannel channel : channels) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // 关闭失败时没有可以补救的措施
+                }
+            }
+        }
+    }
+
+    /**
+     * 交替读取源文件和写入目标文件, 直到源文件末尾。
+     */
+    private static final class CopyHandler implements CompletionHandler<Integer, Boolean> {
+        private final AsynchronousFileChannel in;
+        private final AsynchronousFileChannel out;
+        private final ByteBuffer buffer;
+        private final IoContext io;
+        private final CompletableFuture<Long> future;
+        private long position;
+
+        CopyHandler(AsynchronousFileChannel in, AsynchronousFileChannel out, ByteBuffer buffer,
+                    IoContext io, CompletableFuture<Long> future) {
+            this.in = in;
+            this.out = out;
+            this.buffer = buffer;
+            this.io = io;
+            this.future = future;
+        }
+
+        void readNext() {
+            buffer.clear();
+            in.read(buffer, position, Boolean.TRUE, this);
+        }
+
+        /**
+         * @param reading 为 true 时表示读取完成, 否则表示写入完成
+         */
+        @Override
+        public void completed(Integer bytes, Boolean reading) {
+            if (reading) {
+                if (bytes < 0) {
+                    future.complete(position);
+                    return;
+                }
+                io.bytesRead += bytes;
+                buffer.flip();
+                out.write(buffer, position, Boolean.FALSE, this);
+                return;
+            }
+            io.bytesWritten += bytes;
+            position += bytes;
+            if (buffer.hasRemaining()) {
+                out.write(buffer, position, Boolean.FALSE, this);
+            } else {
+                readNext();
+            }
+        }
+
+        @Override
+        public void failed(Throwable error, Boolean reading) {
+            future.completeExceptionally(error);
+        }
+    }
+
+    /**
+     * 非阻塞的并发许可, 许可不足时返回在有许可归还时完成的 future, 而不是阻塞调用线程。
+     */
+    private static final class Limiter {
+        private final Deque<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+        private final Executor executor;
+        private int available;
+
+        Limiter(int permits, Executor executor) {
+            this.available = permits;
+            this.executor = executor;
+        }
+
+        synchronized CompletableFuture<Void> acquire() {
+            if (available > 0) {
+                available--;
+                return CompletableFuture.completedFuture(null);
+            }
+            CompletableFuture<Void> waiter = new CompletableFuture<>();
+            waiters.add(waiter);
+            return waiter;
+        }
+
+        void release() {
+            CompletableFuture<Void> next;
+            synchronized (this) {
+                next = waiters.poll();
+                if (next == null) {
+                    available++;
+                    return;
+                }
+            }
+            // 许可直接转交给等待者, 在其他线程上唤醒, 避免连续失败的操作在归还许可时层层递归
+            next.completeAsync(() -> null, executor);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package cn.autumnclouds.filesystem.async;
+
+/**
+ * 异步文件系统操作的结果。
+ * 操作失败时 future 仍正常完成, 失败信息记录在 error 中, 调用方无需解析控制台输出即可判断结果。
+ *
+ * @param operation    操作名称
+ * @param value        操作的返回值, 失败时为 null
+ * @param bytesRead    读取的字节数
+ * @param bytesWritten 写入的字节数
+ * @param errors       发生的错误数
+ * @param error        最近一次错误的信息, 成功时为 null
+ * @param elapsedNanos 从提交到完成的耗时(纳秒)
+ * @param <T>          返回值类型
+ * @author Fu Qiujie
+ * @since 2024/5/21
+ */
+public record OperationResult<T>(String operation, T value, long bytesRead, long bytesWritten,
+                                 long errors, String error, long elapsedNanos) {
+
+    /**
+     * 操作是否成功。
+     *
+     * @return 没有发生错误时返回 true
+     */
+    public boolean isSuccess() {
+        return errors == 0;
+    }
+
+    static <T> OperationResult<T> success(String operation, T value, long bytesRead, long bytesWritten, long startNanos) {
+        return new OperationResult<>(operation, value, bytesRead, bytesWritten, 0, null, System.nanoTime() - startNanos);
+    }
+
+    static <T> OperationResult<T> failure(String operation, String error, long bytesRead, long bytesWritten, long startNanos) {
+        return new OperationResult<>(operation, null, bytesRead, bytesWritten, 1, error, System.nanoTime() - startNanos);
+    }
+}
@@ -0,0 +1,306 @@
+package cn.autumnclouds.filesystem.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 持久化的文件分块哈希索引。
+ * 文件按固定大小(1MB)分块, 每块计算 SHA-256, 结果连同文件大小和修改时间一起保存;
+ * 文件大小和修改时间都未变化时直接使用已保存的哈希, 不再读取文件内容。
+ * 索引保存在 ~/.sfs/chunk-index(可通过系统属性 fs.dedup.index 指定), 先写临时文件再原子替换;
+ * 截断或损坏的索引文件与格式不一致的一样直接丢弃。
+ * 已删除文件的记录不在保存时逐个检查, 而是在读取时发现文件不存在或复制后清理目标目录树时去掉。
+ *
+ * @author Fu Qiujie
+ * @since 2024/5/3
+ */
+public class ChunkIndex {
+
+    // 索引文件位置的系统属性名
+    public static final String INDEX_FILE_PROPERTY = "fs.dedup.index";
+
+    // 分块大小
+    public static final int CHUNK_SIZE = 1024 * 1024;
+
+    private static final int MAGIC = 0x53464349;
+    private static final int VERSION = 1;
+    private static final int HASH_LENGTH = 32;
+
+    private final Path indexFile;
+    // 按路径排序, 便于按目录树范围清理
+    private final ConcurrentNavigableMap<String, Entry> entries = new ConcurrentSkipListMap<>();
+    private volatile boolean loaded;
+    private volatile boolean dirty;
+
+    /**
+     * 使用默认位置的索引文件创建索引。
+     */
+    public ChunkIndex() {
+        this(Paths.get(System.getProperty(INDEX_FILE_PROPERTY,
+                Paths.get(System.getProperty("user.home"), ".sfs", "chunk-index").toString())));
+    }
+
+    /**
+     * 创建索引。
+     *
+     * @param indexFile 索引文件
+     */
+    public ChunkIndex(Path indexFile) {
+        this.indexFile = indexFile.toAbsolutePath();
+    }
+
+    /**
+     * 获取文件各分块的哈希, 文件未变化时使用索引中保存的结果, 否则流式读取文件重新计算。
+     *
+     * @param file 文件
+     * @return 分块哈希
+     * @throws IOException 读取文件失败
+     */
+    public ChunkHashes hashes(Path file) throws IOException {
+        load();
+        String key = file.toAbsolutePath().normalize().toString();
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            if (entries.remove(key) != null) {
+                dirty = true;
+            }
+            throw e;
+        }
+        long modified = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        Entry entry = entries.get(key);
+        if (entry != null && entry.size == attributes.size() && entry.modified == modified) {
+            return new ChunkHashes(entry.size, entry.hashes, 0);
+        }
+        byte[][] hashes = compute(file, attributes.size());
+        entries.put(key, new Entry(attributes.size(), modified, hashes));
+        dirty = true;
+        return new ChunkHashes(attributes.size(), hashes, attributes.size());
+    }
+
+    /**
+     * 记录文件的分块哈希, 用于文件内容由已知哈希的数据写入之后, 避免再次读取。
+     *
+     * @param file   文件
+     * @param hashes 文件当前内容的分块哈希
+     * @throws IOException 读取文件属性失败
+     */
+    public void update(Path file, ChunkHashes hashes) throws IOException {
+        load();
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        entries.put(file.toAbsolutePath().normalize().toString(),
+                new Entry(attributes.size(), attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS), hashes.hashes));
+        dirty = true;
+    }
+
+    /**
+     * 去掉目录树(或单个文件) root 下已不存在的文件的记录, 只检查该范围内的记录。
+     *
+     * @param root 目录或文件
+     * @throws IOException 读取索引文件失败
+     */
+    public void prune(Path root) throws IOException {
+        load();
+        String key = root.toAbsolutePath().normalize().toString();
+        char separator = root.getFileSystem().getSeparator().charAt(0);
+        pruneIfMissing(key);
+        for (String path : entries.subMap(key + separator, key + (char) (separator + 1)).keySet()) {
+            pruneIfMissing(path);
+        }
+    }
+
+    private void pruneIfMissing(String path) {
+        if (entries.containsKey(path) && Files.notExists(Paths.get(path)) && entries.remove(path) != null) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * 将索引保存到磁盘。
+     *
+     * @throws IOException 写入索引文件失败
+     */
+    public synchronized void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        Files.createDirectories(indexFile.getParent());
+        Path temp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(CHUNK_SIZE);
+            Map<String, Entry> snapshot = Map.copyOf(entries);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<String, Entry> item : snapshot.entrySet()) {
+                Entry entry = item.getValue();
+                out.writeUTF(item.getKey());
+                out.writeLong(entry.size);
+                out.writeLong(entry.modified);
+                out.writeInt(entry.hashes.length);
+                for (byte[] hash : entry.hashes) {
+                    out.write(hash);
+                }
+            }
+        }
+        Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void load() throws IOException {
+        if (loaded) {
+            return;
+        }
+        synchronized (this) {
+            if (loaded) {
+                return;
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile), 64 * 1024))) {
+                // 格式或分块大小不一致的索引直接丢弃, 重新计算即可
+                if (in.readInt() == MAGIC && in.readInt() == VERSION && in.readInt() == CHUNK_SIZE) {
+                    int count = in.readInt();
+                    if (count < 0) {
+                        throw new StreamCorruptedException("negative entry count");
+                    }
+                    for (int i = 0; i < count; i++) {
+                        String path = in.readUTF();
+                        long size = in.readLong();
+                        long modified = in.readLong();
+                        int chunks = in.readInt();
+                        if (size < 0 || chunks != chunkCount(size)) {
+                            throw new StreamCorruptedException("invalid chunk count");
+                        }
+                        byte[][] hashes = new byte[chunks][HASH_LENGTH];
+                        for (byte[] hash : hashes) {
+                            in.readFully(hash);
+                        }
+                        entries.put(path, new Entry(size, modified, hashes));
+                    }
+                }
+            } catch (NoSuchFileException e) {
+                // 第一次使用, 索引文件尚不存在
+            } catch (EOFException | UTFDataFormatException | StreamCorruptedException e) {
+                // 截断或损坏的索引同样丢弃, 下次保存时整体重写
+                entries.clear();
+            }
+            loaded = true;
+        }
+    }
+
+    private static byte[][] compute(Path file, long size) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[][] hashes = new byte[chunkCount(size)][];
+        ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            for (int i = 0; i < hashes.length; i++) {
+                buffer.clear();
+                long position = (long) i * CHUNK_SIZE;
+                buffer.limit((int) Math.min(CHUNK_SIZE, size - position));
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, position + buffer.position()) < 0) {
+                        break;
+                    }
+                }
+                buffer.flip();
+                digest.update(buffer);
+                hashes[i] = digest.digest();
+            }
+        }
+        return hashes;
+    }
+
+    private static int chunkCount(long size) {
+        return (int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private record Entry(long size, long modified, byte[][] hashes) {
+    }
+
+    /**
+     * 文件的分块哈希。
+     */
+    public static final class ChunkHashes {
+        private final long size;
+        private final byte[][] hashes;
+        private final long bytesRead;
+
+        private ChunkHashes(long size, byte[][] hashes, long bytesRead) {
+            this.size = size;
+            this.hashes = hashes;
+            this.bytesRead = bytesRead;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public int getChunkCount() {
+            return hashes.length;
+        }
+
+        /**
+         * 为得到哈希而读取的字节数, 命中索引时为 0。
+         */
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        /**
+         * 判断指定分块的内容是否与另一个文件的相同分块一致。
+         *
+         * @param other 另一个文件的分块哈希
+         * @param chunk 分块序号
+         * @return 是否一致
+         */
+        public boolean chunkEquals(ChunkHashes other, int chunk) {
+            return chunk < hashes.length && chunk < other.hashes.length
+                    && chunkLength(chunk) == other.chunkLength(chunk)
+                    && Arrays.equals(hashes[chunk], other.hashes[chunk]);
+        }
+
+        /**
+         * 判断两个文件内容是否完全一致。
+         *
+         * @param other 另一个文件的分块哈希
+         * @return 是否一致
+         */
+        public boolean contentEquals(ChunkHashes other) {
+            return size == other.size && Arrays.deepEquals(hashes, other.hashes);
+        }
+
+        public long chunkLength(int chunk) {
+            return Math.min(CHUNK_SIZE, size - (long) chunk * CHUNK_SIZE);
+        }
+    }
+}
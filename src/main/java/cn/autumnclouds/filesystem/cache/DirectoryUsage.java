@@ -0,0 +1,18 @@
+package cn.autumnclouds.filesystem.cache;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * 目录树的空间占用。
+ *
+ * @param directory      目录
+ * @param bytes          目录下所有文件的大小之和(字节)
+ * @param files          目录下的文件数
+ * @param directories    目录下的子目录数(不包括目录本身)
+ * @param subdirectories 直接子目录
+ * @author Fu Qiujie
+ * @since 2024/5/17
+ */
+public record DirectoryUsage(Path directory, long bytes, long files, long directories, List<Path> subdirectories) {
+}
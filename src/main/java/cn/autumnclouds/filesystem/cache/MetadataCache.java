@@ -0,0 +1,225 @@
+package cn.autumnclouds.filesystem.cache;
+
+import cn.autumnclouds.entity.vo.FileVo;
+import cn.autumnclouds.util.DirectoryWatcher;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * 目录元数据缓存。
+ * 缓存目录下各条目的名称、类型、大小和修改时间, 每个条目只需一次 Files.readAttributes 调用。
+ * 缓存按最近最少使用淘汰, 总条目数不超过上限; 目录在被本程序修改或被 WatchService 监听到变化时失效。
+ * 另有一份按路径排序的目录集合, 使一个目录下所有子目录的失效只需一次范围查找, 与缓存的目录总数无关。
+ *
+ * @author Fu Qiujie
+ * @since 2024/4/13
+ */
+public class MetadataCache {
+
+    // 缓存的最大条目数的系统属性名
+    public static final String MAX_ENTRIES_PROPERTY = "fs.cache.maxEntries";
+
+    private final long maxEntries = Long.getLong(MAX_ENTRIES_PROPERTY, 500_000);
+    private final DirectoryWatcher watcher;
+    // 按访问顺序排列的目录缓存, 用于 LRU 淘汰
+    private final LinkedHashMap<Path, List<FileVo>> listings = new LinkedHashMap<>(16, 0.75f, true);
+    // 与 listings 中的目录相同, 按路径字符串排序, 子目录都位于 "目录/" 与 "目录0" 之间; 与 listings 一起在其上同步修改
+    private final TreeMap<String, Path> sortedDirectories = new TreeMap<>();
+    // 失效计数, 用于丢弃加载过程中被失效的结果
+    private final AtomicLong invalidations = new AtomicLong();
+    private long cachedEntries;
+
+    /**
+     * 创建元数据缓存。
+     *
+     * @param watcher 目录监听器, 可与其他缓存共享, 被监听的目录发生变化时缓存随之失效
+     */
+    public MetadataCache(DirectoryWatcher watcher) {
+        this.watcher = watcher;
+        watcher.addListener(this::invalidateListing);
+    }
+
+    /**
+     * 获取目录下所有条目的元数据, 未命中时从磁盘加载。
+     *
+     * @param directory 目录
+     * @return 条目元数据列表(不可修改)
+     * @throws IOException 读取目录失败
+     */
+    public List<FileVo> list(Path directory) throws IOException {
+        synchronized (listings) {
+            List<FileVo> cached = listings.get(directory);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        long version = invalidations.get();
+        // 先注册监听再读取目录, 避免遗漏读取期间发生的变化
+        boolean watched = watcher.watch(this, directory);
+        List<FileVo> entries = Collections.unmodifiableList(load(directory));
+        if (watched && entries.size() <= maxEntries) {
+            put(directory, entries, version);
+        }
+        return entries;
+    }
+
+    private void put(Path directory, List<FileVo> entries, long version) {
+        synchronized (listings) {
+            if (version == invalidations.get() && !listings.containsKey(directory)) {
+                listings.put(directory, entries);
+                sortedDirectories.put(directory.toString(), directory);
+                cachedEntries += entries.size();
+                evict();
+            }
+        }
+    }
+
+    /**
+     * 逐个访问目录下的条目。命中缓存时遍历缓存, 否则边读取目录边回调, 无需等待整个目录读取完成;
+     * 完整遍历且条目数未超过上限时, 读取结果会被放入缓存。
+     *
+     * @param directory 目录
+     * @param visitor   访问者, 返回 false 时停止遍历
+     * @throws IOException 读取目录失败
+     */
+    public void forEach(Path directory, Predicate<FileVo> visitor) throws IOException {
+        List<FileVo> cached;
+        synchronized (listings) {
+            cached = listings.get(directory);
+        }
+        if (cached != null) {
+            for (FileVo fileVo : cached) {
+                if (!visitor.test(fileVo)) {
+                    return;
+                }
+            }
+            return;
+        }
+        long version = invalidations.get();
+        boolean watched = watcher.watch(this, directory);
+        List<FileVo> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                FileVo fileVo = readEntry(path);
+                if (fileVo == null) {
+                    continue;
+                }
+                if (entries != null) {
+                    entries.add(fileVo);
+                    if (entries.size() > maxEntries) {
+                        // 目录过大, 不再缓存
+                        entries = null;
+                    }
+                }
+                if (!visitor.test(fileVo)) {
+                    return;
+                }
+            }
+        }
+        if (watched && entries != null) {
+            put(directory, Collections.unmodifiableList(entries), version);
+        }
+    }
+
+    /**
+     * 使路径相关的缓存失效: 路径所在目录、路径本身及其下所有子目录。
+     *
+     * @param path 被修改的文件或目录
+     */
+    public void invalidate(Path path) {
+        invalidations.incrementAndGet();
+        synchronized (listings) {
+            List<Path> affected = new ArrayList<>();
+            affected.add(path);
+            if (path.getParent() != null) {
+                affected.add(path.getParent());
+            }
+            String separator = path.getFileSystem().getSeparator();
+            String prefix = path + separator;
+            // 分隔符之后的下一个字符, 以 "目录/" 开头的路径都小于 "目录0"
+            String end = path.toString() + (char) (separator.charAt(0) + 1);
+            affected.addAll(sortedDirectories.subMap(prefix, true, end, false).values());
+            for (Path directory : affected) {
+                if (remove(directory)) {
+                    watcher.unwatch(this, directory);
+                }
+            }
+        }
+    }
+
+    private void invalidateListing(Path directory) {
+        invalidations.incrementAndGet();
+        synchronized (listings) {
+            remove(directory);
+        }
+    }
+
+    /**
+     * 移除目录的缓存, 调用方持有 listings 的锁。
+     *
+     * @return 目录在缓存中时返回 true
+     */
+    private boolean remove(Path directory) {
+        List<FileVo> removed = listings.remove(directory);
+        if (removed == null) {
+            return false;
+        }
+        sortedDirectories.remove(directory.toString());
+        cachedEntries -= removed.size();
+        return true;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Path, List<FileVo>>> iterator = listings.entrySet().iterator();
+        while (cachedEntries > maxEntries && iterator.hasNext()) {
+            Map.Entry<Path, List<FileVo>> eldest = iterator.next();
+            iterator.remove();
+            sortedDirectories.remove(eldest.getKey().toString());
+            cachedEntries -= eldest.getValue().size();
+            watcher.unwatch(this, eldest.getKey());
+        }
+    }
+
+    private static List<FileVo> load(Path directory) throws IOException {
+        List<FileVo> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                FileVo fileVo = readEntry(path);
+                if (fileVo != null) {
+                    entries.add(fileVo);
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static FileVo readEntry(Path path) {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            try {
+                // 失效的符号链接, 读取链接本身的属性
+                attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (IOException ignored) {
+                // 条目在列出后被删除
+                return null;
+            }
+        }
+        return new FileVo(path.getFileName().toString(), attributes);
+    }
+}
@@ -0,0 +1,232 @@
+package cn.autumnclouds.filesystem.cache;
+
+import cn.autumnclouds.util.DirectoryWatcher;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 目录空间占用的统计与缓存。
+ * 目录树按目录拆分为 ForkJoin 任务并行统计, 每个目录的小计在被 WatchService 监听成功后缓存;
+ * 目录被本程序修改或被监听到变化时, 该目录及其所有上级目录的小计失效, 未变化的子树在下次统计时直接使用缓存。
+ * 大小为文件的逻辑大小, 不跟随符号链接。
+ *
+ * @author Fu Qiujie
+ * @since 2024/5/17
+ */
+public class UsageCache {
+
+    // 统计所用线程数的系统属性名, 默认为 CPU 核数
+    public static final String PARALLELISM_PROPERTY = "fs.du.parallelism";
+
+    // 最多缓存的目录数的系统属性名
+    public static final String MAX_ENTRIES_PROPERTY = "fs.du.maxEntries";
+
+    private final long maxEntries = Long.getLong(MAX_ENTRIES_PROPERTY, 100_000);
+    // 以路径字符串为键按顺序排列, 目录下的所有子目录都位于 "目录/" 与 "目录0" 之间
+    private final ConcurrentNavigableMap<String, DirectoryUsage> totals = new ConcurrentSkipListMap<>();
+    // totals 中的目录数, ConcurrentSkipListMap.size() 需要遍历整个映射
+    private final AtomicLong cachedDirectories = new AtomicLong();
+    private final DirectoryWatcher watcher;
+    // 失效计数, 用于丢弃统计过程中被失效的结果
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * 创建空间占用缓存。
+     *
+     * @param watcher 目录监听器, 可与其他缓存共享, 被缓存的目录发生变化时小计随之失效
+     */
+    public UsageCache(DirectoryWatcher watcher) {
+        this.watcher = watcher;
+        watcher.addListener(this::invalidateDirectory);
+    }
+
+    /**
+     * 统计目录树的空间占用。
+     *
+     * @param directory 目录
+     * @return 空间占用
+     */
+    public DirectoryUsage usage(Path directory) {
+        DirectoryUsage cached = totals.get(directory.toString());
+        if (cached != null) {
+            return cached;
+        }
+        ForkJoinPool pool = newPool();
+        try {
+            return pool.invoke(new UsageTask(directory, new ConcurrentHashMap<>()));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * 找出目录下(任意层级)占用空间最大的若干个子目录。
+     *
+     * @param directory 目录
+     * @param n         数量
+     * @return 按占用空间从大到小排列的子目录
+     */
+    public List<DirectoryUsage> largest(Path directory, int n) {
+        Map<Path, DirectoryUsage> session = new ConcurrentHashMap<>();
+        ForkJoinPool pool = newPool();
+        try {
+            DirectoryUsage root = lookup(directory, session, pool);
+            // 容量为 n 的小顶堆, 堆顶为当前入选的最小者
+            PriorityQueue<DirectoryUsage> heap = new PriorityQueue<>(Comparator.comparingLong(DirectoryUsage::bytes));
+            Deque<Path> pending = new ArrayDeque<>(root.subdirectories());
+            while (!pending.isEmpty()) {
+                DirectoryUsage usage = lookup(pending.pop(), session, pool);
+                if (heap.size() < n) {
+                    heap.add(usage);
+                } else if (usage.bytes() > heap.peek().bytes()) {
+                    heap.poll();
+                    heap.add(usage);
+                }
+                pending.addAll(usage.subdirectories());
+            }
+            List<DirectoryUsage> result = new ArrayList<>(heap);
+            result.sort(Comparator.comparingLong(DirectoryUsage::bytes).reversed());
+            return result;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * 使路径相关的小计失效: 路径本身、其下所有目录以及所有上级目录。
+     * 只丢弃缓存的小计, 目录仍被监听, 重新统计时不必再次注册; 被删除目录的监听由监听器自动取消。
+     *
+     * @param path 被修改的文件或目录
+     */
+    public void invalidate(Path path) {
+        invalidations.incrementAndGet();
+        String separator = path.getFileSystem().getSeparator();
+        String prefix = path + separator;
+        // 分隔符之后的下一个字符, 以 "目录/" 开头的路径都小于 "目录0"
+        String end = path.toString() + (char) (separator.charAt(0) + 1);
+        for (String directory : totals.subMap(prefix, true, end, false).keySet()) {
+            remove(directory);
+        }
+        for (Path current = path; current != null; current = current.getParent()) {
+            remove(current.toString());
+        }
+    }
+
+    /**
+     * 目录的直接子条目发生变化, 使该目录及其所有上级目录的小计失效。
+     */
+    private void invalidateDirectory(Path directory) {
+        invalidations.incrementAndGet();
+        for (Path current = directory; current != null; current = current.getParent()) {
+            remove(current.toString());
+        }
+    }
+
+    private void remove(String directory) {
+        if (totals.remove(directory) != null) {
+            cachedDirectories.decrementAndGet();
+        }
+    }
+
+    private DirectoryUsage lookup(Path directory, Map<Path, DirectoryUsage> session, ForkJoinPool pool) {
+        DirectoryUsage usage = session.get(directory);
+        if (usage == null) {
+            usage = totals.get(directory.toString());
+        }
+        return usage != null ? usage : pool.invoke(new UsageTask(directory, session));
+    }
+
+    private static ForkJoinPool newPool() {
+        return new ForkJoinPool(Math.max(1, Integer.getInteger(PARALLELISM_PROPERTY, Runtime.getRuntime().availableProcessors())));
+    }
+
+    /**
+     * 统计一个目录的任务, 子目录拆分为子任务; 本次统计得到的所有小计都记录在 session 中。
+     */
+    private final class UsageTask extends RecursiveTask<DirectoryUsage> {
+        private static final long serialVersionUID = 1L;
+
+        private final Path directory;
+        private final Map<Path, DirectoryUsage> session;
+
+        UsageTask(Path directory, Map<Path, DirectoryUsage> session) {
+            this.directory = directory;
+            this.session = session;
+        }
+
+        @Override
+        protected DirectoryUsage compute() {
+            DirectoryUsage cached = totals.get(directory.toString());
+            if (cached != null) {
+                return cached;
+            }
+            long version = invalidations.get();
+            // 先注册监听再读取目录, 避免遗漏读取期间发生的变化
+            boolean watched = watcher.watch(UsageCache.this, directory);
+            long bytes = 0;
+            long files = 0;
+            long directories = 0;
+            List<Path> subdirectories = new ArrayList<>();
+            List<UsageTask> subtasks = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path entry : stream) {
+                    BasicFileAttributes attributes;
+                    try {
+                        attributes = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException e) {
+                        // 条目在列出后被删除
+                        continue;
+                    }
+                    if (attributes.isDirectory()) {
+                        UsageTask subtask = new UsageTask(entry, session);
+                        subtask.fork();
+                        subtasks.add(subtask);
+                        subdirectories.add(entry);
+                    } else {
+                        bytes += attributes.size();
+                        files++;
+                    }
+                }
+            } catch (IOException e) {
+                // 目录无法读取, 按空目录统计且不缓存
+                watched = false;
+            }
+            for (UsageTask subtask : subtasks) {
+                DirectoryUsage child = subtask.join();
+                bytes += child.bytes();
+                files += child.files();
+                directories += child.directories() + 1;
+                // 子目录的小计未被缓存(未能监听)时, 其中的变化无法通知到本目录, 本目录也不能缓存
+                watched &= totals.containsKey(child.directory().toString());
+            }
+            DirectoryUsage usage = new DirectoryUsage(directory, bytes, files, directories, List.copyOf(subdirectories));
+            session.put(directory, usage);
+            if (watched && version == invalidations.get() && cachedDirectories.get() < maxEntries) {
+                if (totals.put(directory.toString(), usage) == null) {
+                    cachedDirectories.incrementAndGet();
+                }
+            } else if (watched) {
+                watcher.unwatch(UsageCache.this, directory);
+            }
+            return usage;
+        }
+    }
+}
@@ -0,0 +1,367 @@
+package cn.autumnclouds.filesystem.cache;
+
+import cn.autumnclouds.util.FileUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 写文件句柄缓存。
+ * 被写入的文件保持打开, 写入的数据先合并到每个文件的缓冲区中, 缓冲区写满、定时刷新、文件被读取或被其他操作修改前
+ * 才一次性写入文件, 连续追加多行只需一次 write 系统调用, 而不是每行一次 open、write、close。
+ * 打开的文件数按最近最少使用淘汰, 程序退出时刷新并关闭所有文件。
+ * 缓冲区只在数据完整写入后才清空, 写入失败时数据留在缓冲区中等待下次重试; 定时刷新和淘汰中发生的写入失败被记录下来,
+ * 在下一次 {@link #write} 或 {@link #flushAll} 时抛出, 写入失败的文件不会被淘汰。
+ * 刷新到磁盘(fsync)的时机由系统属性 fs.write.fsync 指定:
+ * <ul>
+ *     <li>never(默认): 不主动 fsync, 由操作系统决定何时落盘</li>
+ *     <li>flush: 每次刷新缓冲区后 fsync</li>
+ *     <li>always: 每次写入都立即刷新缓冲区并 fsync</li>
+ * </ul>
+ *
+ * @author Fu Qiujie
+ * @since 2024/5/20
+ */
+public class WriteHandleCache {
+
+    // fsync 策略的系统属性名
+    public static final String FSYNC_POLICY_PROPERTY = FileUtils.FSYNC_POLICY_PROPERTY;
+
+    // 最多同时打开的文件数的系统属性名
+    public static final String MAX_HANDLES_PROPERTY = "fs.write.maxHandles";
+
+    // 定时刷新间隔(毫秒)的系统属性名
+    public static final String FLUSH_INTERVAL_PROPERTY = "fs.write.flushMillis";
+
+    // 每个文件的写缓冲区大小(64KB)
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * fsync 策略。
+     */
+    public enum FsyncPolicy {
+        NEVER, FLUSH, ALWAYS
+    }
+
+    private final FsyncPolicy fsyncPolicy = FsyncPolicy.valueOf(
+            System.getProperty(FSYNC_POLICY_PROPERTY, "never").toUpperCase(Locale.ROOT));
+    private final int maxHandles = Math.max(1, Integer.getInteger(MAX_HANDLES_PROPERTY, 64));
+    // 按访问顺序排列, 用于 LRU 淘汰
+    private final LinkedHashMap<Path, Handle> handles = new LinkedHashMap<>(16, 0.75f, true);
+    private final Consumer<Path> flushListener;
+    // 后台刷新或淘汰时发生的写入失败, 下一次写入或刷新时报告
+    private IOException pendingError;
+
+    /**
+     * 创建写文件句柄缓存, 并启动定时刷新线程。
+     *
+     * @param flushListener 缓冲的数据写入文件后以该文件为参数回调, 用于使相关缓存失效
+     */
+    public WriteHandleCache(Consumer<Path> flushListener) {
+        this.flushListener = flushListener;
+        long interval = Math.max(10, Long.getLong(FLUSH_INTERVAL_PROPERTY, 1000));
+        ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "write-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushAllQuietly, interval, interval, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::closeAll, "write-handle-close"));
+    }
+
+    /**
+     * 写入数据。
+     *
+     * @param file   文件
+     * @param data   数据
+     * @param append 为 false 时先清空文件
+     * @throws IOException 打开或写入文件失败, 或之前的后台刷新失败
+     */
+    public void write(Path file, byte[] data, boolean append) throws IOException {
+        List<Path> flushed = new ArrayList<>(1);
+        synchronized (this) {
+            IOException error = takePendingError();
+            if (error != null) {
+                throw error;
+            }
+            Handle handle = handles.get(file);
+            if (handle == null) {
+                handle = new Handle(FileChannel.open(file, StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+                handles.put(file, handle);
+                evict(flushed);
+            }
+            if (!append) {
+                // 丢弃尚未写入的数据并清空文件
+                handle.buffer.clear();
+                handle.channel.truncate(0);
+                flushed.add(file);
+            }
+            if (data.length > handle.buffer.remaining() && handle.flush(fsyncPolicy)) {
+                flushed.add(file);
+            }
+            if (data.length > handle.buffer.capacity()) {
+                // 超过缓冲区大小的数据直接写入
+                ByteBuffer source = ByteBuffer.wrap(data);
+                while (source.hasRemaining()) {
+                    handle.channel.write(source);
+                }
+                flushed.add(file);
+            } else {
+                handle.buffer.put(data);
+            }
+            if (fsyncPolicy == FsyncPolicy.ALWAYS && handle.flush(fsyncPolicy)) {
+                flushed.add(file);
+            }
+        }
+        notifyFlushed(flushed);
+    }
+
+    /**
+     * 以暂存文件加原子重命名的方式替换文件内容, 读取者不会看到写了一半的内容。
+     * 文件已打开的句柄被关闭, 尚未写入的数据被丢弃(与覆盖写入相同); 重命名在锁内完成, 并发的追加写入会打开新文件,
+     * 不会写入被替换掉的旧文件。fsync 策略不是 never 时, 重命名前将暂存文件刷到磁盘。
+     *
+     * @param file 文件
+     * @param data 新内容
+     * @throws IOException 写入或重命名失败
+     */
+    public void replace(Path file, byte[] data) throws IOException {
+        synchronized (this) {
+            Handle handle = handles.remove(file);
+            if (handle != null) {
+                handle.buffer.clear();
+                handle.closeQuietly();
+            }
+            try {
+                FileUtils.writeStaged(file, 0, out -> {
+                    ByteBuffer source = ByteBuffer.wrap(data);
+                    while (source.hasRemaining()) {
+                        out.write(source);
+                    }
+                });
+            } catch (GeneralSecurityException e) {
+                throw new IOException(e);
+            }
+        }
+        flushListener.accept(file);
+    }
+
+    /**
+     * 将所有文件的缓冲数据写入文件, 在读取文件或执行其他修改操作前调用。
+     *
+     * @throws IOException 写入文件失败, 或之前的后台刷新失败
+     */
+    public void flushAll() throws IOException {
+        List<Path> flushed = new ArrayList<>();
+        IOException error;
+        synchronized (this) {
+            error = takePendingError();
+            IOException flushError = flushHandles(flushed);
+            if (error == null) {
+                error = flushError;
+            } else if (flushError != null) {
+                error.addSuppressed(flushError);
+            }
+        }
+        notifyFlushed(flushed);
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * 刷新并关闭路径本身及其下所有文件, 在文件被删除或替换后调用, 避免继续写入已失效的文件。
+     *
+     * @param path 被修改的文件或目录
+     */
+    public void close(Path path) {
+        List<Path> flushed = new ArrayList<>();
+        synchronized (this) {
+            if (handles.isEmpty()) {
+                return;
+            }
+            Iterator<Map.Entry<Path, Handle>> iterator = handles.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Path, Handle> entry = iterator.next();
+                if (entry.getKey().startsWith(path)) {
+                    iterator.remove();
+                    try {
+                        if (entry.getValue().close(fsyncPolicy)) {
+                            flushed.add(entry.getKey());
+                        }
+                    } catch (IOException e) {
+                        recordError(entry.getKey(), e);
+                    }
+                }
+            }
+        }
+        notifyFlushed(flushed);
+    }
+
+    /**
+     * 刷新并关闭所有文件, 程序退出时调用。
+     */
+    public synchronized void closeAll() {
+        for (Map.Entry<Path, Handle> entry : handles.entrySet()) {
+            try {
+                entry.getValue().close(fsyncPolicy);
+            } catch (IOException e) {
+                // 程序正在退出, 只能告知数据丢失
+                System.out.println("failed to write buffered data to " + entry.getKey());
+            }
+        }
+        handles.clear();
+    }
+
+    /**
+     * 定时刷新, 失败的数据留在缓冲区中, 错误在下一次写入或刷新时报告。
+     */
+    private void flushAllQuietly() {
+        List<Path> flushed = new ArrayList<>();
+        synchronized (this) {
+            IOException error = flushHandles(flushed);
+            if (error != null) {
+                recordError(error);
+            }
+        }
+        notifyFlushed(flushed);
+    }
+
+    /**
+     * 刷新所有文件, 某个文件失败时继续刷新其余文件。
+     *
+     * @return 第一个写入失败, 其余失败作为它的 suppressed 异常; 全部成功时返回 null
+     */
+    private IOException flushHandles(List<Path> flushed) {
+        IOException error = null;
+        for (Map.Entry<Path, Handle> entry : handles.entrySet()) {
+            try {
+                if (entry.getValue().flush(fsyncPolicy)) {
+                    flushed.add(entry.getKey());
+                }
+            } catch (IOException e) {
+                IOException failure = new IOException("failed to write buffered data to " + entry.getKey(), e);
+                if (error == null) {
+                    error = failure;
+                } else {
+                    error.addSuppressed(failure);
+                }
+            }
+        }
+        return error;
+    }
+
+    private void evict(List<Path> flushed) {
+        Iterator<Map.Entry<Path, Handle>> iterator = handles.entrySet().iterator();
+        while (handles.size() > maxHandles && iterator.hasNext()) {
+            Map.Entry<Path, Handle> eldest = iterator.next();
+            try {
+                if (eldest.getValue().flush(fsyncPolicy)) {
+                    flushed.add(eldest.getKey());
+                }
+            } catch (IOException e) {
+                // 保留写入失败的文件及其缓冲的数据, 淘汰下一个
+                recordError(eldest.getKey(), e);
+                continue;
+            }
+            iterator.remove();
+            eldest.getValue().closeQuietly();
+        }
+    }
+
+    private void recordError(Path file, IOException e) {
+        recordError(new IOException("failed to write buffered data to " + file, e));
+    }
+
+    private void recordError(IOException e) {
+        if (pendingError == null) {
+            pendingError = e;
+        } else if (pendingError != e) {
+            pendingError.addSuppressed(e);
+        }
+    }
+
+    private IOException takePendingError() {
+        IOException error = pendingError;
+        pendingError = null;
+        return error;
+    }
+
+    private void notifyFlushed(List<Path> flushed) {
+        for (Path file : flushed) {
+            flushListener.accept(file);
+        }
+    }
+
+    /**
+     * 打开的文件及其写缓冲区。
+     */
+    private static final class Handle {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        Handle(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * 将缓冲区中的数据写入文件, 只丢弃已写入的部分, 写入失败时未写入的数据留在缓冲区中。
+         *
+         * @return 有数据被写入时返回 true
+         */
+        boolean flush(FsyncPolicy policy) throws IOException {
+            if (buffer.position() == 0) {
+                return false;
+            }
+            buffer.flip();
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } finally {
+                buffer.compact();
+            }
+            if (policy != FsyncPolicy.NEVER) {
+                channel.force(false);
+            }
+            return true;
+        }
+
+        /**
+         * 刷新后关闭文件, 刷新失败时仍然关闭。
+         *
+         * @return 有数据被写入时返回 true
+         * @throws IOException 刷新失败, 缓冲的数据已丢失
+         */
+        boolean close(FsyncPolicy policy) throws IOException {
+            try {
+                return flush(policy);
+            } finally {
+                closeQuietly();
+            }
+        }
+
+        void closeQuietly() {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // 关闭失败时没有可以补救的措施
+            }
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package cn.autumnclouds.filesystem.impl;
+
+import cn.autumnclouds.entity.vo.FileVo;
+import cn.autumnclouds.filesystem.FileSystem;
+import cn.autumnclouds.filesystem.cache.DirectoryUsage;
+import cn.autumnclouds.filesystem.index.PathIndex;
+import cn.autumnclouds.metrics.FileSystemMetrics;
+import cn.autumnclouds.metrics.IoStatistics;
+import cn.autumnclouds.metrics.OperationMetrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * 记录操作指标的文件系统装饰器。
+ * 每次调用记录耗时, 并根据被装饰的文件系统在调用线程上记录的 {@link IoStatistics} 差值统计读写字节数和错误数。
+ * 后台任务只统计提交本身的耗时。
+ *
+ * @author Fu Qiujie
+ * @since 2024/4/30
+ */
+public class MetricsFileSystem implements FileSystem {
+
+    private final FileSystem delegate;
+
+    private final FileSystemMetrics metrics = FileSystemMetrics.getInstance();
+
+    public MetricsFileSystem(FileSystem delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void createDirectory(String directoryName) {
+        measure("mkdir", () -> delegate.createDirectory(directoryName));
+    }
+
+    @Override
+    public void createFile(String fileName) {
+        measure("touch", () -> delegate.createFile(fileName));
+    }
+
+    @Override
+    public void cat(String fileName) {
+        measure("cat", () -> delegate.cat(fileName));
+    }
+
+    @Override
+    public void cat(String fileName, long offset, long length) {
+        measure("cat", () -> delegate.cat(fileName, offset, length));
+    }
+
+    @Override
+    public void head(String fileName, int lines) {
+        measure("head", () -> delegate.head(fileName, lines));
+    }
+
+    @Override
+    public void tail(String fileName, int lines) {
+        measure("tail", () -> delegate.tail(fileName, lines));
+    }
+
+    @Override
+    public void delete(String path) {
+        measure("rm", () -> delegate.delete(path));
+    }
+
+    @Override
+    public void echo(String content, String fileName, boolean append) {
+        measure("echo", () -> delegate.echo(content, fileName, append));
+    }
+
+    @Override
+    public File[] listContents() {
+        return measure("ls", () -> delegate.listContents());
+    }
+
+    @Override
+    public List<FileVo> listFileVos() {
+        return measure("ls", () -> delegate.listFileVos());
+    }
+
+    @Override
+    public void listContents(Predicate<FileVo> visitor) {
+        measure("ls", () -> delegate.listContents(visitor));
+    }
+
+    @Override
+    public List<FileVo> listFileVos(String directoryName) {
+        return measure("ls", () -> delegate.listFileVos(directoryName));
+    }
+
+    @Override
+    public FileVo stat(String path) {
+        return measure("stat", () -> delegate.stat(path));
+    }
+
+    /**
+     * 通道上的读写发生在返回之后, 不计入指标, 由调用方统计。
+     */
+    @Override
+    public ReadableByteChannel newReadChannel(String path) throws IOException {
+        return delegate.newReadChannel(path);
+    }
+
+    /**
+     * 通道上的读写发生在返回之后, 不计入指标, 由调用方统计。
+     */
+    @Override
+    public WritableByteChannel newWriteChannel(String path) throws IOException {
+        return delegate.newWriteChannel(path);
+    }
+
+    @Override
+    public void flush() {
+        delegate.flush();
+    }
+
+    @Override
+    public void force(String path) throws IOException {
+        delegate.force(path);
+    }
+
+    @Override
+    public void notifyModified(String path) {
+        delegate.notifyModified(path);
+    }
+
+    @Override
+    public void changeDirectory(String directoryName) {
+        measure("cd", () -> delegate.changeDirectory(directoryName));
+    }
+
+    @Override
+    public void copy(String sourcePath, String destinationPath, boolean bg) {
+        measure("cp", () -> delegate.copy(sourcePath, destinationPath, bg));
+    }
+
+    @Override
+    public void dedupCopy(String sourcePath, String destinationPath, boolean link) {
+        measure("cp", () -> delegate.dedupCopy(sourcePath, destinationPath, link));
+    }
+
+    @Override
+    public void sync(String sourcePath, String destinationPath, boolean delta, boolean deleteOrphans) {
+        measure("sync", () -> delegate.sync(sourcePath, destinationPath, delta, deleteOrphans));
+    }
+
+    @Override
+    public void find(String directoryName, Predicate<FileVo> filter, Consumer<String> consumer) {
+        measure("find", () -> delegate.find(directoryName, filter, consumer));
+    }
+
+    @Override
+    public void grep(String directoryName, String text, Predicate<FileVo> filter, Consumer<String> consumer) {
+        measure("grep", () -> delegate.grep(directoryName, text, filter, consumer));
+    }
+
+    @Override
+    public void locate(PathIndex.QueryType type, String key, Consumer<String> consumer) {
+        measure("locate", () -> delegate.locate(type, key, consumer));
+    }
+
+    @Override
+    public DirectoryUsage diskUsage(String directoryName) {
+        return measure("du", () -> delegate.diskUsage(directoryName));
+    }
+
+    @Override
+    public List<DirectoryUsage> largestDirectories(String directoryName, int n) {
+        return measure("du", () -> delegate.largestDirectories(directoryName, n));
+    }
+
+    @Override
+    public void encryptFile(String filePath, String encryptedFilePath, String secretKey) {
+        measure("encrypt", () -> delegate.encryptFile(filePath, encryptedFilePath, secretKey));
+    }
+
+    @Override
+    public void decryptFile(String encryptedFilePath, String decryptedFilePath, String secretKey) {
+        measure("decrypt", () -> delegate.decryptFile(encryptedFilePath, decryptedFilePath, secretKey));
+    }
+
+    @Override
+    public void compressFile(String filePath, String compressedFilePath, int level, int workers) {
+        measure("zip", () -> delegate.compressFile(filePath, compressedFilePath, level, workers));
+    }
+
+    @Override
+    public void decompressFile(String filePath, String decompressedFilePath, List<String> patterns) {
+        measure("unzip", () -> delegate.decompressFile(filePath, decompressedFilePath, patterns));
+    }
+
+    private void measure(String operation, Runnable action) {
+        measure(operation, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    private <T> T measure(String operation, Supplier<T> action) {
+        OperationMetrics operationMetrics = metrics.get(operation);
+        IoStatistics io = IoStatistics.current();
+        long errors = io.getErrors();
+        long bytesRead = io.getBytesRead();
+        long bytesWritten = io.getBytesWritten();
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            T result = action.get();
+            failed = false;
+            return result;
+        } finally {
+            long newErrors = io.getErrors() - errors + (failed ? 1 : 0);
+            operationMetrics.record(System.nanoTime() - start, newErrors,
+                    io.getBytesRead() - bytesRead, io.getBytesWritten() - bytesWritten);
+        }
+    }
+}
@@ -1,25 +1,53 @@
 package cn.autumnclouds.filesystem.impl;
 
+import cn.autumnclouds.entity.vo.FileVo;
 import cn.autumnclouds.filesystem.FileSystem;
+import cn.autumnclouds.filesystem.cache.ChunkIndex;
+import cn.autumnclouds.filesystem.cache.ChunkIndex.ChunkHashes;
+import cn.autumnclouds.filesystem.cache.DirectoryUsage;
+import cn.autumnclouds.filesystem.cache.MetadataCache;
+import cn.autumnclouds.filesystem.cache.UsageCache;
+import cn.autumnclouds.filesystem.cache.WriteHandleCache;
+import cn.autumnclouds.filesystem.index.PathIndex;
+import cn.autumnclouds.job.Job;
+import cn.autumnclouds.job.JobScheduler;
+import cn.autumnclouds.metrics.IoStatistics;
+import cn.autumnclouds.util.CryptoUtils;
+import cn.autumnclouds.util.DeltaUtils;
+import cn.autumnclouds.util.DirectoryWatcher;
 import cn.autumnclouds.util.FileUtils;
+import cn.autumnclouds.util.SearchUtils;
+import cn.autumnclouds.util.TreeWalker;
+import cn.autumnclouds.util.ZipUtils;
 
-import javax.crypto.Cipher;
-import javax.crypto.CipherInputStream;
-import javax.crypto.CipherOutputStream;
-import javax.crypto.NoSuchPaddingException;
 import javax.crypto.spec.SecretKeySpec;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.zip.ZipOutputStream;
 
@@ -33,19 +61,73 @@ import java.util.zip.ZipOutputStream;
 
 public class SimpleFileSystem implements FileSystem {
 
-    // 线程池, 用于后台执行文件拷贝
-    private static final ExecutorService THREAD_EXECUTOR = Executors.newSingleThreadExecutor();
+    // 目录并行拷贝所用线程数的系统属性名, 默认为 CPU 核数, 设置为 1 时退化为串行拷贝
+    public static final String COPY_PARALLELISM_PROPERTY = FileUtils.COPY_PARALLELISM_PROPERTY;
+
+    // 并行解压所用线程数的系统属性名, 默认为 CPU 核数
+    public static final String UNZIP_PARALLELISM_PROPERTY = "fs.unzip.parallelism";
+
+    // 并行搜索所用线程数的系统属性名, 默认为 CPU 核数
+    public static final String SEARCH_PARALLELISM_PROPERTY = "fs.search.parallelism";
+
+    // 搜索结果队列的容量, 调用方来不及处理时遍历线程在此等待
+    private static final int SEARCH_QUEUE_CAPACITY = 4096;
+
+    // 基础目录的系统属性名, 未设置时使用默认目录
+    public static final String BASE_DIRECTORY_PROPERTY = "fs.base.dir";
+
+    // 默认实例的基础目录
+    private static final String DEFAULT_BASE_DIRECTORY = Paths.get(System.getProperty(BASE_DIRECTORY_PROPERTY, "src\\main\\resources\\files\\")).toAbsolutePath().toString();
 
     // 基础目录，所有文件系统操作都在这个目录下进行
-    private static final String BASE_DIRECTORY = Paths.get("src\\main\\resources\\files\\").toAbsolutePath().toString();
+    private final String baseDirectory;
 
     // 当前工作目录
-    private String currentDirectory = BASE_DIRECTORY;
+    private String currentDirectory;
+
+    // 元数据缓存、路径索引和空间占用缓存共享的目录监听器, 每个目录只注册一次 WatchService
+    private final DirectoryWatcher watcher = new DirectoryWatcher();
+
+    // 目录元数据缓存, 由本程序的修改操作和目录监听共同维护
+    private final MetadataCache metadataCache = new MetadataCache(watcher);
+
+    // 整棵目录树的持久化路径索引, 由本程序的修改操作和目录监听共同维护
+    private final PathIndex pathIndex;
+
+    // 目录空间占用的小计缓存
+    private final UsageCache usageCache = new UsageCache(watcher);
+
+    // 去重拷贝所用的持久化分块哈希索引
+    private final ChunkIndex chunkIndex = new ChunkIndex();
+
+    // 写文件句柄缓存, echo 的写入先合并在缓冲区中, 写入文件后再使相关缓存失效
+    private final WriteHandleCache writeHandles = new WriteHandleCache(this::invalidateCaches);
 
     /**
-     * 私有化构造函数实现单例，防止外部创建实例，保证程序运行时只有一个文件系统
+     * 私有化构造函数实现单例，默认实例以 fs.base.dir 指定的目录为基础目录
      */
     private SimpleFileSystem() {
+        this(Paths.get(DEFAULT_BASE_DIRECTORY), true);
+    }
+
+    /**
+     * 创建以指定目录为基础目录的文件系统, 用于将多个本地目录挂载到同一个命名空间中。
+     * 同一目录只应创建一个实例, 否则各实例的缓存之间互相不可见。
+     *
+     * @param baseDirectory 基础目录
+     */
+    public SimpleFileSystem(Path baseDirectory) {
+        this(baseDirectory, false);
+    }
+
+    private SimpleFileSystem(Path baseDirectory, boolean defaultInstance) {
+        this.baseDirectory = baseDirectory.toAbsolutePath().normalize().toString();
+        this.currentDirectory = this.baseDirectory;
+        Path root = Paths.get(this.baseDirectory);
+        // fs.index.file 只对默认实例生效, 其他实例的索引按根目录分别存放, 避免互相覆盖
+        Path indexFile = defaultInstance ? Paths.get(System.getProperty(PathIndex.INDEX_FILE_PROPERTY, PathIndex.defaultIndexFile(root).toString()))
+                : PathIndex.defaultIndexFile(root);
+        this.pathIndex = new PathIndex(root, indexFile, watcher);
     }
 
     // 静态内部类实现单例
@@ -62,6 +144,15 @@ public class SimpleFileSystem implements FileSystem {
         return FileSystemHolder.INSTANCE;
     }
 
+    /**
+     * 获取默认实例的根目录, 以 "/" 开头的路径都相对于该目录。
+     *
+     * @return 根目录的绝对路径。
+     */
+    public static Path getBaseDirectory() {
+        return normalize(DEFAULT_BASE_DIRECTORY);
+    }
+
     /**
      * 创建具有指定名称的目录。
      *
@@ -72,6 +163,7 @@ public class SimpleFileSystem implements FileSystem {
         String absolutePath = convertPathIfNecessary(directoryName);
         File newDir = new File(absolutePath);
         newDir.mkdir();
+        invalidate(absolutePath);
     }
 
     /**
@@ -86,8 +178,9 @@ public class SimpleFileSystem implements FileSystem {
         try {
             newFile.createNewFile();
         } catch (IOException e) {
-            System.out.println("failed to create file");
+            fail("failed to create file");
         }
+        invalidate(absolutePath);
     }
 
     /**
@@ -97,17 +190,78 @@ public class SimpleFileSystem implements FileSystem {
      */
     @Override
     public void cat(String fileName) {
+        cat(fileName, 0, -1);
+    }
+
+    /**
+     * 流式显示文件指定字节区间的内容, 大文件通过内存映射窗口分块读取。
+     *
+     * @param fileName 要显示的文件名称。
+     * @param offset   起始字节偏移。
+     * @param length   显示的字节数，小于 0 表示显示到文件末尾。
+     */
+    @Override
+    public void cat(String fileName, long offset, long length) {
+        flushWrites();
+        String absolutePath = convertPathIfNecessary(fileName);
+        File file = new File(absolutePath);
+        if (!file.exists()) {
+            fail("file does not exist");
+            return;
+        }
+        try {
+            IoStatistics.recordRead(FileUtils.streamFile(file.toPath(), offset, length, System.out));
+            System.out.println();
+        } catch (IOException e) {
+            fail("failed to read file");
+        }
+    }
+
+    /**
+     * 显示文件开头的若干行, 只读取这些行所在的部分。
+     *
+     * @param fileName 要显示的文件名称。
+     * @param lines    显示的行数。
+     */
+    @Override
+    public void head(String fileName, int lines) {
+        flushWrites();
+        String absolutePath = convertPathIfNecessary(fileName);
+        File file = new File(absolutePath);
+        if (!file.exists()) {
+            fail("file does not exist");
+            return;
+        }
+        try {
+            long end = FileUtils.headEndOffset(file.toPath(), lines);
+            IoStatistics.recordRead(FileUtils.streamFile(file.toPath(), 0, end, System.out));
+            System.out.println();
+        } catch (IOException e) {
+            fail("failed to read file");
+        }
+    }
+
+    /**
+     * 显示文件末尾的若干行, 从文件末尾向前查找, 不读取文件的其余部分。
+     *
+     * @param fileName 要显示的文件名称。
+     * @param lines    显示的行数。
+     */
+    @Override
+    public void tail(String fileName, int lines) {
+        flushWrites();
         String absolutePath = convertPathIfNecessary(fileName);
         File file = new File(absolutePath);
         if (!file.exists()) {
-            System.out.println("file does not exist");
+            fail("file does not exist");
             return;
         }
-        try (FileInputStream inputStream = new FileInputStream(file)) {
-            byte[] bytes = inputStream.readAllBytes();
-            System.out.println(new String(bytes));
+        try {
+            long start = FileUtils.tailStartOffset(file.toPath(), lines);
+            IoStatistics.recordRead(FileUtils.streamFile(file.toPath(), start, -1, System.out));
+            System.out.println();
         } catch (IOException e) {
-            System.out.println("failed to read file");
+            fail("failed to read file");
         }
     }
 
@@ -118,26 +272,36 @@ public class SimpleFileSystem implements FileSystem {
      */
     @Override
     public void delete(String directoryName) {
+        flushWrites();
         String absolutePath = convertPathIfNecessary(directoryName);
         if (!FileUtils.deleteDirectory(new File(absolutePath))) {
-            System.out.println("failed to delete directory");
+            fail("failed to delete directory");
         }
+        invalidate(absolutePath);
     }
 
 
     /**
-     * 将内容写入文件。
+     * 将内容以 UTF-8 编码写入文件。
+     * 文件保持打开, 内容先写入该文件的缓冲区, 连续追加时多次写入合并为一次系统调用。
      *
      * @param content  要写入文件的内容。
      * @param fileName 要写入的文件名称。
+     * @param append   是否追加到文件末尾。
      */
     @Override
-    public void echo(String content, String fileName) {
-        String absolutePath = convertPathIfNecessary(fileName);
-        try (FileOutputStream outputStream = new FileOutputStream(absolutePath)) {
-            outputStream.write(content.getBytes());
+    public void echo(String content, String fileName, boolean append) {
+        Path file = normalize(convertPathIfNecessary(fileName));
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        try {
+            if (!append && FileUtils.isStagedOutput()) {
+                writeHandles.replace(file, bytes);
+            } else {
+                writeHandles.write(file, bytes, append);
+            }
+            IoStatistics.recordWritten(bytes.length);
         } catch (IOException e) {
-            System.out.println("failed to write file");
+            fail("failed to write file: " + e.getMessage());
         }
     }
 
@@ -149,8 +313,10 @@ public class SimpleFileSystem implements FileSystem {
     @Override
     public void changeDirectory(String directoryName) {
         String absolutePath = convertPathIfNecessary(directoryName);
-        if (Files.notExists(Paths.get(absolutePath))) {
-            System.out.println("Directory does not exist");
+        // 路径索引可能尚未同步磁盘上的删除或替换, 始终以磁盘为准, 并且只能进入目录
+        Path path = normalize(absolutePath);
+        if (!path.equals(normalize(baseDirectory)) && !Files.isDirectory(path)) {
+            fail("Directory does not exist");
             return;
         }
         currentDirectory = absolutePath;
@@ -163,11 +329,188 @@ public class SimpleFileSystem implements FileSystem {
      */
     @Override
     public File[] listContents() {
+        flushWrites();
         File directory = new File(currentDirectory);
         File[] files = directory.listFiles();
         return files == null ? new File[0] : files;
     }
 
+    /**
+     * 列出当前目录下各条目的元数据, 优先从元数据缓存中读取。
+     *
+     * @return 条目元数据列表。
+     */
+    @Override
+    public List<FileVo> listFileVos() {
+        flushWrites();
+        try {
+            return metadataCache.list(normalize(currentDirectory));
+        } catch (IOException e) {
+            return List.of();
+        }
+    }
+
+    /**
+     * 逐个访问当前目录下的条目, 未命中缓存时边读取目录边回调。
+     *
+     * @param visitor 访问者，返回 false 时停止遍历。
+     */
+    @Override
+    public void listContents(Predicate<FileVo> visitor) {
+        flushWrites();
+        try {
+            metadataCache.forEach(normalize(currentDirectory), visitor);
+        } catch (IOException e) {
+            fail("failed to list directory");
+        }
+    }
+
+    /**
+     * 列出指定目录下各条目的元数据, 优先从元数据缓存中读取。
+     *
+     * @param directoryName 目录名称。
+     * @return 条目元数据列表, 目录不存在时返回空列表。
+     */
+    @Override
+    public List<FileVo> listFileVos(String directoryName) {
+        flushWrites();
+        Path directory = normalize(convertPathIfNecessary(directoryName));
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+        try {
+            return metadataCache.list(directory);
+        } catch (IOException e) {
+            return List.of();
+        }
+    }
+
+    /**
+     * 获取文件或目录的元数据。
+     *
+     * @param path 文件或目录的路径。
+     * @return 元数据, 路径不存在时返回 null。
+     */
+    @Override
+    public FileVo stat(String path) {
+        flushWrites();
+        Path absolutePath = normalize(convertPathIfNecessary(path));
+        try {
+            Path name = absolutePath.getFileName();
+            return new FileVo(name == null ? "" : name.toString(), Files.readAttributes(absolutePath, BasicFileAttributes.class));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 打开文件用于读取。返回的是 {@link FileChannel}, 调用方可以用 transferTo 拷贝。
+     *
+     * @param path 文件路径。
+     * @return 文件通道。
+     * @throws IOException 文件不存在或无法读取。
+     */
+    @Override
+    public ReadableByteChannel newReadChannel(String path) throws IOException {
+        flushWrites();
+        return FileChannel.open(normalize(convertPathIfNecessary(path)), StandardOpenOption.READ);
+    }
+
+    /**
+     * 打开文件用于写入, 通道关闭时使相关缓存失效。
+     *
+     * @param path 文件路径。
+     * @return 写入文件的通道。
+     * @throws IOException 父目录不存在或无法写入。
+     */
+    @Override
+    public WritableByteChannel newWriteChannel(String path) throws IOException {
+        flushWrites();
+        String absolutePath = convertPathIfNecessary(path);
+        writeHandles.close(normalize(absolutePath));
+        FileChannel channel = FileChannel.open(normalize(absolutePath),
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        return new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                return channel.write(src);
+            }
+
+            @Override
+            public boolean isOpen() {
+                return channel.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    channel.close();
+                } finally {
+                    invalidate(absolutePath);
+                }
+            }
+        };
+    }
+
+    /**
+     * 将 echo 缓冲的数据写入文件。
+     */
+    @Override
+    public void flush() {
+        flushWrites();
+    }
+
+    @Override
+    public void notifyModified(String path) {
+        invalidate(convertPathIfNecessary(path));
+    }
+
+    @Override
+    public void force(String path) throws IOException {
+        writeHandles.flushAll();
+        Path target = normalize(convertPathIfNecessary(path));
+        if (Files.isDirectory(target, LinkOption.NOFOLLOW_LINKS)) {
+            Files.walkFileTree(target, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    forceDirectory(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (attrs.isRegularFile()) {
+                        forceFile(file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } else if (Files.isRegularFile(target, LinkOption.NOFOLLOW_LINKS)) {
+            forceFile(target);
+        }
+        Path parent = target.getParent();
+        if (parent != null && Files.isDirectory(parent)) {
+            forceDirectory(parent);
+        }
+    }
+
+    private static void forceFile(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * 刷新目录使其中的目录项持久化。部分平台(如 Windows)不能以通道打开目录, 此时跳过。
+     */
+    private static void forceDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // 目录项的持久化由文件系统自身保证
+        }
+    }
+
     /**
      * 复制文件或目录。
      *
@@ -177,25 +520,42 @@ public class SimpleFileSystem implements FileSystem {
      */
     @Override
     public void copy(String sourcePath, String destinationPath, boolean bg) {
-        Runnable runnable = () -> {
-            String src = convertPathIfNecessary(sourcePath);
-            String dest = convertPathIfNecessary(destinationPath);
-            File srcFile = new File(src);
-            if (!srcFile.exists()) {
-                System.out.println("Source file does not exist");
-                return;
-            }
+        flushWrites();
+        // 在提交任务前解析路径, 避免后台任务执行时当前目录已被切换
+        String src = convertPathIfNecessary(sourcePath);
+        String dest = convertPathIfNecessary(destinationPath);
+        File srcFile = new File(src);
+        if (!srcFile.exists()) {
+            fail("Source file does not exist");
+            return;
+        }
+        if (!bg) {
             if (srcFile.isDirectory()) {
-                copyDirectory(src, dest, bg);
+                copyDirectory(src, dest, false);
             } else {
-                copyFile(src, dest, bg);
+                copyFile(src, dest, false);
             }
-        };
-        if (bg) {
-            THREAD_EXECUTOR.submit(runnable);
-        } else {
-            runnable.run();
+            invalidate(dest);
+            return;
         }
+        // 目录大小在后台任务中才统计, 排队时按大任务处理
+        long estimatedBytes = srcFile.isDirectory() ? Long.MAX_VALUE : srcFile.length();
+        Job job = JobScheduler.getInstance().submit("cp " + sourcePath + " " + destinationPath, estimatedBytes, currentJob -> {
+            try {
+                if (srcFile.isDirectory()) {
+                    copyDirectory(src, dest, currentJob);
+                } else {
+                    copyFile(src, dest, currentJob);
+                }
+            } finally {
+                invalidate(dest);
+            }
+        });
+        if (job == null) {
+            fail("too many background jobs");
+            return;
+        }
+        System.out.println("[" + job.getId() + "] " + job.getDescription());
     }
 
     /**
@@ -206,25 +566,121 @@ public class SimpleFileSystem implements FileSystem {
      * @param silent          是否静默复制（静默复制时不在控制台打印进度）。
      */
     public void copyFile(String sourcePath, String destinationPath, boolean silent) {
-        Path basePath = Paths.get(BASE_DIRECTORY).toAbsolutePath();
+        Path basePath = Paths.get(baseDirectory).toAbsolutePath();
         Consumer<Double> consumer = progress -> {
         };
         if (!silent) {
             consumer = progress -> System.out.printf("Copy  %s  to  %s,  progress: %.2f %%\n", basePath.relativize(Paths.get(sourcePath)), basePath.relativize(Paths.get(destinationPath)), progress);
         }
-        FileUtils.fileCopyWithProgress(sourcePath, destinationPath, consumer);
+        try {
+            FileUtils.fileCopyWithProgress(sourcePath, destinationPath, consumer);
+        } catch (IOException e) {
+            fail("failed to copy file");
+            return;
+        }
+        long size = new File(sourcePath).length();
+        IoStatistics.recordRead(size);
+        IoStatistics.recordWritten(size);
+    }
+
+    /**
+     * 在后台任务中复制文件, 进度记录到任务上, 任务被取消时拷贝随即中止。
+     *
+     * @param sourcePath      源文件路径。
+     * @param destinationPath 目标文件路径。
+     * @param job             执行拷贝的后台任务。
+     */
+    private void copyFile(String sourcePath, String destinationPath, Job job) {
+        job.setTotals(new File(sourcePath).length(), 1);
+        try {
+            FileUtils.fileCopy(sourcePath, destinationPath, FileUtils.isStagedOutput(), job::addBytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        job.addFile();
     }
 
     /**
      * 复制目录。
+     * 先按遍历顺序创建全部目标目录, 再将文件拷贝任务分发到 ForkJoin 线程池中并行执行,
+     * 进度按整棵目录树的总字节数汇总输出。
      *
      * @param sourcePath      源目录路径。
      * @param destinationPath 目标目录路径。
      * @param silent          是否静默复制（静默复制时不在控制台打印进度）。
      */
     public void copyDirectory(String sourcePath, String destinationPath, boolean silent) {
+        copyDirectory(sourcePath, destinationPath, silent, null);
+    }
+
+    /**
+     * 在后台任务中复制目录, 进度记录到任务上, 任务被取消时拷贝随即中止。
+     *
+     * @param sourcePath      源目录路径。
+     * @param destinationPath 目标目录路径。
+     * @param job             执行拷贝的后台任务。
+     */
+    private void copyDirectory(String sourcePath, String destinationPath, Job job) {
+        copyDirectory(sourcePath, destinationPath, true, job);
+    }
+
+    private void copyDirectory(String sourcePath, String destinationPath, boolean silent, Job job) {
         Path source = Paths.get(sourcePath);
         Path destination = Paths.get(destinationPath);
+        List<Path> files = new ArrayList<>();
+        long totalBytes = createDirectoryTree(source, destination, files);
+        if (totalBytes < 0) {
+            return;
+        }
+        Path basePath = Paths.get(baseDirectory).toAbsolutePath();
+        String title = String.format("Copy  %s  to  %s", basePath.relativize(source), basePath.relativize(destination));
+        TreeCopyProgress progress = new TreeCopyProgress(title, totalBytes, files.size(), silent, job);
+        AtomicInteger failed = new AtomicInteger();
+        Consumer<Path> fileCopier = file -> {
+            progress.checkCancelled();
+            try {
+                FileUtils.fileCopy(file.toString(), destination.resolve(source.relativize(file)).toString(), progress::addBytes);
+                progress.fileCopied();
+            } catch (IOException e) {
+                failed.incrementAndGet();
+            }
+        };
+        try {
+            FileUtils.runParallel(files, fileCopier);
+        } catch (CancellationException e) {
+            if (job != null) {
+                throw e;
+            }
+            fail("copy interrupted");
+        }
+        progress.finish();
+        progress.recordIo();
+        reportCopyFailures(failed.get(), job);
+    }
+
+    /**
+     * 报告目录复制中失败的文件数, 在后台任务中抛出异常使任务以失败结束。
+     */
+    private static void reportCopyFailures(int failed, Job job) {
+        if (failed == 0) {
+            return;
+        }
+        if (job != null) {
+            throw new UncheckedIOException(new IOException("failed to copy " + failed + " files"));
+        }
+        fail("failed to copy " + failed + " files");
+    }
+
+    /**
+     * 按源目录结构创建目标目录, 并收集所有待拷贝的文件。
+     *
+     * @param source      源目录。
+     * @param destination 目标目录。
+     * @param files       用于收集源目录下所有文件的列表。
+     * @return 所有文件的总字节数, 创建目录失败时返回 -1。
+     */
+    private long createDirectoryTree(Path source, Path destination, List<Path> files) {
+        long[] totalBytes = {0};
         try {
             Files.walkFileTree(source, new SimpleFileVisitor<>() {
                 @Override
@@ -233,7 +689,8 @@ public class SimpleFileSystem implements FileSystem {
                     try {
                         Files.createDirectories(targetPath);
                     } catch (IOException e) {
-                        System.out.println("failed to create directory");
+                        fail("failed to create directory");
+                        totalBytes[0] = -1;
                         return FileVisitResult.TERMINATE;
                     }
                     return FileVisitResult.CONTINUE;
@@ -241,18 +698,545 @@ public class SimpleFileSystem implements FileSystem {
 
                 @Override
                 public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
-                    copyFile(file.toAbsolutePath().toString(), destination.resolve(source.relativize(file)).toString(), silent);
+                    files.add(file.toAbsolutePath());
+                    totalBytes[0] += attrs.size();
                     return FileVisitResult.CONTINUE;
                 }
             });
         } catch (IOException e) {
-            System.out.println("failed to copy directory");
+            fail("failed to copy directory");
+            return -1;
+        }
+        return totalBytes[0];
+    }
+
+
+    /**
+     * 目录树拷贝进度, 汇总所有文件的已拷贝字节数, 可被多个拷贝线程并发更新。
+     */
+    private static final class TreeCopyProgress {
+        private final String title;
+        private final long totalBytes;
+        private final int totalFiles;
+        private final boolean silent;
+        private final Job job;
+        private final LongAdder copiedBytes = new LongAdder();
+        private final AtomicInteger copiedFiles = new AtomicInteger();
+        private final AtomicInteger reportedPercent = new AtomicInteger(-1);
+
+        TreeCopyProgress(String title, long totalBytes, int totalFiles, boolean silent, Job job) {
+            this.title = title;
+            this.totalBytes = totalBytes;
+            this.totalFiles = totalFiles;
+            this.silent = silent;
+            this.job = job;
+            if (job != null) {
+                job.setTotals(totalBytes, totalFiles);
+            }
+        }
+
+        void addBytes(long bytes) {
+            copiedBytes.add(bytes);
+            if (job != null) {
+                job.addBytes(bytes);
+            }
+            int percent = totalBytes == 0 ? 100 : (int) (copiedBytes.sum() * 100 / totalBytes);
+            int last = reportedPercent.get();
+            // 每个百分点只输出一次, 避免大量小文件时控制台输出成为瓶颈
+            if (percent > last && percent < 100 && reportedPercent.compareAndSet(last, percent)) {
+                print(percent);
+            }
+        }
+
+        void fileCopied() {
+            copiedFiles.incrementAndGet();
+            if (job != null) {
+                job.addFile();
+            }
+        }
+
+        void checkCancelled() {
+            if (job != null) {
+                job.checkCancelled();
+            }
+        }
+
+        void finish() {
+            print(100);
+        }
+
+        /**
+         * 将已拷贝的字节数计入调用线程的 I/O 统计, 拷贝线程上的读写不会自动归属到调用方。
+         */
+        void recordIo() {
+            long bytes = copiedBytes.sum();
+            IoStatistics.recordRead(bytes);
+            IoStatistics.recordWritten(bytes);
+        }
+
+        private void print(int percent) {
+            if (!silent) {
+                System.out.printf("%s,  progress: %d %%  (%d/%d files)\n", title, percent, copiedFiles.get(), totalFiles);
+            }
+        }
+    }
+
+    /**
+     * 按内容去重复制文件或目录。
+     * 源文件和已存在的目标文件按 1MB 分块计算哈希(未变化的文件直接使用持久化索引中的结果),
+     * 内容相同的文件直接跳过, 部分不同的文件只重写不同的分块; link 为 true 时新文件以硬链接代替拷贝,
+     * 文件系统不支持硬链接(如跨设备)时退回普通拷贝。
+     *
+     * @param sourcePath      源路径。
+     * @param destinationPath 目标路径。
+     * @param link            是否以硬链接代替拷贝。
+     */
+    @Override
+    public void dedupCopy(String sourcePath, String destinationPath, boolean link) {
+        flushWrites();
+        Path source = normalize(convertPathIfNecessary(sourcePath));
+        Path destination = normalize(convertPathIfNecessary(destinationPath));
+        if (Files.notExists(source)) {
+            fail("Source file does not exist");
+            return;
+        }
+        List<Path> files = new ArrayList<>();
+        if (Files.isDirectory(source)) {
+            if (createDirectoryTree(source, destination, files) < 0) {
+                invalidate(destination.toString());
+                return;
+            }
+        } else {
+            files.add(source);
+        }
+        DedupResult result = new DedupResult();
+        Consumer<Path> fileCopier = file -> {
+            Path target = file.equals(source) ? destination : destination.resolve(source.relativize(file));
+            try {
+                dedupCopyFile(file, target, link, result);
+            } catch (IOException e) {
+                result.failed.incrementAndGet();
+            }
+        };
+        try {
+            FileUtils.runParallel(files, fileCopier);
+        } catch (CancellationException e) {
+            fail("copy interrupted");
+        }
+        try {
+            chunkIndex.prune(destination);
+            chunkIndex.save();
+        } catch (IOException e) {
+            fail("failed to save chunk index");
+        }
+        invalidate(destination.toString());
+        IoStatistics.recordRead(result.bytesRead.sum());
+        IoStatistics.recordWritten(result.bytesWritten.sum());
+        Path basePath = Paths.get(baseDirectory).toAbsolutePath();
+        System.out.printf("Dedup copy  %s  to  %s:  %d copied, %d patched, %d linked, %d unchanged, %d bytes written\n",
+                basePath.relativize(source), basePath.relativize(destination), result.copied.get(), result.patched.get(),
+                result.linked.get(), result.unchanged.get(), result.bytesWritten.sum());
+        if (result.failed.get() > 0) {
+            fail("failed to copy " + result.failed.get() + " files");
+        }
+    }
+
+    /**
+     * 去重复制单个文件。
+     */
+    private void dedupCopyFile(Path source, Path target, boolean link, DedupResult result) throws IOException {
+        boolean targetExists = Files.isRegularFile(target);
+        if (targetExists && Files.isSameFile(source, target)) {
+            result.unchanged.incrementAndGet();
+            return;
+        }
+        if (!targetExists && link) {
+            try {
+                Files.createLink(target, source);
+                result.linked.incrementAndGet();
+                return;
+            } catch (UnsupportedOperationException | IOException e) {
+                // 文件系统不支持硬链接或跨设备, 退回普通拷贝
+            }
+        }
+        ChunkHashes sourceHashes = chunkIndex.hashes(source);
+        result.bytesRead.add(sourceHashes.getBytesRead());
+        if (!targetExists) {
+            FileUtils.fileCopy(source.toString(), target.toString(), result.bytesWritten::add);
+            chunkIndex.update(target, sourceHashes);
+            result.copied.incrementAndGet();
+            return;
+        }
+        ChunkHashes targetHashes = chunkIndex.hashes(target);
+        result.bytesRead.add(targetHashes.getBytesRead());
+        if (sourceHashes.contentEquals(targetHashes)) {
+            result.unchanged.incrementAndGet();
+            return;
+        }
+        // 只重写内容不同的分块, 再截断到源文件大小
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE)) {
+            for (int chunk = 0; chunk < sourceHashes.getChunkCount(); chunk++) {
+                if (sourceHashes.chunkEquals(targetHashes, chunk)) {
+                    continue;
+                }
+                long position = (long) chunk * ChunkIndex.CHUNK_SIZE;
+                long end = position + sourceHashes.chunkLength(chunk);
+                out.position(position);
+                while (position < end) {
+                    long transferred = in.transferTo(position, end - position, out);
+                    if (transferred <= 0) {
+                        throw new IOException("source file was truncated: " + source);
+                    }
+                    position += transferred;
+                }
+                result.bytesWritten.add(sourceHashes.chunkLength(chunk));
+            }
+            out.truncate(sourceHashes.getSize());
+        }
+        chunkIndex.update(target, sourceHashes);
+        result.patched.incrementAndGet();
+    }
+
+    /**
+     * 去重拷贝的结果统计, 可被多个拷贝线程并发更新。
+     */
+    private static final class DedupResult {
+        private final AtomicInteger copied = new AtomicInteger();
+        private final AtomicInteger patched = new AtomicInteger();
+        private final AtomicInteger linked = new AtomicInteger();
+        private final AtomicInteger unchanged = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final LongAdder bytesRead = new LongAdder();
+        private final LongAdder bytesWritten = new LongAdder();
+    }
+
+    /**
+     * 增量同步目录。
+     * 按大小和修改时间判断文件是否变化, 只复制新增和变化的文件, 并将目标文件的修改时间设置为与源文件一致;
+     * delta 为 true 时变化的文件以滚动校验增量传输, 只写入不同的部分; deleteOrphans 为 true 时删除源目录中不存在的目标条目。
+     *
+     * @param sourcePath      源路径。
+     * @param destinationPath 目标路径。
+     * @param delta           是否对变化的文件进行增量传输。
+     * @param deleteOrphans   是否删除源目录中不存在的目标条目。
+     */
+    @Override
+    public void sync(String sourcePath, String destinationPath, boolean delta, boolean deleteOrphans) {
+        flushWrites();
+        Path source = normalize(convertPathIfNecessary(sourcePath));
+        Path destination = normalize(convertPathIfNecessary(destinationPath));
+        if (Files.notExists(source)) {
+            fail("Source file does not exist");
+            return;
+        }
+        try {
+            Path realSource = realPath(source);
+            Path realDestination = realPath(destination);
+            // 目标在源目录内时遍历会进入新建的目标目录, 源在目标目录内时删除孤立条目会删掉源
+            if (realDestination.startsWith(realSource) || realSource.startsWith(realDestination)) {
+                fail("cannot sync a directory into itself");
+                return;
+            }
+        } catch (IOException e) {
+            fail("failed to resolve sync paths");
+            return;
+        }
+        SyncResult result = new SyncResult();
+        List<Path> changed = new ArrayList<>();
+        try {
+            collectChanges(source, destination, changed, result);
+        } catch (IOException e) {
+            fail("failed to sync directory");
+            invalidate(destination.toString());
+            return;
+        }
+        Consumer<Path> fileSyncer = file -> {
+            Path target = file.equals(source) ? destination : destination.resolve(source.relativize(file));
+            try {
+                if (delta && Files.isRegularFile(target)) {
+                    result.bytesWritten.add(DeltaUtils.deltaCopy(file, target));
+                    result.updated.incrementAndGet();
+                } else {
+                    FileUtils.fileCopy(file.toString(), target.toString(), result.bytesWritten::add);
+                    result.copied.incrementAndGet();
+                }
+                result.bytesRead.add(Files.size(file));
+                Files.setLastModifiedTime(target, Files.getLastModifiedTime(file));
+            } catch (IOException e) {
+                result.failed.incrementAndGet();
+            }
+        };
+        try {
+            FileUtils.runParallel(changed, fileSyncer);
+        } catch (CancellationException e) {
+            fail("sync interrupted");
+        }
+        if (deleteOrphans && Files.isDirectory(source)) {
+            try {
+                deleteOrphans(source, destination, result);
+            } catch (IOException e) {
+                result.failed.incrementAndGet();
+            }
+        }
+        invalidate(destination.toString());
+        IoStatistics.recordRead(result.bytesRead.sum());
+        IoStatistics.recordWritten(result.bytesWritten.sum());
+        Path basePath = Paths.get(baseDirectory).toAbsolutePath();
+        System.out.printf("Sync  %s  to  %s:  %d copied, %d updated, %d deleted, %d unchanged, %d bytes written\n",
+                basePath.relativize(source), basePath.relativize(destination), result.copied.get(), result.updated.get(),
+                result.deleted.get(), result.unchanged.get(), result.bytesWritten.sum());
+        if (result.failed.get() > 0) {
+            fail("failed to sync " + result.failed.get() + " files");
         }
     }
 
+    /**
+     * 遍历源目录, 创建缺少的目标目录, 并收集大小或修改时间与目标文件不一致的源文件。
+     */
+    private void collectChanges(Path source, Path destination, List<Path> changed, SyncResult result) throws IOException {
+        Files.walkFileTree(source, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Path target = destination.resolve(source.relativize(dir));
+                if (Files.exists(target, LinkOption.NOFOLLOW_LINKS) && !Files.isDirectory(target, LinkOption.NOFOLLOW_LINKS)) {
+                    Files.delete(target);
+                }
+                Files.createDirectories(target);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Path target = file.equals(source) ? destination : destination.resolve(source.relativize(file));
+                BasicFileAttributes targetAttrs;
+                try {
+                    targetAttrs = Files.readAttributes(target, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (NoSuchFileException e) {
+                    changed.add(file);
+                    return FileVisitResult.CONTINUE;
+                }
+                if (targetAttrs.isDirectory()) {
+                    FileUtils.deleteDirectory(target.toFile());
+                    changed.add(file);
+                } else if (targetAttrs.size() != attrs.size()
+                        || !targetAttrs.lastModifiedTime().equals(attrs.lastModifiedTime())) {
+                    changed.add(file);
+                } else {
+                    result.unchanged.incrementAndGet();
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * 删除目标目录中在源目录里不存在的文件和目录。
+     */
+    private void deleteOrphans(Path source, Path destination, SyncResult result) throws IOException {
+        Files.walkFileTree(destination, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (!dir.equals(destination) && Files.notExists(source.resolve(destination.relativize(dir)), LinkOption.NOFOLLOW_LINKS)) {
+                    FileUtils.deleteDirectory(dir.toFile());
+                    result.deleted.incrementAndGet();
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (Files.notExists(source.resolve(destination.relativize(file)), LinkOption.NOFOLLOW_LINKS)) {
+                    Files.delete(file);
+                    result.deleted.incrementAndGet();
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * 解析路径中的符号链接, 路径不存在时解析其最近的已存在祖先, 再拼接剩余部分。
+     */
+    private static Path realPath(Path path) throws IOException {
+        Path absolute = path.toAbsolutePath().normalize();
+        Path existing = absolute;
+        while (existing != null && !Files.exists(existing)) {
+            existing = existing.getParent();
+        }
+        if (existing == null) {
+            return absolute;
+        }
+        return existing.toRealPath().resolve(existing.relativize(absolute));
+    }
+
+    /**
+     * 增量同步的结果统计, 可被多个同步线程并发更新。
+     */
+    private static final class SyncResult {
+        private final AtomicInteger copied = new AtomicInteger();
+        private final AtomicInteger updated = new AtomicInteger();
+        private final AtomicInteger deleted = new AtomicInteger();
+        private final AtomicInteger unchanged = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final LongAdder bytesRead = new LongAdder();
+        private final LongAdder bytesWritten = new LongAdder();
+    }
+
+    /**
+     * 并行遍历目录树, 查找满足条件的文件和目录。
+     *
+     * @param directoryName 查找的根目录。
+     * @param filter        条目过滤条件。
+     * @param consumer      结果回调, 参数为以 "/" 开头的相对于基础目录的路径。
+     */
+    @Override
+    public void find(String directoryName, Predicate<FileVo> filter, Consumer<String> consumer) {
+        flushWrites();
+        searchTree(directoryName, consumer, (path, attributes, results) -> {
+            if (filter.test(new FileVo(path.getFileName().toString(), attributes))) {
+                results.accept(displayPath(path));
+            }
+        });
+    }
+
+    /**
+     * 并行遍历目录树, 在满足条件的文件中查找包含指定文本的行。
+     *
+     * @param directoryName 查找的根目录。
+     * @param text          要查找的文本。
+     * @param filter        文件过滤条件。
+     * @param consumer      结果回调, 参数形如 "路径:行号:行内容"。
+     */
+    @Override
+    public void grep(String directoryName, String text, Predicate<FileVo> filter, Consumer<String> consumer) {
+        flushWrites();
+        byte[] pattern = text.getBytes(StandardCharsets.UTF_8);
+        LongAdder bytesRead = new LongAdder();
+        searchTree(directoryName, consumer, (path, attributes, results) -> {
+            if (!attributes.isRegularFile() || !filter.test(new FileVo(path.getFileName().toString(), attributes))) {
+                return;
+            }
+            String prefix = displayPath(path) + ":";
+            bytesRead.add(SearchUtils.grep(path, pattern, (lineNumber, line) -> results.accept(prefix + lineNumber + ":" + line)));
+        });
+        IoStatistics.recordRead(bytesRead.sum());
+    }
+
+    /**
+     * 搜索时对每个条目执行的操作, 在遍历线程上被并发调用, 结果交给 results 回调。
+     */
+    @FunctionalInterface
+    private interface SearchVisitor {
+        void visit(Path path, BasicFileAttributes attributes, Consumer<String> results) throws IOException;
+    }
+
+    /**
+     * 在 ForkJoin 线程池中并行遍历目录树, 遍历线程产生的结果经由有界队列交回调用线程,
+     * 调用线程边遍历边输出结果, 结果回调始终在调用线程上执行。
+     */
+    private void searchTree(String directoryName, Consumer<String> consumer, SearchVisitor visitor) {
+        Path root = normalize(convertPathIfNecessary(directoryName));
+        if (!Files.isDirectory(root)) {
+            fail("Directory does not exist");
+            return;
+        }
+        BlockingQueue<String> queue = new LinkedBlockingQueue<>(SEARCH_QUEUE_CAPACITY);
+        Consumer<String> results = result -> {
+            try {
+                queue.put(result);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException();
+            }
+        };
+        int parallelism = Math.max(1, Integer.getInteger(SEARCH_PARALLELISM_PROPERTY, Runtime.getRuntime().availableProcessors()));
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            ForkJoinTask<Void> task = TreeWalker.walk(root, pool, (path, attributes) -> visitor.visit(path, attributes, results));
+            while (!task.isDone() || !queue.isEmpty()) {
+                String result = queue.poll(10, TimeUnit.MILLISECONDS);
+                if (result != null) {
+                    consumer.accept(result);
+                }
+            }
+            task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail("search interrupted");
+        } catch (ExecutionException e) {
+            fail("failed to search directory");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * 通过路径索引查找条目, 不访问磁盘。
+     *
+     * @param type     查询类型。
+     * @param key      关键字, 按目录查询时为目录路径。
+     * @param consumer 结果回调, 参数为以 "/" 开头的相对于基础目录的路径, 目录以 "/" 结尾。
+     */
+    @Override
+    public void locate(PathIndex.QueryType type, String key, Consumer<String> consumer) {
+        flushWrites();
+        if (!pathIndex.isReady()) {
+            System.out.println("index is being built, results may be incomplete");
+        }
+        if (type == PathIndex.QueryType.PATH_PREFIX) {
+            Path base = normalize(baseDirectory);
+            key = base.relativize(normalize(convertPathIfNecessary(key))).toString().replace(File.separatorChar, '/');
+        }
+        pathIndex.query(type, key, entry -> consumer.accept("/" + entry.path() + (entry.directory() ? "/" : "")));
+    }
+
+    /**
+     * 统计目录树的空间占用, 未变化的子树直接使用缓存的小计。
+     *
+     * @param directoryName 目录名称。
+     * @return 空间占用, 目录不存在时返回 null。
+     */
+    @Override
+    public DirectoryUsage diskUsage(String directoryName) {
+        flushWrites();
+        Path directory = normalize(convertPathIfNecessary(directoryName));
+        if (!Files.isDirectory(directory)) {
+            fail("Directory does not exist");
+            return null;
+        }
+        return usageCache.usage(directory);
+    }
+
+    /**
+     * 找出目录下(任意层级)占用空间最大的若干个子目录。
+     *
+     * @param directoryName 目录名称。
+     * @param n             数量。
+     * @return 按占用空间从大到小排列的子目录, 目录不存在时返回空列表。
+     */
+    @Override
+    public List<DirectoryUsage> largestDirectories(String directoryName, int n) {
+        flushWrites();
+        Path directory = normalize(convertPathIfNecessary(directoryName));
+        if (!Files.isDirectory(directory)) {
+            fail("Directory does not exist");
+            return List.of();
+        }
+        return usageCache.largest(directory, n);
+    }
+
+    /**
+     * 将绝对路径转换为以 "/" 开头的相对于基础目录的路径。
+     */
+    private String displayPath(Path path) {
+        return "/" + Paths.get(baseDirectory).toAbsolutePath().normalize().relativize(path).toString().replace(File.separatorChar, '/');
+    }
 
     /**
      * 加密文件。
+     * 文件被切分为固定大小的块, 在多个线程上以 AES-GCM 并行加密。
      *
      * @param filePath          文件路径。
      * @param encryptedFilePath 加密后文件路径。
@@ -260,28 +1244,23 @@ public class SimpleFileSystem implements FileSystem {
      */
     @Override
     public void encryptFile(String filePath, String encryptedFilePath, String secretKey) {
+        flushWrites();
         filePath = convertPathIfNecessary(filePath);
         encryptedFilePath = convertPathIfNecessary(encryptedFilePath);
-        File inputFile = new File(filePath);
-        File encryptedFile = new File(encryptedFilePath);
         try {
             SecretKeySpec secretKeySpec = FileUtils.generateSecretKey(secretKey);
-            Cipher cipher = Cipher.getInstance("AES");
-            cipher.init(Cipher.ENCRYPT_MODE, secretKeySpec);
-            try (FileInputStream fis = new FileInputStream(inputFile); CipherOutputStream cos = new CipherOutputStream(new FileOutputStream(encryptedFile), cipher);) {
-                byte[] buffer = new byte[1024];
-                int bytesRead;
-                while ((bytesRead = fis.read(buffer)) != -1) {
-                    cos.write(buffer, 0, bytesRead);
-                }
-            }
-        } catch (NoSuchPaddingException | NoSuchAlgorithmException | IOException | InvalidKeyException e) {
-            System.out.println("failed to encrypt file");
+            CryptoUtils.encrypt(Paths.get(filePath), Paths.get(encryptedFilePath), secretKeySpec);
+            IoStatistics.recordRead(Files.size(Paths.get(filePath)));
+            IoStatistics.recordWritten(Files.size(Paths.get(encryptedFilePath)));
+        } catch (GeneralSecurityException | IOException e) {
+            fail("failed to encrypt file");
         }
+        invalidate(encryptedFilePath);
     }
 
     /**
      * 解密文件。
+     * 分块加密格式的文件在多个线程上并行解密, 旧版本以 AES/ECB 加密的文件按原方式解密。
      *
      * @param encryptedFilePath 加密文件路径。
      * @param decryptedFilePath 解密后文件路径。
@@ -289,55 +1268,149 @@ public class SimpleFileSystem implements FileSystem {
      */
     @Override
     public void decryptFile(String encryptedFilePath, String decryptedFilePath, String secretKey) {
+        flushWrites();
         encryptedFilePath = convertPathIfNecessary(encryptedFilePath);
         decryptedFilePath = convertPathIfNecessary(decryptedFilePath);
-        File encryptedFile = new File(encryptedFilePath);
-        File decryptedFile = new File(decryptedFilePath);
+        Path encryptedFile = Paths.get(encryptedFilePath);
+        Path decryptedFile = Paths.get(decryptedFilePath);
         try {
             SecretKeySpec secretKeySpec = FileUtils.generateSecretKey(secretKey);
-            Cipher cipher = Cipher.getInstance("AES");
-            cipher.init(Cipher.DECRYPT_MODE, secretKeySpec);
-            try (CipherInputStream cis = new CipherInputStream(new FileInputStream(encryptedFile), cipher); FileOutputStream fos = new FileOutputStream(decryptedFile);) {
-                byte[] buffer = new byte[1024];
-                int bytesRead;
-                while ((bytesRead = cis.read(buffer)) != -1) {
-                    fos.write(buffer, 0, bytesRead);
-                }
+            if (FileUtils.isStagedOutput()) {
+                // 解密失败(如密钥错误)时目标文件保持原样
+                writeHandles.close(normalize(decryptedFilePath));
+                FileUtils.writeStaged(decryptedFile, 0, out -> decrypt(encryptedFile, out, secretKeySpec));
+            } else if (CryptoUtils.isChunkedFormat(encryptedFile)) {
+                CryptoUtils.decrypt(encryptedFile, decryptedFile, secretKeySpec);
+            } else {
+                CryptoUtils.decryptLegacy(encryptedFile, decryptedFile, secretKeySpec);
+            }
+            IoStatistics.recordRead(Files.size(encryptedFile));
+            IoStatistics.recordWritten(Files.size(decryptedFile));
+        } catch (GeneralSecurityException | IOException e) {
+            fail("failed to decrypt file");
+        }
+        invalidate(decryptedFilePath);
+    }
+
+    /**
+     * 将加密文件解密到通道中, 自动识别分块格式和旧格式。
+     */
+    private static void decrypt(Path encryptedFile, FileChannel out, SecretKeySpec secretKeySpec)
+            throws IOException, GeneralSecurityException {
+        try (FileChannel in = FileChannel.open(encryptedFile, StandardOpenOption.READ)) {
+            if (CryptoUtils.isChunkedFormat(in)) {
+                CryptoUtils.decrypt(in, out, secretKeySpec);
+            } else {
+                CryptoUtils.decryptLegacy(Channels.newInputStream(in), Channels.newOutputStream(out), secretKeySpec);
             }
-        } catch (NoSuchPaddingException | NoSuchAlgorithmException | IOException | InvalidKeyException e) {
-            System.out.println("failed to decrypt file");
         }
     }
 
     /**
      * 压缩文件。
+     * 多线程时各条目在线程池中并行压缩, 再按顺序组装为 ZIP 文件。
      *
      * @param filePath           文件路径。
      * @param compressedFilePath 压缩后文件路径。
+     * @param level              压缩级别。
+     * @param workers            压缩线程数。
      */
     @Override
-    public void compressFile(String filePath, String compressedFilePath) {
+    public void compressFile(String filePath, String compressedFilePath, int level, int workers) {
+        flushWrites();
         filePath = convertPathIfNecessary(filePath);
         compressedFilePath = convertPathIfNecessary(compressedFilePath);
+        File fileToZip = new File(filePath);
+        if (!fileToZip.exists()) {
+            fail("file does not exist");
+            return;
+        }
+        if (workers > 1) {
+            try {
+                ZipUtils.parallelZip(fileToZip, new File(compressedFilePath), level, workers);
+                IoStatistics.recordWritten(new File(compressedFilePath).length());
+            } catch (IOException e) {
+                fail("failed to compress file");
+            }
+            invalidate(compressedFilePath);
+            return;
+        }
         try (ZipOutputStream zipOut = new ZipOutputStream(new FileOutputStream(compressedFilePath))) {
-            File fileToZip = new File(filePath);
+            zipOut.setLevel(level);
             FileUtils.zipFile(fileToZip, fileToZip.getName(), zipOut);
         } catch (IOException e) {
-            System.out.println("failed to compress file");
+            fail("failed to compress file");
         }
+        IoStatistics.recordWritten(new File(compressedFilePath).length());
+        invalidate(compressedFilePath);
     }
 
     /**
      * 解压文件。
+     * 通过中央目录定位条目并在多个线程上并行解压, 只读取被选中的条目。
      *
      * @param filePath             压缩文件路径。
      * @param decompressedFilePath 解压文件路径。
+     * @param patterns             条目名称或 glob 模式，为空时解压全部条目。
      */
     @Override
-    public void decompressFile(String filePath, String decompressedFilePath) {
+    public void decompressFile(String filePath, String decompressedFilePath, List<String> patterns) {
+        flushWrites();
         filePath = convertPathIfNecessary(filePath);
         decompressedFilePath = convertPathIfNecessary(decompressedFilePath);
-        FileUtils.unzipFile(filePath, decompressedFilePath);
+        int workers = Math.max(1, Integer.getInteger(UNZIP_PARALLELISM_PROPERTY, Runtime.getRuntime().availableProcessors()));
+        try {
+            int extracted = ZipUtils.parallelUnzip(new File(filePath), new File(decompressedFilePath), patterns, workers);
+            IoStatistics.recordRead(new File(filePath).length());
+            if (extracted == 0 && !patterns.isEmpty()) {
+                System.out.println("no matching files");
+            }
+        } catch (IOException e) {
+            fail("failed to decompress file");
+        }
+        invalidate(decompressedFilePath);
+    }
+
+    /**
+     * 输出错误信息, 并计入当前线程的错误统计。
+     *
+     * @param message 错误信息。
+     */
+    private static void fail(String message) {
+        IoStatistics.recordError(message);
+        System.out.println(message);
+    }
+
+    /**
+     * 使被修改路径相关的元数据缓存失效。
+     *
+     * @param absolutePath 被修改的文件或目录的绝对路径。
+     */
+    private void invalidate(String absolutePath) {
+        // 文件可能已被删除或替换, 关闭其上的写句柄, 之后的写入重新打开文件
+        writeHandles.close(normalize(absolutePath));
+        invalidateCaches(normalize(absolutePath));
+    }
+
+    private void invalidateCaches(Path path) {
+        metadataCache.invalidate(path);
+        pathIndex.refresh(path);
+        usageCache.invalidate(path);
+    }
+
+    /**
+     * 将 echo 缓冲的数据写入文件, 在读取文件或执行其他修改操作前调用, 保证看到之前写入的内容。
+     */
+    private void flushWrites() {
+        try {
+            writeHandles.flushAll();
+        } catch (IOException e) {
+            fail("failed to write file: " + e.getMessage());
+        }
+    }
+
+    private static Path normalize(String absolutePath) {
+        return Paths.get(absolutePath).toAbsolutePath().normalize();
     }
 
     /**
@@ -349,7 +1422,7 @@ public class SimpleFileSystem implements FileSystem {
     private String convertPathIfNecessary(String path) {
         path = path.replaceAll("/", Matcher.quoteReplacement(File.separator));
         if (path.startsWith(File.separator)) {
-            return BASE_DIRECTORY + path;
+            return baseDirectory + path;
         }
         return currentDirectory + File.separator + path;
     }
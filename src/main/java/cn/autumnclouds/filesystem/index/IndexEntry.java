@@ -0,0 +1,34 @@
+package cn.autumnclouds.filesystem.index;
+
+/**
+ * 路径索引中的一个条目。
+ *
+ * @param path      相对于基础目录、以 "/" 分隔的路径
+ * @param size      文件大小, 目录为 0
+ * @param modified  最后修改时间(毫秒)
+ * @param directory 是否为目录
+ * @author Fu Qiujie
+ * @since 2024/5/13
+ */
+public record IndexEntry(String path, long size, long modified, boolean directory) {
+
+    /**
+     * 获取条目名称。
+     *
+     * @return 路径的最后一段
+     */
+    public String name() {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * 获取扩展名, 即名称中最后一个 "." 之后的部分, 以 "." 开头的名称(隐藏文件)不视为扩展名。
+     *
+     * @return 扩展名, 没有扩展名时返回空字符串
+     */
+    public String extension() {
+        String name = name();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(dot + 1) : "";
+    }
+}
@@ -0,0 +1,353 @@
+package cn.autumnclouds.filesystem.index;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * 内存映射的只读索引快照。
+ * 文件格式(大端序):
+ * <pre>
+ * 头部:     MAGIC(4) VERSION(4) 条目数 n(4) 根目录长度 r(4) 根目录(r 字节 UTF-8)
+ * 记录区:   n 条定长记录, 按路径的 UTF-8 字节序排列, 每条记录为
+ *           路径偏移(4) 路径长度(4) 名称起始位置(4) 扩展名起始位置(4, 无扩展名为 -1) 标志(4) 保留(4) 大小(8) 修改时间(8)
+ * 名称序:   n 个记录序号, 按名称排列
+ * 扩展名序: n 个记录序号, 按扩展名排列
+ * 字符串区: 所有路径的 UTF-8 字节
+ * </pre>
+ * 所有查询都在映射的缓冲区上二分查找, 只有命中的记录才会解码为 {@link IndexEntry}。
+ *
+ * @author Fu Qiujie
+ * @since 2024/5/13
+ */
+final class IndexSnapshot {
+
+    private static final int MAGIC = 0x53465049;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 40;
+    private static final int FLAG_DIRECTORY = 1;
+    private static final byte[] EMPTY_BYTES = new byte[0];
+
+    static final IndexSnapshot EMPTY = new IndexSnapshot(ByteBuffer.allocate(0), 0, 0);
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int recordsOffset;
+    private final int nameOrderOffset;
+    private final int extensionOrderOffset;
+    private final int stringsOffset;
+
+    private IndexSnapshot(ByteBuffer buffer, int count, int recordsOffset) {
+        this.buffer = buffer;
+        this.count = count;
+        this.recordsOffset = recordsOffset;
+        this.nameOrderOffset = recordsOffset + count * RECORD_SIZE;
+        this.extensionOrderOffset = nameOrderOffset + count * 4;
+        this.stringsOffset = extensionOrderOffset + count * 4;
+    }
+
+    /**
+     * 映射索引文件。
+     *
+     * @param file 索引文件
+     * @param root 目录树的根目录, 与文件中记录的不一致时视为无效
+     * @return 快照, 文件不存在、无效或大小与内容不符时返回 null
+     * @throws IOException 读取文件失败
+     */
+    static IndexSnapshot open(Path file, String root) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+                return null;
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                return null;
+            }
+            int count = buffer.getInt(8);
+            int rootLength = buffer.getInt(12);
+            // 条目数和根目录长度与文件大小不符时(如写入时被截断), 视为无效, 由调用方重建索引
+            long recordsOffset = HEADER_SIZE + (long) rootLength;
+            long stringsOffset = recordsOffset + (long) count * (RECORD_SIZE + 8);
+            if (count < 0 || rootLength < 0 || stringsOffset > buffer.capacity()) {
+                return null;
+            }
+            byte[] rootBytes = new byte[rootLength];
+            buffer.get(HEADER_SIZE, rootBytes);
+            if (!root.equals(new String(rootBytes, StandardCharsets.UTF_8))) {
+                return null;
+            }
+            IndexSnapshot snapshot = new IndexSnapshot(buffer, count, (int) recordsOffset);
+            // 路径按记录顺序连续存放, 最后一条记录的路径应恰好结束于文件末尾
+            long stringsLength = count == 0 ? 0 : (long) snapshot.recordInt(count - 1, 0) + snapshot.recordInt(count - 1, 4);
+            return stringsOffset + stringsLength == buffer.capacity() ? snapshot : null;
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 将条目写为快照文件。
+     *
+     * @param out     输出流
+     * @param root    目录树的根目录
+     * @param entries 条目, 路径不能重复
+     * @throws IOException 写入失败
+     */
+    static void write(DataOutputStream out, String root, List<IndexEntry> entries) throws IOException {
+        int n = entries.size();
+        byte[][] paths = new byte[n][];
+        for (int i = 0; i < n; i++) {
+            paths[i] = entries.get(i).path().getBytes(StandardCharsets.UTF_8);
+        }
+        Integer[] byPath = IntStream.range(0, n).boxed().toArray(Integer[]::new);
+        Arrays.sort(byPath, (a, b) -> Arrays.compareUnsigned(paths[a], paths[b]));
+        // 按路径排序后的记录序号 -> 原始序号
+        int[] sorted = Arrays.stream(byPath).mapToInt(Integer::intValue).toArray();
+        int[] nameStarts = new int[n];
+        int[] extensionStarts = new int[n];
+        for (int record = 0; record < n; record++) {
+            byte[] path = paths[sorted[record]];
+            nameStarts[record] = lastIndexOf(path, (byte) '/', path.length) + 1;
+            int dot = lastIndexOf(path, (byte) '.', path.length);
+            extensionStarts[record] = dot > nameStarts[record] ? dot + 1 : -1;
+        }
+        Comparator<Integer> nameOrder = (a, b) -> Arrays.compareUnsigned(
+                paths[sorted[a]], nameStarts[a], paths[sorted[a]].length,
+                paths[sorted[b]], nameStarts[b], paths[sorted[b]].length);
+        Comparator<Integer> extensionOrder = (a, b) -> Arrays.compareUnsigned(
+                extension(paths[sorted[a]], extensionStarts[a]), extension(paths[sorted[b]], extensionStarts[b]));
+        Integer[] byName = IntStream.range(0, n).boxed().toArray(Integer[]::new);
+        Arrays.sort(byName, nameOrder.thenComparing(Comparator.naturalOrder()));
+        Integer[] byExtension = IntStream.range(0, n).boxed().toArray(Integer[]::new);
+        Arrays.sort(byExtension, extensionOrder.thenComparing(Comparator.naturalOrder()));
+
+        byte[] rootBytes = root.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(n);
+        out.writeInt(rootBytes.length);
+        out.write(rootBytes);
+        int stringOffset = 0;
+        for (int record = 0; record < n; record++) {
+            IndexEntry entry = entries.get(sorted[record]);
+            int length = paths[sorted[record]].length;
+            out.writeInt(stringOffset);
+            out.writeInt(length);
+            out.writeInt(nameStarts[record]);
+            out.writeInt(extensionStarts[record]);
+            out.writeInt(entry.directory() ? FLAG_DIRECTORY : 0);
+            out.writeInt(0);
+            out.writeLong(entry.size());
+            out.writeLong(entry.modified());
+            stringOffset += length;
+        }
+        for (Integer record : byName) {
+            out.writeInt(record);
+        }
+        for (Integer record : byExtension) {
+            out.writeInt(record);
+        }
+        for (int record = 0; record < n; record++) {
+            out.write(paths[sorted[record]]);
+        }
+    }
+
+    int size() {
+        return count;
+    }
+
+    /**
+     * 按路径查找条目。
+     *
+     * @param path 相对路径
+     * @return 条目, 不存在时返回 null
+     */
+    IndexEntry get(String path) {
+        byte[] key = path.getBytes(StandardCharsets.UTF_8);
+        int record = lowerBound(key);
+        return record < count && comparePath(record, key) == 0 ? entry(record) : null;
+    }
+
+    /**
+     * 查询快照。
+     *
+     * @param type     查询类型
+     * @param key      关键字
+     * @param consumer 结果回调
+     */
+    void query(PathIndex.QueryType type, String key, Consumer<IndexEntry> consumer) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        switch (type) {
+            case NAME, NAME_PREFIX -> {
+                boolean prefix = type == PathIndex.QueryType.NAME_PREFIX;
+                int low = 0;
+                int high = count;
+                while (low < high) {
+                    int mid = (low + high) >>> 1;
+                    if (compareName(orderAt(nameOrderOffset, mid), keyBytes, false) < 0) {
+                        low = mid + 1;
+                    } else {
+                        high = mid;
+                    }
+                }
+                for (int i = low; i < count; i++) {
+                    int record = orderAt(nameOrderOffset, i);
+                    if (compareName(record, keyBytes, prefix) != 0) {
+                        break;
+                    }
+                    consumer.accept(entry(record));
+                }
+            }
+            case EXTENSION -> {
+                int low = 0;
+                int high = count;
+                while (low < high) {
+                    int mid = (low + high) >>> 1;
+                    if (compareExtension(orderAt(extensionOrderOffset, mid), keyBytes) < 0) {
+                        low = mid + 1;
+                    } else {
+                        high = mid;
+                    }
+                }
+                for (int i = low; i < count; i++) {
+                    int record = orderAt(extensionOrderOffset, i);
+                    if (compareExtension(record, keyBytes) != 0) {
+                        break;
+                    }
+                    consumer.accept(entry(record));
+                }
+            }
+            case PATH_PREFIX -> {
+                byte[] prefix = key.isEmpty() ? EMPTY_BYTES : (key + "/").getBytes(StandardCharsets.UTF_8);
+                for (int record = lowerBound(prefix); record < count && startsWith(record, prefix); record++) {
+                    consumer.accept(entry(record));
+                }
+            }
+        }
+    }
+
+    /**
+     * 列出目录的直接子条目。遇到子目录下的条目时直接跳到该子目录的子树之后, 查询代价与子条目数成正比。
+     *
+     * @param directory 目录的相对路径, 为空时表示根目录
+     * @param consumer  结果回调
+     */
+    void children(String directory, Consumer<IndexEntry> consumer) {
+        String prefixString = directory.isEmpty() ? "" : directory + "/";
+        byte[] prefix = prefixString.getBytes(StandardCharsets.UTF_8);
+        int record = lowerBound(prefix);
+        while (record < count && startsWith(record, prefix)) {
+            int pathOffset = stringsOffset + recordInt(record, 0);
+            int pathLength = recordInt(record, 4);
+            int slash = -1;
+            for (int i = prefix.length; i < pathLength; i++) {
+                if (buffer.get(pathOffset + i) == '/') {
+                    slash = i;
+                    break;
+                }
+            }
+            if (slash < 0) {
+                consumer.accept(entry(record));
+                record++;
+                continue;
+            }
+            // 跳过该子目录的整棵子树: 所有以 "子目录/" 开头的路径都小于 "子目录0"
+            byte[] next = new byte[slash + 1];
+            buffer.get(pathOffset, next, 0, slash);
+            next[slash] = '/' + 1;
+            record = lowerBound(next);
+        }
+    }
+
+    private int lowerBound(byte[] key) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (comparePath(mid, key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int comparePath(int record, byte[] key) {
+        return compareBytes(stringsOffset + recordInt(record, 0), recordInt(record, 4), key, false);
+    }
+
+    private boolean startsWith(int record, byte[] prefix) {
+        return compareBytes(stringsOffset + recordInt(record, 0), recordInt(record, 4), prefix, true) == 0;
+    }
+
+    private int compareName(int record, byte[] key, boolean prefix) {
+        int nameStart = recordInt(record, 8);
+        return compareBytes(stringsOffset + recordInt(record, 0) + nameStart, recordInt(record, 4) - nameStart, key, prefix);
+    }
+
+    private int compareExtension(int record, byte[] key) {
+        int extensionStart = recordInt(record, 12);
+        if (extensionStart < 0) {
+            return key.length == 0 ? 0 : -1;
+        }
+        return compareBytes(stringsOffset + recordInt(record, 0) + extensionStart, recordInt(record, 4) - extensionStart, key, false);
+    }
+
+    /**
+     * 按无符号字节序比较缓冲区中的字节序列与关键字, prefix 为 true 时只比较关键字长度的前缀。
+     */
+    private int compareBytes(int offset, int length, byte[] key, boolean prefix) {
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int difference = (buffer.get(offset + i) & 0xFF) - (key[i] & 0xFF);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        if (prefix && length >= key.length) {
+            return 0;
+        }
+        return length - key.length;
+    }
+
+    private IndexEntry entry(int record) {
+        byte[] path = new byte[recordInt(record, 4)];
+        buffer.get(stringsOffset + recordInt(record, 0), path);
+        int base = recordsOffset + record * RECORD_SIZE;
+        return new IndexEntry(new String(path, StandardCharsets.UTF_8), buffer.getLong(base + 24),
+                buffer.getLong(base + 32), (buffer.getInt(base + 16) & FLAG_DIRECTORY) != 0);
+    }
+
+    private int recordInt(int record, int field) {
+        return buffer.getInt(recordsOffset + record * RECORD_SIZE + field);
+    }
+
+    private int orderAt(int orderOffset, int i) {
+        return buffer.getInt(orderOffset + i * 4);
+    }
+
+    private static int lastIndexOf(byte[] bytes, byte value, int before) {
+        for (int i = before - 1; i >= 0; i--) {
+            if (bytes[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static byte[] extension(byte[] path, int start) {
+        return start < 0 ? EMPTY_BYTES : Arrays.copyOfRange(path, start, path.length);
+    }
+}
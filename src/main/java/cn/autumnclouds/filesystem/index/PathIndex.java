@@ -0,0 +1,499 @@
+package cn.autumnclouds.filesystem.index;
+
+import cn.autumnclouds.util.DirectoryWatcher;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 基础目录下整棵目录树的持久化路径索引。
+ * 索引由两部分组成:
+ * <ul>
+ *     <li>磁盘快照 {@link IndexSnapshot}: 按路径排序的定长记录以及按名称、扩展名排序的序号数组, 启动时直接内存映射, 按名称、
+ *     名称前缀、扩展名和目录查询都只需二分查找;</li>
+ *     <li>内存增量: 快照之后发生的新增、修改和删除, 保存在按路径排序的跳表中, 查询时覆盖快照中的同名记录。</li>
+ * </ul>
+ * 启动后在后台遍历一次目录树, 修正程序未运行期间发生的变化并为目录注册 WatchService 监听;
+ * 之后由监听事件和本程序自身的修改操作增量维护。增量过多时在后台合并为新的快照, 程序退出时也会保存一次。
+ * 索引中的路径为相对于基础目录、以 "/" 分隔的路径。
+ *
+ * @author Fu Qiujie
+ * @since 2024/5/13
+ */
+public class PathIndex {
+
+    // 索引文件位置的系统属性名
+    public static final String INDEX_FILE_PROPERTY = "fs.index.file";
+
+    // 最多监听的目录数的系统属性名, 超出的目录只由本程序的修改操作维护
+    public static final String MAX_WATCHES_PROPERTY = "fs.index.maxWatches";
+
+    // 增量条目数超过该值(且超过快照条目数的 1/10)时合并为新的快照
+    private static final int COMPACT_THRESHOLD = 10_000;
+
+    /**
+     * 查询类型。
+     */
+    public enum QueryType {
+        // 名称等于关键字
+        NAME,
+        // 名称以关键字开头
+        NAME_PREFIX,
+        // 扩展名(最后一个 "." 之后的部分)等于关键字
+        EXTENSION,
+        // 位于关键字表示的目录之下(关键字为空时表示整棵树)
+        PATH_PREFIX
+    }
+
+    // 删除标记
+    private static final IndexEntry TOMBSTONE = new IndexEntry("", 0, 0, false);
+
+    private final Path root;
+    private final Path indexFile;
+    private final int maxWatches = Integer.getInteger(MAX_WATCHES_PROPERTY, 10_000);
+    private final DirectoryWatcher watcher;
+    private final AtomicInteger watches = new AtomicInteger();
+    private final ConcurrentSkipListMap<String, IndexEntry> overlay = new ConcurrentSkipListMap<>();
+    private final ExecutorService maintainer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "path-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private volatile IndexSnapshot snapshot;
+    private volatile boolean ready;
+    // 保护增量与快照的比较: put/remove 的比较和修改、save 复制增量和替换快照都在该锁内进行
+    private final Object overlayLock = new Object();
+    // save 复制增量之后、替换快照之前为 true, 此时的修改一律写入增量, 不能与即将被替换的旧快照比较
+    private boolean saving;
+
+    /**
+     * 为目录树创建索引, 加载已有的快照并在后台开始与磁盘同步。
+     *
+     * @param root 目录树的根目录
+     */
+    public PathIndex(Path root) {
+        this(root, Paths.get(System.getProperty(INDEX_FILE_PROPERTY, defaultIndexFile(root).toString())));
+    }
+
+    /**
+     * 为目录树创建索引, 快照保存在指定的文件中。
+     *
+     * @param root      目录树的根目录
+     * @param indexFile 索引文件, 每个根目录应使用不同的文件
+     */
+    public PathIndex(Path root, Path indexFile) {
+        this(root, indexFile, new DirectoryWatcher());
+    }
+
+    /**
+     * 为目录树创建索引, 快照保存在指定的文件中, 使用与其他缓存共享的目录监听器。
+     *
+     * @param root      目录树的根目录
+     * @param indexFile 索引文件, 每个根目录应使用不同的文件
+     * @param watcher   目录监听器
+     */
+    public PathIndex(Path root, Path indexFile, DirectoryWatcher watcher) {
+        this.root = root.toAbsolutePath().normalize();
+        this.indexFile = indexFile;
+        this.watcher = watcher;
+        IndexSnapshot loaded;
+        try {
+            loaded = IndexSnapshot.open(indexFile, this.root.toString());
+        } catch (IOException e) {
+            loaded = null;
+        }
+        snapshot = loaded == null ? IndexSnapshot.EMPTY : loaded;
+        watcher.addListener(directory -> maintainer.execute(() -> rescanDirectory(directory)));
+        maintainer.execute(this::reconcile);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::saveQuietly, "path-index-save"));
+    }
+
+    /**
+     * 获取目录树默认的索引文件, 位于用户目录下, 按根目录区分。
+     *
+     * @param root 目录树的根目录
+     * @return 索引文件
+     */
+    public static Path defaultIndexFile(Path root) {
+        return Paths.get(System.getProperty("user.home"), ".sfs",
+                "path-index-" + Integer.toHexString(root.toAbsolutePath().normalize().toString().hashCode()));
+    }
+
+    /**
+     * 判断后台同步是否已经完成, 完成前查询结果可能不完整。
+     *
+     * @return 已完成时返回 true
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 查找路径对应的条目。
+     *
+     * @param absolutePath 绝对路径
+     * @return 条目, 不在索引中时返回 null
+     */
+    public IndexEntry get(Path absolutePath) {
+        String path = relativize(absolutePath);
+        if (path == null) {
+            return null;
+        }
+        IndexEntry entry = overlay.get(path);
+        if (entry != null) {
+            return entry == TOMBSTONE ? null : entry;
+        }
+        return snapshot.get(path);
+    }
+
+    /**
+     * 查询索引, 结果按快照中的顺序和增量中的路径顺序回调。
+     *
+     * @param type     查询类型
+     * @param key      关键字, PATH_PREFIX 查询时为相对路径
+     * @param consumer 结果回调
+     */
+    public void query(QueryType type, String key, Consumer<IndexEntry> consumer) {
+        snapshot.query(type, key, entry -> {
+            if (!overlay.containsKey(entry.path())) {
+                consumer.accept(entry);
+            }
+        });
+        Map<String, IndexEntry> candidates = overlay;
+        if (type == QueryType.PATH_PREFIX && !key.isEmpty()) {
+            candidates = overlay.subMap(key + "/", true, key + "0", false);
+        }
+        for (IndexEntry entry : candidates.values()) {
+            if (entry != TOMBSTONE && matches(type, key, entry)) {
+                consumer.accept(entry);
+            }
+        }
+    }
+
+    /**
+     * 列出目录的直接子条目, 快照中跳过各子目录的子树, 不需要扫描整棵子树。
+     *
+     * @param path     目录的相对路径, 为空时表示根目录
+     * @param consumer 结果回调
+     */
+    private void children(String path, Consumer<IndexEntry> consumer) {
+        snapshot.children(path, entry -> {
+            if (!overlay.containsKey(entry.path())) {
+                consumer.accept(entry);
+            }
+        });
+        Map<String, IndexEntry> candidates = path.isEmpty() ? overlay : overlay.subMap(path + "/", true, path + "0", false);
+        int start = path.isEmpty() ? 0 : path.length() + 1;
+        for (IndexEntry entry : candidates.values()) {
+            if (entry != TOMBSTONE && entry.path().indexOf('/', start) < 0) {
+                consumer.accept(entry);
+            }
+        }
+    }
+
+    /**
+     * 根据磁盘上的当前状态更新路径及其下所有条目, 由本程序的修改操作调用。
+     *
+     * @param absolutePath 被修改的文件或目录的绝对路径
+     */
+    public void refresh(Path absolutePath) {
+        String path = relativize(absolutePath);
+        if (path == null) {
+            return;
+        }
+        BasicFileAttributes attributes = readAttributes(absolutePath);
+        if (attributes == null) {
+            remove(path);
+        } else if (attributes.isDirectory()) {
+            indexTree(absolutePath, null);
+        } else {
+            put(path, attributes);
+        }
+        // 父目录的修改时间随之变化
+        Path parent = absolutePath.getParent();
+        String parentPath = parent == null ? null : relativize(parent);
+        if (parentPath != null && !parentPath.isEmpty()) {
+            BasicFileAttributes parentAttributes = readAttributes(parent);
+            if (parentAttributes != null) {
+                put(parentPath, parentAttributes);
+            }
+        }
+        compactIfNecessary();
+    }
+
+    /**
+     * 将快照和增量合并为新的快照并保存。
+     * 保存期间发生的修改保留在增量中, 替换快照时只移除已写入快照且之后未再变化的增量。
+     *
+     * @throws IOException 写入索引文件失败
+     */
+    public synchronized void save() throws IOException {
+        if (overlay.isEmpty() && snapshot != IndexSnapshot.EMPTY) {
+            return;
+        }
+        Map<String, IndexEntry> changes;
+        synchronized (overlayLock) {
+            changes = Map.copyOf(overlay);
+            saving = true;
+        }
+        try {
+            writeSnapshot(changes);
+        } finally {
+            synchronized (overlayLock) {
+                saving = false;
+            }
+        }
+    }
+
+    private void writeSnapshot(Map<String, IndexEntry> changes) throws IOException {
+        List<IndexEntry> entries = new ArrayList<>();
+        snapshot.query(QueryType.PATH_PREFIX, "", entry -> {
+            if (!changes.containsKey(entry.path())) {
+                entries.add(entry);
+            }
+        });
+        for (IndexEntry entry : changes.values()) {
+            if (entry != TOMBSTONE) {
+                entries.add(entry);
+            }
+        }
+        Files.createDirectories(indexFile.getParent());
+        Path temp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 256 * 1024))) {
+            IndexSnapshot.write(out, root.toString(), entries);
+        }
+        Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        IndexSnapshot saved = IndexSnapshot.open(indexFile, root.toString());
+        if (saved == null) {
+            // 保留增量, 下次保存时重试
+            throw new IOException("failed to open saved index: " + indexFile);
+        }
+        synchronized (overlayLock) {
+            snapshot = saved;
+            // 只移除已写入快照且之后未再变化的增量
+            changes.forEach(overlay::remove);
+        }
+    }
+
+    /**
+     * 后台遍历整棵目录树, 修正快照中过期的条目, 并监听遍历到的目录。
+     */
+    private void reconcile() {
+        Set<String> seen = new HashSet<>();
+        indexTree(root, seen);
+        List<String> removed = new ArrayList<>();
+        snapshot.query(QueryType.PATH_PREFIX, "", entry -> {
+            if (!seen.contains(entry.path())) {
+                removed.add(entry.path());
+            }
+        });
+        removed.forEach(path -> overlay.put(path, TOMBSTONE));
+        ready = true;
+        saveQuietly();
+    }
+
+    /**
+     * 将目录(及其下所有条目)写入增量中与快照不一致的部分, 并监听其中的目录。
+     */
+    private void indexTree(Path directory, Set<String> seen) {
+        try {
+            Files.walkFileTree(directory, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (watches.get() < maxWatches && !watcher.isWatching(PathIndex.this, dir) && watcher.watch(PathIndex.this, dir)) {
+                        watches.incrementAndGet();
+                    }
+                    visit(dir, attrs);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    visit(file, attrs);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+
+                private void visit(Path file, BasicFileAttributes attrs) {
+                    String path = relativize(file);
+                    if (path == null || path.isEmpty()) {
+                        return;
+                    }
+                    if (seen != null) {
+                        seen.add(path);
+                    }
+                    put(path, attrs);
+                }
+            });
+        } catch (IOException e) {
+            // 目录在遍历过程中被删除
+        }
+    }
+
+    /**
+     * 重新读取发生变化的目录, 更新其直接子条目; 新出现的子目录整棵加入索引, 消失的子条目连同其下所有条目一起删除。
+     */
+    private void rescanDirectory(Path directory) {
+        String path = relativize(directory);
+        if (path == null) {
+            return;
+        }
+        if (readAttributes(directory) == null) {
+            remove(path);
+            return;
+        }
+        Set<String> present = new HashSet<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path child : stream) {
+                BasicFileAttributes attributes = readAttributes(child);
+                if (attributes == null) {
+                    continue;
+                }
+                String childPath = relativize(child);
+                present.add(childPath);
+                IndexEntry existing = getRelative(childPath);
+                if (attributes.isDirectory() && (existing == null || !existing.directory())) {
+                    indexTree(child, null);
+                } else {
+                    put(childPath, attributes);
+                }
+            }
+        } catch (IOException e) {
+            return;
+        }
+        List<String> missing = new ArrayList<>();
+        children(path, entry -> {
+            if (!present.contains(entry.path())) {
+                missing.add(entry.path());
+            }
+        });
+        missing.forEach(this::remove);
+        if (!path.isEmpty()) {
+            BasicFileAttributes attributes = readAttributes(directory);
+            if (attributes != null) {
+                put(path, attributes);
+            }
+        }
+        compactIfNecessary();
+    }
+
+    private IndexEntry getRelative(String path) {
+        IndexEntry entry = overlay.get(path);
+        if (entry != null) {
+            return entry == TOMBSTONE ? null : entry;
+        }
+        return snapshot.get(path);
+    }
+
+    /**
+     * 写入条目, 与快照中的记录一致时只移除增量。
+     */
+    private void put(String path, BasicFileAttributes attributes) {
+        IndexEntry entry = new IndexEntry(path, attributes.isDirectory() ? 0 : attributes.size(),
+                attributes.lastModifiedTime().toMillis(), attributes.isDirectory());
+        synchronized (overlayLock) {
+            if (!saving && entry.equals(snapshot.get(path))) {
+                overlay.remove(path);
+            } else {
+                overlay.put(path, entry);
+            }
+        }
+    }
+
+    /**
+     * 删除路径及其下所有条目。
+     */
+    private void remove(String path) {
+        List<String> removed = new ArrayList<>();
+        removed.add(path);
+        query(QueryType.PATH_PREFIX, path, entry -> removed.add(entry.path()));
+        synchronized (overlayLock) {
+            for (String item : removed) {
+                if (!saving && snapshot.get(item) == null) {
+                    overlay.remove(item);
+                } else {
+                    overlay.put(item, TOMBSTONE);
+                }
+            }
+        }
+    }
+
+    private void compactIfNecessary() {
+        if (ready && overlay.size() > Math.max(COMPACT_THRESHOLD, snapshot.size() / 10) && compacting.compareAndSet(false, true)) {
+            maintainer.execute(() -> {
+                try {
+                    saveQuietly();
+                } finally {
+                    compacting.set(false);
+                }
+            });
+        }
+    }
+
+    private void saveQuietly() {
+        try {
+            save();
+        } catch (IOException e) {
+            // 保存失败时下次启动重新同步即可
+        }
+    }
+
+    /**
+     * 判断条目是否满足查询条件, 供不经过索引直接遍历目录树的实现使用。
+     *
+     * @param type  查询类型
+     * @param key   关键字
+     * @param entry 条目
+     * @return 满足条件时返回 true
+     */
+    public static boolean matches(QueryType type, String key, IndexEntry entry) {
+        return switch (type) {
+            case NAME -> entry.name().equals(key);
+            case NAME_PREFIX -> entry.name().startsWith(key);
+            case EXTENSION -> entry.extension().equals(key);
+            case PATH_PREFIX -> key.isEmpty() || entry.path().startsWith(key + "/");
+        };
+    }
+
+    private String relativize(Path absolutePath) {
+        Path path = absolutePath.toAbsolutePath().normalize();
+        if (!path.startsWith(root)) {
+            return null;
+        }
+        return root.relativize(path).toString().replace(path.getFileSystem().getSeparator(), "/");
+    }
+
+    private static BasicFileAttributes readAttributes(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
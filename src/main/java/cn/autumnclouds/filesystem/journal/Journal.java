@@ -0,0 +1,223 @@
+package cn.autumnclouds.filesystem.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 预写日志文件。
+ * 文件开头是固定长度的头部, 记录已应用到文件系统的最大序号, 以及正在应用的追加写入的序号和追加前的文件大小;
+ * 之后是按序号顺序追加的记录。一批记录只写入一次并只刷盘一次; 头部的更新只在 syncHeader 为 true 时立即刷盘,
+ * 否则只保证进程崩溃后可见。
+ * 所有记录都已应用且文件超过上限时, 截断到只剩头部。
+ *
+ * @author Fu Qiujie
+ * @since 2024/5/25
+ */
+final class Journal {
+
+    // 头部格式: magic(4) appliedLsn(8) pendingLsn(8) pendingSize(8)
+    private static final int MAGIC = 0x53464a31;
+    private static final int HEADER_SIZE = 28;
+    private static final int APPLIED_OFFSET = 4;
+    // 恢复时每次读取的窗口大小, 比窗口大的记录按记录长度单独读取
+    private static final int RECOVERY_WINDOW_SIZE = 1024 * 1024;
+
+    private final FileChannel channel;
+    // 持有到进程退出, 防止其他进程同时使用同一个日志
+    private final FileLock fileLock;
+    private final long maxBytes;
+    private final boolean syncHeader;
+    private long appliedLsn;
+    private long pendingLsn;
+    private long pendingSize;
+    private long lastLsn;
+    private long size;
+
+    /**
+     * 打开日志文件, 不存在时创建。
+     *
+     * @param file     日志文件
+     * @param maxBytes   全部记录都已应用后, 文件超过该大小时截断
+     * @param syncHeader 头部的每次更新是否立即刷盘
+     * @throws IOException 文件不是日志文件或正被其他进程使用
+     */
+    Journal(Path file, long maxBytes, boolean syncHeader) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.maxBytes = maxBytes;
+        this.syncHeader = syncHeader;
+        try {
+            this.fileLock = channel.tryLock();
+            if (fileLock == null) {
+                throw new IOException("journal is in use: " + file);
+            }
+            this.size = channel.size();
+            if (size == 0) {
+                writeHeader(0, 0, 0);
+                size = HEADER_SIZE;
+                channel.force(true);
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            if (size < HEADER_SIZE || header.getInt(0) != MAGIC) {
+                throw new IOException("not a journal file: " + file);
+            }
+            this.appliedLsn = header.getLong(APPLIED_OFFSET);
+            this.pendingLsn = header.getLong(APPLIED_OFFSET + 8);
+            this.pendingSize = header.getLong(APPLIED_OFFSET + 16);
+            this.lastLsn = appliedLsn;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 按窗口读取尚未应用的记录, 丢弃末尾不完整或校验失败的部分(写入时崩溃留下的)。
+     * 只有一条记录确实超出文件末尾或校验失败时才截断, 内存占用与日志大小无关。
+     *
+     * @return 按序号排列的未应用记录
+     * @throws IOException 读取失败
+     */
+    synchronized List<JournalRecord> recover() throws IOException {
+        List<JournalRecord> records = new ArrayList<>();
+        ByteBuffer window = ByteBuffer.allocate(RECOVERY_WINDOW_SIZE);
+        long position = HEADER_SIZE;
+        while (position < size) {
+            window.clear().limit((int) Math.min(window.capacity(), size - position));
+            while (window.hasRemaining() && channel.read(window, position + window.position()) > 0) {
+                // 读满为止
+            }
+            window.flip();
+            JournalRecord record;
+            while ((record = JournalRecord.decode(window)) != null) {
+                lastLsn = Math.max(lastLsn, record.lsn());
+                if (record.lsn() > appliedLsn) {
+                    records.add(record);
+                }
+            }
+            if (window.position() > 0) {
+                // 窗口末尾被截断的记录从下一个窗口开头重新读取
+                position += window.position();
+                continue;
+            }
+            // 窗口开头的记录无法解码: 记录比窗口大时按记录长度扩大窗口重新读取, 否则是不完整或校验失败的记录
+            if (window.remaining() < JournalRecord.PREFIX_SIZE) {
+                break;
+            }
+            long recordLength = JournalRecord.PREFIX_SIZE + (long) window.getInt(0);
+            if (recordLength <= window.limit() || recordLength > Integer.MAX_VALUE || position + recordLength > size) {
+                break;
+            }
+            window = ByteBuffer.allocate((int) recordLength);
+        }
+        if (position < size) {
+            size = position;
+            channel.truncate(size);
+        }
+        return records;
+    }
+
+    /**
+     * 追加一批记录并刷盘, 返回时这批记录已持久化。
+     *
+     * @param records 按序号排列的记录
+     * @throws IOException 写入或刷盘失败
+     */
+    synchronized void append(List<JournalRecord> records) throws IOException {
+        int length = 0;
+        for (JournalRecord record : records) {
+            length = Math.addExact(length, JournalRecord.encodedLength(record.arguments()));
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        for (JournalRecord record : records) {
+            record.encode(buffer);
+        }
+        buffer.flip();
+        long start = size;
+        try {
+            while (buffer.hasRemaining()) {
+                size += channel.write(buffer, size);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            // 去掉写了一半的批次, 否则之后追加的记录在恢复时无法读到
+            size = start;
+            channel.truncate(start);
+            throw e;
+        }
+        lastLsn = records.get(records.size() - 1).lsn();
+    }
+
+    /**
+     * 记录即将应用一次追加写入, 崩溃恢复时据此判断追加是否已经完成。同时声明之前的记录都已应用,
+     * 调用方需先将它们持久化。
+     *
+     * @param lsn        追加写入记录的序号
+     * @param sizeBefore 追加前的文件大小, 文件不存在时为 -1
+     * @throws IOException 写入失败
+     */
+    synchronized void markPending(long lsn, long sizeBefore) throws IOException {
+        writeHeader(lsn - 1, lsn, sizeBefore);
+        if (syncHeader) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * 记录序号不大于 lsn 的记录都已应用, 调用方需先将这些记录的修改持久化。全部记录都已应用且文件超过上限时截断日志。
+     *
+     * @param lsn 已应用的最大序号
+     * @throws IOException 写入失败
+     */
+    synchronized void markApplied(long lsn) throws IOException {
+        writeHeader(lsn, 0, 0);
+        if (lsn == lastLsn && size > HEADER_SIZE + maxBytes) {
+            truncate();
+        } else if (syncHeader) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * 截断已全部应用的日志, 只保留头部。
+     *
+     * @throws IOException 写入失败
+     */
+    synchronized void truncate() throws IOException {
+        writeHeader(lastLsn, 0, 0);
+        channel.truncate(HEADER_SIZE);
+        size = HEADER_SIZE;
+        channel.force(true);
+    }
+
+    long lastLsn() {
+        return lastLsn;
+    }
+
+    long pendingLsn() {
+        return pendingLsn;
+    }
+
+    long pendingSize() {
+        return pendingSize;
+    }
+
+    private void writeHeader(long applied, long pending, long sizeBefore) throws IOException {
+        appliedLsn = applied;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putLong(applied).putLong(pending).putLong(sizeBefore).flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+    }
+}
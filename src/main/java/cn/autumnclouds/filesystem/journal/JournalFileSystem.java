@@ -0,0 +1,589 @@
+package cn.autumnclouds.filesystem.journal;
+
+import cn.autumnclouds.entity.vo.FileVo;
+import cn.autumnclouds.filesystem.FileSystem;
+import cn.autumnclouds.filesystem.cache.DirectoryUsage;
+import cn.autumnclouds.filesystem.index.PathIndex;
+import cn.autumnclouds.filesystem.journal.JournalRecord.Operation;
+import cn.autumnclouds.metrics.IoStatistics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * 预写日志层, 使修改操作在崩溃后保持一致, 并把多次写入合并为一次刷盘。
+ * 修改操作(mkdir / touch / rm / echo / cp / sync / zip / unzip)先以绝对路径记录到日志中, 调用立即返回;
+ * 写日志线程把积累的记录作为一批追加到日志文件, 每批只刷盘一次(组提交), 应用线程再按日志顺序把记录应用到下层文件系统。
+ * 启动时重放日志中尚未应用的记录, 中途崩溃的操作被重新执行, 追加写入根据日志头部记录的原大小判断是否已完成, 不会重复追加。
+ * 读取操作和 cd 先等待之前提交的修改全部应用, 保证能读到自己的写入。
+ * <ul>
+ *     <li>fs.journal: 日志文件路径, 未设置时不启用日志</li>
+ *     <li>fs.journal.syncCommit: 修改操作是否等到记录刷盘后再返回, 默认 false(只保证进程崩溃后的一致性)。
+ *     开启后应用线程在推进日志头部的已应用序号之前, 先把这些记录涉及的文件和目录刷盘(fsync), 头部的更新也立即刷盘,
+ *     系统崩溃后同样可以恢复; 追加写入前需要刷盘一次, 连续追加的开销较大</li>
+ *     <li>fs.journal.maxPending: 已提交但未应用的记录数上限, 超过时提交方等待, 默认 4096</li>
+ *     <li>fs.journal.maxBytes: 全部记录应用后日志超过该大小时截断, 默认 64MB</li>
+ * </ul>
+ * 后台拷贝(cp -d)由任务调度执行, 加解密的密钥不能写入日志, 这两类操作以及通过通道的写入不记录日志,
+ * 等待之前的修改应用后直接交给下层文件系统。
+ * 修改在应用线程上执行, 下层文件系统输出的信息和错误出现在应用线程上, 不计入调用方的操作统计;
+ * 应用出错的记录额外输出一行带序号和操作的说明, 以便对应到提交它的命令。出错的记录仍视为已应用(重放会得到相同的错误),
+ * 而修改未能持久化(刷新或刷盘失败)时不推进日志头部的已应用序号, 涉及的路径在下一批应用后一起重试。
+ *
+ * @author Fu Qiujie
+ * @since 2024/5/25
+ */
+public class JournalFileSystem implements FileSystem {
+
+    // 日志文件路径的系统属性名
+    public static final String JOURNAL_PROPERTY = "fs.journal";
+
+    // 修改操作是否等待刷盘的系统属性名
+    public static final String SYNC_COMMIT_PROPERTY = "fs.journal.syncCommit";
+
+    // 未应用记录数上限的系统属性名
+    public static final String MAX_PENDING_PROPERTY = "fs.journal.maxPending";
+
+    // 日志截断阈值的系统属性名
+    public static final String MAX_BYTES_PROPERTY = "fs.journal.maxBytes";
+
+    private static final boolean SYNC_COMMIT = Boolean.getBoolean(SYNC_COMMIT_PROPERTY);
+
+    private static final int MAX_PENDING = Math.max(1, Integer.getInteger(MAX_PENDING_PROPERTY, 4096));
+
+    private static final long MAX_BYTES = Long.getLong(MAX_BYTES_PROPERTY, 64L * 1024 * 1024);
+
+    private final FileSystem delegate;
+    private final Journal journal;
+
+    // 以下序号和待写入的记录由 lock 保护
+    private final Object lock = new Object();
+    private final List<JournalRecord> pending = new ArrayList<>();
+    private long submittedLsn;
+    private long durableLsn;
+    private long appliedLsn;
+
+    // 已刷盘、等待应用的批次
+    private final BlockingQueue<List<JournalRecord>> committed = new LinkedBlockingQueue<>();
+
+    // 当前工作目录, 规范化的绝对路径, 只在 cd 成功后更新
+    private volatile String currentDirectory = "/";
+
+    /**
+     * 打开日志, 重放其中尚未应用的记录, 然后启动写日志和应用线程。
+     *
+     * @param delegate    下层文件系统, 以 "/" 开头的路径相对于它的根目录
+     * @param journalFile 日志文件
+     * @throws IOException 日志文件无法打开或读取
+     */
+    public JournalFileSystem(FileSystem delegate, Path journalFile) throws IOException {
+        this.delegate = delegate;
+        this.journal = new Journal(journalFile, MAX_BYTES, SYNC_COMMIT);
+        List<JournalRecord> records = journal.recover();
+        Set<String> replayed = new LinkedHashSet<>();
+        for (JournalRecord record : records) {
+            recover(record);
+            replayed.add(touchedPath(record));
+        }
+        // 重放的修改持久化之后才能丢弃日志
+        persist(replayed);
+        journal.truncate();
+        if (!records.isEmpty()) {
+            System.out.println("replayed " + records.size() + " journal records");
+        }
+        submittedLsn = durableLsn = appliedLsn = journal.lastLsn();
+        start("journal-writer", this::writeLoop);
+        start("journal-applier", this::applyLoop);
+        // 退出前应用完已提交的修改
+        Runtime.getRuntime().addShutdownHook(new Thread(this::awaitApplied, "journal-shutdown"));
+    }
+
+    /**
+     * 系统属性 fs.journal 设置时在文件系统外加上日志层。
+     *
+     * @param delegate 下层文件系统
+     * @return 日志层, 未设置日志文件时返回下层文件系统本身
+     * @throws IOException 日志文件无法打开或读取
+     */
+    public static FileSystem fromProperties(FileSystem delegate) throws IOException {
+        String journalFile = System.getProperty(JOURNAL_PROPERTY, "");
+        return journalFile.isBlank() ? delegate : new JournalFileSystem(delegate, Paths.get(journalFile));
+    }
+
+    @Override
+    public void createDirectory(String directoryName) {
+        submit(Operation.CREATE_DIRECTORY, absolute(directoryName));
+    }
+
+    @Override
+    public void createFile(String fileName) {
+        submit(Operation.CREATE_FILE, absolute(fileName));
+    }
+
+    @Override
+    public void cat(String fileName) {
+        awaitApplied();
+        delegate.cat(fileName);
+    }
+
+    @Override
+    public void cat(String fileName, long offset, long length) {
+        awaitApplied();
+        delegate.cat(fileName, offset, length);
+    }
+
+    @Override
+    public void head(String fileName, int lines) {
+        awaitApplied();
+        delegate.head(fileName, lines);
+    }
+
+    @Override
+    public void tail(String fileName, int lines) {
+        awaitApplied();
+        delegate.tail(fileName, lines);
+    }
+
+    @Override
+    public void delete(String path) {
+        submit(Operation.DELETE, absolute(path));
+    }
+
+    @Override
+    public void echo(String content, String fileName, boolean append) {
+        submit(append ? Operation.APPEND : Operation.WRITE, absolute(fileName), content);
+    }
+
+    @Override
+    public File[] listContents() {
+        awaitApplied();
+        return delegate.listContents();
+    }
+
+    @Override
+    public List<FileVo> listFileVos() {
+        awaitApplied();
+        return delegate.listFileVos();
+    }
+
+    @Override
+    public void listContents(Predicate<FileVo> visitor) {
+        awaitApplied();
+        delegate.listContents(visitor);
+    }
+
+    @Override
+    public List<FileVo> listFileVos(String directoryName) {
+        awaitApplied();
+        return delegate.listFileVos(directoryName);
+    }
+
+    @Override
+    public FileVo stat(String path) {
+        awaitApplied();
+        return delegate.stat(path);
+    }
+
+    @Override
+    public ReadableByteChannel newReadChannel(String path) throws IOException {
+        awaitApplied();
+        return delegate.newReadChannel(path);
+    }
+
+    @Override
+    public WritableByteChannel newWriteChannel(String path) throws IOException {
+        awaitApplied();
+        return delegate.newWriteChannel(path);
+    }
+
+    @Override
+    public void flush() {
+        awaitApplied();
+        delegate.flush();
+    }
+
+    @Override
+    public void force(String path) throws IOException {
+        awaitApplied();
+        delegate.force(path);
+    }
+
+    @Override
+    public void notifyModified(String path) {
+        delegate.notifyModified(path);
+    }
+
+    @Override
+    public void changeDirectory(String directoryName) {
+        awaitApplied();
+        String absolutePath = absolute(directoryName);
+        delegate.changeDirectory(absolutePath);
+        FileVo fileVo = delegate.stat(absolutePath);
+        if (fileVo != null && "dir".equals(fileVo.getType())) {
+            currentDirectory = absolutePath;
+        }
+    }
+
+    @Override
+    public void copy(String sourcePath, String destinationPath, boolean bg) {
+        if (bg) {
+            awaitApplied();
+            delegate.copy(sourcePath, destinationPath, true);
+            return;
+        }
+        submit(Operation.COPY, absolute(sourcePath), absolute(destinationPath));
+    }
+
+    @Override
+    public void dedupCopy(String sourcePath, String destinationPath, boolean link) {
+        submit(Operation.DEDUP_COPY, absolute(sourcePath), absolute(destinationPath), String.valueOf(link));
+    }
+
+    @Override
+    public void sync(String sourcePath, String destinationPath, boolean delta, boolean deleteOrphans) {
+        submit(Operation.SYNC, absolute(sourcePath), absolute(destinationPath), String.valueOf(delta), String.valueOf(deleteOrphans));
+    }
+
+    @Override
+    public void find(String directoryName, Predicate<FileVo> filter, Consumer<String> consumer) {
+        awaitApplied();
+        delegate.find(directoryName, filter, consumer);
+    }
+
+    @Override
+    public void grep(String directoryName, String text, Predicate<FileVo> filter, Consumer<String> consumer) {
+        awaitApplied();
+        delegate.grep(directoryName, text, filter, consumer);
+    }
+
+    @Override
+    public void locate(PathIndex.QueryType type, String key, Consumer<String> consumer) {
+        awaitApplied();
+        delegate.locate(type, key, consumer);
+    }
+
+    @Override
+    public DirectoryUsage diskUsage(String directoryName) {
+        awaitApplied();
+        return delegate.diskUsage(directoryName);
+    }
+
+    @Override
+    public List<DirectoryUsage> largestDirectories(String directoryName, int n) {
+        awaitApplied();
+        return delegate.largestDirectories(directoryName, n);
+    }
+
+    @Override
+    public void encryptFile(String filePath, String encryptedFilePath, String secretKey) {
+        awaitApplied();
+        delegate.encryptFile(filePath, encryptedFilePath, secretKey);
+    }
+
+    @Override
+    public void decryptFile(String encryptedFilePath, String decryptedFilePath, String secretKey) {
+        awaitApplied();
+        delegate.decryptFile(encryptedFilePath, decryptedFilePath, secretKey);
+    }
+
+    @Override
+    public void compressFile(String filePath, String compressedFilePath, int level, int workers) {
+        submit(Operation.COMPRESS, absolute(filePath), absolute(compressedFilePath), String.valueOf(level), String.valueOf(workers));
+    }
+
+    @Override
+    public void decompressFile(String filePath, String decompressedFilePath, List<String> patterns) {
+        List<String> arguments = new ArrayList<>();
+        arguments.add(absolute(filePath));
+        arguments.add(absolute(decompressedFilePath));
+        arguments.addAll(patterns);
+        submit(Operation.DECOMPRESS, arguments.toArray(new String[0]));
+    }
+
+    /**
+     * 提交一条修改记录。未应用的记录过多时等待; 开启 fs.journal.syncCommit 时等到记录刷盘后返回。
+     */
+    private void submit(Operation operation, String... arguments) {
+        List<String> argumentList = List.of(arguments);
+        try {
+            JournalRecord.encodedLength(argumentList);
+        } catch (IllegalArgumentException e) {
+            fail("failed to write journal");
+            return;
+        }
+        try {
+            synchronized (lock) {
+                while (submittedLsn - appliedLsn >= MAX_PENDING) {
+                    lock.wait();
+                }
+                JournalRecord record = new JournalRecord(++submittedLsn, operation, argumentList);
+                pending.add(record);
+                lock.notifyAll();
+                while (SYNC_COMMIT && durableLsn < record.lsn()) {
+                    lock.wait();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 等待已提交的修改全部应用到下层文件系统。
+     */
+    private void awaitApplied() {
+        try {
+            synchronized (lock) {
+                long target = submittedLsn;
+                while (appliedLsn < target) {
+                    lock.wait();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 写日志线程: 取出积累的全部记录作为一批写入并刷盘, 刷盘期间到达的记录进入下一批。
+     */
+    private void writeLoop() throws InterruptedException {
+        while (true) {
+            List<JournalRecord> batch;
+            synchronized (lock) {
+                while (pending.isEmpty()) {
+                    lock.wait();
+                }
+                batch = List.copyOf(pending);
+                pending.clear();
+            }
+            try {
+                journal.append(batch);
+            } catch (IOException | ArithmeticException e) {
+                // 日志写入失败时仍然应用修改, 只是崩溃后无法恢复
+                fail("failed to write journal");
+            }
+            synchronized (lock) {
+                durableLsn = batch.get(batch.size() - 1).lsn();
+                lock.notifyAll();
+            }
+            committed.put(batch);
+        }
+    }
+
+    /**
+     * 应用线程: 按日志顺序应用已刷盘的批次, 每批结束后持久化涉及的路径, 再更新日志头部的已应用序号。
+     */
+    private void applyLoop() throws InterruptedException {
+        // 已应用但尚未持久化的修改涉及的路径, 持久化失败时保留到下一次重试
+        Set<String> unpersisted = new LinkedHashSet<>();
+        IoStatistics statistics = IoStatistics.current();
+        while (true) {
+            List<JournalRecord> batch = committed.take();
+            for (JournalRecord record : batch) {
+                long errors = statistics.getErrors();
+                try {
+                    if (record.operation() == Operation.APPEND) {
+                        markPending(record, unpersisted);
+                    }
+                    apply(record);
+                } catch (RuntimeException e) {
+                    fail("failed to apply journal record " + record.lsn());
+                }
+                unpersisted.add(touchedPath(record));
+                if (statistics.getErrors() > errors) {
+                    fail("journal record " + record.lsn() + " (" + record.operation() + " " + record.arguments().get(0)
+                            + ") failed: " + statistics.getLastError());
+                }
+            }
+            long lsn = batch.get(batch.size() - 1).lsn();
+            try {
+                persist(unpersisted);
+                journal.markApplied(lsn);
+            } catch (IOException e) {
+                // 不推进已应用序号, 崩溃后从上一次持久化的位置重放
+                fail("failed to persist journal records up to " + lsn + ": " + e.getMessage());
+            }
+            synchronized (lock) {
+                appliedLsn = lsn;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 在日志头部记录即将应用的追加写入及文件的原大小。头部同时声明之前的记录都已应用, 因此先持久化它们;
+     * 持久化失败时不写头部, 追加照常应用。
+     */
+    private void markPending(JournalRecord record, Set<String> unpersisted) {
+        try {
+            persist(unpersisted);
+            FileVo fileVo = delegate.stat(record.arguments().get(0));
+            journal.markPending(record.lsn(), fileVo == null ? -1 : fileVo.getSize());
+        } catch (IOException e) {
+            fail("failed to persist journal records before " + record.lsn() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * 持久化应用过的修改, 成功后清空路径集合。开启 fs.journal.syncCommit 时将每个路径刷盘,
+     * 否则只需让下层缓冲的写入对操作系统可见, 进程崩溃后即不会丢失。
+     *
+     * @throws IOException 刷盘失败, 或下层文件系统刷新写缓冲时报告了错误
+     */
+    private void persist(Set<String> paths) throws IOException {
+        if (paths.isEmpty()) {
+            return;
+        }
+        if (SYNC_COMMIT) {
+            Iterator<String> iterator = paths.iterator();
+            while (iterator.hasNext()) {
+                delegate.force(iterator.next());
+                iterator.remove();
+            }
+            return;
+        }
+        IoStatistics statistics = IoStatistics.current();
+        long errors = statistics.getErrors();
+        delegate.flush();
+        if (statistics.getErrors() > errors) {
+            throw new IOException(statistics.getLastError());
+        }
+        paths.clear();
+    }
+
+    /**
+     * 获取记录修改的路径: 创建、删除和写入为第一个参数, 复制、同步和压缩为目标路径。
+     */
+    private static String touchedPath(JournalRecord record) {
+        return switch (record.operation()) {
+            case CREATE_DIRECTORY, CREATE_FILE, DELETE, WRITE, APPEND -> record.arguments().get(0);
+            case COPY, DEDUP_COPY, SYNC, COMPRESS, DECOMPRESS -> record.arguments().get(1);
+        };
+    }
+
+    private void apply(JournalRecord record) {
+        List<String> arguments = record.arguments();
+        switch (record.operation()) {
+            case CREATE_DIRECTORY -> delegate.createDirectory(arguments.get(0));
+            case CREATE_FILE -> delegate.createFile(arguments.get(0));
+            case DELETE -> delegate.delete(arguments.get(0));
+            case WRITE -> delegate.echo(arguments.get(1), arguments.get(0), false);
+            case APPEND -> delegate.echo(arguments.get(1), arguments.get(0), true);
+            case COPY -> delegate.copy(arguments.get(0), arguments.get(1), false);
+            case DEDUP_COPY -> delegate.dedupCopy(arguments.get(0), arguments.get(1), Boolean.parseBoolean(arguments.get(2)));
+            case SYNC -> delegate.sync(arguments.get(0), arguments.get(1), Boolean.parseBoolean(arguments.get(2)),
+                    Boolean.parseBoolean(arguments.get(3)));
+            case COMPRESS -> delegate.compressFile(arguments.get(0), arguments.get(1), Integer.parseInt(arguments.get(2)),
+                    Integer.parseInt(arguments.get(3)));
+            case DECOMPRESS -> delegate.decompressFile(arguments.get(0), arguments.get(1), arguments.subList(2, arguments.size()));
+        }
+    }
+
+    /**
+     * 启动时重放一条记录。崩溃时正在应用的追加写入按原大小判断: 已完成时跳过, 未开始时重新追加,
+     * 只写入了一部分时恢复为原内容加上追加的内容。其他操作重新执行即可得到相同的结果。
+     */
+    private void recover(JournalRecord record) throws IOException {
+        if (record.operation() != Operation.APPEND || record.lsn() != journal.pendingLsn()) {
+            apply(record);
+            return;
+        }
+        String path = record.arguments().get(0);
+        byte[] data = record.arguments().get(1).getBytes(StandardCharsets.UTF_8);
+        long sizeBefore = journal.pendingSize();
+        FileVo fileVo = delegate.stat(path);
+        long size = fileVo == null ? -1 : fileVo.getSize();
+        if (size == Math.max(0, sizeBefore) + data.length) {
+            return;
+        }
+        if (size == sizeBefore) {
+            apply(record);
+            return;
+        }
+        ByteBuffer original = ByteBuffer.allocate((int) Math.max(0, Math.min(sizeBefore, size)));
+        if (original.capacity() > 0) {
+            try (ReadableByteChannel in = delegate.newReadChannel(path)) {
+                while (original.hasRemaining() && in.read(original) >= 0) {
+                    // 读满为止
+                }
+            }
+        }
+        try (WritableByteChannel out = delegate.newWriteChannel(path)) {
+            for (ByteBuffer buffer : new ByteBuffer[]{original.flip(), ByteBuffer.wrap(data)}) {
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+            }
+        }
+    }
+
+    /**
+     * 将路径相对于当前目录解析为规范化的绝对路径, 使日志中的记录在重放时不依赖当前目录。
+     */
+    private String absolute(String path) {
+        String normalized = path.replace('\\', '/');
+        if (!normalized.startsWith("/")) {
+            normalized = currentDirectory + "/" + normalized;
+        }
+        List<String> names = new ArrayList<>();
+        for (String name : normalized.split("/")) {
+            if (name.isEmpty() || ".".equals(name)) {
+                continue;
+            }
+            if ("..".equals(name)) {
+                if (!names.isEmpty()) {
+                    names.remove(names.size() - 1);
+                }
+                continue;
+            }
+            names.add(name);
+        }
+        return "/" + String.join("/", names);
+    }
+
+    private static void start(String name, InterruptibleLoop loop) {
+        Thread thread = new Thread(() -> {
+            try {
+                loop.run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 后台线程的循环体。
+     */
+    @FunctionalInterface
+    private interface InterruptibleLoop {
+        void run() throws InterruptedException;
+    }
+
+    /**
+     * 输出错误信息, 并计入当前线程的错误统计。
+     *
+     * @param message 错误信息。
+     */
+    private static void fail(String message) {
+        IoStatistics.recordError(message);
+        System.out.println(message);
+    }
+}
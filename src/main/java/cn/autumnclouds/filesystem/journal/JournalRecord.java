@@ -0,0 +1,116 @@
+package cn.autumnclouds.filesystem.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * 日志中的一条修改记录, 参数中的路径都是规范化的绝对路径, 重放时与当前目录无关。
+ * 编码格式: length(4) crc(4) lsn(8) operation(1) argumentCount(2) 之后每个参数为 length(4) UTF-8 内容,
+ * length 为其后全部内容的长度, crc 覆盖 lsn 及之后的内容。
+ *
+ * @param lsn       日志序号, 从 1 开始递增
+ * @param operation 操作类型
+ * @param arguments 操作的参数
+ * @author Fu Qiujie
+ * @since 2024/5/25
+ */
+record JournalRecord(long lsn, Operation operation, List<String> arguments) {
+
+    // length 和 crc 两个字段的长度
+    static final int PREFIX_SIZE = 8;
+
+    /**
+     * 记录的操作类型, 编码时使用序号, 只能在末尾添加新类型。
+     */
+    enum Operation {
+        CREATE_DIRECTORY,
+        CREATE_FILE,
+        DELETE,
+        WRITE,
+        APPEND,
+        COPY,
+        DEDUP_COPY,
+        SYNC,
+        COMPRESS,
+        DECOMPRESS
+    }
+
+    /**
+     * 将记录编码到缓冲区中。
+     *
+     * @param buffer 目标缓冲区, 剩余空间不小于 {@link #encodedLength(List)}
+     */
+    void encode(ByteBuffer buffer) {
+        int start = buffer.position();
+        buffer.position(start + PREFIX_SIZE);
+        buffer.putLong(lsn).put((byte) operation.ordinal()).putShort((short) arguments.size());
+        for (String argument : arguments) {
+            byte[] bytes = argument.getBytes(StandardCharsets.UTF_8);
+            buffer.putInt(bytes.length).put(bytes);
+        }
+        int length = buffer.position() - start - PREFIX_SIZE;
+        buffer.putInt(start, length);
+        buffer.putInt(start + 4, checksum(buffer, start + PREFIX_SIZE, length));
+    }
+
+    /**
+     * 计算一组参数编码后的记录长度。
+     *
+     * @param arguments 参数
+     * @return 包括 length 和 crc 字段的字节数
+     */
+    static int encodedLength(List<String> arguments) {
+        long length = PREFIX_SIZE + 8 + 1 + 2;
+        for (String argument : arguments) {
+            length += 4 + (long) argument.getBytes(StandardCharsets.UTF_8).length;
+        }
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("journal record is too large");
+        }
+        return (int) length;
+    }
+
+    /**
+     * 从缓冲区的当前位置解码一条记录, 成功时缓冲区前进到记录之后。
+     *
+     * @param buffer 日志内容
+     * @return 记录, 剩余内容不足一条完整的记录或校验失败时返回 null
+     * @throws IOException 记录校验通过但内容无法识别
+     */
+    static JournalRecord decode(ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        if (buffer.remaining() < PREFIX_SIZE) {
+            return null;
+        }
+        int length = buffer.getInt(start);
+        if (length < 11 || length > buffer.remaining() - PREFIX_SIZE
+                || buffer.getInt(start + 4) != checksum(buffer, start + PREFIX_SIZE, length)) {
+            return null;
+        }
+        ByteBuffer content = buffer.slice(start + PREFIX_SIZE, length);
+        long lsn = content.getLong();
+        int operation = content.get();
+        int count = content.getShort() & 0xFFFF;
+        if (operation < 0 || operation >= Operation.values().length) {
+            throw new IOException("unknown journal operation: " + operation);
+        }
+        List<String> arguments = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = new byte[content.getInt()];
+            content.get(bytes);
+            arguments.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        buffer.position(start + PREFIX_SIZE + length);
+        return new JournalRecord(lsn, Operation.values()[operation], List.copyOf(arguments));
+    }
+
+    private static int checksum(ByteBuffer buffer, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(offset, length));
+        return (int) crc.getValue();
+    }
+}
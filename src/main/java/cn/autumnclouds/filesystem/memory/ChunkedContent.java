@@ -0,0 +1,309 @@
+package cn.autumnclouds.filesystem.memory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 内存文件的内容, 存放在固定大小的堆外分块中。
+ * 文件增长时按块追加, 不需要像单个 byte[] 那样整体复制, 大文件也不会给堆带来 GC 压力;
+ * 释放的块归还到共享的空闲块池中供其他文件复用。
+ * 读操作之间可以并发, 写操作互斥。
+ * <ul>
+ *     <li>fs.memory.chunkSize: 分块大小, 默认 64KB</li>
+ *     <li>fs.memory.maxBytes: 所有内存文件可使用的堆外内存上限, 默认 1GB</li>
+ * </ul>
+ *
+ * @author Fu Qiujie
+ * @since 2024/5/22
+ */
+final class ChunkedContent {
+
+    // 分块大小的系统属性名
+    static final String CHUNK_SIZE_PROPERTY = "fs.memory.chunkSize";
+
+    // 堆外内存上限的系统属性名
+    static final String MAX_BYTES_PROPERTY = "fs.memory.maxBytes";
+
+    static final int CHUNK_SIZE = Math.max(4096, Integer.getInteger(CHUNK_SIZE_PROPERTY, 64 * 1024));
+
+    private static final long MAX_BYTES = Long.getLong(MAX_BYTES_PROPERTY, 1024L * 1024 * 1024);
+
+    // 已分配(包括空闲池中)的堆外内存字节数
+    private static final AtomicLong ALLOCATED = new AtomicLong();
+
+    // 空闲块池
+    private static final ConcurrentLinkedQueue<ByteBuffer> FREE_CHUNKS = new ConcurrentLinkedQueue<>();
+
+    private static final ByteBuffer ZEROS = ByteBuffer.allocateDirect(CHUNK_SIZE);
+
+    // 分配加锁顺序的序号, identityHashCode 可能相同, 不能作为全序
+    private static final AtomicLong NEXT_ORDER = new AtomicLong();
+
+    private final long lockOrder = NEXT_ORDER.getAndIncrement();
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private long size;
+
+    /**
+     * 获取内容大小。
+     *
+     * @return 字节数
+     */
+    long size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 从指定位置读取数据到缓冲区。
+     *
+     * @param position 起始位置
+     * @param target   目标缓冲区
+     * @return 读取的字节数, 位置超出末尾时返回 -1
+     */
+    int read(long position, ByteBuffer target) {
+        lock.readLock().lock();
+        try {
+            if (position >= size) {
+                return target.hasRemaining() ? -1 : 0;
+            }
+            int total = 0;
+            while (target.hasRemaining() && position < size) {
+                ByteBuffer chunk = chunks.get((int) (position / CHUNK_SIZE)).duplicate();
+                int offset = (int) (position % CHUNK_SIZE);
+                int length = (int) Math.min(Math.min(CHUNK_SIZE - offset, size - position), target.remaining());
+                chunk.limit(offset + length).position(offset);
+                target.put(chunk);
+                position += length;
+                total += length;
+            }
+            return total;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 将缓冲区中的数据写入指定位置, 位置超出末尾时中间部分补零。
+     *
+     * @param position 起始位置
+     * @param source   数据
+     * @return 写入的字节数
+     * @throws IOException 堆外内存超出上限
+     */
+    int write(long position, ByteBuffer source) throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (position > size) {
+                fill(size, position);
+            }
+            int total = 0;
+            while (source.hasRemaining()) {
+                ensureCapacity(position + 1);
+                ByteBuffer chunk = chunks.get((int) (position / CHUNK_SIZE)).duplicate();
+                int offset = (int) (position % CHUNK_SIZE);
+                int length = Math.min(CHUNK_SIZE - offset, source.remaining());
+                ByteBuffer slice = source.duplicate();
+                slice.limit(slice.position() + length);
+                chunk.position(offset);
+                chunk.put(slice);
+                source.position(source.position() + length);
+                position += length;
+                total += length;
+                size = Math.max(size, position);
+            }
+            return total;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 追加数据到末尾。
+     *
+     * @param data 数据
+     * @throws IOException 堆外内存超出上限
+     */
+    void append(byte[] data) throws IOException {
+        lock.writeLock().lock();
+        try {
+            write(size, ByteBuffer.wrap(data));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 截断到指定大小, 多余的块归还到空闲池。大于当前大小时不做任何操作。
+     *
+     * @param newSize 新的大小
+     */
+    void truncate(long newSize) {
+        lock.writeLock().lock();
+        try {
+            if (newSize >= size) {
+                return;
+            }
+            int keep = (int) ((newSize + CHUNK_SIZE - 1) / CHUNK_SIZE);
+            while (chunks.size() > keep) {
+                release(chunks.remove(chunks.size() - 1));
+            }
+            size = newSize;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 释放全部块, 内容变为空。
+     */
+    void clear() {
+        truncate(0);
+    }
+
+    /**
+     * 复制一份内容。
+     *
+     * @return 新的内容
+     * @throws IOException 堆外内存超出上限
+     */
+    ChunkedContent copy() throws IOException {
+        ChunkedContent copy = new ChunkedContent();
+        copy.replaceWith(this);
+        return copy;
+    }
+
+    /**
+     * 将内容替换为另一内容的副本。
+     *
+     * @param source 源内容
+     * @return 写入的字节数
+     * @throws IOException 堆外内存超出上限
+     */
+    long replaceWith(ChunkedContent source) throws IOException {
+        return patch(source, false);
+    }
+
+    /**
+     * 将内容更新为另一内容的副本, 只重写不同的块, 再截断到源内容的大小。
+     *
+     * @param source 源内容
+     * @return 写入的字节数
+     * @throws IOException 堆外内存超出上限
+     */
+    long patchFrom(ChunkedContent source) throws IOException {
+        return patch(source, true);
+    }
+
+    private long patch(ChunkedContent source, boolean skipEqual) throws IOException {
+        if (source == this) {
+            return 0;
+        }
+        // 按固定顺序加锁, 避免两个方向的并发复制互相等待
+        boolean sourceFirst = source.lockOrder < lockOrder;
+        if (sourceFirst) {
+            source.lock.readLock().lock();
+        }
+        lock.writeLock().lock();
+        if (!sourceFirst) {
+            source.lock.readLock().lock();
+        }
+        try {
+            long written = 0;
+            for (int index = 0; (long) index * CHUNK_SIZE < source.size; index++) {
+                long position = (long) index * CHUNK_SIZE;
+                int length = (int) Math.min(CHUNK_SIZE, source.size - position);
+                ByteBuffer from = source.chunks.get(index).duplicate().limit(length).position(0);
+                if (skipEqual && position + length <= size && from.equals(chunkSlice(index, length))) {
+                    continue;
+                }
+                write(position, from);
+                written += length;
+            }
+            if (size > source.size) {
+                truncate(source.size);
+            }
+            return written;
+        } finally {
+            source.lock.readLock().unlock();
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 比较两份内容是否相同。
+     *
+     * @param other 另一内容
+     * @return 内容相同时返回 true
+     */
+    boolean contentEquals(ChunkedContent other) {
+        if (other == this) {
+            return true;
+        }
+        // 与 patch 使用相同的加锁顺序
+        boolean otherFirst = other.lockOrder < lockOrder;
+        (otherFirst ? other : this).lock.readLock().lock();
+        (otherFirst ? this : other).lock.readLock().lock();
+        try {
+            if (size != other.size) {
+                return false;
+            }
+            for (int index = 0; (long) index * CHUNK_SIZE < size; index++) {
+                int length = (int) Math.min(CHUNK_SIZE, size - (long) index * CHUNK_SIZE);
+                if (!chunkSlice(index, length).equals(other.chunkSlice(index, length))) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            other.lock.readLock().unlock();
+            lock.readLock().unlock();
+        }
+    }
+
+    private ByteBuffer chunkSlice(int index, int length) {
+        return chunks.get(index).duplicate().limit(length).position(0);
+    }
+
+    /**
+     * 将 [from, to) 区间补零, 调用方持有写锁。
+     */
+    private void fill(long from, long to) throws IOException {
+        while (from < to) {
+            int length = (int) Math.min(ZEROS.capacity(), to - from);
+            write(from, ZEROS.duplicate().limit(length).position(0));
+            from += length;
+        }
+    }
+
+    private void ensureCapacity(long capacity) throws IOException {
+        while ((long) chunks.size() * CHUNK_SIZE < capacity) {
+            chunks.add(allocate());
+        }
+    }
+
+    private static ByteBuffer allocate() throws IOException {
+        ByteBuffer chunk = FREE_CHUNKS.poll();
+        if (chunk != null) {
+            return chunk.clear();
+        }
+        if (ALLOCATED.addAndGet(CHUNK_SIZE) > MAX_BYTES) {
+            ALLOCATED.addAndGet(-CHUNK_SIZE);
+            throw new IOException("no space left in memory file system");
+        }
+        return ByteBuffer.allocateDirect(CHUNK_SIZE);
+    }
+
+    private static void release(ByteBuffer chunk) {
+        FREE_CHUNKS.add(chunk);
+    }
+}
@@ -0,0 +1,76 @@
+package cn.autumnclouds.filesystem.memory;
+
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * 内存目录, 子节点按名称有序存放, 可以被多个线程并发读写。
+ *
+ * @author Fu Qiujie
+ * @since 2024/5/22
+ */
+final class MemoryDirectory extends MemoryNode {
+
+    private final ConcurrentNavigableMap<String, MemoryNode> children = new ConcurrentSkipListMap<>();
+
+    ConcurrentNavigableMap<String, MemoryNode> children() {
+        return children;
+    }
+
+    MemoryNode get(String name) {
+        return children.get(name);
+    }
+
+    /**
+     * 添加子节点, 同名节点已存在时返回已有的节点。
+     *
+     * @param name 名称
+     * @param node 子节点
+     * @return 已存在的同名节点, 添加成功时返回 null
+     */
+    MemoryNode putIfAbsent(String name, MemoryNode node) {
+        MemoryNode existing = children.putIfAbsent(name, node);
+        if (existing == null) {
+            touch();
+        }
+        return existing;
+    }
+
+    void put(String name, MemoryNode node) {
+        children.put(name, node);
+        touch();
+    }
+
+    MemoryNode remove(String name) {
+        MemoryNode removed = children.remove(name);
+        if (removed != null) {
+            touch();
+        }
+        return removed;
+    }
+
+    /**
+     * 只在子节点仍是指定节点时删除, 避免删掉并发替换进来的新节点。
+     *
+     * @param name 名称
+     * @param node 要删除的子节点
+     * @return 删除成功时返回 true
+     */
+    boolean remove(String name, MemoryNode node) {
+        boolean removed = children.remove(name, node);
+        if (removed) {
+            touch();
+        }
+        return removed;
+    }
+
+    @Override
+    boolean isDirectory() {
+        return true;
+    }
+
+    @Override
+    long size() {
+        return 0;
+    }
+}
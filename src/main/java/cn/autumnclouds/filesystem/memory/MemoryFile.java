@@ -0,0 +1,49 @@
+package cn.autumnclouds.filesystem.memory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 内存文件。同一个文件节点可以出现在多个目录中(硬链接), 最后一个链接被删除时释放内容。
+ *
+ * @author Fu Qiujie
+ * @since 2024/5/22
+ */
+final class MemoryFile extends MemoryNode {
+
+    private final ChunkedContent content;
+    private final AtomicInteger links = new AtomicInteger(1);
+
+    MemoryFile(ChunkedContent content) {
+        this.content = content;
+    }
+
+    ChunkedContent content() {
+        return content;
+    }
+
+    /**
+     * 增加一个链接。
+     */
+    void link() {
+        links.incrementAndGet();
+    }
+
+    /**
+     * 删除一个链接, 没有剩余链接时释放内容。
+     */
+    void unlink() {
+        if (links.decrementAndGet() == 0) {
+            content.clear();
+        }
+    }
+
+    @Override
+    boolean isDirectory() {
+        return false;
+    }
+
+    @Override
+    long size() {
+        return content.size();
+    }
+}
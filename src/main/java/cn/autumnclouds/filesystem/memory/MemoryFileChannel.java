@@ -0,0 +1,168 @@
+package cn.autumnclouds.filesystem.memory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * 内存文件内容上的 {@link FileChannel}, 使基于通道读写的工具(如分块加解密)可以直接作用于内存文件。
+ * 按位置读写可以在多个线程上并发进行。
+ * 不支持内存映射和文件锁: {@link #map}、{@link #lock} 和 {@link #tryLock} 抛出 UnsupportedOperationException,
+ * 按窗口读取的工具(如 {@link cn.autumnclouds.util.ByteSource})此时改为将窗口读入堆缓冲区。
+ *
+ * @author Fu Qiujie
+ * @since 2024/5/22
+ */
+final class MemoryFileChannel extends FileChannel {
+
+    // transferTo / transferFrom 的中转缓冲区大小
+    private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
+    private final ChunkedContent content;
+    private long position;
+
+    MemoryFileChannel(ChunkedContent content) {
+        this.content = content;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) {
+        int read = content.read(position, dst);
+        if (read > 0) {
+            position += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int length) {
+        long total = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int read = read(dsts[i]);
+            if (read < 0) {
+                return total == 0 ? -1 : total;
+            }
+            total += read;
+            if (dsts[i].hasRemaining()) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int written = content.write(position, src);
+        position += written;
+        return written;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        long total = 0;
+        for (int i = offset; i < offset + length; i++) {
+            total += write(srcs[i]);
+        }
+        return total;
+    }
+
+    @Override
+    public long position() {
+        return position;
+    }
+
+    @Override
+    public FileChannel position(long newPosition) {
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("negative position");
+        }
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() {
+        return content.size();
+    }
+
+    @Override
+    public FileChannel truncate(long size) {
+        content.truncate(size);
+        position = Math.min(position, size);
+        return this;
+    }
+
+    @Override
+    public void force(boolean metaData) {
+        // 内存文件没有需要落盘的数据
+    }
+
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(TRANSFER_BUFFER_SIZE, Math.max(0, count)));
+        long transferred = 0;
+        while (transferred < count) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), count - transferred));
+            if (content.read(position + transferred, buffer) <= 0) {
+                break;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                target.write(buffer);
+            }
+            transferred += buffer.limit();
+        }
+        return transferred;
+    }
+
+    @Override
+    public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(TRANSFER_BUFFER_SIZE, Math.max(0, count)));
+        long transferred = 0;
+        while (transferred < count) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), count - transferred));
+            int read = src.read(buffer);
+            if (read <= 0) {
+                break;
+            }
+            buffer.flip();
+            content.write(position + transferred, buffer);
+            transferred += read;
+        }
+        return transferred;
+    }
+
+    @Override
+    public int read(ByteBuffer dst, long position) {
+        return content.read(position, dst);
+    }
+
+    @Override
+    public int write(ByteBuffer src, long position) throws IOException {
+        return content.write(position, src);
+    }
+
+    @Override
+    public MappedByteBuffer map(MapMode mode, long position, long size) {
+        throw new UnsupportedOperationException("memory files cannot be mapped");
+    }
+
+    @Override
+    public FileLock lock(long position, long size, boolean shared) {
+        throw new UnsupportedOperationException("memory files cannot be locked");
+    }
+
+    @Override
+    public FileLock tryLock(long position, long size, boolean shared) {
+        throw new UnsupportedOperationException("memory files cannot be locked");
+    }
+
+    @Override
+    protected void implCloseChannel() {
+        // 内容由文件节点持有, 关闭通道不释放内容
+    }
+}
@@ -0,0 +1,1008 @@
+package cn.autumnclouds.filesystem.memory;
+
+import cn.autumnclouds.entity.vo.FileVo;
+import cn.autumnclouds.filesystem.FileSystem;
+import cn.autumnclouds.filesystem.cache.DirectoryUsage;
+import cn.autumnclouds.filesystem.index.IndexEntry;
+import cn.autumnclouds.filesystem.index.PathIndex;
+import cn.autumnclouds.job.Job;
+import cn.autumnclouds.job.JobScheduler;
+import cn.autumnclouds.metrics.IoStatistics;
+import cn.autumnclouds.util.ByteSource;
+import cn.autumnclouds.util.CryptoUtils;
+import cn.autumnclouds.util.FileUtils;
+import cn.autumnclouds.util.SearchUtils;
+import cn.autumnclouds.util.ZipUtils;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.security.GeneralSecurityException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * 内存文件系统, 用于临时数据和草稿数据。
+ * 目录树由并发的节点组成, 文件内容存放在堆外的分块缓冲区中(见 {@link ChunkedContent}), 读写不访问磁盘, 大文件也不占用堆内存。
+ * 挂载在路径前缀下时由 MountFileSystem 去掉前缀后再交给本文件系统, 这里的路径总是从自身的根目录开始。
+ * 支持全部文件系统操作, 其中压缩在单线程上进行; 程序退出后数据即丢失。
+ *
+ * @author Fu Qiujie
+ * @since 2024/5/22
+ */
+public class MemoryFileSystem implements FileSystem {
+
+    // cat 输出和行扫描时每次读取的字节数
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final MemoryDirectory root = new MemoryDirectory();
+    private volatile List<String> currentDirectory = List.of();
+
+    @Override
+    public void createDirectory(String directoryName) {
+        List<String> names = resolve(directoryName);
+        MemoryDirectory parent = parentOf(names);
+        if (parent == null) {
+            fail("failed to create directory");
+            return;
+        }
+        parent.putIfAbsent(last(names), new MemoryDirectory());
+    }
+
+    @Override
+    public void createFile(String fileName) {
+        List<String> names = resolve(fileName);
+        MemoryDirectory parent = parentOf(names);
+        if (parent == null) {
+            fail("failed to create file");
+            return;
+        }
+        parent.putIfAbsent(last(names), new MemoryFile(new ChunkedContent()));
+    }
+
+    @Override
+    public void cat(String fileName) {
+        cat(fileName, 0, -1);
+    }
+
+    @Override
+    public void cat(String fileName, long offset, long length) {
+        MemoryFile file = file(fileName);
+        if (file == null) {
+            fail("file does not exist");
+            return;
+        }
+        long size = file.content().size();
+        long start = Math.min(Math.max(0, offset), size);
+        long end = length < 0 || length > size - start ? size : start + length;
+        IoStatistics.recordRead(stream(file.content(), start, end, System.out));
+        System.out.println();
+    }
+
+    @Override
+    public void head(String fileName, int lines) {
+        MemoryFile file = file(fileName);
+        if (file == null) {
+            fail("file does not exist");
+            return;
+        }
+        try {
+            IoStatistics.recordRead(stream(file.content(), 0, FileUtils.headEndOffset(source(file.content()), lines), System.out));
+            System.out.println();
+        } catch (IOException e) {
+            fail("failed to read file");
+        }
+    }
+
+    @Override
+    public void tail(String fileName, int lines) {
+        MemoryFile file = file(fileName);
+        if (file == null) {
+            fail("file does not exist");
+            return;
+        }
+        ChunkedContent content = file.content();
+        try {
+            IoStatistics.recordRead(stream(content, FileUtils.tailStartOffset(source(content), lines), content.size(), System.out));
+            System.out.println();
+        } catch (IOException e) {
+            fail("failed to read file");
+        }
+    }
+
+    @Override
+    public void delete(String path) {
+        List<String> names = resolve(path);
+        MemoryDirectory parent = parentOf(names);
+        MemoryNode removed = parent == null ? null : parent.remove(last(names));
+        if (removed == null) {
+            fail("failed to delete directory");
+            return;
+        }
+        release(removed);
+    }
+
+    @Override
+    public void echo(String content, String fileName, boolean append) {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        try {
+            MemoryFile file = openFile(resolve(fileName), !append);
+            file.content().append(bytes);
+            file.touch();
+            IoStatistics.recordWritten(bytes.length);
+        } catch (IOException e) {
+            fail("failed to write file");
+        }
+    }
+
+    /**
+     * 内存文件没有对应的 File 对象, 总是返回空数组, 列出目录请使用 {@link #listFileVos()}。
+     *
+     * @return 空数组。
+     */
+    @Override
+    public File[] listContents() {
+        return new File[0];
+    }
+
+    @Override
+    public List<FileVo> listFileVos() {
+        List<FileVo> fileVos = new ArrayList<>();
+        listContents(fileVos::add);
+        return fileVos;
+    }
+
+    @Override
+    public void listContents(Predicate<FileVo> visitor) {
+        if (!(lookup(currentDirectory) instanceof MemoryDirectory directory)) {
+            fail("failed to list directory");
+            return;
+        }
+        for (Map.Entry<String, MemoryNode> entry : directory.children().entrySet()) {
+            if (!visitor.test(toFileVo(entry.getKey(), entry.getValue()))) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public List<FileVo> listFileVos(String directoryName) {
+        if (!(lookup(resolve(directoryName)) instanceof MemoryDirectory directory)) {
+            return List.of();
+        }
+        List<FileVo> fileVos = new ArrayList<>();
+        directory.children().forEach((name, node) -> fileVos.add(toFileVo(name, node)));
+        return fileVos;
+    }
+
+    @Override
+    public FileVo stat(String path) {
+        List<String> names = resolve(path);
+        MemoryNode node = lookup(names);
+        if (node == null) {
+            return null;
+        }
+        return toFileVo(names.isEmpty() ? "" : last(names), node);
+    }
+
+    @Override
+    public ReadableByteChannel newReadChannel(String path) throws IOException {
+        MemoryFile file = file(path);
+        if (file == null) {
+            throw new NoSuchFileException(path);
+        }
+        return new MemoryFileChannel(file.content());
+    }
+
+    @Override
+    public WritableByteChannel newWriteChannel(String path) throws IOException {
+        MemoryFile file = openFile(resolve(path), true);
+        file.touch();
+        return new MemoryFileChannel(file.content());
+    }
+
+    @Override
+    public void changeDirectory(String directoryName) {
+        List<String> names = resolve(directoryName);
+        if (!(lookup(names) instanceof MemoryDirectory)) {
+            fail("Directory does not exist");
+            return;
+        }
+        currentDirectory = List.copyOf(names);
+    }
+
+    @Override
+    public void copy(String sourcePath, String destinationPath, boolean bg) {
+        // 在提交任务前解析路径, 避免后台任务执行时当前目录已被切换
+        List<String> source = resolve(sourcePath);
+        List<String> destination = resolve(destinationPath);
+        MemoryNode node = lookup(source);
+        if (node == null) {
+            fail("Source file does not exist");
+            return;
+        }
+        if (!bg) {
+            copyNode(source, node, destination, null);
+            return;
+        }
+        long estimatedBytes = node.isDirectory() ? Long.MAX_VALUE : node.size();
+        Job job = JobScheduler.getInstance().submit("cp " + sourcePath + " " + destinationPath, estimatedBytes,
+                currentJob -> copyNode(source, node, destination, currentJob));
+        if (job == null) {
+            fail("too many background jobs");
+            return;
+        }
+        System.out.println("[" + job.getId() + "] " + job.getDescription());
+    }
+
+    private void copyNode(List<String> source, MemoryNode node, List<String> destination, Job job) {
+        MemoryDirectory parent = parentOf(destination);
+        if (parent == null) {
+            fail("Destination directory does not exist");
+            return;
+        }
+        if (node.isDirectory() && isWithin(destination, source)) {
+            fail("cannot copy a directory into itself");
+            return;
+        }
+        if (job != null) {
+            long[] totals = new long[2];
+            count(node, totals);
+            job.setTotals(totals[0], totals[1]);
+        }
+        long[] bytes = new long[1];
+        try {
+            copyTree(node, parent, last(destination), bytes, job);
+        } catch (IOException e) {
+            fail("failed to copy file");
+        }
+        IoStatistics.recordRead(bytes[0]);
+        IoStatistics.recordWritten(bytes[0]);
+        if (job == null) {
+            System.out.printf("Copy  %s  to  %s,  progress: %.2f %%\n", relative(source), relative(destination), 100.0);
+        }
+    }
+
+    private void copyTree(MemoryNode node, MemoryDirectory parent, String name, long[] bytes, Job job) throws IOException {
+        if (node instanceof MemoryFile file) {
+            MemoryNode existing = parent.get(name);
+            if (existing instanceof MemoryFile target) {
+                target.content().replaceWith(file.content());
+                target.touch();
+            } else if (existing == null) {
+                parent.put(name, new MemoryFile(file.content().copy()));
+            } else {
+                throw new IOException("destination is a directory");
+            }
+            bytes[0] += file.size();
+            if (job != null) {
+                job.addBytes(file.size());
+                job.addFile();
+            }
+            return;
+        }
+        MemoryDirectory directory = directory(parent, name);
+        for (Map.Entry<String, MemoryNode> child : ((MemoryDirectory) node).children().entrySet()) {
+            copyTree(child.getValue(), directory, child.getKey(), bytes, job);
+        }
+    }
+
+    /**
+     * 按内容去重复制, 内容相同的文件跳过, 不同的文件只重写不同的块; link 为 true 时新文件与源文件共享同一节点。
+     *
+     * @param sourcePath      源路径。
+     * @param destinationPath 目标路径。
+     * @param link            是否以硬链接代替拷贝。
+     */
+    @Override
+    public void dedupCopy(String sourcePath, String destinationPath, boolean link) {
+        List<String> source = resolve(sourcePath);
+        List<String> destination = resolve(destinationPath);
+        MemoryNode node = lookup(source);
+        if (node == null) {
+            fail("Source file does not exist");
+            return;
+        }
+        MemoryDirectory parent = parentOf(destination);
+        if (parent == null || (node.isDirectory() && isWithin(destination, source))) {
+            fail("invalid destination");
+            return;
+        }
+        TransferResult result = new TransferResult();
+        dedupTree(node, parent, last(destination), link, result);
+        IoStatistics.recordRead(result.bytesRead);
+        IoStatistics.recordWritten(result.bytesWritten);
+        System.out.printf("Dedup copy  %s  to  %s:  %d copied, %d patched, %d linked, %d unchanged, %d bytes written\n",
+                relative(source), relative(destination), result.copied, result.updated, result.linked,
+                result.unchanged, result.bytesWritten);
+        if (result.failed > 0) {
+            fail("failed to copy " + result.failed + " files");
+        }
+    }
+
+    private void dedupTree(MemoryNode node, MemoryDirectory parent, String name, boolean link, TransferResult result) {
+        try {
+            if (node instanceof MemoryFile file) {
+                MemoryNode existing = parent.get(name);
+                if (existing == file) {
+                    result.unchanged++;
+                } else if (existing == null && link) {
+                    file.link();
+                    parent.put(name, file);
+                    result.linked++;
+                } else if (existing == null) {
+                    parent.put(name, new MemoryFile(file.content().copy()));
+                    result.bytesRead += file.size();
+                    result.bytesWritten += file.size();
+                    result.copied++;
+                } else if (existing instanceof MemoryFile target) {
+                    result.bytesRead += file.size() + target.size();
+                    if (target.content().contentEquals(file.content())) {
+                        result.unchanged++;
+                    } else {
+                        result.bytesWritten += target.content().patchFrom(file.content());
+                        target.touch();
+                        result.updated++;
+                    }
+                } else {
+                    result.failed++;
+                }
+                return;
+            }
+            MemoryDirectory directory = directory(parent, name);
+            for (Map.Entry<String, MemoryNode> child : ((MemoryDirectory) node).children().entrySet()) {
+                dedupTree(child.getValue(), directory, child.getKey(), link, result);
+            }
+        } catch (IOException e) {
+            result.failed++;
+        }
+    }
+
+    /**
+     * 增量同步, 只复制大小或修改时间发生变化的文件。
+     *
+     * @param sourcePath      源路径。
+     * @param destinationPath 目标路径。
+     * @param delta           是否对变化的文件只重写不同的块。
+     * @param deleteOrphans   是否删除源目录中不存在的目标条目。
+     */
+    @Override
+    public void sync(String sourcePath, String destinationPath, boolean delta, boolean deleteOrphans) {
+        List<String> source = resolve(sourcePath);
+        List<String> destination = resolve(destinationPath);
+        MemoryNode node = lookup(source);
+        if (node == null) {
+            fail("Source file does not exist");
+            return;
+        }
+        MemoryDirectory parent = parentOf(destination);
+        if (parent == null || (node.isDirectory() && isWithin(destination, source))) {
+            fail("invalid destination");
+            return;
+        }
+        TransferResult result = new TransferResult();
+        syncTree(node, parent, last(destination), delta, deleteOrphans, result);
+        IoStatistics.recordRead(result.bytesRead);
+        IoStatistics.recordWritten(result.bytesWritten);
+        System.out.printf("Sync  %s  to  %s:  %d copied, %d updated, %d deleted, %d unchanged, %d bytes written\n",
+                relative(source), relative(destination), result.copied, result.updated, result.deleted,
+                result.unchanged, result.bytesWritten);
+        if (result.failed > 0) {
+            fail("failed to sync " + result.failed + " files");
+        }
+    }
+
+    private void syncTree(MemoryNode node, MemoryDirectory parent, String name, boolean delta, boolean deleteOrphans,
+                          TransferResult result) {
+        try {
+            MemoryNode existing = parent.get(name);
+            if (node instanceof MemoryFile file) {
+                if (existing instanceof MemoryFile target) {
+                    if (target == file || (target.size() == file.size() && target.getLastModified() == file.getLastModified())) {
+                        result.unchanged++;
+                        return;
+                    }
+                    if (delta) {
+                        result.bytesWritten += target.content().patchFrom(file.content());
+                        result.updated++;
+                    } else {
+                        result.bytesWritten += target.content().replaceWith(file.content());
+                        result.copied++;
+                    }
+                    target.setLastModified(file.getLastModified());
+                } else {
+                    if (existing != null) {
+                        parent.remove(name);
+                        release(existing);
+                    }
+                    MemoryFile target = new MemoryFile(file.content().copy());
+                    target.setLastModified(file.getLastModified());
+                    parent.put(name, target);
+                    result.bytesWritten += file.size();
+                    result.copied++;
+                }
+                result.bytesRead += file.size();
+                return;
+            }
+            if (existing != null && !existing.isDirectory()) {
+                parent.remove(name);
+                release(existing);
+            }
+            MemoryDirectory directory = directory(parent, name);
+            MemoryDirectory sourceDirectory = (MemoryDirectory) node;
+            for (Map.Entry<String, MemoryNode> child : sourceDirectory.children().entrySet()) {
+                syncTree(child.getValue(), directory, child.getKey(), delta, deleteOrphans, result);
+            }
+            if (deleteOrphans) {
+                for (String orphan : directory.children().keySet()) {
+                    if (sourceDirectory.get(orphan) == null) {
+                        MemoryNode removed = directory.remove(orphan);
+                        if (removed != null) {
+                            release(removed);
+                            result.deleted++;
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            result.failed++;
+        }
+    }
+
+    @Override
+    public void find(String directoryName, Predicate<FileVo> filter, Consumer<String> consumer) {
+        List<String> names = resolve(directoryName);
+        if (!(lookup(names) instanceof MemoryDirectory directory)) {
+            fail("Directory does not exist");
+            return;
+        }
+        walk(directory, new ArrayList<>(names), (path, node) -> {
+            if (filter.test(toFileVo(last(path), node))) {
+                consumer.accept(display(path));
+            }
+        });
+    }
+
+    @Override
+    public void grep(String directoryName, String text, Predicate<FileVo> filter, Consumer<String> consumer) {
+        List<String> names = resolve(directoryName);
+        if (!(lookup(names) instanceof MemoryDirectory directory)) {
+            fail("Directory does not exist");
+            return;
+        }
+        byte[] pattern = text.getBytes(StandardCharsets.UTF_8);
+        long[] bytesRead = new long[1];
+        walk(directory, new ArrayList<>(names), (path, node) -> {
+            if (node instanceof MemoryFile file && filter.test(toFileVo(last(path), node))) {
+                String prefix = display(path) + ":";
+                try {
+                    bytesRead[0] += SearchUtils.grep(source(file.content()), pattern, (lineNumber, line) -> consumer.accept(prefix + lineNumber + ":" + line));
+                } catch (IOException e) {
+                    fail("failed to read file: " + display(path));
+                }
+            }
+        });
+        IoStatistics.recordRead(bytesRead[0]);
+    }
+
+    /**
+     * 遍历整棵目录树查找条目, 内存文件系统没有单独的路径索引。
+     *
+     * @param type     查询类型。
+     * @param key      关键字, 按目录查询时为目录路径。
+     * @param consumer 结果回调, 目录以 "/" 结尾。
+     */
+    @Override
+    public void locate(PathIndex.QueryType type, String key, Consumer<String> consumer) {
+        if (type == PathIndex.QueryType.PATH_PREFIX) {
+            key = String.join("/", resolve(key));
+        }
+        String query = key;
+        walk(root, new ArrayList<>(), (path, node) -> {
+            IndexEntry entry = new IndexEntry(String.join("/", path), node.size(), node.getLastModified(), node.isDirectory());
+            if (PathIndex.matches(type, query, entry)) {
+                consumer.accept(display(path) + (node.isDirectory() ? "/" : ""));
+            }
+        });
+    }
+
+    @Override
+    public DirectoryUsage diskUsage(String directoryName) {
+        List<String> names = resolve(directoryName);
+        if (!(lookup(names) instanceof MemoryDirectory directory)) {
+            fail("Directory does not exist");
+            return null;
+        }
+        return usage(directory, new ArrayList<>(names), usage -> {
+        });
+    }
+
+    @Override
+    public List<DirectoryUsage> largestDirectories(String directoryName, int n) {
+        List<String> names = resolve(directoryName);
+        if (!(lookup(names) instanceof MemoryDirectory directory)) {
+            fail("Directory does not exist");
+            return List.of();
+        }
+        Comparator<DirectoryUsage> bySize = Comparator.comparingLong(DirectoryUsage::bytes);
+        PriorityQueue<DirectoryUsage> heap = new PriorityQueue<>(bySize);
+        Consumer<DirectoryUsage> sink = usage -> {
+            heap.add(usage);
+            if (heap.size() > n) {
+                heap.poll();
+            }
+        };
+        // 只统计子目录, 根目录自身总是最大的, 不能占用名额
+        List<String> path = new ArrayList<>(names);
+        for (Map.Entry<String, MemoryNode> entry : directory.children().entrySet()) {
+            if (entry.getValue() instanceof MemoryDirectory child) {
+                path.add(entry.getKey());
+                usage(child, path, sink);
+                path.remove(path.size() - 1);
+            }
+        }
+        List<DirectoryUsage> largest = new ArrayList<>(heap);
+        largest.sort(bySize.reversed());
+        return largest;
+    }
+
+    @Override
+    public void encryptFile(String filePath, String encryptedFilePath, String secretKey) {
+        MemoryFile source = file(filePath);
+        try {
+            if (source == null) {
+                throw new IOException("file does not exist");
+            }
+            MemoryFile target = openFile(resolve(encryptedFilePath), true);
+            SecretKeySpec secretKeySpec = FileUtils.generateSecretKey(secretKey);
+            CryptoUtils.encrypt(new MemoryFileChannel(source.content()), new MemoryFileChannel(target.content()), secretKeySpec);
+            target.touch();
+            IoStatistics.recordRead(source.size());
+            IoStatistics.recordWritten(target.size());
+        } catch (GeneralSecurityException | IOException e) {
+            fail("failed to encrypt file");
+        }
+    }
+
+    @Override
+    public void decryptFile(String encryptedFilePath, String decryptedFilePath, String secretKey) {
+        MemoryFile source = file(encryptedFilePath);
+        List<String> targetNames = resolve(decryptedFilePath);
+        MemoryFile target = null;
+        try {
+            if (source == null) {
+                throw new IOException("file does not exist");
+            }
+            target = openFile(targetNames, true);
+            SecretKeySpec secretKeySpec = FileUtils.generateSecretKey(secretKey);
+            MemoryFileChannel in = new MemoryFileChannel(source.content());
+            MemoryFileChannel out = new MemoryFileChannel(target.content());
+            if (CryptoUtils.isChunkedFormat(in)) {
+                CryptoUtils.decrypt(in, out, secretKeySpec);
+            } else {
+                CryptoUtils.decryptLegacy(Channels.newInputStream(in), Channels.newOutputStream(out), secretKeySpec);
+            }
+            target.touch();
+            IoStatistics.recordRead(source.size());
+            IoStatistics.recordWritten(target.size());
+        } catch (GeneralSecurityException | IOException e) {
+            // 与磁盘文件系统一致, 不留下不完整的明文
+            if (target != null) {
+                MemoryDirectory parent = parentOf(targetNames);
+                if (parent != null && parent.remove(last(targetNames), target)) {
+                    release(target);
+                }
+            }
+            fail("failed to decrypt file");
+        }
+    }
+
+    /**
+     * 压缩文件或目录, 条目命名规则与磁盘文件系统相同。内存中的数据读取不受 I/O 限制, 压缩在调用线程上串行进行。
+     *
+     * @param filePath           文件路径。
+     * @param compressedFilePath 压缩后文件路径。
+     * @param level              压缩级别。
+     * @param workers            未使用。
+     */
+    @Override
+    public void compressFile(String filePath, String compressedFilePath, int level, int workers) {
+        List<String> source = resolve(filePath);
+        MemoryNode node = lookup(source);
+        if (node == null || source.isEmpty()) {
+            fail("file does not exist");
+            return;
+        }
+        try {
+            MemoryFile target = openFile(resolve(compressedFilePath), true);
+            try (ZipOutputStream zipOut = new ZipOutputStream(new BufferedOutputStream(
+                    Channels.newOutputStream(new MemoryFileChannel(target.content())), READ_BUFFER_SIZE))) {
+                zipOut.setLevel(level);
+                zipTree(node, last(source), zipOut);
+            }
+            target.touch();
+            IoStatistics.recordWritten(target.size());
+        } catch (IOException e) {
+            fail("failed to compress file");
+        }
+    }
+
+    private void zipTree(MemoryNode node, String name, ZipOutputStream zipOut) throws IOException {
+        if (node instanceof MemoryFile file) {
+            ZipEntry entry = new ZipEntry(name);
+            entry.setLastModifiedTime(FileTime.fromMillis(file.getLastModified()));
+            zipOut.putNextEntry(entry);
+            IoStatistics.recordRead(stream(file.content(), 0, file.size(), zipOut));
+            zipOut.closeEntry();
+            return;
+        }
+        ZipEntry entry = new ZipEntry(name + "/");
+        entry.setLastModifiedTime(FileTime.fromMillis(node.getLastModified()));
+        zipOut.putNextEntry(entry);
+        zipOut.closeEntry();
+        for (Map.Entry<String, MemoryNode> child : ((MemoryDirectory) node).children().entrySet()) {
+            zipTree(child.getValue(), name + "/" + child.getKey(), zipOut);
+        }
+    }
+
+    @Override
+    public void decompressFile(String filePath, String decompressedFilePath, List<String> patterns) {
+        MemoryFile source = file(filePath);
+        if (source == null) {
+            fail("failed to decompress file");
+            return;
+        }
+        List<String> destination = resolve(decompressedFilePath);
+        Predicate<String> selected = ZipUtils.entryFilter(patterns);
+        int extracted = 0;
+        try (ZipInputStream zipIn = new ZipInputStream(Channels.newInputStream(new MemoryFileChannel(source.content())))) {
+            mkdirs(destination);
+            ZipEntry entry;
+            while ((entry = zipIn.getNextEntry()) != null) {
+                if (!selected.test(entry.getName())) {
+                    continue;
+                }
+                List<String> target = resolveEntry(destination, entry.getName());
+                if (entry.isDirectory()) {
+                    mkdirs(target);
+                } else {
+                    mkdirs(target.subList(0, target.size() - 1));
+                    MemoryFile file = openFile(target, true);
+                    IoStatistics.recordWritten(copy(zipIn, file.content()));
+                    file.touch();
+                    extracted++;
+                }
+            }
+            IoStatistics.recordRead(source.size());
+            if (extracted == 0 && !patterns.isEmpty()) {
+                System.out.println("no matching files");
+            }
+        } catch (IOException e) {
+            fail("failed to decompress file");
+        }
+    }
+
+    /**
+     * 解析条目在解压目录中的路径, 拒绝越出解压目录的条目名(如 "../x")。
+     */
+    private static List<String> resolveEntry(List<String> destination, String entryName) throws IOException {
+        List<String> names = new ArrayList<>(destination);
+        for (String name : entryName.split("/")) {
+            if (name.isEmpty() || ".".equals(name)) {
+                continue;
+            }
+            if ("..".equals(name)) {
+                if (names.size() <= destination.size()) {
+                    throw new IOException("entry is outside of the target directory: " + entryName);
+                }
+                names.remove(names.size() - 1);
+                continue;
+            }
+            names.add(name);
+        }
+        if (names.size() == destination.size()) {
+            throw new IOException("invalid entry name: " + entryName);
+        }
+        return names;
+    }
+
+    /**
+     * 将路径解析为从根目录开始的各级名称。
+     * 以 "/" 开头的路径为绝对路径, 其他路径相对于当前目录。
+     *
+     * @return 各级名称
+     */
+    private List<String> resolve(String path) {
+        String normalized = path.replace('\\', '/');
+        List<String> names;
+        if (normalized.startsWith("/")) {
+            names = new ArrayList<>();
+        } else {
+            names = new ArrayList<>(currentDirectory);
+        }
+        for (String name : normalized.split("/")) {
+            if (name.isEmpty() || ".".equals(name)) {
+                continue;
+            }
+            if ("..".equals(name)) {
+                if (!names.isEmpty()) {
+                    names.remove(names.size() - 1);
+                }
+                continue;
+            }
+            names.add(name);
+        }
+        return names;
+    }
+
+    private MemoryNode lookup(List<String> names) {
+        MemoryNode node = root;
+        for (String name : names) {
+            if (!(node instanceof MemoryDirectory directory)) {
+                return null;
+            }
+            node = directory.get(name);
+            if (node == null) {
+                return null;
+            }
+        }
+        return node;
+    }
+
+    private MemoryFile file(String path) {
+        return lookup(resolve(path)) instanceof MemoryFile file ? file : null;
+    }
+
+    /**
+     * 获取路径的父目录, 路径为根目录或父目录不存在时返回 null。
+     */
+    private MemoryDirectory parentOf(List<String> names) {
+        if (names.isEmpty()) {
+            return null;
+        }
+        return lookup(names.subList(0, names.size() - 1)) instanceof MemoryDirectory directory ? directory : null;
+    }
+
+    /**
+     * 打开文件用于写入, 文件不存在时创建。
+     *
+     * @param names    文件路径
+     * @param truncate 是否清空已有内容
+     * @return 文件节点
+     * @throws IOException 父目录不存在或路径是目录
+     */
+    private MemoryFile openFile(List<String> names, boolean truncate) throws IOException {
+        MemoryDirectory parent = parentOf(names);
+        if (parent == null) {
+            throw new IOException("directory does not exist");
+        }
+        MemoryNode node = parent.get(last(names));
+        if (node == null) {
+            MemoryFile created = new MemoryFile(new ChunkedContent());
+            node = parent.putIfAbsent(last(names), created);
+            if (node == null) {
+                return created;
+            }
+        }
+        if (!(node instanceof MemoryFile file)) {
+            throw new IOException("path is a directory");
+        }
+        if (truncate) {
+            file.content().clear();
+        }
+        return file;
+    }
+
+    /**
+     * 获取父目录下的子目录, 不存在时创建。
+     */
+    private static MemoryDirectory directory(MemoryDirectory parent, String name) throws IOException {
+        MemoryNode node = parent.get(name);
+        if (node == null) {
+            MemoryDirectory created = new MemoryDirectory();
+            node = parent.putIfAbsent(name, created);
+            if (node == null) {
+                return created;
+            }
+        }
+        if (!(node instanceof MemoryDirectory directory)) {
+            throw new IOException("path is not a directory");
+        }
+        return directory;
+    }
+
+    private MemoryDirectory mkdirs(List<String> names) throws IOException {
+        MemoryDirectory directory = root;
+        for (String name : names) {
+            directory = directory(directory, name);
+        }
+        return directory;
+    }
+
+    /**
+     * 释放被删除的节点, 目录下的所有文件都被释放。
+     */
+    private static void release(MemoryNode node) {
+        if (node instanceof MemoryFile file) {
+            file.unlink();
+            return;
+        }
+        for (MemoryNode child : ((MemoryDirectory) node).children().values()) {
+            release(child);
+        }
+    }
+
+    private static boolean isWithin(List<String> path, List<String> ancestor) {
+        return path.size() >= ancestor.size() && path.subList(0, ancestor.size()).equals(ancestor);
+    }
+
+    private static void count(MemoryNode node, long[] totals) {
+        if (node instanceof MemoryFile file) {
+            totals[0] += file.size();
+            totals[1]++;
+            return;
+        }
+        for (MemoryNode child : ((MemoryDirectory) node).children().values()) {
+            count(child, totals);
+        }
+    }
+
+    /**
+     * 按名称顺序深度优先遍历目录下的所有条目(不包括目录本身)。
+     */
+    private static void walk(MemoryDirectory directory, List<String> path, NodeVisitor visitor) {
+        for (Map.Entry<String, MemoryNode> entry : directory.children().entrySet()) {
+            path.add(entry.getKey());
+            visitor.visit(path, entry.getValue());
+            if (entry.getValue() instanceof MemoryDirectory child) {
+                walk(child, path, visitor);
+            }
+            path.remove(path.size() - 1);
+        }
+    }
+
+    /**
+     * 自底向上统计目录树的空间占用, 每个子目录的结果交给 sink。
+     */
+    private DirectoryUsage usage(MemoryDirectory directory, List<String> path, Consumer<DirectoryUsage> sink) {
+        long bytes = 0;
+        long files = 0;
+        long directories = 0;
+        List<Path> subdirectories = new ArrayList<>();
+        for (Map.Entry<String, MemoryNode> entry : directory.children().entrySet()) {
+            if (entry.getValue() instanceof MemoryDirectory child) {
+                path.add(entry.getKey());
+                DirectoryUsage usage = usage(child, path, sink);
+                path.remove(path.size() - 1);
+                subdirectories.add(usage.directory());
+                bytes += usage.bytes();
+                files += usage.files();
+                directories += usage.directories() + 1;
+            } else {
+                bytes += entry.getValue().size();
+                files++;
+            }
+        }
+        DirectoryUsage usage = new DirectoryUsage(Paths.get(display(path)), bytes, files, directories, List.copyOf(subdirectories));
+        sink.accept(usage);
+        return usage;
+    }
+
+    @FunctionalInterface
+    private interface NodeVisitor {
+        void visit(List<String> path, MemoryNode node);
+    }
+
+    /**
+     * 将文件内容的 [start, end) 区间写入输出流。
+     *
+     * @return 写入的字节数
+     */
+    private static long stream(ChunkedContent content, long start, long end, OutputStream out) {
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+        long position = start;
+        try {
+            while (position < end) {
+                wrapped.clear().limit((int) Math.min(buffer.length, end - position));
+                int read = content.read(position, wrapped);
+                if (read <= 0) {
+                    break;
+                }
+                out.write(buffer, 0, read);
+                position += read;
+            }
+        } catch (IOException e) {
+            fail("failed to read file");
+        }
+        return position - start;
+    }
+
+    private static long copy(InputStream in, ChunkedContent content) throws IOException {
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        long total = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            content.write(total, ByteBuffer.wrap(buffer, 0, read));
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * 文件内容上的字节来源, 行扫描和内容搜索与磁盘文件共用 {@link FileUtils} 和 {@link SearchUtils} 的实现。
+     */
+    private static ByteSource source(ChunkedContent content) throws IOException {
+        return ByteSource.of(new MemoryFileChannel(content));
+    }
+
+    private static FileVo toFileVo(String name, MemoryNode node) {
+        return new FileVo(name, node.isDirectory() ? "dir" : "file", node.size(),
+                LocalDateTime.ofInstant(Instant.ofEpochMilli(node.getLastModified()), ZoneId.systemDefault()));
+    }
+
+    private static String last(List<String> names) {
+        return names.get(names.size() - 1);
+    }
+
+    /**
+     * 将各级名称转换为以 "/" 开头的路径。
+     */
+    private String display(List<String> names) {
+        return "/" + String.join("/", names);
+    }
+
+    /**
+     * 将各级名称转换为不以 "/" 开头的路径, 与磁盘文件系统的输出格式一致。
+     */
+    private String relative(List<String> names) {
+        return display(names).substring(1);
+    }
+
+    /**
+     * 一次去重复制或同步的结果统计, 只在调用线程上更新。
+     */
+    private static final class TransferResult {
+        private int copied;
+        private int updated;
+        private int linked;
+        private int deleted;
+        private int unchanged;
+        private int failed;
+        private long bytesRead;
+        private long bytesWritten;
+    }
+
+    /**
+     * 输出错误信息, 并计入当前线程的错误统计。
+     *
+     * @param message 错误信息。
+     */
+    private static void fail(String message) {
+        IoStatistics.recordError(message);
+        System.out.println(message);
+    }
+}
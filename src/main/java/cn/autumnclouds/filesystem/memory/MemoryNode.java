@@ -0,0 +1,34 @@
+package cn.autumnclouds.filesystem.memory;
+
+/**
+ * 内存文件系统目录树中的节点。
+ *
+ * @author Fu Qiujie
+ * @since 2024/5/22
+ */
+abstract class MemoryNode {
+
+    // 最后修改时间(毫秒)
+    private volatile long lastModified = System.currentTimeMillis();
+
+    long getLastModified() {
+        return lastModified;
+    }
+
+    void setLastModified(long lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    void touch() {
+        lastModified = System.currentTimeMillis();
+    }
+
+    abstract boolean isDirectory();
+
+    /**
+     * 获取节点大小。
+     *
+     * @return 文件内容的字节数, 目录为 0
+     */
+    abstract long size();
+}
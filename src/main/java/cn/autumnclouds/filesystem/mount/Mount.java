@@ -0,0 +1,82 @@
+package cn.autumnclouds.filesystem.mount;
+
+import cn.autumnclouds.filesystem.FileSystem;
+
+/**
+ * 挂载表中的一项, 将一个路径前缀映射到一个文件系统。
+ * 前缀之下的路径去掉前缀后, 作为以 "/" 开头的路径交给该文件系统处理。
+ *
+ * @param prefix     挂载路径, 以 "/" 开头, 不以 "/" 结尾(根目录为 "/")
+ * @param fileSystem 挂载的文件系统
+ * @author Fu Qiujie
+ * @since 2024/5/23
+ */
+public record Mount(String prefix, FileSystem fileSystem) {
+
+    /**
+     * 是否为根目录上的挂载。
+     *
+     * @return 挂载路径为 "/" 时返回 true
+     */
+    public boolean isRoot() {
+        return "/".equals(prefix);
+    }
+
+    /**
+     * 判断路径是否位于挂载路径之下。
+     *
+     * @param path 规范化后的绝对路径
+     * @return 路径等于挂载路径或位于其下时返回 true
+     */
+    public boolean contains(String path) {
+        return isRoot() || path.equals(prefix) || path.startsWith(prefix + "/");
+    }
+
+    /**
+     * 将路径转换为挂载的文件系统中的路径。
+     *
+     * @param path 位于挂载路径之下的规范化绝对路径
+     * @return 以 "/" 开头的路径
+     */
+    public String toLocal(String path) {
+        if (isRoot()) {
+            return path;
+        }
+        return path.length() == prefix.length() ? "/" : path.substring(prefix.length());
+    }
+
+    /**
+     * 将挂载的文件系统输出的以 "/" 开头的路径转换为带挂载路径的路径。
+     *
+     * @param localPath 挂载的文件系统中的路径
+     * @return 完整路径
+     */
+    public String toGlobal(String localPath) {
+        if (isRoot()) {
+            return localPath;
+        }
+        return "/".equals(localPath) ? prefix : prefix + localPath;
+    }
+
+    /**
+     * 获取挂载路径的最后一级名称。
+     *
+     * @return 名称, 根目录上的挂载返回空字符串
+     */
+    public String name() {
+        return prefix.substring(prefix.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * 获取挂载路径的父目录。
+     *
+     * @return 父目录, 根目录上的挂载返回 null
+     */
+    public String parent() {
+        if (isRoot()) {
+            return null;
+        }
+        int index = prefix.lastIndexOf('/');
+        return index == 0 ? "/" : prefix.substring(0, index);
+    }
+}
@@ -0,0 +1,848 @@
+package cn.autumnclouds.filesystem.mount;
+
+import cn.autumnclouds.entity.vo.FileVo;
+import cn.autumnclouds.filesystem.FileSystem;
+import cn.autumnclouds.filesystem.cache.DirectoryUsage;
+import cn.autumnclouds.filesystem.impl.SimpleFileSystem;
+import cn.autumnclouds.filesystem.index.IndexEntry;
+import cn.autumnclouds.filesystem.index.PathIndex;
+import cn.autumnclouds.filesystem.memory.MemoryFileSystem;
+import cn.autumnclouds.filesystem.pack.PackFileSystem;
+import cn.autumnclouds.job.Job;
+import cn.autumnclouds.job.JobScheduler;
+import cn.autumnclouds.metrics.IoStatistics;
+import cn.autumnclouds.util.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * 按路径前缀将操作分派到多个文件系统的挂载层。
+ * 根目录 "/" 总是挂载一个文件系统, 其他前缀可以挂载位于不同磁盘上的本地目录或内存文件系统, 使 I/O 分散到多个设备上。
+ * 路径先按当前目录解析为规范化的绝对路径, 再按最长前缀匹配挂载项, 去掉前缀后交给对应的文件系统; 输出的路径带回挂载前缀。
+ * <ul>
+ *     <li>两个路径位于同一挂载项且其下都没有其他挂载项时, 操作直接交给该文件系统, 行为与单独使用时相同</li>
+ *     <li>跨挂载项, 或源、目标目录下还有其他挂载项时, cp / sync 以流的方式在文件系统之间拷贝, 多个文件并行拷贝</li>
+ *     <li>rm / zip / unzip 不处理其下挂载了其他文件系统的目录</li>
+ *     <li>跨挂载项的 encrypt / decrypt / zip / unzip 先在源文件系统的临时路径上生成结果, 再拷贝到目标</li>
+ *     <li>find / grep / locate 包括查找目录下的其他挂载项, du 不跨越挂载项</li>
+ * </ul>
+ * 挂载表由系统属性 fs.mounts 配置, 格式为 "前缀=目标,前缀=目标", 目标为本地目录、"memory" 或 "pack:段文件目录", 如
+ * "/fast=/mnt/nvme/sfs,/scratch=memory,/small=pack:/mnt/ssd/packs"。
+ *
+ * @author Fu Qiujie
+ * @since 2024/5/23
+ */
+public class MountFileSystem implements FileSystem {
+
+    // 挂载表的系统属性名
+    public static final String MOUNTS_PROPERTY = "fs.mounts";
+
+    // 挂载内存文件系统时使用的目标名
+    public static final String MEMORY_TARGET = "memory";
+
+    // 挂载打包文件系统时目标的前缀, 其后为存放段文件的目录
+    public static final String PACK_TARGET_PREFIX = "pack:";
+
+    // 跨挂载项拷贝时每次传输的字节数
+    private static final int TRANSFER_SIZE = 1024 * 1024;
+
+    // 跨挂载项执行加解密和压缩时的临时路径格式, 名称随机, 不会与之前运行中残留的临时文件重名
+    private static final String TEMPORARY_FORMAT = "/.mount-tmp-%016x";
+
+    // 按前缀长度从长到短排列, 保证最长前缀优先匹配
+    private volatile List<Mount> mounts;
+
+    // 当前工作目录, 规范化的绝对路径
+    private volatile String currentDirectory = "/";
+
+    /**
+     * 创建只有根目录挂载的挂载层。
+     *
+     * @param root 挂载在根目录上的文件系统
+     */
+    public MountFileSystem(FileSystem root) {
+        this.mounts = List.of(new Mount("/", root));
+    }
+
+    /**
+     * 按系统属性 fs.mounts 创建挂载层, 本地目录不存在时创建。
+     *
+     * @param root 挂载在根目录上的文件系统
+     * @return 挂载层
+     * @throws IOException 无法创建挂载的本地目录或读取段文件
+     */
+    public static MountFileSystem fromProperties(FileSystem root) throws IOException {
+        MountFileSystem mountFileSystem = new MountFileSystem(root);
+        String property = System.getProperty(MOUNTS_PROPERTY, "");
+        for (String entry : property.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            int index = entry.indexOf('=');
+            if (index <= 0) {
+                throw new IllegalArgumentException("invalid mount: " + entry);
+            }
+            String prefix = entry.substring(0, index).trim();
+            String target = entry.substring(index + 1).trim();
+            if (MEMORY_TARGET.equals(target)) {
+                mountFileSystem.mount(prefix, new MemoryFileSystem());
+            } else if (target.startsWith(PACK_TARGET_PREFIX)) {
+                mountFileSystem.mount(prefix, new PackFileSystem(Paths.get(target.substring(PACK_TARGET_PREFIX.length()))));
+            } else {
+                Path directory = Files.createDirectories(Paths.get(target));
+                mountFileSystem.mount(prefix, new SimpleFileSystem(directory));
+            }
+        }
+        return mountFileSystem;
+    }
+
+    /**
+     * 将文件系统挂载到路径前缀上。
+     *
+     * @param prefix     挂载路径
+     * @param fileSystem 文件系统, 以 "/" 开头的路径应相对于它自己的根目录
+     */
+    public synchronized void mount(String prefix, FileSystem fileSystem) {
+        String normalized = normalize("/", prefix);
+        for (Mount mount : mounts) {
+            if (mount.prefix().equals(normalized)) {
+                throw new IllegalArgumentException(normalized + " is already mounted");
+            }
+        }
+        List<Mount> updated = new ArrayList<>(mounts);
+        updated.add(new Mount(normalized, fileSystem));
+        updated.sort(Comparator.comparingInt((Mount mount) -> mount.prefix().length()).reversed());
+        mounts = List.copyOf(updated);
+    }
+
+    /**
+     * 获取挂载表。
+     *
+     * @return 按前缀长度从长到短排列的挂载项
+     */
+    public List<Mount> getMounts() {
+        return mounts;
+    }
+
+    @Override
+    public void createDirectory(String directoryName) {
+        Route route = route(directoryName);
+        route.fileSystem().createDirectory(route.localPath());
+    }
+
+    @Override
+    public void createFile(String fileName) {
+        Route route = route(fileName);
+        route.fileSystem().createFile(route.localPath());
+    }
+
+    @Override
+    public void cat(String fileName) {
+        Route route = route(fileName);
+        route.fileSystem().cat(route.localPath());
+    }
+
+    @Override
+    public void cat(String fileName, long offset, long length) {
+        Route route = route(fileName);
+        route.fileSystem().cat(route.localPath(), offset, length);
+    }
+
+    @Override
+    public void head(String fileName, int lines) {
+        Route route = route(fileName);
+        route.fileSystem().head(route.localPath(), lines);
+    }
+
+    @Override
+    public void tail(String fileName, int lines) {
+        Route route = route(fileName);
+        route.fileSystem().tail(route.localPath(), lines);
+    }
+
+    @Override
+    public void delete(String path) {
+        Route route = route(path);
+        if (!route.mount().isRoot() && route.isMountPoint()) {
+            fail("cannot delete a mount point");
+            return;
+        }
+        if (!nestedMounts(route.path()).isEmpty()) {
+            fail("cannot delete a directory containing mount points");
+            return;
+        }
+        route.fileSystem().delete(route.localPath());
+    }
+
+    @Override
+    public void echo(String content, String fileName, boolean append) {
+        Route route = route(fileName);
+        route.fileSystem().echo(content, route.localPath(), append);
+    }
+
+    @Override
+    public File[] listContents() {
+        Route route = route(currentDirectory);
+        return route.fileSystem().listContents();
+    }
+
+    @Override
+    public List<FileVo> listFileVos() {
+        return listFileVos(currentDirectory);
+    }
+
+    /**
+     * 逐个访问当前目录下的条目, 挂载在当前目录下的文件系统作为目录列在最后。
+     *
+     * @param visitor 访问者，返回 false 时停止遍历。
+     */
+    @Override
+    public void listContents(Predicate<FileVo> visitor) {
+        String directory = currentDirectory;
+        Route route = route(directory);
+        boolean[] stopped = new boolean[1];
+        route.fileSystem().listContents(fileVo -> {
+            stopped[0] = !visitor.test(fileVo);
+            return !stopped[0];
+        });
+        if (stopped[0]) {
+            return;
+        }
+        for (Mount mount : childMounts(directory)) {
+            if (!visitor.test(mountPointVo(mount))) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public List<FileVo> listFileVos(String directoryName) {
+        Route route = route(directoryName);
+        List<FileVo> fileVos = new ArrayList<>(route.fileSystem().listFileVos(route.localPath()));
+        for (Mount mount : childMounts(route.path())) {
+            fileVos.add(mountPointVo(mount));
+        }
+        return fileVos;
+    }
+
+    @Override
+    public FileVo stat(String path) {
+        Route route = route(path);
+        if (!route.mount().isRoot() && route.isMountPoint()) {
+            return mountPointVo(route.mount());
+        }
+        return route.fileSystem().stat(route.localPath());
+    }
+
+    @Override
+    public ReadableByteChannel newReadChannel(String path) throws IOException {
+        Route route = route(path);
+        return route.fileSystem().newReadChannel(route.localPath());
+    }
+
+    @Override
+    public WritableByteChannel newWriteChannel(String path) throws IOException {
+        Route route = route(path);
+        return route.fileSystem().newWriteChannel(route.localPath());
+    }
+
+    @Override
+    public void flush() {
+        for (Mount mount : mounts) {
+            mount.fileSystem().flush();
+        }
+    }
+
+    @Override
+    public void notifyModified(String path) {
+        Route route = route(path);
+        route.fileSystem().notifyModified(route.localPath());
+    }
+
+    @Override
+    public void force(String path) throws IOException {
+        Route route = route(path);
+        route.fileSystem().force(route.localPath());
+        // 挂载在路径之下的文件系统也属于这棵目录树
+        for (Mount mount : nestedMounts(route.path())) {
+            mount.fileSystem().force("/");
+        }
+    }
+
+    @Override
+    public void changeDirectory(String directoryName) {
+        Route route = route(directoryName);
+        FileVo fileVo = stat(route.path());
+        if (fileVo == null || !isDirectory(fileVo)) {
+            fail("Directory does not exist");
+            return;
+        }
+        route.fileSystem().changeDirectory(route.localPath());
+        currentDirectory = route.path();
+    }
+
+    @Override
+    public void copy(String sourcePath, String destinationPath, boolean bg) {
+        Route source = route(sourcePath);
+        Route destination = route(destinationPath);
+        if (isLocal(source, destination)) {
+            source.fileSystem().copy(source.localPath(), destination.localPath(), bg);
+            return;
+        }
+        FileVo fileVo = source.fileSystem().stat(source.localPath());
+        if (fileVo == null) {
+            fail("Source file does not exist");
+            return;
+        }
+        if (isWithin(destination, source)) {
+            fail("cannot copy a directory into itself");
+            return;
+        }
+        if (!bg) {
+            transferTree(source, destination, TransferMode.COPY, false, null);
+            System.out.printf("Copy  %s  to  %s,  progress: %.2f %%\n", source.relative(), destination.relative(), 100.0);
+            return;
+        }
+        long estimatedBytes = isDirectory(fileVo) ? Long.MAX_VALUE : fileVo.getSize();
+        Job job = JobScheduler.getInstance().submit("cp " + sourcePath + " " + destinationPath, estimatedBytes,
+                currentJob -> transferTree(source, destination, TransferMode.COPY, false, currentJob));
+        if (job == null) {
+            fail("too many background jobs");
+            return;
+        }
+        System.out.println("[" + job.getId() + "] " + job.getDescription());
+    }
+
+    /**
+     * 去重复制。跨挂载项时无法建立硬链接, 也不能只重写不同的块, 内容相同的文件跳过, 其他文件整体拷贝。
+     *
+     * @param sourcePath      源路径。
+     * @param destinationPath 目标路径。
+     * @param link            是否以硬链接代替拷贝, 跨挂载项时忽略。
+     */
+    @Override
+    public void dedupCopy(String sourcePath, String destinationPath, boolean link) {
+        Route source = route(sourcePath);
+        Route destination = route(destinationPath);
+        if (isLocal(source, destination)) {
+            source.fileSystem().dedupCopy(source.localPath(), destination.localPath(), link);
+            return;
+        }
+        if (source.fileSystem().stat(source.localPath()) == null) {
+            fail("Source file does not exist");
+            return;
+        }
+        if (isWithin(destination, source)) {
+            fail("cannot copy a directory into itself");
+            return;
+        }
+        TransferResult result = transferTree(source, destination, TransferMode.DEDUP, false, null);
+        System.out.printf("Dedup copy  %s  to  %s:  %d copied, %d patched, %d linked, %d unchanged, %d bytes written\n",
+                source.relative(), destination.relative(), result.copied.sum(), 0, 0, result.unchanged.sum(), result.bytesWritten.sum());
+    }
+
+    /**
+     * 增量同步。跨挂载项时无法保留修改时间, 目标文件大小相同且不早于源文件时视为未变化, 变化的文件整体拷贝。
+     *
+     * @param sourcePath      源路径。
+     * @param destinationPath 目标路径。
+     * @param delta           是否只重写不同的块, 跨挂载项时忽略。
+     * @param deleteOrphans   是否删除源目录中不存在的目标条目。
+     */
+    @Override
+    public void sync(String sourcePath, String destinationPath, boolean delta, boolean deleteOrphans) {
+        Route source = route(sourcePath);
+        Route destination = route(destinationPath);
+        if (isLocal(source, destination)) {
+            source.fileSystem().sync(source.localPath(), destination.localPath(), delta, deleteOrphans);
+            return;
+        }
+        if (source.fileSystem().stat(source.localPath()) == null) {
+            fail("Source file does not exist");
+            return;
+        }
+        if (isWithin(destination, source) || isWithin(source, destination)) {
+            fail("cannot sync a directory into itself");
+            return;
+        }
+        TransferResult result = transferTree(source, destination, TransferMode.SYNC, deleteOrphans, null);
+        System.out.printf("Sync  %s  to  %s:  %d copied, %d updated, %d deleted, %d unchanged, %d bytes written\n",
+                source.relative(), destination.relative(), result.copied.sum(), 0, result.deleted.sum(),
+                result.unchanged.sum(), result.bytesWritten.sum());
+    }
+
+    @Override
+    public void find(String directoryName, Predicate<FileVo> filter, Consumer<String> consumer) {
+        Route route = route(directoryName);
+        route.fileSystem().find(route.localPath(), filter, path -> consumer.accept(route.mount().toGlobal(path)));
+        for (Mount mount : nestedMounts(route.path())) {
+            if (filter.test(mountPointVo(mount))) {
+                consumer.accept(mount.prefix());
+            }
+            mount.fileSystem().find("/", filter, path -> consumer.accept(mount.toGlobal(path)));
+        }
+    }
+
+    @Override
+    public void grep(String directoryName, String text, Predicate<FileVo> filter, Consumer<String> consumer) {
+        Route route = route(directoryName);
+        route.fileSystem().grep(route.localPath(), text, filter, line -> consumer.accept(route.mount().toGlobal(line)));
+        for (Mount mount : nestedMounts(route.path())) {
+            mount.fileSystem().grep("/", text, filter, line -> consumer.accept(mount.toGlobal(line)));
+        }
+    }
+
+    /**
+     * 查找条目。按目录查询时查找该目录所在的挂载项及其下的挂载项, 其他查询在所有挂载项中查找。
+     *
+     * @param type     查询类型。
+     * @param key      关键字, 按目录查询时为目录路径。
+     * @param consumer 结果回调, 目录以 "/" 结尾。
+     */
+    @Override
+    public void locate(PathIndex.QueryType type, String key, Consumer<String> consumer) {
+        if (type == PathIndex.QueryType.PATH_PREFIX) {
+            Route route = route(key);
+            route.fileSystem().locate(type, route.localPath(), path -> consumer.accept(route.mount().toGlobal(path)));
+            for (Mount mount : nestedMounts(route.path())) {
+                consumer.accept(mount.prefix() + "/");
+                mount.fileSystem().locate(type, "/", path -> consumer.accept(mount.toGlobal(path)));
+            }
+            return;
+        }
+        for (Mount mount : mounts) {
+            if (!mount.isRoot() && PathIndex.matches(type, key, new IndexEntry(mount.prefix().substring(1), 0, 0, true))) {
+                consumer.accept(mount.prefix() + "/");
+            }
+            mount.fileSystem().locate(type, key, path -> consumer.accept(mount.toGlobal(path)));
+        }
+    }
+
+    @Override
+    public DirectoryUsage diskUsage(String directoryName) {
+        Route route = route(directoryName);
+        return route.fileSystem().diskUsage(route.localPath());
+    }
+
+    @Override
+    public List<DirectoryUsage> largestDirectories(String directoryName, int n) {
+        Route route = route(directoryName);
+        return route.fileSystem().largestDirectories(route.localPath(), n);
+    }
+
+    @Override
+    public void encryptFile(String filePath, String encryptedFilePath, String secretKey) {
+        Route source = route(filePath);
+        Route destination = route(encryptedFilePath);
+        if (source.mount() == destination.mount()) {
+            source.fileSystem().encryptFile(source.localPath(), destination.localPath(), secretKey);
+            return;
+        }
+        viaTemporary(source, destination, temporary -> source.fileSystem().encryptFile(source.localPath(), temporary, secretKey));
+    }
+
+    @Override
+    public void decryptFile(String encryptedFilePath, String decryptedFilePath, String secretKey) {
+        Route source = route(encryptedFilePath);
+        Route destination = route(decryptedFilePath);
+        if (source.mount() == destination.mount()) {
+            source.fileSystem().decryptFile(source.localPath(), destination.localPath(), secretKey);
+            return;
+        }
+        viaTemporary(source, destination, temporary -> source.fileSystem().decryptFile(source.localPath(), temporary, secretKey));
+    }
+
+    @Override
+    public void compressFile(String filePath, String compressedFilePath, int level, int workers) {
+        Route source = route(filePath);
+        Route destination = route(compressedFilePath);
+        if (!nestedMounts(source.path()).isEmpty()) {
+            fail("cannot compress a directory containing mount points");
+            return;
+        }
+        if (source.mount() == destination.mount()) {
+            source.fileSystem().compressFile(source.localPath(), destination.localPath(), level, workers);
+            return;
+        }
+        viaTemporary(source, destination, temporary -> source.fileSystem().compressFile(source.localPath(), temporary, level, workers));
+    }
+
+    @Override
+    public void decompressFile(String filePath, String decompressedFilePath, List<String> patterns) {
+        Route source = route(filePath);
+        Route destination = route(decompressedFilePath);
+        if (!nestedMounts(destination.path()).isEmpty()) {
+            fail("cannot decompress into a directory containing mount points");
+            return;
+        }
+        if (source.mount() == destination.mount()) {
+            source.fileSystem().decompressFile(source.localPath(), destination.localPath(), patterns);
+            return;
+        }
+        viaTemporary(source, destination, temporary -> source.fileSystem().decompressFile(source.localPath(), temporary, patterns));
+    }
+
+    /**
+     * 在源文件系统的临时路径上执行操作, 再将结果拷贝到目标路径, 最后删除临时路径。
+     *
+     * @param source      源路径
+     * @param destination 目标路径
+     * @param action      以临时路径为输出路径执行的操作
+     */
+    private void viaTemporary(Route source, Route destination, Consumer<String> action) {
+        FileSystem fileSystem = source.fileSystem();
+        String temporary;
+        do {
+            temporary = String.format(TEMPORARY_FORMAT, ThreadLocalRandom.current().nextLong());
+        } while (fileSystem.stat(temporary) != null);
+        try {
+            action.accept(temporary);
+            if (fileSystem.stat(temporary) != null) {
+                Route output = new Route(source.mount(), source.mount().toGlobal(temporary), temporary);
+                transferTree(output, destination, TransferMode.COPY, false, null);
+            }
+        } finally {
+            if (fileSystem.stat(temporary) != null) {
+                fileSystem.delete(temporary);
+            }
+        }
+    }
+
+    /**
+     * 在两个挂载项之间拷贝文件或目录树。
+     * 遍历和拷贝都以完整路径经过挂载层进行, 目录下的其他挂载项也被拷贝, 目标目录下的挂载项同样按路径写入。
+     * 先按遍历顺序创建全部目标目录, 再将文件拷贝分发到 ForkJoin 线程池中并行执行, 由 FileUtils.runParallel 执行。
+     *
+     * @param source        源路径
+     * @param destination   目标路径
+     * @param mode          拷贝方式
+     * @param deleteOrphans 是否删除源目录中不存在的目标条目
+     * @param job           执行拷贝的后台任务, 前台执行时为 null
+     * @return 拷贝结果
+     */
+    private TransferResult transferTree(Route source, Route destination, TransferMode mode, boolean deleteOrphans, Job job) {
+        TransferResult result = new TransferResult();
+        List<Transfer> transfers = new ArrayList<>();
+        long totalBytes = plan(this, source.path(), this, destination.path(), deleteOrphans, transfers, result);
+        if (job != null) {
+            job.setTotals(totalBytes, transfers.size());
+        }
+        Consumer<Transfer> copier = transfer -> {
+            if (job != null) {
+                job.checkCancelled();
+            }
+            try {
+                transfer(this, this, transfer, mode, job, result);
+            } catch (IOException e) {
+                result.failed.increment();
+            }
+            if (job != null) {
+                job.addFile();
+            }
+        };
+        try {
+            FileUtils.runParallel(transfers, copier);
+        } catch (CancellationException e) {
+            if (job != null) {
+                throw e;
+            }
+            fail("copy interrupted");
+        }
+        IoStatistics.recordRead(result.bytesRead.sum());
+        IoStatistics.recordWritten(result.bytesWritten.sum());
+        if (result.failed.sum() > 0) {
+            fail("failed to copy " + result.failed.sum() + " files");
+        }
+        return result;
+    }
+
+    /**
+     * 创建目标目录树并收集要拷贝的文件。
+     *
+     * @return 要拷贝的总字节数
+     */
+    private static long plan(FileSystem source, String sourcePath, FileSystem target, String targetPath,
+                             boolean deleteOrphans, List<Transfer> transfers, TransferResult result) {
+        FileVo fileVo = source.stat(sourcePath);
+        if (fileVo == null) {
+            return 0;
+        }
+        if (!isDirectory(fileVo)) {
+            transfers.add(new Transfer(sourcePath, targetPath, fileVo));
+            return fileVo.getSize();
+        }
+        FileVo existing = target.stat(targetPath);
+        if (existing != null && !isDirectory(existing)) {
+            target.delete(targetPath);
+        }
+        target.createDirectory(targetPath);
+        long totalBytes = 0;
+        Set<String> names = new HashSet<>();
+        for (FileVo child : source.listFileVos(sourcePath)) {
+            names.add(child.getName());
+            totalBytes += plan(source, child(sourcePath, child.getName()), target, child(targetPath, child.getName()),
+                    deleteOrphans, transfers, result);
+        }
+        if (deleteOrphans) {
+            for (FileVo orphan : target.listFileVos(targetPath)) {
+                if (!names.contains(orphan.getName())) {
+                    target.delete(child(targetPath, orphan.getName()));
+                    result.deleted.increment();
+                }
+            }
+        }
+        return totalBytes;
+    }
+
+    /**
+     * 拷贝一个文件, 按拷贝方式跳过未变化的文件。
+     */
+    private static void transfer(FileSystem source, FileSystem target, Transfer transfer, TransferMode mode, Job job,
+                                 TransferResult result) throws IOException {
+        if (mode != TransferMode.COPY) {
+            FileVo existing = target.stat(transfer.targetPath());
+            if (existing != null && !isDirectory(existing) && existing.getSize().equals(transfer.fileVo().getSize())) {
+                boolean unchanged = mode == TransferMode.SYNC
+                        ? !existing.getLastModifiedTime().isBefore(transfer.fileVo().getLastModifiedTime())
+                        : contentEquals(source, transfer.sourcePath(), target, transfer.targetPath(), result);
+                if (unchanged) {
+                    result.unchanged.increment();
+                    return;
+                }
+            }
+        }
+        try (ReadableByteChannel in = source.newReadChannel(transfer.sourcePath());
+             WritableByteChannel out = target.newWriteChannel(transfer.targetPath())) {
+            long transferred = 0;
+            if (in instanceof FileChannel channel) {
+                long size = channel.size();
+                while (transferred < size) {
+                    long count = channel.transferTo(transferred, Math.min(TRANSFER_SIZE, size - transferred), out);
+                    if (count <= 0) {
+                        break;
+                    }
+                    transferred += count;
+                    if (job != null) {
+                        job.addBytes(count);
+                    }
+                }
+            } else {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(TRANSFER_SIZE);
+                while (in.read(buffer) != -1) {
+                    buffer.flip();
+                    int count = buffer.remaining();
+                    while (buffer.hasRemaining()) {
+                        out.write(buffer);
+                    }
+                    buffer.clear();
+                    transferred += count;
+                    if (job != null) {
+                        job.addBytes(count);
+                    }
+                }
+            }
+            result.bytesRead.add(transferred);
+            result.bytesWritten.add(transferred);
+            result.copied.increment();
+        }
+    }
+
+    private static boolean contentEquals(FileSystem source, String sourcePath, FileSystem target, String targetPath,
+                                         TransferResult result) throws IOException {
+        try (ReadableByteChannel left = source.newReadChannel(sourcePath);
+             ReadableByteChannel right = target.newReadChannel(targetPath)) {
+            ByteBuffer leftBuffer = ByteBuffer.allocate(64 * 1024);
+            ByteBuffer rightBuffer = ByteBuffer.allocate(64 * 1024);
+            while (true) {
+                leftBuffer.clear();
+                rightBuffer.clear();
+                int leftRead = readFully(left, leftBuffer);
+                int rightRead = readFully(right, rightBuffer);
+                result.bytesRead.add(leftRead + rightRead);
+                if (leftRead != rightRead || !leftBuffer.flip().equals(rightBuffer.flip())) {
+                    return false;
+                }
+                if (leftRead < leftBuffer.capacity()) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    private static int readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * 解析路径, 按最长前缀匹配挂载项。
+     */
+    private Route route(String path) {
+        String absolutePath = normalize(currentDirectory, path);
+        for (Mount mount : mounts) {
+            if (mount.contains(absolutePath)) {
+                return new Route(mount, absolutePath, mount.toLocal(absolutePath));
+            }
+        }
+        throw new IllegalStateException("no file system mounted at " + absolutePath);
+    }
+
+    /**
+     * 将路径相对于指定目录解析为规范化的绝对路径, 去掉 "." 和 "..", 不会越出根目录。
+     */
+    private static String normalize(String directory, String path) {
+        String normalized = path.replace('\\', '/');
+        List<String> names = new ArrayList<>();
+        if (!normalized.startsWith("/")) {
+            normalized = directory + "/" + normalized;
+        }
+        for (String name : normalized.split("/")) {
+            if (name.isEmpty() || ".".equals(name)) {
+                continue;
+            }
+            if ("..".equals(name)) {
+                if (!names.isEmpty()) {
+                    names.remove(names.size() - 1);
+                }
+                continue;
+            }
+            names.add(name);
+        }
+        return "/" + String.join("/", names);
+    }
+
+    /**
+     * 挂载在指定目录下一级的挂载项。
+     */
+    private List<Mount> childMounts(String directory) {
+        return mounts.stream().filter(mount -> directory.equals(mount.parent())).sorted(Comparator.comparing(Mount::prefix)).toList();
+    }
+
+    /**
+     * 两个路径位于同一挂载项且其下都没有其他挂载项时, 操作可以直接交给该挂载项的文件系统。
+     */
+    private boolean isLocal(Route source, Route destination) {
+        return source.mount() == destination.mount() && nestedMounts(source.path()).isEmpty()
+                && nestedMounts(destination.path()).isEmpty();
+    }
+
+    /**
+     * 判断 path 是否等于 directory 或位于其下。
+     */
+    private static boolean isWithin(Route path, Route directory) {
+        return path.path().equals(directory.path()) || "/".equals(directory.path())
+                || path.path().startsWith(directory.path() + "/");
+    }
+
+    /**
+     * 挂载在指定目录下任意层级的挂载项。
+     */
+    private List<Mount> nestedMounts(String directory) {
+        String prefix = "/".equals(directory) ? "/" : directory + "/";
+        return mounts.stream().filter(mount -> !mount.isRoot() && mount.prefix().startsWith(prefix)).sorted(Comparator.comparing(Mount::prefix)).toList();
+    }
+
+    /**
+     * 挂载点在上级目录中显示为目录, 修改时间取挂载的文件系统根目录的修改时间。
+     */
+    private static FileVo mountPointVo(Mount mount) {
+        FileVo root = mount.fileSystem().stat("/");
+        LocalDateTime lastModified = root == null ? LocalDateTime.now() : root.getLastModifiedTime();
+        return new FileVo(mount.name(), "dir", 0L, lastModified);
+    }
+
+    private static boolean isDirectory(FileVo fileVo) {
+        return "dir".equals(fileVo.getType());
+    }
+
+    private static String child(String directory, String name) {
+        return directory.endsWith("/") ? directory + name : directory + "/" + name;
+    }
+
+    /**
+     * 输出错误信息, 并计入当前线程的错误统计。
+     *
+     * @param message 错误信息。
+     */
+    private static void fail(String message) {
+        IoStatistics.recordError(message);
+        System.out.println(message);
+    }
+
+    /**
+     * 解析后的路径。
+     *
+     * @param mount     匹配的挂载项
+     * @param path      规范化的绝对路径
+     * @param localPath 挂载的文件系统中的路径
+     */
+    private record Route(Mount mount, String path, String localPath) {
+
+        FileSystem fileSystem() {
+            return mount.fileSystem();
+        }
+
+        boolean isMountPoint() {
+            return "/".equals(localPath);
+        }
+
+        // 不以 "/" 开头的路径, 与单个文件系统输出的格式一致
+        String relative() {
+            return path.substring(1);
+        }
+    }
+
+    /**
+     * 跨挂载项拷贝的方式。
+     */
+    private enum TransferMode {
+        // 总是拷贝
+        COPY,
+        // 内容相同时跳过
+        DEDUP,
+        // 大小相同且目标不早于源文件时跳过
+        SYNC
+    }
+
+    private record Transfer(String sourcePath, String targetPath, FileVo fileVo) {
+    }
+
+    /**
+     * 一次跨挂载项拷贝的结果统计, 可在多个线程上并发更新。
+     */
+    private static final class TransferResult {
+        private final LongAdder copied = new LongAdder();
+        private final LongAdder unchanged = new LongAdder();
+        private final LongAdder deleted = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder bytesRead = new LongAdder();
+        private final LongAdder bytesWritten = new LongAdder();
+    }
+}
@@ -0,0 +1,219 @@
+package cn.autumnclouds.filesystem.pack;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * 堆内缓冲区上的 {@link FileChannel}, 用于让基于通道读写的工具(如分块加解密)读取打包文件的内容, 并在写入段文件前收集输出。
+ * 由只读内容创建的通道不能写入; 不支持内存映射和文件锁。
+ *
+ * @author Fu Qiujie
+ * @since 2024/5/24
+ */
+final class BufferFileChannel extends FileChannel {
+
+    // transferTo / transferFrom 的中转缓冲区大小
+    private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
+    private ByteBuffer buffer;
+    private final boolean writable;
+    private long size;
+    private long position;
+
+    /**
+     * 创建读取指定内容的只读通道。
+     *
+     * @param content 内容, 从其当前位置到上限
+     */
+    BufferFileChannel(ByteBuffer content) {
+        this.buffer = content.slice();
+        this.writable = false;
+        this.size = buffer.remaining();
+    }
+
+    /**
+     * 创建空的可写通道。
+     *
+     * @param initialCapacity 初始容量
+     */
+    BufferFileChannel(int initialCapacity) {
+        this.buffer = ByteBuffer.allocate(Math.max(16, initialCapacity));
+        this.writable = true;
+    }
+
+    /**
+     * 获取已写入的内容。
+     *
+     * @return 从 0 到通道大小的内容视图
+     */
+    ByteBuffer contents() {
+        return buffer.slice(0, (int) size);
+    }
+
+    @Override
+    public int read(ByteBuffer dst) {
+        int read = read(dst, position);
+        if (read > 0) {
+            position += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int length) {
+        long total = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int read = read(dsts[i]);
+            if (read < 0) {
+                return total == 0 ? -1 : total;
+            }
+            total += read;
+            if (dsts[i].hasRemaining()) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int written = write(src, position);
+        position += written;
+        return written;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        long total = 0;
+        for (int i = offset; i < offset + length; i++) {
+            total += write(srcs[i]);
+        }
+        return total;
+    }
+
+    @Override
+    public long position() {
+        return position;
+    }
+
+    @Override
+    public FileChannel position(long newPosition) {
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("negative position");
+        }
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public FileChannel truncate(long newSize) {
+        if (!writable) {
+            throw new NonWritableChannelException();
+        }
+        size = Math.min(size, newSize);
+        position = Math.min(position, newSize);
+        return this;
+    }
+
+    @Override
+    public void force(boolean metaData) {
+        // 内容在堆内, 没有需要落盘的数据
+    }
+
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        long transferred = 0;
+        while (transferred < count && position + transferred < size) {
+            int length = (int) Math.min(Math.min(TRANSFER_BUFFER_SIZE, count - transferred), size - position - transferred);
+            ByteBuffer chunk = buffer.slice((int) (position + transferred), length);
+            while (chunk.hasRemaining()) {
+                target.write(chunk);
+            }
+            transferred += length;
+        }
+        return transferred;
+    }
+
+    @Override
+    public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate((int) Math.min(TRANSFER_BUFFER_SIZE, Math.max(0, count)));
+        long transferred = 0;
+        while (transferred < count) {
+            chunk.clear().limit((int) Math.min(chunk.capacity(), count - transferred));
+            int read = src.read(chunk);
+            if (read <= 0) {
+                break;
+            }
+            chunk.flip();
+            write(chunk, position + transferred);
+            transferred += read;
+        }
+        return transferred;
+    }
+
+    @Override
+    public int read(ByteBuffer dst, long position) {
+        if (position >= size) {
+            return dst.hasRemaining() ? -1 : 0;
+        }
+        int length = (int) Math.min(dst.remaining(), size - position);
+        dst.put(buffer.slice((int) position, length));
+        return length;
+    }
+
+    @Override
+    public int write(ByteBuffer src, long position) throws IOException {
+        if (!writable) {
+            throw new NonWritableChannelException();
+        }
+        int length = src.remaining();
+        long end = position + length;
+        if (end > Integer.MAX_VALUE) {
+            throw new IOException("file is too large for pack storage");
+        }
+        if (end > buffer.capacity()) {
+            ByteBuffer grown = ByteBuffer.allocate((int) Math.min(Integer.MAX_VALUE, Math.max(end, buffer.capacity() * 2L)));
+            grown.put(buffer.slice(0, (int) size));
+            buffer = grown;
+        }
+        if (position > size) {
+            // 中间部分补零
+            buffer.put((int) size, new byte[(int) (position - size)]);
+        }
+        buffer.put((int) position, src, src.position(), length);
+        src.position(src.position() + length);
+        size = Math.max(size, end);
+        return length;
+    }
+
+    @Override
+    public MappedByteBuffer map(MapMode mode, long position, long size) {
+        throw new UnsupportedOperationException("pack files cannot be mapped");
+    }
+
+    @Override
+    public FileLock lock(long position, long size, boolean shared) {
+        throw new UnsupportedOperationException("pack files cannot be locked");
+    }
+
+    @Override
+    public FileLock tryLock(long position, long size, boolean shared) {
+        throw new UnsupportedOperationException("pack files cannot be locked");
+    }
+
+    @Override
+    protected void implCloseChannel() {
+        // 内容由调用方通过 contents() 取走
+    }
+}
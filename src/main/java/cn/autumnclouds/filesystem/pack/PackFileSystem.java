@@ -0,0 +1,915 @@
+package cn.autumnclouds.filesystem.pack;
+
+import cn.autumnclouds.entity.vo.FileVo;
+import cn.autumnclouds.filesystem.FileSystem;
+import cn.autumnclouds.filesystem.cache.DirectoryUsage;
+import cn.autumnclouds.filesystem.index.IndexEntry;
+import cn.autumnclouds.filesystem.index.PathIndex;
+import cn.autumnclouds.filesystem.pack.PackStore.Entry;
+import cn.autumnclouds.job.Job;
+import cn.autumnclouds.job.JobScheduler;
+import cn.autumnclouds.metrics.IoStatistics;
+import cn.autumnclouds.util.ByteSource;
+import cn.autumnclouds.util.CryptoUtils;
+import cn.autumnclouds.util.FileUtils;
+import cn.autumnclouds.util.SearchUtils;
+import cn.autumnclouds.util.ZipUtils;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.security.GeneralSecurityException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * 打包存储的文件系统, 适合存放大量小文件。
+ * 文件内容和目录都以记录的形式追加到少数几个段文件中(见 {@link PackStore}), 创建、写入和读取文件不需要打开单独的磁盘文件,
+ * 读取直接访问内存映射的段文件。路径和条目的位置全部保存在内存索引中, 启动时由段文件重建。
+ * 支持全部文件系统操作; 文件的修改都是整体重写或追加, 不支持硬链接和按块增量更新, 单个文件不能超过 2GB。
+ *
+ * @author Fu Qiujie
+ * @since 2024/5/24
+ */
+public class PackFileSystem implements FileSystem {
+
+    // cat 输出时每次拷贝的字节数
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private final PackStore store;
+    private volatile List<String> currentDirectory = List.of();
+
+    /**
+     * 打开目录中的打包存储, 目录不存在时创建。
+     *
+     * @param directory 存放段文件的目录
+     * @throws IOException 读取段文件失败
+     */
+    public PackFileSystem(Path directory) throws IOException {
+        this.store = new PackStore(directory);
+    }
+
+    @Override
+    public void createDirectory(String directoryName) {
+        List<String> names = resolve(directoryName);
+        try {
+            if (names.isEmpty() || !parentExists(names)) {
+                throw new IOException("parent directory does not exist");
+            }
+            store.putDirectory(key(names), System.currentTimeMillis());
+        } catch (IOException e) {
+            fail("failed to create directory");
+        }
+    }
+
+    @Override
+    public void createFile(String fileName) {
+        List<String> names = resolve(fileName);
+        try {
+            if (names.isEmpty() || !parentExists(names)) {
+                throw new IOException("parent directory does not exist");
+            }
+            if (store.get(key(names)) == null) {
+                store.putFile(key(names), ByteBuffer.allocate(0), System.currentTimeMillis());
+            }
+        } catch (IOException e) {
+            fail("failed to create file");
+        }
+    }
+
+    @Override
+    public void cat(String fileName) {
+        cat(fileName, 0, -1);
+    }
+
+    @Override
+    public void cat(String fileName, long offset, long length) {
+        ByteBuffer content = content(fileName);
+        if (content == null) {
+            fail("file does not exist");
+            return;
+        }
+        int start = (int) Math.min(Math.max(0, offset), content.limit());
+        int end = length < 0 || length > content.limit() - start ? content.limit() : (int) (start + length);
+        IoStatistics.recordRead(write(content.slice(start, end - start), System.out));
+        System.out.println();
+    }
+
+    @Override
+    public void head(String fileName, int lines) {
+        ByteBuffer content = content(fileName);
+        if (content == null) {
+            fail("file does not exist");
+            return;
+        }
+        try {
+            int end = (int) FileUtils.headEndOffset(ByteSource.of(content), lines);
+            IoStatistics.recordRead(write(content.slice(0, end), System.out));
+            System.out.println();
+        } catch (IOException e) {
+            fail("failed to read file");
+        }
+    }
+
+    @Override
+    public void tail(String fileName, int lines) {
+        ByteBuffer content = content(fileName);
+        if (content == null) {
+            fail("file does not exist");
+            return;
+        }
+        try {
+            int start = (int) FileUtils.tailStartOffset(ByteSource.of(content), lines);
+            IoStatistics.recordRead(write(content.slice(start, content.limit() - start), System.out));
+            System.out.println();
+        } catch (IOException e) {
+            fail("failed to read file");
+        }
+    }
+
+    @Override
+    public void delete(String path) {
+        List<String> names = resolve(path);
+        try {
+            if (names.isEmpty() || !store.delete(key(names))) {
+                throw new IOException("path does not exist");
+            }
+        } catch (IOException e) {
+            fail("failed to delete directory");
+        }
+    }
+
+    /**
+     * 写入文件。追加时只在段文件末尾写入新增的内容, 不重写原有内容。
+     *
+     * @param content  要写入的内容。
+     * @param fileName 要写入的文件名称。
+     * @param append   是否追加到文件末尾。
+     */
+    @Override
+    public void echo(String content, String fileName, boolean append) {
+        List<String> names = resolve(fileName);
+        ByteBuffer data = ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8));
+        try {
+            if (names.isEmpty() || !parentExists(names)) {
+                throw new IOException("parent directory does not exist");
+            }
+            String key = key(names);
+            Entry existing = store.get(key);
+            if (existing != null && existing.directory()) {
+                throw new IOException("path is a directory");
+            }
+            if (append) {
+                store.append(key, data, System.currentTimeMillis());
+            } else {
+                store.putFile(key, data, System.currentTimeMillis());
+            }
+            IoStatistics.recordWritten(data.capacity());
+        } catch (IOException e) {
+            fail("failed to write file");
+        }
+    }
+
+    /**
+     * 打包文件没有对应的 File 对象, 总是返回空数组, 列出目录请使用 {@link #listFileVos()}。
+     *
+     * @return 空数组。
+     */
+    @Override
+    public File[] listContents() {
+        return new File[0];
+    }
+
+    @Override
+    public List<FileVo> listFileVos() {
+        return listFileVos(key(currentDirectory), currentDirectory);
+    }
+
+    @Override
+    public void listContents(Predicate<FileVo> visitor) {
+        for (FileVo fileVo : listFileVos()) {
+            if (!visitor.test(fileVo)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public List<FileVo> listFileVos(String directoryName) {
+        List<String> names = resolve(directoryName);
+        return listFileVos(key(names), names);
+    }
+
+    private List<FileVo> listFileVos(String key, List<String> names) {
+        if (!isDirectory(names)) {
+            return List.of();
+        }
+        List<FileVo> fileVos = new ArrayList<>();
+        store.children(key, (name, entry) -> fileVos.add(toFileVo(name, entry)));
+        return fileVos;
+    }
+
+    @Override
+    public FileVo stat(String path) {
+        List<String> names = resolve(path);
+        if (names.isEmpty()) {
+            return new FileVo("", "dir", 0L, LocalDateTime.now());
+        }
+        Entry entry = store.get(key(names));
+        return entry == null ? null : toFileVo(last(names), entry);
+    }
+
+    @Override
+    public ReadableByteChannel newReadChannel(String path) throws IOException {
+        ByteBuffer content = content(path);
+        if (content == null) {
+            throw new NoSuchFileException(path);
+        }
+        return new BufferFileChannel(content);
+    }
+
+    /**
+     * 打开文件用于写入, 内容先收集在堆内, 通道关闭时作为一条记录写入段文件。
+     *
+     * @param path 文件路径。
+     * @return 写入文件的通道。
+     * @throws IOException 父目录不存在或路径是目录。
+     */
+    @Override
+    public WritableByteChannel newWriteChannel(String path) throws IOException {
+        List<String> names = resolve(path);
+        if (names.isEmpty() || !parentExists(names)) {
+            throw new IOException("parent directory does not exist");
+        }
+        Entry existing = store.get(key(names));
+        if (existing != null && existing.directory()) {
+            throw new IOException("path is a directory");
+        }
+        BufferFileChannel channel = new BufferFileChannel(WRITE_BUFFER_SIZE);
+        return new WritableByteChannel() {
+            private boolean open = true;
+
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                return channel.write(src);
+            }
+
+            @Override
+            public boolean isOpen() {
+                return open;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (open) {
+                    open = false;
+                    store.putFile(key(names), channel.contents(), System.currentTimeMillis());
+                }
+            }
+        };
+    }
+
+    @Override
+    public void force(String path) {
+        store.force();
+    }
+
+    @Override
+    public void changeDirectory(String directoryName) {
+        List<String> names = resolve(directoryName);
+        if (!isDirectory(names)) {
+            fail("Directory does not exist");
+            return;
+        }
+        currentDirectory = List.copyOf(names);
+    }
+
+    @Override
+    public void copy(String sourcePath, String destinationPath, boolean bg) {
+        // 在提交任务前解析路径, 避免后台任务执行时当前目录已被切换
+        List<String> source = resolve(sourcePath);
+        List<String> destination = resolve(destinationPath);
+        Entry entry = source.isEmpty() ? null : store.get(key(source));
+        if (entry == null) {
+            fail("Source file does not exist");
+            return;
+        }
+        if (!bg) {
+            copyTree(source, entry, destination, null);
+            return;
+        }
+        long estimatedBytes = entry.directory() ? Long.MAX_VALUE : entry.size();
+        Job job = JobScheduler.getInstance().submit("cp " + sourcePath + " " + destinationPath, estimatedBytes,
+                currentJob -> copyTree(source, entry, destination, currentJob));
+        if (job == null) {
+            fail("too many background jobs");
+            return;
+        }
+        System.out.println("[" + job.getId() + "] " + job.getDescription());
+    }
+
+    private void copyTree(List<String> source, Entry entry, List<String> destination, Job job) {
+        if (destination.isEmpty() || !parentExists(destination)) {
+            fail("Destination directory does not exist");
+            return;
+        }
+        if (entry.directory() && isWithin(destination, source)) {
+            fail("cannot copy a directory into itself");
+            return;
+        }
+        String sourceKey = key(source);
+        String destinationKey = key(destination);
+        // 先取快照, 目标位于源目录之外, 复制过程中写入的条目不会被再次复制
+        TreeMap<String, Entry> subtree = new TreeMap<>(store.subtree(sourceKey));
+        if (job != null) {
+            long bytes = entry.size();
+            for (Entry child : subtree.values()) {
+                bytes += child.size();
+            }
+            job.setTotals(bytes, entry.directory() ? subtree.values().stream().filter(child -> !child.directory()).count() : 1);
+        }
+        long bytes = 0;
+        try {
+            bytes += copyEntry(entry, destinationKey, job);
+            // 子树按路径排序, 父目录总是先于其下的条目被复制
+            for (Map.Entry<String, Entry> child : subtree.entrySet()) {
+                bytes += copyEntry(child.getValue(), destinationKey + child.getKey().substring(sourceKey.length()), job);
+            }
+        } catch (IOException e) {
+            fail("failed to copy file");
+        }
+        IoStatistics.recordRead(bytes);
+        IoStatistics.recordWritten(bytes);
+        if (job == null) {
+            System.out.printf("Copy  %s  to  %s,  progress: %.2f %%\n", sourceKey, destinationKey, 100.0);
+        }
+    }
+
+    private long copyEntry(Entry entry, String key, Job job) throws IOException {
+        if (entry.directory()) {
+            Entry existing = store.get(key);
+            if (existing != null && !existing.directory()) {
+                throw new IOException("destination is a file");
+            }
+            store.putDirectory(key, System.currentTimeMillis());
+            return 0;
+        }
+        Entry existing = store.get(key);
+        if (existing != null && existing.directory()) {
+            throw new IOException("destination is a directory");
+        }
+        store.putFile(key, PackStore.read(entry), System.currentTimeMillis());
+        if (job != null) {
+            job.addBytes(entry.size());
+            job.addFile();
+        }
+        return entry.size();
+    }
+
+    /**
+     * 按内容去重复制, 内容相同的文件跳过。打包存储不支持硬链接和按块更新, 内容不同的文件整体重写, link 被忽略。
+     *
+     * @param sourcePath      源路径。
+     * @param destinationPath 目标路径。
+     * @param link            是否以硬链接代替拷贝, 被忽略。
+     */
+    @Override
+    public void dedupCopy(String sourcePath, String destinationPath, boolean link) {
+        transfer(sourcePath, destinationPath, false, false, true);
+    }
+
+    /**
+     * 增量同步, 只复制大小或修改时间发生变化的文件, 复制后保留源文件的修改时间。
+     *
+     * @param sourcePath      源路径。
+     * @param destinationPath 目标路径。
+     * @param delta           是否只重写不同的块, 打包存储中变化的文件总是整体重写。
+     * @param deleteOrphans   是否删除源目录中不存在的目标条目。
+     */
+    @Override
+    public void sync(String sourcePath, String destinationPath, boolean delta, boolean deleteOrphans) {
+        transfer(sourcePath, destinationPath, true, deleteOrphans, false);
+    }
+
+    /**
+     * 去重复制和同步的共同实现。
+     *
+     * @param sync          为 true 时按大小和修改时间判断文件是否变化, 否则按内容判断
+     * @param deleteOrphans 是否删除源目录中不存在的目标条目
+     * @param dedup         是否按去重复制的格式输出结果
+     */
+    private void transfer(String sourcePath, String destinationPath, boolean sync, boolean deleteOrphans, boolean dedup) {
+        List<String> source = resolve(sourcePath);
+        List<String> destination = resolve(destinationPath);
+        Entry entry = source.isEmpty() ? null : store.get(key(source));
+        if (entry == null) {
+            fail("Source file does not exist");
+            return;
+        }
+        if (destination.isEmpty() || !parentExists(destination) || (entry.directory() && isWithin(destination, source))) {
+            fail("invalid destination");
+            return;
+        }
+        TransferResult result = new TransferResult();
+        try {
+            transferEntry(key(source), entry, key(destination), sync, deleteOrphans, result);
+        } catch (IOException e) {
+            result.failed++;
+        }
+        IoStatistics.recordRead(result.bytesRead);
+        IoStatistics.recordWritten(result.bytesWritten);
+        if (dedup) {
+            System.out.printf("Dedup copy  %s  to  %s:  %d copied, %d patched, %d linked, %d unchanged, %d bytes written\n",
+                    key(source), key(destination), result.copied, result.updated, 0, result.unchanged, result.bytesWritten);
+        } else {
+            System.out.printf("Sync  %s  to  %s:  %d copied, %d updated, %d deleted, %d unchanged, %d bytes written\n",
+                    key(source), key(destination), result.copied, result.updated, result.deleted, result.unchanged, result.bytesWritten);
+        }
+        if (result.failed > 0) {
+            fail("failed to copy " + result.failed + " files");
+        }
+    }
+
+    private void transferEntry(String sourceKey, Entry entry, String destinationKey, boolean sync, boolean deleteOrphans,
+                               TransferResult result) throws IOException {
+        Entry existing = store.get(destinationKey);
+        if (!entry.directory()) {
+            if (existing != null && !existing.directory() && existing != entry) {
+                boolean unchanged;
+                if (sync) {
+                    unchanged = existing.size() == entry.size() && existing.modified() == entry.modified();
+                } else {
+                    result.bytesRead += existing.size() + entry.size();
+                    unchanged = PackStore.read(existing).equals(PackStore.read(entry));
+                }
+                if (unchanged) {
+                    result.unchanged++;
+                    return;
+                }
+                result.updated++;
+            } else if (existing == entry) {
+                result.unchanged++;
+                return;
+            } else {
+                if (existing != null) {
+                    store.delete(destinationKey);
+                }
+                result.copied++;
+            }
+            // 同步时保留源文件的修改时间, 下次同步才能判断为未变化
+            store.putFile(destinationKey, PackStore.read(entry), sync ? entry.modified() : System.currentTimeMillis());
+            result.bytesRead += entry.size();
+            result.bytesWritten += entry.size();
+            return;
+        }
+        if (existing != null && !existing.directory()) {
+            store.delete(destinationKey);
+        }
+        store.putDirectory(destinationKey, System.currentTimeMillis());
+        List<String> names = new ArrayList<>();
+        List<Entry> children = new ArrayList<>();
+        store.children(sourceKey, (name, child) -> {
+            names.add(name);
+            children.add(child);
+        });
+        for (int i = 0; i < names.size(); i++) {
+            try {
+                transferEntry(sourceKey + "/" + names.get(i), children.get(i), destinationKey + "/" + names.get(i), sync,
+                        deleteOrphans, result);
+            } catch (IOException e) {
+                result.failed++;
+            }
+        }
+        if (deleteOrphans) {
+            List<String> orphans = new ArrayList<>();
+            store.children(destinationKey, (name, child) -> {
+                if (!names.contains(name)) {
+                    orphans.add(name);
+                }
+            });
+            for (String orphan : orphans) {
+                if (store.delete(destinationKey + "/" + orphan)) {
+                    result.deleted++;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void find(String directoryName, Predicate<FileVo> filter, Consumer<String> consumer) {
+        List<String> names = resolve(directoryName);
+        if (!isDirectory(names)) {
+            fail("Directory does not exist");
+            return;
+        }
+        for (Map.Entry<String, Entry> entry : store.subtree(key(names)).entrySet()) {
+            String path = entry.getKey();
+            if (filter.test(toFileVo(path.substring(path.lastIndexOf('/') + 1), entry.getValue()))) {
+                consumer.accept("/" + path);
+            }
+        }
+    }
+
+    @Override
+    public void grep(String directoryName, String text, Predicate<FileVo> filter, Consumer<String> consumer) {
+        List<String> names = resolve(directoryName);
+        if (!isDirectory(names)) {
+            fail("Directory does not exist");
+            return;
+        }
+        byte[] pattern = text.getBytes(StandardCharsets.UTF_8);
+        long bytesRead = 0;
+        for (Map.Entry<String, Entry> entry : store.subtree(key(names)).entrySet()) {
+            String path = entry.getKey();
+            if (entry.getValue().directory() || !filter.test(toFileVo(path.substring(path.lastIndexOf('/') + 1), entry.getValue()))) {
+                continue;
+            }
+            String prefix = "/" + path + ":";
+            try {
+                bytesRead += SearchUtils.grep(ByteSource.of(PackStore.read(entry.getValue())), pattern,
+                        (lineNumber, line) -> consumer.accept(prefix + lineNumber + ":" + line));
+            } catch (IOException e) {
+                fail("failed to read file: /" + path);
+            }
+        }
+        IoStatistics.recordRead(bytesRead);
+    }
+
+    /**
+     * 在内存索引中查找条目, 不读取段文件。
+     *
+     * @param type     查询类型。
+     * @param key      关键字, 按目录查询时为目录路径。
+     * @param consumer 结果回调, 目录以 "/" 结尾。
+     */
+    @Override
+    public void locate(PathIndex.QueryType type, String key, Consumer<String> consumer) {
+        String query = type == PathIndex.QueryType.PATH_PREFIX ? key(resolve(key)) : key;
+        for (Map.Entry<String, Entry> entry : store.subtree("").entrySet()) {
+            Entry value = entry.getValue();
+            if (PathIndex.matches(type, query, new IndexEntry(entry.getKey(), value.size(), value.modified(), value.directory()))) {
+                consumer.accept("/" + entry.getKey() + (value.directory() ? "/" : ""));
+            }
+        }
+    }
+
+    @Override
+    public DirectoryUsage diskUsage(String directoryName) {
+        List<String> names = resolve(directoryName);
+        if (!isDirectory(names)) {
+            fail("Directory does not exist");
+            return null;
+        }
+        return usage(key(names), usage -> {
+        });
+    }
+
+    @Override
+    public List<DirectoryUsage> largestDirectories(String directoryName, int n) {
+        List<String> names = resolve(directoryName);
+        if (!isDirectory(names)) {
+            fail("Directory does not exist");
+            return List.of();
+        }
+        Comparator<DirectoryUsage> bySize = Comparator.comparingLong(DirectoryUsage::bytes);
+        PriorityQueue<DirectoryUsage> heap = new PriorityQueue<>(bySize);
+        DirectoryUsage root = usage(key(names), usage -> {
+            heap.add(usage);
+            if (heap.size() > n) {
+                heap.poll();
+            }
+        });
+        heap.remove(root);
+        List<DirectoryUsage> largest = new ArrayList<>(heap);
+        largest.sort(bySize.reversed());
+        return largest;
+    }
+
+    /**
+     * 自底向上统计目录树的空间占用, 每个子目录的结果交给 sink。
+     */
+    private DirectoryUsage usage(String key, Consumer<DirectoryUsage> sink) {
+        long[] totals = new long[3];
+        List<Path> subdirectories = new ArrayList<>();
+        List<String> childDirectories = new ArrayList<>();
+        store.children(key, (name, entry) -> {
+            if (entry.directory()) {
+                childDirectories.add(key.isEmpty() ? name : key + "/" + name);
+            } else {
+                totals[0] += entry.size();
+                totals[1]++;
+            }
+        });
+        for (String childDirectory : childDirectories) {
+            DirectoryUsage usage = usage(childDirectory, sink);
+            subdirectories.add(usage.directory());
+            totals[0] += usage.bytes();
+            totals[1] += usage.files();
+            totals[2] += usage.directories() + 1;
+        }
+        DirectoryUsage usage = new DirectoryUsage(Paths.get("/" + key), totals[0], totals[1], totals[2], List.copyOf(subdirectories));
+        sink.accept(usage);
+        return usage;
+    }
+
+    @Override
+    public void encryptFile(String filePath, String encryptedFilePath, String secretKey) {
+        ByteBuffer content = content(filePath);
+        try {
+            if (content == null) {
+                throw new IOException("file does not exist");
+            }
+            SecretKeySpec secretKeySpec = FileUtils.generateSecretKey(secretKey);
+            BufferFileChannel out = new BufferFileChannel(content.limit() + WRITE_BUFFER_SIZE);
+            CryptoUtils.encrypt(new BufferFileChannel(content), out, secretKeySpec);
+            writeFile(resolve(encryptedFilePath), out.contents());
+            IoStatistics.recordRead(content.limit());
+            IoStatistics.recordWritten(out.size());
+        } catch (GeneralSecurityException | IOException e) {
+            fail("failed to encrypt file");
+        }
+    }
+
+    @Override
+    public void decryptFile(String encryptedFilePath, String decryptedFilePath, String secretKey) {
+        ByteBuffer content = content(encryptedFilePath);
+        try {
+            if (content == null) {
+                throw new IOException("file does not exist");
+            }
+            SecretKeySpec secretKeySpec = FileUtils.generateSecretKey(secretKey);
+            BufferFileChannel in = new BufferFileChannel(content);
+            BufferFileChannel out = new BufferFileChannel(content.limit());
+            if (CryptoUtils.isChunkedFormat(in)) {
+                CryptoUtils.decrypt(in, out, secretKeySpec);
+            } else {
+                CryptoUtils.decryptLegacy(Channels.newInputStream(in), Channels.newOutputStream(out), secretKeySpec);
+            }
+            writeFile(resolve(decryptedFilePath), out.contents());
+            IoStatistics.recordRead(content.limit());
+            IoStatistics.recordWritten(out.size());
+        } catch (GeneralSecurityException | IOException e) {
+            fail("failed to decrypt file");
+        }
+    }
+
+    /**
+     * 压缩文件或目录, 条目命名规则与磁盘文件系统相同。压缩在调用线程上串行进行, workers 被忽略。
+     *
+     * @param filePath           文件路径。
+     * @param compressedFilePath 压缩后文件路径。
+     * @param level              压缩级别。
+     * @param workers            未使用。
+     */
+    @Override
+    public void compressFile(String filePath, String compressedFilePath, int level, int workers) {
+        List<String> source = resolve(filePath);
+        Entry entry = source.isEmpty() ? null : store.get(key(source));
+        if (entry == null) {
+            fail("file does not exist");
+            return;
+        }
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            try (ZipOutputStream zipOut = new ZipOutputStream(output)) {
+                zipOut.setLevel(level);
+                String sourceKey = key(source);
+                String base = last(source);
+                zip(entry, base, zipOut);
+                for (Map.Entry<String, Entry> child : store.subtree(sourceKey).entrySet()) {
+                    zip(child.getValue(), base + child.getKey().substring(sourceKey.length()), zipOut);
+                }
+            }
+            writeFile(resolve(compressedFilePath), ByteBuffer.wrap(output.toByteArray()));
+            IoStatistics.recordWritten(output.size());
+        } catch (IOException e) {
+            fail("failed to compress file");
+        }
+    }
+
+    private static void zip(Entry entry, String name, ZipOutputStream zipOut) throws IOException {
+        ZipEntry zipEntry = new ZipEntry(entry.directory() ? name + "/" : name);
+        zipEntry.setLastModifiedTime(FileTime.fromMillis(entry.modified()));
+        zipOut.putNextEntry(zipEntry);
+        if (!entry.directory()) {
+            IoStatistics.recordRead(write(PackStore.read(entry), zipOut));
+        }
+        zipOut.closeEntry();
+    }
+
+    @Override
+    public void decompressFile(String filePath, String decompressedFilePath, List<String> patterns) {
+        ByteBuffer content = content(filePath);
+        List<String> destination = resolve(decompressedFilePath);
+        if (content == null) {
+            fail("failed to decompress file");
+            return;
+        }
+        Predicate<String> selected = ZipUtils.entryFilter(patterns);
+        int extracted = 0;
+        try (ZipInputStream zipIn = new ZipInputStream(Channels.newInputStream(new BufferFileChannel(content)))) {
+            mkdirs(destination);
+            ZipEntry entry;
+            while ((entry = zipIn.getNextEntry()) != null) {
+                if (!selected.test(entry.getName())) {
+                    continue;
+                }
+                List<String> target = resolveEntry(destination, entry.getName());
+                if (entry.isDirectory()) {
+                    mkdirs(target);
+                } else {
+                    mkdirs(target.subList(0, target.size() - 1));
+                    byte[] data = zipIn.readAllBytes();
+                    store.putFile(key(target), ByteBuffer.wrap(data), System.currentTimeMillis());
+                    IoStatistics.recordWritten(data.length);
+                    extracted++;
+                }
+            }
+            IoStatistics.recordRead(content.limit());
+            if (extracted == 0 && !patterns.isEmpty()) {
+                System.out.println("no matching files");
+            }
+        } catch (IOException e) {
+            fail("failed to decompress file");
+        }
+    }
+
+    /**
+     * 解析条目在解压目录中的路径, 拒绝越出解压目录的条目名(如 "../x")。
+     */
+    private static List<String> resolveEntry(List<String> destination, String entryName) throws IOException {
+        List<String> names = new ArrayList<>(destination);
+        for (String name : entryName.split("/")) {
+            if (name.isEmpty() || ".".equals(name)) {
+                continue;
+            }
+            if ("..".equals(name)) {
+                if (names.size() <= destination.size()) {
+                    throw new IOException("entry is outside of the target directory: " + entryName);
+                }
+                names.remove(names.size() - 1);
+                continue;
+            }
+            names.add(name);
+        }
+        if (names.size() == destination.size()) {
+            throw new IOException("invalid entry name: " + entryName);
+        }
+        return names;
+    }
+
+    /**
+     * 创建目录及其所有不存在的上级目录。
+     */
+    private void mkdirs(List<String> names) throws IOException {
+        for (int i = 1; i <= names.size(); i++) {
+            String key = key(names.subList(0, i));
+            Entry entry = store.get(key);
+            if (entry == null) {
+                store.putDirectory(key, System.currentTimeMillis());
+            } else if (!entry.directory()) {
+                throw new IOException("path is not a directory: " + key);
+            }
+        }
+    }
+
+    private void writeFile(List<String> names, ByteBuffer content) throws IOException {
+        if (names.isEmpty() || !parentExists(names)) {
+            throw new IOException("parent directory does not exist");
+        }
+        Entry existing = store.get(key(names));
+        if (existing != null && existing.directory()) {
+            throw new IOException("path is a directory");
+        }
+        store.putFile(key(names), content, System.currentTimeMillis());
+    }
+
+    /**
+     * 将路径解析为从根目录开始的各级名称, 以 "/" 开头的路径为绝对路径, 其他路径相对于当前目录。
+     */
+    private List<String> resolve(String path) {
+        String normalized = path.replace('\\', '/');
+        List<String> names = normalized.startsWith("/") ? new ArrayList<>() : new ArrayList<>(currentDirectory);
+        for (String name : normalized.split("/")) {
+            if (name.isEmpty() || ".".equals(name)) {
+                continue;
+            }
+            if ("..".equals(name)) {
+                if (!names.isEmpty()) {
+                    names.remove(names.size() - 1);
+                }
+                continue;
+            }
+            names.add(name);
+        }
+        return names;
+    }
+
+    private static String key(List<String> names) {
+        return String.join("/", names);
+    }
+
+    private static String last(List<String> names) {
+        return names.get(names.size() - 1);
+    }
+
+    private boolean isDirectory(List<String> names) {
+        if (names.isEmpty()) {
+            return true;
+        }
+        Entry entry = store.get(key(names));
+        return entry != null && entry.directory();
+    }
+
+    private boolean parentExists(List<String> names) {
+        return isDirectory(names.subList(0, names.size() - 1));
+    }
+
+    private static boolean isWithin(List<String> path, List<String> ancestor) {
+        return path.size() >= ancestor.size() && path.subList(0, ancestor.size()).equals(ancestor);
+    }
+
+    /**
+     * 读取文件内容。
+     *
+     * @return 内容, 文件不存在或路径是目录时返回 null
+     */
+    private ByteBuffer content(String path) {
+        List<String> names = resolve(path);
+        Entry entry = names.isEmpty() ? null : store.get(key(names));
+        return entry == null || entry.directory() ? null : PackStore.read(entry);
+    }
+
+    /**
+     * 将内容写入输出流。
+     *
+     * @return 写入的字节数
+     */
+    private static long write(ByteBuffer content, OutputStream out) {
+        ByteBuffer source = content.duplicate();
+        byte[] buffer = new byte[Math.min(WRITE_BUFFER_SIZE, Math.max(1, source.remaining()))];
+        long written = 0;
+        try {
+            while (source.hasRemaining()) {
+                int length = Math.min(buffer.length, source.remaining());
+                source.get(buffer, 0, length);
+                out.write(buffer, 0, length);
+                written += length;
+            }
+        } catch (IOException e) {
+            fail("failed to read file");
+        }
+        return written;
+    }
+
+    private static FileVo toFileVo(String name, Entry entry) {
+        return new FileVo(name, entry.directory() ? "dir" : "file", entry.directory() ? 0 : entry.size(),
+                LocalDateTime.ofInstant(Instant.ofEpochMilli(entry.modified()), ZoneId.systemDefault()));
+    }
+
+    /**
+     * 一次去重复制或同步的结果统计, 只在调用线程上更新。
+     */
+    private static final class TransferResult {
+        private int copied;
+        private int updated;
+        private int deleted;
+        private int unchanged;
+        private int failed;
+        private long bytesRead;
+        private long bytesWritten;
+    }
+
+    /**
+     * 输出错误信息, 并计入当前线程的错误统计。
+     *
+     * @param message 错误信息。
+     */
+    private static void fail(String message) {
+        IoStatistics.recordError(message);
+        System.out.println(message);
+    }
+}
@@ -0,0 +1,537 @@
+package cn.autumnclouds.filesystem.pack;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32C;
+
+/**
+ * 打包存储, 将大量小文件存放在少数几个只追加的段文件中。
+ * 每次写入在当前段末尾追加一条记录(文件内容、追加内容、目录或删除标记), 段文件预分配后整体内存映射, 写入和读取都只是内存拷贝,
+ * 不需要为每个文件创建 inode、打开和关闭文件。各路径的最新记录位置保存在内存中的有序索引里, 启动时按段的顺序重放记录重建索引,
+ * 末尾不完整或校验失败的记录被丢弃。被覆盖和删除的记录成为垃圾, 垃圾超过一定比例时在后台压缩:
+ * 把有效记录重写到新的段中, 再删除旧段。
+ * <ul>
+ *     <li>fs.pack.segmentSize: 段文件大小, 默认 64MB, 超过该大小的文件单独占用一个段</li>
+ *     <li>fs.pack.sync: 是否每次写入后将映射的内容刷到磁盘, 默认 false(进程崩溃不丢数据, 系统崩溃可能丢失最近的写入)</li>
+ *     <li>fs.pack.compactMinBytes: 触发压缩的最小垃圾字节数, 默认 16MB</li>
+ * </ul>
+ *
+ * @author Fu Qiujie
+ * @since 2024/5/24
+ */
+final class PackStore {
+
+    // 段文件大小的系统属性名
+    static final String SEGMENT_SIZE_PROPERTY = "fs.pack.segmentSize";
+
+    // 写入后是否刷盘的系统属性名
+    static final String SYNC_PROPERTY = "fs.pack.sync";
+
+    // 触发压缩的最小垃圾字节数的系统属性名
+    static final String COMPACT_MIN_BYTES_PROPERTY = "fs.pack.compactMinBytes";
+
+    private static final int SEGMENT_SIZE = Math.max(64 * 1024, Integer.getInteger(SEGMENT_SIZE_PROPERTY, 64 * 1024 * 1024));
+
+    private static final boolean SYNC = Boolean.getBoolean(SYNC_PROPERTY);
+
+    private static final long COMPACT_MIN_BYTES = Long.getLong(COMPACT_MIN_BYTES_PROPERTY, 16L * 1024 * 1024);
+
+    private static final String SEGMENT_SUFFIX = ".pack";
+
+    // 记录格式: magic(4) type(1) pathLength(4) modified(8) dataLength(4) crc(4) path data
+    private static final int MAGIC = 0x53465031;
+    private static final int HEADER_SIZE = 25;
+    private static final int CRC_OFFSET = 21;
+
+    private static final byte FILE = 1;
+    private static final byte APPEND = 2;
+    private static final byte DIRECTORY = 3;
+    private static final byte DELETE = 4;
+
+    // 单个文件的区段数超过该值时, 追加写入改为重写整个文件
+    private static final int MAX_EXTENTS = 64;
+
+    private final Path directory;
+    private final ConcurrentSkipListMap<String, Entry> entries = new ConcurrentSkipListMap<>();
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    // 已压缩但文件删除失败的段(如 Windows 上仍被映射的文件), 按从旧到新的顺序在之后的压缩中重试删除
+    private final List<Segment> undeleted = new ArrayList<>();
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "pack-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Segment active;
+    private int nextSegmentId = 1;
+
+    /**
+     * 打开目录中的打包存储, 重放已有的段文件重建索引。
+     *
+     * @param directory 存放段文件的目录, 不存在时创建
+     * @throws IOException 读取段文件失败
+     */
+    PackStore(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        TreeMap<Integer, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                try {
+                    files.put(Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length())), file);
+                } catch (NumberFormatException e) {
+                    // 不是段文件
+                }
+            }
+        }
+        for (Map.Entry<Integer, Path> file : files.entrySet()) {
+            Segment segment = new Segment(file.getKey(), file.getValue(), Files.size(file.getValue()));
+            segments.put(segment.id, segment);
+            replay(segment);
+            active = segment;
+            nextSegmentId = segment.id + 1;
+        }
+    }
+
+    /**
+     * 获取路径的条目。
+     *
+     * @param path 以 "/" 分隔的相对路径, 根目录为空字符串
+     * @return 条目, 不存在时返回 null
+     */
+    Entry get(String path) {
+        return entries.get(path);
+    }
+
+    /**
+     * 按名称顺序访问目录的直接子条目。
+     *
+     * @param path    目录路径
+     * @param visitor 访问者, 参数为名称和条目
+     */
+    void children(String path, BiConsumer<String, Entry> visitor) {
+        String prefix = path.isEmpty() ? "" : path + "/";
+        NavigableMap<String, Entry> subtree = subtree(path);
+        Map.Entry<String, Entry> entry = subtree.firstEntry();
+        while (entry != null) {
+            String name = entry.getKey().substring(prefix.length());
+            int slash = name.indexOf('/');
+            if (slash < 0) {
+                visitor.accept(name, entry.getValue());
+                entry = subtree.higherEntry(entry.getKey());
+            } else {
+                // 跳过子目录下的全部条目, '0' 是 '/' 之后的下一个字符
+                entry = subtree.ceilingEntry(prefix + name.substring(0, slash) + "0");
+            }
+        }
+    }
+
+    /**
+     * 按路径顺序获取目录下任意层级的条目, 不包括目录本身。
+     *
+     * @param path 目录路径
+     * @return 路径到条目的有序视图
+     */
+    NavigableMap<String, Entry> subtree(String path) {
+        return path.isEmpty() ? entries : entries.subMap(path + "/", true, path + "0", false);
+    }
+
+    /**
+     * 读取文件内容, 只有一个区段时直接返回映射内存的只读视图, 不发生拷贝。
+     *
+     * @param entry 文件条目
+     * @return 内容
+     */
+    static ByteBuffer read(Entry entry) {
+        if (entry.extents().size() == 1) {
+            return entry.extents().get(0).slice();
+        }
+        ByteBuffer content = ByteBuffer.allocate((int) entry.size());
+        for (Extent extent : entry.extents()) {
+            content.put(extent.slice());
+        }
+        return content.flip().asReadOnlyBuffer();
+    }
+
+    /**
+     * 写入文件, 替换原有内容。
+     *
+     * @param path     文件路径
+     * @param data     内容
+     * @param modified 修改时间
+     * @return 新的条目
+     * @throws IOException 写入段文件失败
+     */
+    synchronized Entry putFile(String path, ByteBuffer data, long modified) throws IOException {
+        Extent extent = appendRecord(FILE, path, modified, data);
+        Entry entry = new Entry(false, List.of(extent), extent.length(), modified);
+        retire(entries.put(path, entry));
+        compactIfNecessary();
+        return entry;
+    }
+
+    /**
+     * 追加内容到文件末尾, 文件不存在时创建。只写入新增的部分, 区段过多时重写整个文件。
+     *
+     * @param path     文件路径
+     * @param data     追加的内容
+     * @param modified 修改时间
+     * @return 新的条目
+     * @throws IOException 写入段文件失败
+     */
+    synchronized Entry append(String path, ByteBuffer data, long modified) throws IOException {
+        Entry existing = entries.get(path);
+        if (existing == null || existing.directory()) {
+            return putFile(path, data, modified);
+        }
+        if (existing.extents().size() >= MAX_EXTENTS) {
+            long mergedSize = existing.size() + data.remaining();
+            if (mergedSize > Integer.MAX_VALUE) {
+                throw new IOException("file is too large for pack storage");
+            }
+            ByteBuffer merged = ByteBuffer.allocate((int) mergedSize);
+            merged.put(read(existing)).put(data).flip();
+            return putFile(path, merged, modified);
+        }
+        Extent extent = appendRecord(APPEND, path, modified, data);
+        Entry entry = existing.append(extent, modified);
+        entries.put(path, entry);
+        return entry;
+    }
+
+    /**
+     * 创建目录, 已存在时不做任何操作。
+     *
+     * @param path     目录路径
+     * @param modified 修改时间
+     * @return 目录条目
+     * @throws IOException 写入段文件失败
+     */
+    synchronized Entry putDirectory(String path, long modified) throws IOException {
+        Entry existing = entries.get(path);
+        if (existing != null && existing.directory()) {
+            return existing;
+        }
+        Extent extent = appendRecord(DIRECTORY, path, modified, null);
+        Entry entry = new Entry(true, List.of(extent), 0, modified);
+        retire(entries.put(path, entry));
+        return entry;
+    }
+
+    /**
+     * 删除路径及其下所有条目。
+     *
+     * @param path 路径
+     * @return 路径存在时返回 true
+     * @throws IOException 写入段文件失败
+     */
+    synchronized boolean delete(String path) throws IOException {
+        if (!entries.containsKey(path)) {
+            return false;
+        }
+        Extent extent = appendRecord(DELETE, path, System.currentTimeMillis(), null);
+        // 删除标记只在旧记录被压缩掉之前有用, 写入即计为垃圾
+        extent.segment().garbage += extent.recordLength();
+        removeTree(path);
+        compactIfNecessary();
+        return true;
+    }
+
+    /**
+     * 将所有段中已写入的内容刷到磁盘, 未开启 fs.pack.sync 时用于按需持久化。
+     */
+    synchronized void force() {
+        for (Segment segment : segments.values()) {
+            segment.buffer.force(0, segment.end);
+        }
+    }
+
+    /**
+     * 获取段文件占用的总字节数和其中的垃圾字节数, 已压缩但尚未删除的段全部计为垃圾。
+     *
+     * @return [总字节数, 垃圾字节数]
+     */
+    synchronized long[] usage() {
+        long used = 0;
+        long garbage = 0;
+        for (Segment segment : segments.values()) {
+            used += segment.end;
+            garbage += segment.garbage;
+        }
+        for (Segment segment : undeleted) {
+            used += segment.end;
+            garbage += segment.end;
+        }
+        return new long[]{used, garbage};
+    }
+
+    /**
+     * 压缩: 将旧段中的有效记录重写到新段, 再删除旧段。
+     * 每个条目的重写在写锁内完成, 与并发的写入交替进行; 重写的记录总是晚于旧记录, 中途崩溃时重放结果不变。
+     * 删除失败的旧段留在待删除列表中, 之后每次压缩时重试。
+     *
+     * @throws IOException 写入段文件失败
+     */
+    void compact() throws IOException {
+        int boundary;
+        synchronized (this) {
+            // 之后的写入都进入新段
+            active = null;
+            boundary = nextSegmentId;
+        }
+        for (String path : entries.keySet()) {
+            synchronized (this) {
+                Entry entry = entries.get(path);
+                if (entry == null || !entry.isBefore(boundary)) {
+                    continue;
+                }
+                Extent extent = entry.directory()
+                        ? appendRecord(DIRECTORY, path, entry.modified(), null)
+                        : appendRecord(FILE, path, entry.modified(), read(entry));
+                entries.put(path, new Entry(entry.directory(), List.of(extent), entry.size(), entry.modified()));
+                retire(entry);
+            }
+        }
+        synchronized (this) {
+            undeleted.addAll(segments.headMap(boundary).values());
+            segments.headMap(boundary).clear();
+            deleteRetired();
+        }
+    }
+
+    /**
+     * 按从旧到新的顺序删除已压缩的段, 删除失败时保留该段及之后的段, 保证重放时较新的删除标记不会先于旧记录丢失。
+     * 调用方持有写锁。
+     */
+    private void deleteRetired() {
+        Iterator<Segment> iterator = undeleted.iterator();
+        while (iterator.hasNext()) {
+            try {
+                Files.deleteIfExists(iterator.next().file);
+            } catch (IOException e) {
+                return;
+            }
+            iterator.remove();
+        }
+    }
+
+    /**
+     * 垃圾超过总量的一半且不少于最小字节数时在后台压缩, 调用方持有写锁。
+     */
+    private void compactIfNecessary() {
+        long used = 0;
+        long garbage = 0;
+        for (Segment segment : segments.values()) {
+            used += segment.end;
+            garbage += segment.garbage;
+        }
+        if (garbage < COMPACT_MIN_BYTES || garbage * 2 < used || !compacting.compareAndSet(false, true)) {
+            return;
+        }
+        compactor.execute(() -> {
+            try {
+                compact();
+            } catch (IOException e) {
+                // 下次触发时重试
+            } finally {
+                compacting.set(false);
+            }
+        });
+    }
+
+    private void removeTree(String path) {
+        retire(entries.remove(path));
+        NavigableMap<String, Entry> subtree = subtree(path);
+        for (Entry entry : subtree.values()) {
+            retire(entry);
+        }
+        subtree.clear();
+    }
+
+    private static void retire(Entry entry) {
+        if (entry == null) {
+            return;
+        }
+        for (Extent extent : entry.extents()) {
+            extent.segment().garbage += extent.recordLength();
+        }
+    }
+
+    /**
+     * 在当前段末尾追加一条记录, 调用方持有写锁。
+     */
+    private Extent appendRecord(byte type, String path, long modified, ByteBuffer data) throws IOException {
+        byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+        int dataLength = data == null ? 0 : data.remaining();
+        long recordLength = (long) HEADER_SIZE + pathBytes.length + dataLength;
+        if (recordLength > Integer.MAX_VALUE) {
+            throw new IOException("file is too large for pack storage");
+        }
+        Segment segment = writableSegment((int) recordLength);
+        int start = segment.end;
+        ByteBuffer target = segment.buffer.duplicate();
+        target.position(start);
+        target.putInt(MAGIC).put(type).putInt(pathBytes.length).putLong(modified).putInt(dataLength).putInt(0).put(pathBytes);
+        if (data != null) {
+            target.put(data.duplicate());
+        }
+        target.putInt(start + CRC_OFFSET, checksum(segment.buffer, start, (int) recordLength));
+        if (SYNC) {
+            segment.buffer.force(start, (int) recordLength);
+        }
+        segment.end = start + (int) recordLength;
+        return new Extent(segment, start + HEADER_SIZE + pathBytes.length, dataLength, (int) recordLength);
+    }
+
+    private Segment writableSegment(int recordLength) throws IOException {
+        if (active == null || active.end + recordLength > active.buffer.capacity()) {
+            int id = nextSegmentId++;
+            active = new Segment(id, directory.resolve(String.format("%08d%s", id, SEGMENT_SUFFIX)), Math.max(SEGMENT_SIZE, recordLength));
+            segments.put(id, active);
+        }
+        return active;
+    }
+
+    /**
+     * 校验和覆盖 magic 之后除校验和字段外的全部内容。
+     */
+    private static int checksum(ByteBuffer buffer, int start, int recordLength) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate().limit(start + CRC_OFFSET).position(start + 4));
+        crc.update(buffer.duplicate().limit(start + recordLength).position(start + HEADER_SIZE));
+        return (int) crc.getValue();
+    }
+
+    /**
+     * 重放段中的记录, 遇到未写入的区域或校验失败的记录时结束。
+     */
+    private void replay(Segment segment) {
+        ByteBuffer buffer = segment.buffer;
+        int position = 0;
+        while (position + HEADER_SIZE <= buffer.capacity() && buffer.getInt(position) == MAGIC) {
+            byte type = buffer.get(position + 4);
+            int pathLength = buffer.getInt(position + 5);
+            long modified = buffer.getLong(position + 9);
+            int dataLength = buffer.getInt(position + 17);
+            long recordLength = (long) HEADER_SIZE + pathLength + dataLength;
+            if (pathLength < 0 || dataLength < 0 || position + recordLength > buffer.capacity()
+                    || buffer.getInt(position + CRC_OFFSET) != checksum(buffer, position, (int) recordLength)) {
+                break;
+            }
+            byte[] pathBytes = new byte[pathLength];
+            buffer.get(position + HEADER_SIZE, pathBytes);
+            String path = new String(pathBytes, StandardCharsets.UTF_8);
+            Extent extent = new Extent(segment, position + HEADER_SIZE + pathLength, dataLength, (int) recordLength);
+            switch (type) {
+                case FILE -> retire(entries.put(path, new Entry(false, List.of(extent), dataLength, modified)));
+                case APPEND -> {
+                    Entry existing = entries.get(path);
+                    entries.put(path, existing == null || existing.directory()
+                            ? new Entry(false, List.of(extent), dataLength, modified)
+                            : existing.append(extent, modified));
+                    retire(existing != null && existing.directory() ? existing : null);
+                }
+                case DIRECTORY -> retire(entries.put(path, new Entry(true, List.of(extent), 0, modified)));
+                case DELETE -> {
+                    segment.garbage += recordLength;
+                    removeTree(path);
+                }
+                default -> segment.garbage += recordLength;
+            }
+            position += (int) recordLength;
+        }
+        segment.end = position;
+    }
+
+    /**
+     * 段文件, 创建时预分配并整体映射。
+     */
+    static final class Segment {
+        private final int id;
+        private final Path file;
+        private final MappedByteBuffer buffer;
+        // 已写入的字节数, 只在写锁内修改
+        private int end;
+        // 被覆盖或删除的记录的字节数, 只在写锁内修改
+        private long garbage;
+
+        private Segment(int id, Path file, long size) throws IOException {
+            this.id = id;
+            this.file = file;
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(file.toFile(), "rw");
+                 FileChannel channel = randomAccessFile.getChannel()) {
+                if (randomAccessFile.length() < size) {
+                    randomAccessFile.setLength(size);
+                }
+                this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+        }
+
+        int id() {
+            return id;
+        }
+    }
+
+    /**
+     * 记录中数据部分的位置。
+     *
+     * @param segment      所在的段
+     * @param offset       数据在段中的偏移
+     * @param length       数据长度
+     * @param recordLength 整条记录的长度, 用于统计垃圾
+     */
+    record Extent(Segment segment, int offset, int length, int recordLength) {
+
+        ByteBuffer slice() {
+            return segment.buffer.slice(offset, length).asReadOnlyBuffer();
+        }
+    }
+
+    /**
+     * 索引中的条目。
+     *
+     * @param directory 是否为目录
+     * @param extents   文件内容依次所在的区段, 目录只有一个不含数据的区段
+     * @param size      文件大小
+     * @param modified  修改时间
+     */
+    record Entry(boolean directory, List<Extent> extents, long size, long modified) {
+
+        Entry append(Extent extent, long modified) {
+            List<Extent> appended = new ArrayList<>(extents.size() + 1);
+            appended.addAll(extents);
+            appended.add(extent);
+            return new Entry(false, List.copyOf(appended), size + extent.length(), modified);
+        }
+
+        /**
+         * 是否有区段位于指定编号之前的段中。
+         */
+        boolean isBefore(int segmentId) {
+            for (Extent extent : extents) {
+                if (extent.segment().id() < segmentId) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
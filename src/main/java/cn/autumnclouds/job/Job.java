@@ -0,0 +1,216 @@
+package cn.autumnclouds.job;
+
+import java.io.UncheckedIOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 后台任务, 由 {@link JobScheduler} 调度执行。
+ * 任务记录已处理的字节数和文件数, 并支持在执行过程中被取消; 任务失败时记录失败原因, 随状态一起展示。
+ *
+ * @author Fu Qiujie
+ * @since 2024/4/2
+ */
+public class Job implements Runnable, Comparable<Job> {
+
+    /**
+     * 任务状态
+     */
+    public enum State {
+        QUEUED, RUNNING, DONE, FAILED, CANCELLED
+    }
+
+    private final long id;
+    private final String description;
+    // 预估的任务大小(字节), 调度时优先执行较小的任务, 避免大任务长时间占满工作线程
+    private final long estimatedBytes;
+    private final Consumer<Job> action;
+    private final LongAdder processedBytes = new LongAdder();
+    private final LongAdder processedFiles = new LongAdder();
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private final long submitTime = System.currentTimeMillis();
+    private volatile long totalBytes = -1;
+    private volatile long totalFiles = -1;
+    private volatile long startTime;
+    private volatile long endTime;
+    private volatile boolean cancelled;
+    private volatile State state = State.QUEUED;
+    private volatile String failure;
+
+    Job(long id, String description, long estimatedBytes, Consumer<Job> action) {
+        this.id = id;
+        this.description = description;
+        this.estimatedBytes = estimatedBytes;
+        this.action = action;
+    }
+
+    @Override
+    public void run() {
+        if (cancelled) {
+            finish(State.CANCELLED);
+            return;
+        }
+        startTime = System.currentTimeMillis();
+        state = State.RUNNING;
+        // 任何异常(包括 Error)都要结束任务, 否则等待该任务的 wait 永远不会返回
+        State finalState = State.FAILED;
+        try {
+            action.accept(this);
+            finalState = cancelled ? State.CANCELLED : State.DONE;
+        } catch (CancellationException e) {
+            finalState = State.CANCELLED;
+        } catch (RuntimeException e) {
+            failure = describe(e);
+        } catch (Error e) {
+            failure = describe(e);
+            throw e;
+        } finally {
+            finish(finalState);
+        }
+    }
+
+    private static String describe(Throwable e) {
+        Throwable cause = e instanceof UncheckedIOException && e.getCause() != null ? e.getCause() : e;
+        return cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+    }
+
+    private void finish(State finalState) {
+        endTime = System.currentTimeMillis();
+        state = finalState;
+        finished.countDown();
+    }
+
+    /**
+     * 记录已处理的字节数, 若任务已被取消则抛出 CancellationException 以中止正在进行的操作。
+     *
+     * @param bytes 新处理的字节数
+     */
+    public void addBytes(long bytes) {
+        processedBytes.add(bytes);
+        checkCancelled();
+    }
+
+    /**
+     * 记录已处理完成一个文件。
+     */
+    public void addFile() {
+        processedFiles.increment();
+        checkCancelled();
+    }
+
+    /**
+     * 若任务已被取消则抛出 CancellationException。
+     */
+    public void checkCancelled() {
+        if (cancelled) {
+            throw new CancellationException("job " + id + " cancelled");
+        }
+    }
+
+    /**
+     * 设置任务的总字节数和总文件数, 用于展示进度。
+     *
+     * @param totalBytes 总字节数
+     * @param totalFiles 总文件数
+     */
+    public void setTotals(long totalBytes, long totalFiles) {
+        this.totalBytes = totalBytes;
+        this.totalFiles = totalFiles;
+    }
+
+    /**
+     * 请求取消任务, 排队中的任务不会再执行, 执行中的任务在下一次记录进度时中止。
+     *
+     * @return 任务尚未结束时返回 true
+     */
+    boolean cancel() {
+        if (isFinished()) {
+            return false;
+        }
+        cancelled = true;
+        return true;
+    }
+
+    /**
+     * 等待任务结束。
+     *
+     * @param timeout 超时时间
+     * @param unit    时间单位
+     * @return 任务在超时前结束返回 true
+     * @throws InterruptedException 等待过程中线程被中断
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return finished.await(timeout, unit);
+    }
+
+    /**
+     * 等待任务结束。
+     *
+     * @throws InterruptedException 等待过程中线程被中断
+     */
+    public void await() throws InterruptedException {
+        finished.await();
+    }
+
+    public boolean isFinished() {
+        return finished.getCount() == 0;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * 获取任务失败的原因。
+     *
+     * @return 失败原因, 任务未失败时返回 null
+     */
+    public String getFailure() {
+        return failure;
+    }
+
+    public long getProcessedBytes() {
+        return processedBytes.sum();
+    }
+
+    public long getProcessedFiles() {
+        return processedFiles.sum();
+    }
+
+    /**
+     * 获取任务已运行(或排队)的时长。
+     *
+     * @return 时长, 单位为毫秒
+     */
+    public long getElapsedMillis() {
+        if (startTime == 0) {
+            return System.currentTimeMillis() - submitTime;
+        }
+        return (endTime == 0 ? System.currentTimeMillis() : endTime) - startTime;
+    }
+
+    @Override
+    public int compareTo(Job other) {
+        int result = Long.compare(estimatedBytes, other.estimatedBytes);
+        return result != 0 ? result : Long.compare(id, other.id);
+    }
+
+    @Override
+    public String toString() {
+        String bytes = totalBytes < 0 ? getProcessedBytes() + "B" : getProcessedBytes() + "/" + totalBytes + "B";
+        String files = totalFiles < 0 ? String.valueOf(getProcessedFiles()) : getProcessedFiles() + "/" + totalFiles;
+        String line = "[" + id + "]  " + state + "  " + bytes + "  " + files + " files  " + getElapsedMillis() + "ms  " + description;
+        return failure == null ? line : line + "  (" + failure + ")";
+    }
+}
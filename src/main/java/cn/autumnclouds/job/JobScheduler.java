@@ -0,0 +1,137 @@
+package cn.autumnclouds.job;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 后台任务调度器。
+ * 使用固定数量的工作线程执行任务, 排队中的任务按预估大小从小到大执行,
+ * 使得小任务不会被排在前面的大拷贝任务长时间阻塞。
+ *
+ * @author Fu Qiujie
+ * @since 2024/4/2
+ */
+public class JobScheduler {
+
+    // 工作线程数的系统属性名, 默认为 CPU 核数的一半(至少 2 个)
+    public static final String WORKERS_PROPERTY = "fs.job.workers";
+
+    // 最大排队任务数的系统属性名
+    public static final String QUEUE_CAPACITY_PROPERTY = "fs.job.queueCapacity";
+
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final Map<Long, Job> jobs = new ConcurrentSkipListMap<>();
+    private final int queueCapacity;
+    private final ThreadPoolExecutor executor;
+
+    private JobScheduler() {
+        int workers = Math.max(1, Integer.getInteger(WORKERS_PROPERTY, Math.max(2, Runtime.getRuntime().availableProcessors() / 2)));
+        queueCapacity = Math.max(1, Integer.getInteger(QUEUE_CAPACITY_PROPERTY, 256));
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> new Thread(runnable, "job-worker-" + threadCount.incrementAndGet());
+        executor = new ThreadPoolExecutor(workers, workers, 5, TimeUnit.SECONDS, new PriorityBlockingQueue<>(), threadFactory);
+        // 空闲时回收工作线程, 使程序退出时不必等待线程池关闭
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    // 静态内部类实现单例
+    private static final class JobSchedulerHolder {
+        public static final JobScheduler INSTANCE = new JobScheduler();
+    }
+
+    /**
+     * 获取任务调度器实例。
+     *
+     * @return 任务调度器实例。
+     */
+    public static JobScheduler getInstance() {
+        return JobSchedulerHolder.INSTANCE;
+    }
+
+    /**
+     * 提交后台任务。
+     *
+     * @param description    任务描述
+     * @param estimatedBytes 预估的任务大小(字节), 用于排队优先级
+     * @param action         任务内容, 执行时应通过 Job 上报进度以便支持取消
+     * @return 提交的任务, 排队任务数已达上限时返回 null
+     */
+    public Job submit(String description, long estimatedBytes, Consumer<Job> action) {
+        if (executor.getQueue().size() >= queueCapacity) {
+            return null;
+        }
+        Job job = new Job(nextId.getAndIncrement(), description, estimatedBytes, action);
+        jobs.put(job.getId(), job);
+        executor.execute(job);
+        return job;
+    }
+
+    /**
+     * 获取指定编号的任务。
+     *
+     * @param id 任务编号
+     * @return 任务, 不存在时返回 null
+     */
+    public Job getJob(long id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * 列出所有任务, 包括已结束但尚未移除的任务。
+     *
+     * @return 任务列表
+     */
+    public List<Job> listJobs() {
+        return new ArrayList<>(jobs.values());
+    }
+
+    /**
+     * 移除给定任务中已结束的任务, 之后 {@link #listJobs()} 和 {@link #getJob(long)} 不再返回它们。
+     *
+     * @param finishedJobs 要移除的任务, 尚未结束的任务被忽略
+     */
+    public void removeFinished(Collection<Job> finishedJobs) {
+        for (Job job : finishedJobs) {
+            if (job.isFinished()) {
+                jobs.remove(job.getId());
+            }
+        }
+    }
+
+    /**
+     * 列出所有尚未结束的任务。
+     *
+     * @return 任务列表
+     */
+    public List<Job> listActiveJobs() {
+        return jobs.values().stream().filter(job -> !job.isFinished()).toList();
+    }
+
+    /**
+     * 取消指定编号的任务。
+     *
+     * @param id 任务编号
+     * @return 任务存在且尚未结束时返回 true
+     */
+    public boolean cancel(long id) {
+        Job job = jobs.get(id);
+        if (job == null || !job.cancel()) {
+            return false;
+        }
+        // 排队中的任务直接从队列移除
+        if (executor.remove(job)) {
+            job.run();
+        }
+        return true;
+    }
+}
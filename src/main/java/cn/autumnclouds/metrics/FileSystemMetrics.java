@@ -0,0 +1,85 @@
+package cn.autumnclouds.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 文件系统操作指标的注册表, 每个操作第一次被调用时创建对应的指标并注册到 JMX。
+ *
+ * @author Fu Qiujie
+ * @since 2024/4/30
+ */
+public class FileSystemMetrics {
+
+    private static final String DOMAIN = "cn.autumnclouds";
+
+    private final Map<String, OperationMetrics> operations = new ConcurrentHashMap<>();
+
+    private FileSystemMetrics() {
+    }
+
+    // 静态内部类实现单例
+    private static final class FileSystemMetricsHolder {
+        public static final FileSystemMetrics INSTANCE = new FileSystemMetrics();
+    }
+
+    /**
+     * 获取指标注册表实例。
+     *
+     * @return 指标注册表实例
+     */
+    public static FileSystemMetrics getInstance() {
+        return FileSystemMetricsHolder.INSTANCE;
+    }
+
+    /**
+     * 获取操作对应的指标, 不存在时创建。
+     *
+     * @param operation 操作名
+     * @return 操作指标
+     */
+    public OperationMetrics get(String operation) {
+        return operations.computeIfAbsent(operation, name -> {
+            OperationMetrics metrics = new OperationMetrics(name);
+            register(metrics);
+            return metrics;
+        });
+    }
+
+    /**
+     * 列出已被调用过的操作的指标, 按操作名排序。
+     *
+     * @return 操作指标列表
+     */
+    public List<OperationMetrics> list() {
+        List<OperationMetrics> result = new ArrayList<>(operations.values());
+        result.sort(Comparator.comparing(OperationMetrics::getOperation));
+        return result;
+    }
+
+    /**
+     * 清空所有操作的指标。
+     */
+    public void reset() {
+        operations.values().forEach(OperationMetrics::reset);
+    }
+
+    private static void register(OperationMetrics metrics) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(DOMAIN + ":type=FileSystemMetrics,operation=" + metrics.getOperation());
+            if (!server.isRegistered(name)) {
+                server.registerMBean(metrics, name);
+            }
+        } catch (JMException e) {
+            // JMX 不可用时指标仍可通过 stats 命令查看
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package cn.autumnclouds.metrics;
+
+/**
+ * 当前线程的 I/O 统计。
+ * 文件系统实现在执行操作的线程上记录读写字节数和错误数, 指标收集层在操作前后读取差值,
+ * 从而把字节数和错误归属到具体的操作上。在其他线程(如后台任务)上记录的数据不会计入调用方的操作。
+ *
+ * @author Fu Qiujie
+ * @since 2024/4/30
+ */
+public final class IoStatistics {
+
+    private static final ThreadLocal<IoStatistics> CURRENT = ThreadLocal.withInitial(IoStatistics::new);
+
+    private long bytesRead;
+    private long bytesWritten;
+    private long errors;
+    private String lastError;
+
+    private IoStatistics() {
+    }
+
+    /**
+     * 获取当前线程的 I/O 统计。
+     *
+     * @return I/O 统计
+     */
+    public static IoStatistics current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * 记录读取的字节数。
+     *
+     * @param bytes 字节数
+     */
+    public static void recordRead(long bytes) {
+        CURRENT.get().bytesRead += bytes;
+    }
+
+    /**
+     * 记录写入的字节数。
+     *
+     * @param bytes 字节数
+     */
+    public static void recordWritten(long bytes) {
+        CURRENT.get().bytesWritten += bytes;
+    }
+
+    /**
+     * 记录一次错误。
+     *
+     * @param message 错误信息
+     */
+    public static void recordError(String message) {
+        IoStatistics statistics = CURRENT.get();
+        statistics.errors++;
+        statistics.lastError = message;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    /**
+     * 获取当前线程最近一次错误的信息。
+     *
+     * @return 错误信息, 没有发生过错误时返回 null
+     */
+    public String getLastError() {
+        return lastError;
+    }
+}
@@ -0,0 +1,134 @@
+package cn.autumnclouds.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 无锁的对数-线性延迟直方图(与 HdrHistogram 的分桶方式相同)。
+ * 数值按二进制数量级分段, 每段再等分为 32 个子桶, 分位数的相对误差不超过 1/32,
+ * 桶数量固定, 记录一次只需一次原子自增, 可被多个线程并发记录。
+ *
+ * @author Fu Qiujie
+ * @since 2024/4/30
+ */
+public class LatencyHistogram {
+
+    // 每个数量级内子桶数量的位数
+    private static final int SUB_BUCKET_BITS = 5;
+
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    // 小于该值的数值逐个对应一个桶, 不损失精度
+    private static final int LINEAR_LIMIT = SUB_BUCKET_COUNT * 2;
+
+    private static final int BUCKET_COUNT = (Long.SIZE - 1 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT + LINEAR_LIMIT;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder sum = new LongAdder();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * 记录一个数值。
+     *
+     * @param value 数值, 负数按 0 记录
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        buckets.incrementAndGet(bucketIndex(value));
+        count.increment();
+        sum.add(value);
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // 其他线程更新了最大值, 重新比较
+        }
+    }
+
+    /**
+     * 获取记录的数值个数。
+     *
+     * @return 数值个数
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * 获取平均值。
+     *
+     * @return 平均值, 没有记录时返回 0
+     */
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * 获取最大值。
+     *
+     * @return 最大值
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * 获取指定分位数的数值, 返回值为所在桶的上界, 不会超过记录到的最大值。
+     *
+     * @param quantile 分位数(0-1)
+     * @return 分位数对应的数值, 没有记录时返回 0
+     */
+    public long getValueAtQuantile(double quantile) {
+        long total = 0;
+        long[] snapshot = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highestValueOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * 清空所有记录。
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    private static int bucketIndex(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKET_COUNT + (int) (value >>> shift);
+    }
+
+    private static long highestValueOf(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long mantissa = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
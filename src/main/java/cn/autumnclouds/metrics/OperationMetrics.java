@@ -0,0 +1,110 @@
+package cn.autumnclouds.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 单个文件系统操作的调用次数、错误数、读写字节数和延迟分布。
+ *
+ * @author Fu Qiujie
+ * @since 2024/4/30
+ */
+public class OperationMetrics implements OperationMetricsMBean {
+
+    private final String operation;
+
+    private final LongAdder calls = new LongAdder();
+
+    private final LongAdder errors = new LongAdder();
+
+    private final LongAdder bytesRead = new LongAdder();
+
+    private final LongAdder bytesWritten = new LongAdder();
+
+    // 延迟直方图, 单位为纳秒
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    public OperationMetrics(String operation) {
+        this.operation = operation;
+    }
+
+    /**
+     * 记录一次调用。
+     *
+     * @param latencyNanos 调用耗时(纳秒)
+     * @param errors       调用中发生的错误数
+     * @param bytesRead    调用中读取的字节数
+     * @param bytesWritten 调用中写入的字节数
+     */
+    public void record(long latencyNanos, long errors, long bytesRead, long bytesWritten) {
+        calls.increment();
+        if (errors > 0) {
+            this.errors.increment();
+        }
+        this.bytesRead.add(bytesRead);
+        this.bytesWritten.add(bytesWritten);
+        latency.record(latencyNanos);
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    @Override
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public double getMeanLatencyMicros() {
+        return latency.getMean() / 1000;
+    }
+
+    @Override
+    public long getP50LatencyMicros() {
+        return toMicros(latency.getValueAtQuantile(0.5));
+    }
+
+    @Override
+    public long getP99LatencyMicros() {
+        return toMicros(latency.getValueAtQuantile(0.99));
+    }
+
+    @Override
+    public long getP999LatencyMicros() {
+        return toMicros(latency.getValueAtQuantile(0.999));
+    }
+
+    @Override
+    public long getMaxLatencyMicros() {
+        return toMicros(latency.getMax());
+    }
+
+    @Override
+    public void reset() {
+        calls.reset();
+        errors.reset();
+        bytesRead.reset();
+        bytesWritten.reset();
+        latency.reset();
+    }
+
+    private static long toMicros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
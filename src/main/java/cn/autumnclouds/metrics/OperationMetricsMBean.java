@@ -0,0 +1,31 @@
+package cn.autumnclouds.metrics;
+
+/**
+ * 单个文件系统操作的指标, 通过 JMX 以 cn.autumnclouds:type=FileSystemMetrics,operation=操作名 暴露。
+ * 延迟单位为微秒。
+ *
+ * @author Fu Qiujie
+ * @since 2024/4/30
+ */
+public interface OperationMetricsMBean {
+
+    long getCalls();
+
+    long getErrors();
+
+    long getBytesRead();
+
+    long getBytesWritten();
+
+    double getMeanLatencyMicros();
+
+    long getP50LatencyMicros();
+
+    long getP99LatencyMicros();
+
+    long getP999LatencyMicros();
+
+    long getMaxLatencyMicros();
+
+    void reset();
+}
@@ -0,0 +1,81 @@
+package cn.autumnclouds.script;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 按线程路由的输出流。
+ * 线程可以通过 {@link #capture(OutputStream)} 将自己的输出重定向到指定的流,
+ * 未重定向的线程写入默认输出流。用于在并行执行多条命令时分别收集每条命令的输出。
+ *
+ * @author Fu Qiujie
+ * @since 2024/4/23
+ */
+public class RoutingOutputStream extends OutputStream {
+
+    private static final ThreadLocal<OutputStream> CAPTURED = new ThreadLocal<>();
+
+    private final OutputStream defaultOut;
+
+    /**
+     * 创建按线程路由的输出流。
+     *
+     * @param defaultOut 未重定向的线程使用的输出流
+     */
+    public RoutingOutputStream(OutputStream defaultOut) {
+        this.defaultOut = defaultOut;
+    }
+
+    /**
+     * 将当前线程的输出重定向到指定的流。
+     *
+     * @param out 输出流
+     */
+    public static void capture(OutputStream out) {
+        CAPTURED.set(out);
+    }
+
+    /**
+     * 取消当前线程的输出重定向。
+     */
+    public static void release() {
+        CAPTURED.remove();
+    }
+
+    private OutputStream target() {
+        OutputStream captured = CAPTURED.get();
+        return captured == null ? defaultOut : captured;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        target().write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        target().write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        target().flush();
+    }
+
+    /**
+     * 将数据直接写入默认输出流, 不受当前线程重定向的影响。
+     *
+     * @param bytes 数据
+     * @throws IOException 写入失败
+     */
+    public void writeToDefault(byte[] bytes) throws IOException {
+        synchronized (defaultOut) {
+            defaultOut.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        defaultOut.close();
+    }
+}
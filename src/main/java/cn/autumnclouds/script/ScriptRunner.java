@@ -0,0 +1,144 @@
+package cn.autumnclouds.script;
+
+import cn.autumnclouds.command.CommandInterpreter;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 脚本执行器, 批量执行脚本文件或标准输入中的命令。
+ * <ul>
+ *     <li>输出写入缓冲区, 批量刷新到控制台, 不再每行输出都产生一次系统调用</li>
+ *     <li>以 "&amp;" 结尾的命令提交到线程池中执行, 后续命令无需等待其完成</li>
+ *     <li>无论命令在哪个线程上执行, 各命令的输出都按脚本中的行顺序输出</li>
+ *     <li>"wait" 和 "cd" 等待之前的所有命令执行完成后再执行, 以免后台命令使用错误的当前目录</li>
+ *     <li>空行和以 "#" 开头的注释行被忽略, "exit" 结束脚本</li>
+ *     <li>含有 "&lt;&lt;TAG" 的命令读取之后直到 TAG 行的内容作为 here document</li>
+ * </ul>
+ * 命令内部再创建的线程(如目录并行拷贝的进度输出)不会被单独收集, 直接写入控制台。
+ *
+ * @author Fu Qiujie
+ * @since 2024/4/23
+ */
+public class ScriptRunner {
+
+    // 需要等待之前的命令全部完成后才能执行的命令
+    private static final Set<String> BARRIER_COMMANDS = Set.of("wait", "cd");
+
+    private final CommandInterpreter interpreter;
+    private final int workers;
+
+    /**
+     * 创建脚本执行器。
+     *
+     * @param interpreter 命令解释器
+     * @param workers     执行后台命令的线程数
+     */
+    public ScriptRunner(CommandInterpreter interpreter, int workers) {
+        this.interpreter = interpreter;
+        this.workers = Math.max(1, workers);
+    }
+
+    /**
+     * 执行脚本, 执行期间标准输出被替换为带缓冲的按线程路由输出流, 执行结束后恢复。
+     *
+     * @param reader 脚本内容
+     * @throws IOException 读取脚本失败
+     */
+    public void run(BufferedReader reader) throws IOException {
+        PrintStream originalOut = System.out;
+        RoutingOutputStream router = new RoutingOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 64 * 1024));
+        PrintStream bufferedOut = new PrintStream(router, false);
+        System.setOut(bufferedOut);
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        // 按行顺序排列的各命令输出
+        Deque<CompletableFuture<byte[]>> pending = new ArrayDeque<>();
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                if ("exit".equals(line)) {
+                    break;
+                }
+                boolean background = line.endsWith("&");
+                String command = background ? line.substring(0, line.length() - 1).trim() : line;
+                String delimiter = CommandInterpreter.heredocDelimiter(command);
+                if (delimiter != null) {
+                    command = command + "\n" + readHeredoc(reader, delimiter);
+                }
+                if (BARRIER_COMMANDS.contains(command.split(" ", 2)[0])) {
+                    drain(pending, router, true);
+                }
+                String task = command;
+                if (background) {
+                    pending.add(CompletableFuture.supplyAsync(() -> execute(task), executor));
+                } else {
+                    pending.add(CompletableFuture.completedFuture(execute(task)));
+                }
+                drain(pending, router, false);
+            }
+            drain(pending, router, true);
+        } finally {
+            executor.shutdown();
+            bufferedOut.flush();
+            System.setOut(originalOut);
+        }
+    }
+
+    /**
+     * 读取 here document 的内容, 直到结束标记行或脚本末尾, 各行原样保留。
+     *
+     * @param reader    脚本内容
+     * @param delimiter 结束标记
+     * @return 各行内容, 每行以换行符结尾
+     * @throws IOException 读取脚本失败
+     */
+    public static String readHeredoc(BufferedReader reader, String delimiter) throws IOException {
+        StringBuilder content = new StringBuilder();
+        String line;
+        while ((line = reader.readLine()) != null && !delimiter.equals(line.trim())) {
+            content.append(line).append('\n');
+        }
+        return content.toString();
+    }
+
+    /**
+     * 执行一条命令, 并收集其输出。
+     */
+    private byte[] execute(String command) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        RoutingOutputStream.capture(output);
+        try {
+            interpreter.interpretAndExecute(command);
+        } catch (RuntimeException e) {
+            System.out.println("failed to execute command: " + command);
+        } finally {
+            System.out.flush();
+            RoutingOutputStream.release();
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * 按行顺序输出已完成命令的输出, 遇到未完成的命令时停止(或在 waitAll 为 true 时等待其完成)。
+     */
+    private static void drain(Deque<CompletableFuture<byte[]>> pending, RoutingOutputStream router, boolean waitAll) throws IOException {
+        while (!pending.isEmpty() && (waitAll || pending.peek().isDone())) {
+            router.writeToDefault(pending.poll().join());
+        }
+    }
+}
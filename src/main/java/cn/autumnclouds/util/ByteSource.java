@@ -0,0 +1,76 @@
+package cn.autumnclouds.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 按窗口读取的只读字节内容, 使行扫描和内容搜索只需一份实现即可作用于磁盘文件、内存文件和打包文件。
+ * 通道上的窗口按 {@link FileUtils#readWindow(FileChannel, long, int)} 读取(大文件内存映射, 不支持映射的通道读入堆缓冲区),
+ * 已在内存中的缓冲区直接切片, 不复制。
+ *
+ * @author Fu Qiujie
+ * @since 2024/5/26
+ */
+public interface ByteSource {
+
+    /**
+     * 内容的字节数。
+     *
+     * @return 字节数
+     */
+    long size();
+
+    /**
+     * 读取一个窗口。
+     *
+     * @param position 起始字节偏移
+     * @param size     窗口大小, 不超过剩余的字节数
+     * @return position 为 0、limit 为窗口大小的缓冲区
+     * @throws IOException 读取失败
+     */
+    ByteBuffer window(long position, int size) throws IOException;
+
+    /**
+     * 通道上的内容, 大小在创建时确定。
+     *
+     * @param channel 文件通道
+     * @return 字节内容
+     * @throws IOException 读取通道大小失败
+     */
+    static ByteSource of(FileChannel channel) throws IOException {
+        long size = channel.size();
+        return new ByteSource() {
+            @Override
+            public long size() {
+                return size;
+            }
+
+            @Override
+            public ByteBuffer window(long position, int windowSize) throws IOException {
+                return FileUtils.readWindow(channel, position, windowSize);
+            }
+        };
+    }
+
+    /**
+     * 缓冲区 [0, limit) 区间上的内容。
+     *
+     * @param content 缓冲区
+     * @return 字节内容
+     */
+    static ByteSource of(ByteBuffer content) {
+        ByteBuffer buffer = content.slice(0, content.limit());
+        return new ByteSource() {
+            @Override
+            public long size() {
+                return buffer.limit();
+            }
+
+            @Override
+            public ByteBuffer window(long position, int windowSize) {
+                return buffer.slice((int) position, windowSize);
+            }
+        };
+    }
+}
@@ -0,0 +1,405 @@
+package cn.autumnclouds.util;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 分块并行加解密工具类。
+ * <p>
+ * 加密文件格式: 文件头(魔数 "SFSE"、版本、分块大小、明文长度) + 若干加密块,
+ * 每个加密块为 12 字节随机 nonce + AES-GCM 密文 + 16 字节认证标签。
+ * 每块使用独立的 nonce, 并以文件头和块序号作为附加认证数据, 防止块被篡改、重排或截断。
+ * 由于每个块在文件中的位置固定, 各块可以在多个线程上独立加解密并直接写到对应位置,
+ * 解密时也可以只读取覆盖指定区间的块。
+ *
+ * @author Fu Qiujie
+ * @since 2024/4/6
+ */
+public class CryptoUtils {
+
+    // 并行加解密线程数的系统属性名, 默认为 CPU 核数
+    public static final String PARALLELISM_PROPERTY = "fs.crypto.parallelism";
+
+    // 分块大小的系统属性名, 默认为 1MB
+    public static final String CHUNK_SIZE_PROPERTY = "fs.crypto.chunkSize";
+
+    private static final int MAGIC = 0x53465345; // "SFSE"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 20;
+    private static final int MIN_CHUNK_SIZE = 4096;
+    private static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+    private static final int NONCE_SIZE = 12;
+    private static final int TAG_SIZE = 16;
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * 加密文件。
+     *
+     * @param source 明文文件
+     * @param target 加密文件
+     * @param key    密钥
+     * @throws IOException              读写文件失败
+     * @throws GeneralSecurityException 加密失败
+     */
+    public static void encrypt(Path source, Path target, SecretKeySpec key) throws IOException, GeneralSecurityException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            encrypt(in, out, key);
+        }
+    }
+
+    /**
+     * 加密通道中的数据, 只使用按位置读写, 各线程可以共享同一对通道。
+     *
+     * @param in  明文通道
+     * @param out 加密数据通道, 应为空
+     * @param key 密钥
+     * @throws IOException              读写失败
+     * @throws GeneralSecurityException 加密失败
+     */
+    public static void encrypt(FileChannel in, FileChannel out, SecretKeySpec key) throws IOException, GeneralSecurityException {
+        int chunkSize = Math.min(MAX_CHUNK_SIZE, Math.max(MIN_CHUNK_SIZE, Integer.getInteger(CHUNK_SIZE_PROPERTY, 1024 * 1024)));
+        long plainLength = in.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).putInt(chunkSize).putLong(plainLength).flip();
+        byte[] headerBytes = header.array();
+        writeFully(out, header, 0);
+        long chunks = chunkCount(plainLength, chunkSize);
+        runParallel(chunks, () -> {
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            ByteBuffer plain = ByteBuffer.allocateDirect(chunkSize);
+            ByteBuffer sealed = ByteBuffer.allocateDirect(NONCE_SIZE + chunkSize + TAG_SIZE);
+            byte[] nonce = new byte[NONCE_SIZE];
+            return index -> {
+                long plainOffset = index * chunkSize;
+                int length = (int) Math.min(chunkSize, plainLength - plainOffset);
+                plain.clear().limit(length);
+                readFully(in, plain, plainOffset);
+                plain.flip();
+                RANDOM.nextBytes(nonce);
+                cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_SIZE * 8, nonce));
+                cipher.updateAAD(associatedData(headerBytes, index));
+                sealed.clear();
+                sealed.put(nonce);
+                cipher.doFinal(plain, sealed);
+                sealed.flip();
+                writeFully(out, sealed, recordOffset(index, chunkSize));
+            };
+        });
+    }
+
+    /**
+     * 解密文件。失败时删除目标文件, 不留下不完整的明文。
+     *
+     * @param source 加密文件
+     * @param target 明文文件
+     * @param key    密钥
+     * @throws IOException              读写文件失败或文件格式不正确
+     * @throws GeneralSecurityException 解密失败(密钥错误或文件被篡改)
+     */
+    public static void decrypt(Path source, Path target, SecretKeySpec key) throws IOException, GeneralSecurityException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            Header header = readHeader(in);
+            try (FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                decrypt(in, out, header, key);
+            } catch (IOException | GeneralSecurityException | RuntimeException e) {
+                Files.deleteIfExists(target);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 解密通道中的数据, 只使用按位置读写, 各线程可以共享同一对通道。
+     *
+     * @param in  加密数据通道
+     * @param out 明文通道, 应为空
+     * @param key 密钥
+     * @throws IOException              读写失败或数据格式不正确
+     * @throws GeneralSecurityException 解密失败(密钥错误或数据被篡改)
+     */
+    public static void decrypt(FileChannel in, FileChannel out, SecretKeySpec key) throws IOException, GeneralSecurityException {
+        decrypt(in, out, readHeader(in), key);
+    }
+
+    private static void decrypt(FileChannel in, FileChannel out, Header header, SecretKeySpec key) throws IOException, GeneralSecurityException {
+        long chunks = chunkCount(header.plainLength, header.chunkSize);
+        runParallel(chunks, () -> {
+            ChunkDecryptor decryptor = new ChunkDecryptor(in, header, key);
+            return index -> {
+                ByteBuffer plain = decryptor.decrypt(index);
+                writeFully(out, plain, index * header.chunkSize);
+            };
+        });
+    }
+
+    /**
+     * 随机读取加密文件中的一段明文, 只解密覆盖该区间的块。
+     *
+     * @param source 加密文件
+     * @param key    密钥
+     * @param offset 明文起始偏移
+     * @param length 读取的字节数
+     * @return 明文数据, 超出文件末尾的部分被截断
+     * @throws IOException              读取文件失败或文件格式不正确
+     * @throws GeneralSecurityException 解密失败(密钥错误或文件被篡改)
+     */
+    public static byte[] decryptRange(Path source, SecretKeySpec key, long offset, int length) throws IOException, GeneralSecurityException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            Header header = readHeader(in);
+            long end = Math.min(header.plainLength, offset + length);
+            if (offset >= end) {
+                return new byte[0];
+            }
+            byte[] result = new byte[(int) (end - offset)];
+            ChunkDecryptor decryptor = new ChunkDecryptor(in, header, key);
+            for (long index = offset / header.chunkSize; index * header.chunkSize < end; index++) {
+                ByteBuffer plain = decryptor.decrypt(index);
+                long chunkStart = index * header.chunkSize;
+                long from = Math.max(offset, chunkStart);
+                long to = Math.min(end, chunkStart + plain.remaining());
+                plain.position((int) (from - chunkStart));
+                plain.get(result, (int) (from - offset), (int) (to - from));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * 解密旧版本以 AES/ECB 整体加密的文件。失败时删除目标文件, 不留下不完整的明文。
+     *
+     * @param source 加密文件
+     * @param target 明文文件
+     * @param key    密钥
+     * @throws IOException              读写文件失败
+     * @throws GeneralSecurityException 解密失败
+     */
+    public static void decryptLegacy(Path source, Path target, SecretKeySpec key) throws IOException, GeneralSecurityException {
+        try (InputStream in = new FileInputStream(source.toFile())) {
+            try (OutputStream out = new FileOutputStream(target.toFile())) {
+                decryptLegacy(in, out, key);
+            } catch (IOException | GeneralSecurityException | RuntimeException e) {
+                Files.deleteIfExists(target);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 解密旧版本以 AES/ECB 整体加密的数据流。
+     *
+     * @param in  加密数据
+     * @param out 明文输出
+     * @param key 密钥
+     * @throws IOException              读写失败
+     * @throws GeneralSecurityException 解密失败
+     */
+    public static void decryptLegacy(InputStream in, OutputStream out, SecretKeySpec key) throws IOException, GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance("AES");
+        cipher.init(Cipher.DECRYPT_MODE, key);
+        CipherInputStream cis = new CipherInputStream(in, cipher);
+        byte[] buffer = new byte[64 * 1024];
+        int bytesRead;
+        while ((bytesRead = cis.read(buffer)) != -1) {
+            out.write(buffer, 0, bytesRead);
+        }
+    }
+
+    /**
+     * 判断文件是否为分块加密格式。
+     *
+     * @param path 文件路径
+     * @return 文件以分块加密格式的魔数开头时返回 true
+     * @throws IOException 读取文件失败
+     */
+    public static boolean isChunkedFormat(Path path) throws IOException {
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            return isChunkedFormat(in);
+        }
+    }
+
+    /**
+     * 判断通道中的数据是否为分块加密格式。
+     *
+     * @param in 加密数据通道
+     * @return 数据以分块加密格式的魔数开头时返回 true
+     * @throws IOException 读取失败
+     */
+    public static boolean isChunkedFormat(FileChannel in) throws IOException {
+        ByteBuffer magic = ByteBuffer.allocate(4);
+        readFully(in, magic, 0);
+        return magic.position() == 4 && magic.getInt(0) == MAGIC;
+    }
+
+    /**
+     * 单个块的解密器, 持有独立的 Cipher 和直接缓冲区, 只能在一个线程中使用。
+     */
+    private static final class ChunkDecryptor {
+        private final FileChannel in;
+        private final Header header;
+        private final SecretKeySpec key;
+        private final Cipher cipher;
+        private final ByteBuffer sealed;
+        private final ByteBuffer plain;
+        private final byte[] nonce = new byte[NONCE_SIZE];
+
+        ChunkDecryptor(FileChannel in, Header header, SecretKeySpec key) throws GeneralSecurityException {
+            this.in = in;
+            this.header = header;
+            this.key = key;
+            this.cipher = Cipher.getInstance(TRANSFORMATION);
+            this.sealed = ByteBuffer.allocateDirect(NONCE_SIZE + header.chunkSize + TAG_SIZE);
+            this.plain = ByteBuffer.allocateDirect(header.chunkSize);
+        }
+
+        ByteBuffer decrypt(long index) throws IOException, GeneralSecurityException {
+            long plainOffset = index * header.chunkSize;
+            int length = (int) Math.min(header.chunkSize, header.plainLength - plainOffset);
+            sealed.clear().limit(NONCE_SIZE + length + TAG_SIZE);
+            readFully(in, sealed, recordOffset(index, header.chunkSize));
+            if (sealed.hasRemaining()) {
+                throw new IOException("encrypted file is truncated");
+            }
+            sealed.flip();
+            sealed.get(nonce);
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_SIZE * 8, nonce));
+            cipher.updateAAD(associatedData(header.bytes, index));
+            plain.clear();
+            cipher.doFinal(sealed, plain);
+            return plain.flip();
+        }
+    }
+
+    private static final class Header {
+        private final byte[] bytes;
+        private final int chunkSize;
+        private final long plainLength;
+
+        Header(byte[] bytes, int chunkSize, long plainLength) {
+            this.bytes = bytes;
+            this.chunkSize = chunkSize;
+            this.plainLength = plainLength;
+        }
+    }
+
+    private static Header readHeader(FileChannel in) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(in, header, 0);
+        if (header.hasRemaining() || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException("not a chunked encrypted file");
+        }
+        int chunkSize = header.getInt(8);
+        long plainLength = header.getLong(12);
+        // 分块大小决定每个线程分配的缓冲区大小, 明文长度决定块数, 二者都必须与文件大小吻合
+        if (chunkSize < MIN_CHUNK_SIZE || chunkSize > MAX_CHUNK_SIZE || plainLength < 0 || plainLength > in.size()
+                || HEADER_SIZE + chunkCount(plainLength, chunkSize) * (NONCE_SIZE + TAG_SIZE) + plainLength != in.size()) {
+            throw new IOException("corrupted encrypted file header");
+        }
+        return new Header(header.array(), chunkSize, plainLength);
+    }
+
+    /**
+     * 块处理逻辑, 参数为块序号。
+     */
+    private interface ChunkTask {
+        void process(long index) throws IOException, GeneralSecurityException;
+    }
+
+    /**
+     * 创建块处理逻辑, 每个工作线程调用一次, 以便各线程持有独立的 Cipher 和缓冲区。
+     */
+    private interface ChunkTaskFactory {
+        ChunkTask create() throws GeneralSecurityException;
+    }
+
+    /**
+     * 在多个线程上处理全部块, 各线程从共享计数器中领取下一个块序号。
+     */
+    private static void runParallel(long chunks, ChunkTaskFactory factory) throws IOException, GeneralSecurityException {
+        int parallelism = (int) Math.max(1, Math.min(chunks, Integer.getInteger(PARALLELISM_PROPERTY, Runtime.getRuntime().availableProcessors())));
+        AtomicLong nextChunk = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < parallelism; i++) {
+                futures.add(executor.submit(() -> {
+                    ChunkTask task = factory.create();
+                    long index;
+                    while ((index = nextChunk.getAndIncrement()) < chunks) {
+                        task.process(index);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted", e);
+        } catch (ExecutionException e) {
+            // 任一线程失败时让其余线程尽快结束
+            nextChunk.set(chunks);
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (cause instanceof GeneralSecurityException securityException) {
+                throw securityException;
+            }
+            throw new IOException(cause);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static long chunkCount(long plainLength, int chunkSize) {
+        // 空文件也写入一个空块, 使解密时能够校验密钥
+        return Math.max(1, (plainLength + chunkSize - 1) / chunkSize);
+    }
+
+    private static long recordOffset(long index, int chunkSize) {
+        return HEADER_SIZE + index * (NONCE_SIZE + (long) chunkSize + TAG_SIZE);
+    }
+
+    private static byte[] associatedData(byte[] header, long index) {
+        return ByteBuffer.allocate(header.length + 8).put(header).putLong(index).array();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                break;
+            }
+            position += read;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
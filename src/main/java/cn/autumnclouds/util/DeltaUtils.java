@@ -0,0 +1,295 @@
+package cn.autumnclouds.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * rsync 算法的增量传输工具。
+ * 目标文件(旧版本)按固定大小分块, 每块计算弱校验(可滚动的 Adler 式校验和)和强校验(MD5);
+ * 在源文件(新版本)上逐字节滚动弱校验, 命中后再比较强校验, 从而找出目标文件中可以复用的块,
+ * 其余部分作为字面数据从源文件读取。复用的块都在原位置且目标文件没有其他硬链接时直接在目标文件上改写差异部分,
+ * 这种方式写入量最少但不是原子的, 中途失败会留下新旧内容混合的目标文件, 由下一次同步按大小和修改时间重新传输;
+ * 否则在同目录的临时文件中重建后原子替换目标文件, 替换会使目标文件脱离原有的硬链接。
+ *
+ * @author Fu Qiujie
+ * @since 2024/5/6
+ */
+public class DeltaUtils {
+
+    private static final int MIN_BLOCK_SIZE = 2 * 1024;
+    private static final int MAX_BLOCK_SIZE = 128 * 1024;
+
+    // 扫描源文件时的读缓冲区大小(4MB)
+    private static final int SCAN_WINDOW_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * 以增量方式将目标文件更新为源文件的内容。
+     *
+     * @param source 源文件
+     * @param target 已存在的目标文件
+     * @return 从源文件写入目标文件的字面数据字节数
+     * @throws IOException 读写文件失败
+     */
+    public static long deltaCopy(Path source, Path target) throws IOException {
+        long sourceSize = Files.size(source);
+        long targetSize = Files.size(target);
+        int blockSize = blockSize(targetSize);
+        Map<Integer, List<Integer>> signatures = signatures(target, targetSize, blockSize);
+        List<Segment> segments = match(source, sourceSize, blockSize, target, signatures);
+        boolean aligned = segments.stream().allMatch(segment -> segment.block < 0
+                || segment.sourceOffset == (long) segment.block * blockSize);
+        long literalBytes = 0;
+        if (aligned && FileUtils.linkCount(target) == 1) {
+            // 复用的块都在原位置, 只需改写字面数据并截断; 有其他硬链接时原位改写会同时修改链接到的文件
+            try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE)) {
+                for (Segment segment : segments) {
+                    if (segment.block < 0) {
+                        transfer(in, segment.sourceOffset, segment.length, out, segment.sourceOffset);
+                        literalBytes += segment.length;
+                    }
+                }
+                out.truncate(sourceSize);
+            }
+            return literalBytes;
+        }
+        Path temp = Files.createTempFile(target.toAbsolutePath().getParent(), "." + target.getFileName(), ".sync.tmp");
+        try {
+            try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                 FileChannel old = FileChannel.open(target, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                for (Segment segment : segments) {
+                    if (segment.block < 0) {
+                        transfer(in, segment.sourceOffset, segment.length, out, segment.sourceOffset);
+                        literalBytes += segment.length;
+                    } else {
+                        transfer(old, (long) segment.block * blockSize, segment.length, out, segment.sourceOffset);
+                    }
+                }
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            // 替换成功后临时文件已不存在
+            Files.deleteIfExists(temp);
+        }
+        return literalBytes;
+    }
+
+    /**
+     * 按文件大小的平方根选择块大小, 在校验和数量与匹配粒度之间取得平衡。
+     */
+    private static int blockSize(long size) {
+        long root = Long.highestOneBit(Math.max(1, (long) Math.sqrt(size)));
+        return (int) Math.min(MAX_BLOCK_SIZE, Math.max(MIN_BLOCK_SIZE, root));
+    }
+
+    /**
+     * 计算目标文件所有完整块的校验, 按弱校验分组。末尾不足一块的部分不参与匹配。
+     */
+    private static Map<Integer, List<Integer>> signatures(Path target, long targetSize, int blockSize) throws IOException {
+        Map<Integer, List<Integer>> signatures = new HashMap<>();
+        byte[] block = new byte[blockSize];
+        ByteBuffer buffer = ByteBuffer.wrap(block);
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.READ)) {
+            long blocks = targetSize / blockSize;
+            for (int i = 0; i < blocks; i++) {
+                buffer.clear();
+                readFully(channel, buffer, (long) i * blockSize);
+                signatures.computeIfAbsent(weakChecksum(block, 0, blockSize), key -> new ArrayList<>(1)).add(i);
+            }
+        }
+        return signatures;
+    }
+
+    /**
+     * 在源文件上滚动弱校验, 找出与目标文件块相同的区间, 结果按源文件偏移排列。
+     */
+    private static List<Segment> match(Path source, long sourceSize, int blockSize, Path target,
+                                       Map<Integer, List<Integer>> signatures) throws IOException {
+        List<Segment> segments = new ArrayList<>();
+        if (signatures.isEmpty() || sourceSize < blockSize) {
+            if (sourceSize > 0) {
+                segments.add(new Segment(0, sourceSize, -1));
+            }
+            return segments;
+        }
+        MessageDigest digest = newDigest();
+        // 目标文件块的强校验按需计算并缓存
+        Map<Integer, byte[]> strongChecksums = new HashMap<>();
+        byte[] targetBlock = new byte[blockSize];
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel old = FileChannel.open(target, StandardOpenOption.READ)) {
+            Window window = new Window(in, sourceSize, Math.max(SCAN_WINDOW_SIZE, blockSize * 2));
+            long position = 0;
+            long literalStart = 0;
+            window.ensure(0, blockSize);
+            int a = 0;
+            int b = 0;
+            for (int i = 0; i < blockSize; i++) {
+                int x = window.byteAt(i);
+                a += x;
+                b += (blockSize - i) * x;
+            }
+            while (true) {
+                int weak = (a & 0xFFFF) | (b << 16);
+                List<Integer> candidates = signatures.get(weak);
+                int matched = -1;
+                if (candidates != null) {
+                    digest.update(window.buffer, window.indexOf(position), blockSize);
+                    byte[] strong = digest.digest();
+                    for (int candidate : candidates) {
+                        byte[] expected = strongChecksums.get(candidate);
+                        if (expected == null) {
+                            readFully(old, ByteBuffer.wrap(targetBlock), (long) candidate * blockSize);
+                            expected = digest.digest(targetBlock);
+                            strongChecksums.put(candidate, expected);
+                        }
+                        if (Arrays.equals(strong, expected)) {
+                            matched = candidate;
+                            break;
+                        }
+                    }
+                }
+                if (matched >= 0) {
+                    if (position > literalStart) {
+                        segments.add(new Segment(literalStart, position - literalStart, -1));
+                    }
+                    segments.add(new Segment(position, blockSize, matched));
+                    position += blockSize;
+                    literalStart = position;
+                    if (position + blockSize > sourceSize) {
+                        break;
+                    }
+                    window.ensure(position, blockSize);
+                    a = 0;
+                    b = 0;
+                    for (int i = 0; i < blockSize; i++) {
+                        int x = window.byteAt(position + i);
+                        a += x;
+                        b += (blockSize - i) * x;
+                    }
+                    continue;
+                }
+                if (position + blockSize >= sourceSize) {
+                    break;
+                }
+                // 窗口向后滚动一个字节
+                window.ensure(position, blockSize + 1);
+                int outgoing = window.byteAt(position);
+                int incoming = window.byteAt(position + blockSize);
+                a = a - outgoing + incoming;
+                b = b - blockSize * outgoing + a;
+                position++;
+            }
+            if (sourceSize > literalStart) {
+                segments.add(new Segment(literalStart, sourceSize - literalStart, -1));
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * 计算 rsync 弱校验: a 为字节之和, b 为按位置加权的字节之和, 各取低 16 位。
+     */
+    private static int weakChecksum(byte[] data, int offset, int length) {
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < length; i++) {
+            int x = data[offset + i] & 0xFF;
+            a += x;
+            b += (length - i) * x;
+        }
+        return (a & 0xFFFF) | (b << 16);
+    }
+
+    private static void transfer(FileChannel in, long position, long length, FileChannel out, long outPosition) throws IOException {
+        out.position(outPosition);
+        long end = position + length;
+        while (position < end) {
+            long transferred = in.transferTo(position, end - position, out);
+            if (transferred <= 0) {
+                throw new IOException("file was truncated during transfer");
+            }
+            position += transferred;
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("file was truncated during transfer");
+            }
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 新文件中的一段: block 为复用的目标文件块序号, -1 表示从源文件读取的字面数据。
+     */
+    private record Segment(long sourceOffset, long length, int block) {
+    }
+
+    /**
+     * 源文件的滑动读缓冲区, 保证滚动校验所需的区间驻留在内存中。
+     */
+    private static final class Window {
+        private final FileChannel channel;
+        private final long size;
+        private final byte[] buffer;
+        private long start;
+        private int length;
+
+        Window(FileChannel channel, long size, int capacity) {
+            this.channel = channel;
+            this.size = size;
+            this.buffer = new byte[capacity];
+        }
+
+        /**
+         * 保证文件区间 [position, position + count) 在缓冲区中。
+         */
+        void ensure(long position, int count) throws IOException {
+            long end = Math.min(size, position + count);
+            if (position >= start && end <= start + length) {
+                return;
+            }
+            // 从 position 开始重新填充缓冲区, 已在缓冲区中的部分直接前移
+            int keep = 0;
+            if (position >= start && position < start + length) {
+                keep = (int) (start + length - position);
+                System.arraycopy(buffer, (int) (position - start), buffer, 0, keep);
+            }
+            start = position;
+            ByteBuffer target = ByteBuffer.wrap(buffer, keep, (int) Math.min(buffer.length - keep, size - position - keep));
+            readFully(channel, target, position);
+            length = target.position();
+        }
+
+        int byteAt(long position) {
+            return buffer[indexOf(position)] & 0xFF;
+        }
+
+        int indexOf(long position) {
+            return (int) (position - start);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package cn.autumnclouds.util;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * 目录监听器, 基于 WatchService 监听目录下条目的创建、删除和修改,
+ * 并将发生变化的目录通知给所有监听者。
+ * 一个监听器可由多个使用者共享, 每个使用者分别登记自己监听的目录, 目录在所有使用者都停止监听后才取消监听,
+ * 因此各使用者的 watch / unwatch 互不影响。
+ * 监听线程为守护线程, 不会阻止程序退出。
+ *
+ * @author Fu Qiujie
+ * @since 2024/4/13
+ */
+public class DirectoryWatcher {
+
+    private final WatchService watchService;
+    private final Map<Path, WatchKey> keys = new ConcurrentHashMap<>();
+    // 每个目录的使用者, 与 keys 一起在 this 上同步修改
+    private final Map<Path, Set<Object>> owners = new HashMap<>();
+    private final List<Consumer<Path>> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * 创建目录监听器并启动监听线程, 当前平台不支持 WatchService 时监听器不可用。
+     */
+    public DirectoryWatcher() {
+        WatchService service;
+        try {
+            service = FileSystems.getDefault().newWatchService();
+        } catch (IOException | UnsupportedOperationException e) {
+            service = null;
+        }
+        watchService = service;
+        if (watchService != null) {
+            Thread thread = new Thread(this::pollEvents, "directory-watcher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * 添加监听者, 目录发生变化时以该目录为参数回调。
+     *
+     * @param listener 监听者
+     */
+    public void addListener(Consumer<Path> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * 为使用者开始监听目录, 同一使用者重复监听同一目录只登记一次。
+     *
+     * @param owner     使用者
+     * @param directory 目录
+     * @return 监听成功(或已在监听)时返回 true, 失败时返回 false, 此时调用方不应依赖监听结果
+     */
+    public synchronized boolean watch(Object owner, Path directory) {
+        if (watchService == null) {
+            return false;
+        }
+        if (!keys.containsKey(directory)) {
+            try {
+                WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                keys.put(directory, key);
+            } catch (IOException | ClosedWatchServiceException e) {
+                return false;
+            }
+        }
+        owners.computeIfAbsent(directory, key -> new HashSet<>()).add(owner);
+        return true;
+    }
+
+    /**
+     * 使用者停止监听目录, 没有其他使用者时取消监听。
+     *
+     * @param owner     使用者
+     * @param directory 目录
+     */
+    public synchronized void unwatch(Object owner, Path directory) {
+        Set<Object> directoryOwners = owners.get(directory);
+        if (directoryOwners == null || !directoryOwners.remove(owner) || !directoryOwners.isEmpty()) {
+            return;
+        }
+        owners.remove(directory);
+        WatchKey key = keys.remove(directory);
+        if (key != null) {
+            key.cancel();
+        }
+    }
+
+    /**
+     * 判断使用者是否正在监听目录。
+     *
+     * @param owner     使用者
+     * @param directory 目录
+     * @return 正在监听时返回 true
+     */
+    public synchronized boolean isWatching(Object owner, Path directory) {
+        Set<Object> directoryOwners = owners.get(directory);
+        return directoryOwners != null && directoryOwners.contains(owner);
+    }
+
+    private void pollEvents() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path directory = (Path) key.watchable();
+            // 只关心目录是否发生了变化, 具体事件(包括 OVERFLOW)统一按目录失效处理
+            key.pollEvents();
+            for (Consumer<Path> listener : listeners) {
+                listener.accept(directory);
+            }
+            if (!key.reset()) {
+                // 目录已被删除, 所有使用者的监听都随之结束
+                synchronized (this) {
+                    if (keys.remove(directory, key)) {
+                        owners.remove(directory);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -2,10 +2,30 @@ package cn.autumnclouds.util;
 
 import javax.crypto.spec.SecretKeySpec;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
 /**
@@ -17,31 +37,433 @@ import java.util.zip.ZipOutputStream;
 public class FileUtils {
 
     /**
-     * 文件拷贝, 支持进度回调
+     * 单次 transferTo 拷贝的分片大小的系统属性名, 每拷贝完一个分片回调一次进度, 默认为 8MB
+     */
+    public static final String COPY_SLICE_SIZE_PROPERTY = "fs.copy.sliceSize";
+
+    /**
+     * 目录并行拷贝所用线程数的系统属性名, 默认为 CPU 核数, 设置为 1 时退化为串行拷贝
+     */
+    public static final String COPY_PARALLELISM_PROPERTY = "fs.copy.parallelism";
+
+    /**
+     * 暂存输出的系统属性名, 为 true 时 echo 覆盖写入、单个文件的拷贝和解密先写入目标所在目录下的临时文件,
+     * 写完后原子地重命名为目标文件, 同时读取目标的命令只会看到旧内容或完整的新内容, 默认为 false
+     */
+    public static final String STAGED_OUTPUT_PROPERTY = "fs.write.staged";
+
+    /**
+     * fsync 策略的系统属性名, 取值为 never(默认)、flush 或 always, 详见 WriteHandleCache。
+     * 不为 never 时, 暂存写入(echo 覆盖写入、拷贝和解密)的临时文件在重命名前刷到磁盘
+     */
+    public static final String FSYNC_POLICY_PROPERTY = "fs.write.fsync";
+
+    /**
+     * 是否按 fsync 策略将写入的文件刷到磁盘
+     *
+     * @return 系统属性 fs.write.fsync 不为 never 时返回 true
+     */
+    public static boolean isFsyncEnabled() {
+        return !"never".equalsIgnoreCase(System.getProperty(FSYNC_POLICY_PROPERTY, "never"));
+    }
+
+    /**
+     * 是否启用暂存输出
+     *
+     * @return 系统属性 fs.write.staged 为 true 时返回 true
+     */
+    public static boolean isStagedOutput() {
+        return Boolean.getBoolean(STAGED_OUTPUT_PROPERTY);
+    }
+
+    /**
+     * 在 ForkJoin 线程池中对每个元素执行操作, 线程数由系统属性 fs.copy.parallelism 决定,
+     * 线程数为 1 或元素少于两个时在调用线程上串行执行。
+     * 操作抛出的运行时异常(包括表示任务被取消的 CancellationException)原样在调用线程上抛出, 尚未执行的元素不再执行;
+     * 调用线程在等待时被中断则恢复中断标志并抛出 CancellationException。
+     *
+     * @param items  元素
+     * @param action 对单个元素执行的操作
+     * @param <T>    元素类型
+     */
+    public static <T> void runParallel(List<T> items, Consumer<? super T> action) {
+        int parallelism = Math.max(1, Integer.getInteger(COPY_PARALLELISM_PROPERTY, Runtime.getRuntime().availableProcessors()));
+        if (parallelism == 1 || items.size() < 2) {
+            items.forEach(action);
+            return;
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.submit(() -> items.parallelStream().forEach(action)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * 向暂存文件写入内容的回调
+     */
+    @FunctionalInterface
+    public interface ChannelWriter {
+        void write(FileChannel out) throws IOException, GeneralSecurityException;
+    }
+
+    /**
+     * 暂存写入: 先写入目标所在目录下的临时文件 ".文件名.随机数.tmp", 成功后以 ATOMIC_MOVE 重命名为目标文件,
+     * 失败时删除临时文件, 目标文件保持不变。临时文件与目标在同一目录中, 重命名不会跨文件系统;
+     * 文件系统不支持原子移动时退化为普通的替换。目标已存在时临时文件沿用它的权限。
+     * 已存在的目标先经 toRealPath 解析, 符号链接保持不变, 替换的是它指向的文件; 目标还有其他硬链接时,
+     * 重命名会使它与这些链接分离, 此时改为将写好的内容拷贝回目标文件, 这一步不是原子的。
+     * 启用 fsync 策略({@link #isFsyncEnabled()})时, 内容在替换目标前刷到磁盘。
+     *
+     * @param target       目标文件
+     * @param expectedSize 预期的文件大小, 大于 0 时写入前把临时文件一次扩展到该大小, 实际写入较少时由 writer 截断
+     * @param writer       向临时文件写入内容, 通道的位置从 0 开始
+     * @throws IOException              写入或重命名失败
+     * @throws GeneralSecurityException writer 加解密失败
+     */
+    public static void writeStaged(Path target, long expectedSize, ChannelWriter writer)
+            throws IOException, GeneralSecurityException {
+        boolean force = isFsyncEnabled();
+        Path absoluteTarget = Files.exists(target) ? target.toRealPath() : target.toAbsolutePath();
+        boolean linked = Files.exists(absoluteTarget) && linkCount(absoluteTarget) > 1;
+        Path staging = absoluteTarget.resolveSibling(String.format(".%s.%016x.tmp",
+                absoluteTarget.getFileName(), ThreadLocalRandom.current().nextLong()));
+        try {
+            try (FileChannel out = FileChannel.open(staging, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+                if (Files.exists(absoluteTarget)) {
+                    try {
+                        Files.setPosixFilePermissions(staging, Files.getPosixFilePermissions(absoluteTarget));
+                    } catch (UnsupportedOperationException e) {
+                        // 非 POSIX 文件系统沿用默认权限
+                    }
+                }
+                if (expectedSize > 0) {
+                    // Java 没有 fallocate, 写入最后一个字节让文件一次扩展到最终大小, 而不是随每次写入逐步增长
+                    out.write(ByteBuffer.allocate(1), expectedSize - 1);
+                }
+                writer.write(out);
+                if (force) {
+                    out.force(true);
+                }
+            }
+            if (linked) {
+                copyBack(staging, absoluteTarget, force);
+                Files.delete(staging);
+                return;
+            }
+            try {
+                Files.move(staging, absoluteTarget, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(staging, absoluteTarget, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            Files.deleteIfExists(staging);
+            throw e;
+        }
+    }
+
+    /**
+     * 将暂存文件的内容写回有多个硬链接的目标文件, 目标的 inode 保持不变。
+     */
+    private static void copyBack(Path staging, Path target, boolean force) throws IOException {
+        try (FileChannel in = FileChannel.open(staging, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+            if (force) {
+                out.force(true);
+            }
+        }
+    }
+
+    /**
+     * 读取文件的硬链接数, 文件系统不支持时视为没有其他链接。
+     */
+    static int linkCount(Path file) throws IOException {
+        try {
+            return (Integer) Files.getAttribute(file, "unix:nlink");
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            return 1;
+        }
+    }
+
+    /**
+     * 文件拷贝, 支持进度回调, 启用暂存输出时目标文件被原子地替换
      *
      * @param src      源文件路径
      * @param dest     目标文件路径
      * @param consumer 进度回调方法
+     * @throws IOException 读写文件失败
      */
-    public static void fileCopyWithProgress(String src, String dest, Consumer<Double> consumer) {
-        File fileIn = new File(src);
-        File fileOut = new File(dest);
-        try (FileInputStream fis = new FileInputStream(fileIn); FileOutputStream fos = new FileOutputStream(fileOut)) {
-            byte[] buffer = new byte[1024];
-            long fileSize = fileIn.length();
-            long copiedBytes = 0;
-            int bytesRead;
-            while ((bytesRead = fis.read(buffer)) != -1) {
-                fos.write(buffer, 0, bytesRead);
-                copiedBytes += bytesRead;
-                // 计算拷贝进度
-                double progress = (double) copiedBytes / fileSize * 100;
-                // 调用进度回调方法
-                consumer.accept(progress);
+    public static void fileCopyWithProgress(String src, String dest, Consumer<Double> consumer) throws IOException {
+        long fileSize = new File(src).length();
+        LongAdder copiedBytes = new LongAdder();
+        fileCopy(src, dest, isStagedOutput(), bytes -> {
+            copiedBytes.add(bytes);
+            // 计算拷贝进度
+            double progress = fileSize == 0 ? 100 : (double) copiedBytes.sum() / fileSize * 100;
+            // 调用进度回调方法
+            consumer.accept(progress);
+        });
+    }
+
+    /**
+     * 基于 FileChannel.transferTo 的零拷贝文件拷贝,
+     * 数据由内核直接在两个文件之间传输(sendfile / copy_file_range), 不经过用户态缓冲区。
+     *
+     * @param src           源文件路径
+     * @param dest          目标文件路径
+     * @param bytesConsumer 每拷贝完一个分片回调一次, 参数为该分片拷贝的字节数
+     * @throws IOException 读写文件失败
+     */
+    public static void fileCopy(String src, String dest, LongConsumer bytesConsumer) throws IOException {
+        fileCopy(src, dest, false, bytesConsumer);
+    }
+
+    /**
+     * 零拷贝文件拷贝, 可以选择暂存输出。
+     * 暂存时数据先拷贝到预先扩展到源文件大小的临时文件中, 完成后原子地替换目标文件, 拷贝中途读取目标文件只会看到旧内容。
+     *
+     * @param src           源文件路径
+     * @param dest          目标文件路径
+     * @param staged        是否暂存输出
+     * @param bytesConsumer 每拷贝完一个分片回调一次, 参数为该分片拷贝的字节数
+     * @throws IOException 读写文件失败
+     */
+    public static void fileCopy(String src, String dest, boolean staged, LongConsumer bytesConsumer) throws IOException {
+        try (FileChannel in = FileChannel.open(Paths.get(src), StandardOpenOption.READ)) {
+            if (staged) {
+                // 源文件在拷贝过程中被截断时, 去掉预先扩展的多余部分
+                writeStaged(Paths.get(dest), in.size(), out -> out.truncate(transfer(in, out, bytesConsumer)));
+                return;
             }
-        } catch (IOException e) {
-            e.printStackTrace();
+            try (FileChannel out = FileChannel.open(Paths.get(dest), StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                transfer(in, out, bytesConsumer);
+            }
+        } catch (GeneralSecurityException e) {
+            // 拷贝不涉及加解密, 不会发生
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * 按分片将输入通道的全部内容传输到输出通道的当前位置。
+     *
+     * @return 拷贝的字节数
+     */
+    private static long transfer(FileChannel in, FileChannel out, LongConsumer bytesConsumer) throws IOException {
+        long fileSize = in.size();
+        long sliceSize = Math.max(64 * 1024, Long.getLong(COPY_SLICE_SIZE_PROPERTY, 8L * 1024 * 1024));
+        long position = 0;
+        if (fileSize == 0) {
+            bytesConsumer.accept(0);
+            return 0;
+        }
+        while (position < fileSize) {
+            long sliceEnd = Math.min(position + sliceSize, fileSize);
+            long sliceStart = position;
+            // transferTo 单次调用可能传输少于请求的字节数, 循环直到整个分片拷贝完成
+            while (position < sliceEnd) {
+                long transferred = in.transferTo(position, sliceEnd - position, out);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+            }
+            if (position == sliceStart) {
+                // 源文件在拷贝过程中被截断
+                break;
+            }
+            bytesConsumer.accept(position - sliceStart);
+        }
+        return position;
+    }
+
+    /**
+     * 流式输出时每次读取的窗口大小(4MB)
+     */
+    public static final int STREAM_WINDOW_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * 超过该大小(1MB)的文件通过 MappedByteBuffer 读取, 较小的文件直接读入堆缓冲区
+     */
+    public static final long MMAP_THRESHOLD = 1024 * 1024;
+
+    /**
+     * 以 UTF-8 解码并流式输出文件的指定字节区间, 内存占用与文件大小无关。
+     * 窗口边界上被截断的多字节字符会留到下一个窗口一起解码。
+     *
+     * @param path   文件路径
+     * @param offset 起始字节偏移
+     * @param length 输出的字节数, 小于 0 表示输出到文件末尾
+     * @param out    输出流
+     * @return 实际输出的字节数
+     * @throws IOException 读取文件失败
+     */
+    public static long streamFile(Path path, long offset, long length, PrintStream out) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long start = Math.min(Math.max(0, offset), size);
+            // 不计算 start + length, 避免长度很大时溢出
+            long end = length < 0 || length > size - start ? size : start + length;
+            CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            CharBuffer chars = CharBuffer.allocate(8192);
+            long position = start;
+            while (position < end) {
+                ByteBuffer window = readWindow(channel, position, (int) Math.min(STREAM_WINDOW_SIZE, end - position));
+                int windowSize = window.remaining();
+                boolean endOfInput = position + windowSize >= end;
+                CoderResult result;
+                do {
+                    result = decoder.decode(window, chars, endOfInput);
+                    chars.flip();
+                    out.append(chars);
+                    chars.clear();
+                } while (result.isOverflow());
+                if (window.position() == 0 && !endOfInput) {
+                    // 窗口过小无法容纳一个完整字符, 理论上不会出现
+                    break;
+                }
+                // 未被解码的字节(被截断的多字节字符)从下一个窗口开头重新读取
+                position += endOfInput ? windowSize : window.position();
+            }
+            // 区间为空时解码器从未进入结束状态, 先结束输入才能 flush
+            decoder.decode(ByteBuffer.allocate(0), chars, true);
+            decoder.flush(chars);
+            chars.flip();
+            out.append(chars);
+            out.flush();
+            return Math.max(0, position - start);
+        }
+    }
+
+    /**
+     * 计算文件前 n 行结束位置的字节偏移, 只扫描需要的部分。
+     *
+     * @param path  文件路径
+     * @param lines 行数
+     * @return 第 n 行(包含换行符)之后的字节偏移, n 不大于 0 时返回 0, 文件不足 n 行时返回文件大小
+     * @throws IOException 读取文件失败
+     */
+    public static long headEndOffset(Path path, int lines) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return headEndOffset(ByteSource.of(channel), lines);
+        }
+    }
+
+    /**
+     * 计算内容前 n 行结束位置的字节偏移, 只扫描需要的部分。
+     *
+     * @param source 内容
+     * @param lines  行数
+     * @return 第 n 行(包含换行符)之后的字节偏移, n 不大于 0 时返回 0, 不足 n 行时返回内容大小
+     * @throws IOException 读取失败
+     */
+    public static long headEndOffset(ByteSource source, int lines) throws IOException {
+        if (lines <= 0) {
+            return 0;
+        }
+        long size = source.size();
+        long position = 0;
+        int found = 0;
+        while (position < size && found < lines) {
+            ByteBuffer window = source.window(position, (int) Math.min(STREAM_WINDOW_SIZE, size - position));
+            while (window.hasRemaining()) {
+                if (window.get() == '\n' && ++found == lines) {
+                    return position + window.position();
+                }
+            }
+            position += window.limit();
+        }
+        return size;
+    }
+
+    /**
+     * 计算文件最后 n 行起始位置的字节偏移, 从文件末尾向前扫描。
+     *
+     * @param path  文件路径
+     * @param lines 行数
+     * @return 倒数第 n 行的起始字节偏移, 文件不足 n 行时返回 0
+     * @throws IOException 读取文件失败
+     */
+    public static long tailStartOffset(Path path, int lines) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return tailStartOffset(ByteSource.of(channel), lines);
+        }
+    }
+
+    /**
+     * 计算内容最后 n 行起始位置的字节偏移, 从末尾向前扫描, 末尾的换行符不算作一行的开始。
+     *
+     * @param source 内容
+     * @param lines  行数
+     * @return 倒数第 n 行的起始字节偏移, n 不大于 0 时返回内容大小, 不足 n 行时返回 0
+     * @throws IOException 读取失败
+     */
+    public static long tailStartOffset(ByteSource source, int lines) throws IOException {
+        long size = source.size();
+        if (lines <= 0) {
+            return size;
+        }
+        long end = size;
+        int found = 0;
+        while (end > 0) {
+            int windowSize = (int) Math.min(STREAM_WINDOW_SIZE, end);
+            long start = end - windowSize;
+            ByteBuffer window = source.window(start, windowSize);
+            for (int i = windowSize - 1; i >= 0; i--) {
+                if (window.get(i) == '\n') {
+                    // 末尾的换行符不算作一行的开始
+                    if (start + i == size - 1) {
+                        continue;
+                    }
+                    if (++found == lines) {
+                        return start + i + 1;
+                    }
+                }
+            }
+            end = start;
         }
+        return 0;
+    }
+
+    /**
+     * 读取文件的一个窗口, 大文件使用内存映射, 小文件和不支持映射的通道直接读入堆缓冲区。
+     */
+    static ByteBuffer readWindow(FileChannel channel, long position, int size) throws IOException {
+        if (channel.size() >= MMAP_THRESHOLD) {
+            try {
+                return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+            } catch (UnsupportedOperationException e) {
+                // 不支持映射的通道(如内存文件)读入堆缓冲区
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) <= 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer;
     }
 
     /**
@@ -82,40 +504,6 @@ public class FileUtils {
 
     }
 
-    /**
-     * 解压文件
-     *
-     * @param filePath             压缩文件路径
-     * @param decompressedFilePath 解压文件路径
-     */
-    public static void unzipFile(String filePath, String decompressedFilePath) {
-        try (ZipInputStream zipIn = new ZipInputStream(new BufferedInputStream(new FileInputStream(filePath)))) {
-            File destDir = new File(decompressedFilePath);
-            if (!destDir.exists()) {
-                destDir.mkdirs();
-            }
-            ZipEntry entry;
-            while ((entry = zipIn.getNextEntry()) != null) {
-                String entryName = entry.getName();
-                File file = new File(decompressedFilePath + File.separator + entryName);
-                if (entry.isDirectory()) {
-                    file.mkdirs();
-                } else {
-                    try (BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(file))) {
-                        byte[] bytes = new byte[1024];
-                        int length;
-                        while ((length = zipIn.read(bytes)) != -1) {
-                            bos.write(bytes, 0, length);
-                        }
-                    }
-                }
-                zipIn.closeEntry();
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
     public static final boolean deleteDirectory(File file) {
         if (!file.exists()) {
             System.out.println("directory does not exist");
@@ -0,0 +1,171 @@
+package cn.autumnclouds.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * 文件内容搜索工具, 磁盘文件、内存文件和打包文件共用同一份实现。
+ * 内容按窗口读取(大文件映射到内存, 每个窗口在最后一个换行符处截断, 匹配不会跨越窗口),
+ * 在字节上使用 Boyer-Moore-Horspool 算法查找, 只有命中的行才会被解码。
+ *
+ * @author Fu Qiujie
+ * @since 2024/5/9
+ */
+public class SearchUtils {
+
+    // 每次映射的窗口大小(64MB)
+    private static final int SEARCH_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    // 文件开头出现 NUL 字节时按二进制文件跳过, 检查的字节数
+    private static final int BINARY_CHECK_SIZE = 1024;
+
+    /**
+     * 命中行的回调。
+     */
+    @FunctionalInterface
+    public interface LineConsumer {
+        /**
+         * 接收一个命中的行。
+         *
+         * @param lineNumber 行号(从 1 开始)
+         * @param line       行内容(不包括换行符)
+         */
+        void accept(long lineNumber, String line);
+    }
+
+    /**
+     * 在文件中查找包含指定字节序列的行, 二进制文件被跳过。
+     *
+     * @param file     文件
+     * @param pattern  要查找的字节序列(不能包含换行符)
+     * @param consumer 命中行的回调, 每行最多回调一次
+     * @return 读取的字节数
+     * @throws IOException 读取文件失败
+     */
+    public static long grep(Path file, byte[] pattern, LineConsumer consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return grep(ByteSource.of(channel), pattern, consumer);
+        }
+    }
+
+    /**
+     * 在内容中查找包含指定字节序列的行, 二进制内容被跳过。
+     *
+     * @param source   内容
+     * @param pattern  要查找的字节序列(不能包含换行符)
+     * @param consumer 命中行的回调, 每行最多回调一次
+     * @return 读取的字节数
+     * @throws IOException 读取失败
+     */
+    public static long grep(ByteSource source, byte[] pattern, LineConsumer consumer) throws IOException {
+        int[] shift = shiftTable(pattern);
+        long size = source.size();
+        if (size < pattern.length) {
+            return 0;
+        }
+        long position = 0;
+        long lineNumber = 1;
+        while (position < size) {
+            ByteBuffer window = source.window(position, (int) Math.min(SEARCH_WINDOW_SIZE, size - position));
+            if (position == 0 && isBinary(window)) {
+                return 0;
+            }
+            int limit = window.limit();
+            if (position + limit < size) {
+                int lastNewline = lastIndexOf(window, (byte) '\n', limit);
+                if (lastNewline >= 0) {
+                    limit = lastNewline + 1;
+                }
+            }
+            // [0, counted) 内的换行符已计入行号
+            int counted = 0;
+            int from = 0;
+            int index;
+            while ((index = indexOf(window, from, limit, pattern, shift)) >= 0) {
+                lineNumber += countNewlines(window, counted, index);
+                int lineStart = lastIndexOf(window, (byte) '\n', index) + 1;
+                int lineEnd = index;
+                while (lineEnd < limit && window.get(lineEnd) != '\n') {
+                    lineEnd++;
+                }
+                consumer.accept(lineNumber, decodeLine(window, lineStart, lineEnd));
+                counted = lineEnd;
+                from = lineEnd + 1;
+            }
+            lineNumber += countNewlines(window, counted, limit);
+            position += limit;
+        }
+        return size;
+    }
+
+    /**
+     * Horspool 坏字符表: 窗口末尾字节为 c 时窗口可以向后移动的距离。
+     */
+    private static int[] shiftTable(byte[] pattern) {
+        int[] shift = new int[256];
+        Arrays.fill(shift, pattern.length);
+        for (int i = 0; i < pattern.length - 1; i++) {
+            shift[pattern[i] & 0xFF] = pattern.length - 1 - i;
+        }
+        return shift;
+    }
+
+    private static int indexOf(ByteBuffer buffer, int from, int limit, byte[] pattern, int[] shift) {
+        int last = pattern.length - 1;
+        int i = from;
+        while (i <= limit - pattern.length) {
+            int j = last;
+            while (j >= 0 && buffer.get(i + j) == pattern[j]) {
+                j--;
+            }
+            if (j < 0) {
+                return i;
+            }
+            i += shift[buffer.get(i + last) & 0xFF];
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(ByteBuffer buffer, byte value, int before) {
+        for (int i = before - 1; i >= 0; i--) {
+            if (buffer.get(i) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static long countNewlines(ByteBuffer buffer, int from, int to) {
+        long count = 0;
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == '\n') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static String decodeLine(ByteBuffer buffer, int start, int end) {
+        if (end > start && buffer.get(end - 1) == '\r') {
+            end--;
+        }
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isBinary(ByteBuffer buffer) {
+        int end = Math.min(buffer.limit(), BINARY_CHECK_SIZE);
+        for (int i = 0; i < end; i++) {
+            if (buffer.get(i) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
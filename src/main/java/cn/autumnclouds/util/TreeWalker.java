@@ -0,0 +1,124 @@
+package cn.autumnclouds.util;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 基于 ForkJoin 的并行目录树遍历。
+ * 每个目录作为一个任务, 子目录拆分为子任务由线程池窃取执行; 不跟随符号链接,
+ * 无法读取的目录和访问失败的条目被跳过, 不影响其余部分的遍历。
+ * 访问者抛出的运行时异常同样只跳过当前条目, 异常被记录下来, 整棵树遍历完成后由遍历任务抛出;
+ * CancellationException 除外, 它表示调用方放弃遍历, 会立即结束所在目录的任务。
+ *
+ * @author Fu Qiujie
+ * @since 2024/5/9
+ */
+public class TreeWalker {
+
+    /**
+     * 条目访问者, 在线程池的工作线程上被并发调用。
+     */
+    @FunctionalInterface
+    public interface Visitor {
+        /**
+         * 访问一个条目。
+         *
+         * @param path       条目路径
+         * @param attributes 条目属性
+         * @throws IOException 访问条目失败, 该条目被跳过
+         */
+        void visit(Path path, BasicFileAttributes attributes) throws IOException;
+    }
+
+    /**
+     * 在线程池中异步遍历目录下的所有条目(不包括目录本身)。
+     *
+     * @param root    根目录
+     * @param pool    执行遍历的线程池
+     * @param visitor 条目访问者
+     * @return 遍历任务, 所有条目访问完成后结束; 访问者抛出过运行时异常时以其中第一个异常结束
+     */
+    public static ForkJoinTask<Void> walk(Path root, ForkJoinPool pool, Visitor visitor) {
+        Failures failures = new Failures();
+        return pool.submit(ForkJoinTask.adapt(() -> {
+            new DirectoryTask(root, visitor, failures).invoke();
+            failures.rethrow();
+        }, null));
+    }
+
+    /**
+     * 遍历中访问者抛出的运行时异常, 第一个之后的异常作为 suppressed 附加, 最多保留 MAX_SUPPRESSED 个。
+     */
+    private static final class Failures {
+        private static final int MAX_SUPPRESSED = 16;
+
+        private RuntimeException first;
+
+        synchronized void add(RuntimeException e) {
+            if (first == null) {
+                first = e;
+            } else if (first.getSuppressed().length < MAX_SUPPRESSED) {
+                first.addSuppressed(e);
+            }
+        }
+
+        synchronized void rethrow() {
+            if (first != null) {
+                throw first;
+            }
+        }
+    }
+
+    private static final class DirectoryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path directory;
+        private final Visitor visitor;
+        private final Failures failures;
+
+        DirectoryTask(Path directory, Visitor visitor, Failures failures) {
+            this.directory = directory;
+            this.visitor = visitor;
+            this.failures = failures;
+        }
+
+        @Override
+        protected void compute() {
+            List<DirectoryTask> subtasks = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path entry : stream) {
+                    try {
+                        BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                        if (attributes.isDirectory()) {
+                            DirectoryTask subtask = new DirectoryTask(entry, visitor, failures);
+                            subtask.fork();
+                            subtasks.add(subtask);
+                        }
+                        visitor.visit(entry, attributes);
+                    } catch (IOException e) {
+                        // 条目在遍历过程中被删除或无法访问
+                    } catch (CancellationException e) {
+                        throw e;
+                    } catch (RuntimeException e) {
+                        failures.add(e);
+                    }
+                }
+            } catch (IOException e) {
+                // 目录无法读取
+            }
+            for (DirectoryTask subtask : subtasks) {
+                subtask.join();
+            }
+        }
+    }
+}
@@ -0,0 +1,530 @@
+package cn.autumnclouds.util;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * 并行压缩/解压工具类。
+ * 压缩时每个文件条目在线程池中独立压缩(raw deflate)到内存缓冲区, 较大的条目溢出到临时文件,
+ * 再按条目顺序写出本地文件头、压缩数据和中央目录, 组装成标准 ZIP 文件(必要时使用 ZIP64 扩展)。
+ * 压缩失败或被取消时, 等待所有条目任务退出后删除它们创建的全部临时文件。
+ * 解压时通过中央目录直接定位各条目, 在线程池中并行解压。
+ *
+ * @author Fu Qiujie
+ * @since 2024/4/9
+ */
+public class ZipUtils {
+
+    // 压缩结果超过该大小(8MB)时溢出到临时文件
+    private static final int SPILL_THRESHOLD = 8 * 1024 * 1024;
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+    private static final int UTF8_FLAG = 1 << 11;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+
+    /**
+     * 并行压缩文件或目录。
+     *
+     * @param fileToZip 要压缩的文件或目录
+     * @param zipFile   压缩文件
+     * @param level     压缩级别(0-9, -1 表示默认级别)
+     * @param workers   压缩线程数
+     * @throws IOException 读写文件失败
+     */
+    public static void parallelZip(File fileToZip, File zipFile, int level, int workers) throws IOException {
+        List<Source> sources = new ArrayList<>();
+        collect(fileToZip, fileToZip.getName(), sources);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, workers));
+        // 限制同时在内存中的压缩结果数量
+        int window = Math.max(1, workers) * 2;
+        Deque<Future<Compressed>> pending = new ArrayDeque<>();
+        List<Compressed> written = new ArrayList<>();
+        // 本次压缩创建的所有临时文件, 被取消的任务的结果无法取得, 只能按此清理
+        Set<Path> spillFiles = ConcurrentHashMap.newKeySet();
+        try (CountingOutputStream out = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(zipFile), 64 * 1024))) {
+            int next = 0;
+            while (next < sources.size() || !pending.isEmpty()) {
+                while (next < sources.size() && pending.size() < window) {
+                    Source source = sources.get(next++);
+                    pending.add(executor.submit(() -> compress(source, level, spillFiles)));
+                }
+                Compressed entry = await(pending.poll());
+                try {
+                    entry.localHeaderOffset = out.getCount();
+                    writeLocalHeader(out, entry);
+                    entry.writeDataTo(out);
+                } finally {
+                    entry.release();
+                }
+                written.add(entry);
+            }
+            writeCentralDirectory(out, written);
+        } finally {
+            executor.shutdownNow();
+            try {
+                // 被中断的任务在读完当前缓冲区后退出, 之后不会再创建临时文件
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            for (Path spillFile : spillFiles) {
+                try {
+                    Files.deleteIfExists(spillFile);
+                } catch (IOException ignored) {
+                    // 临时文件删除失败不影响压缩结果
+                }
+            }
+        }
+    }
+
+    /**
+     * 基于中央目录并行解压, 可只解压名称匹配指定模式的条目, 未选中的条目不会被读取。
+     *
+     * @param zipFile  压缩文件
+     * @param destDir  解压目录
+     * @param patterns 条目名称或 glob 模式, 为空时解压全部条目; 模式匹配目录时解压该目录下的全部条目
+     * @param workers  解压线程数
+     * @return 解压的文件数, 不包括目录条目
+     * @throws IOException 读写文件失败或条目路径越出解压目录
+     */
+    public static int parallelUnzip(File zipFile, File destDir, List<String> patterns, int workers) throws IOException {
+        Predicate<String> filter = entryFilter(patterns);
+        Path destination = destDir.toPath().toAbsolutePath().normalize();
+        try (ZipFile zip = new ZipFile(zipFile)) {
+            List<ZipEntry> selected = new ArrayList<>();
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (filter.test(entry.getName())) {
+                    selected.add(entry);
+                }
+            }
+            // 先串行创建所有目录, 文件条目再并行解压
+            Files.createDirectories(destination);
+            List<ZipEntry> files = new ArrayList<>();
+            for (ZipEntry entry : selected) {
+                Path target = resolveEntry(destination, entry.getName());
+                if (entry.isDirectory()) {
+                    Files.createDirectories(target);
+                } else {
+                    Files.createDirectories(target.getParent());
+                    files.add(entry);
+                }
+            }
+            ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(workers, files.size())));
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (ZipEntry entry : files) {
+                    futures.add(executor.submit(() -> {
+                        try (InputStream in = zip.getInputStream(entry)) {
+                            Files.copy(in, resolveEntry(destination, entry.getName()), StandardCopyOption.REPLACE_EXISTING);
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    await(future);
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+            return files.size();
+        }
+    }
+
+    /**
+     * 根据条目名称或 glob 模式创建条目过滤条件, 模式匹配目录时选中该目录下的全部条目。
+     *
+     * @param patterns 条目名称或 glob 模式, 为空时选中全部条目
+     * @return 参数为条目名称的过滤条件
+     */
+    public static Predicate<String> entryFilter(List<String> patterns) {
+        List<PathMatcher> matchers = patterns.stream()
+                .map(pattern -> FileSystems.getDefault().getPathMatcher("glob:" + trimSlash(pattern)))
+                .toList();
+        return entryName -> matchers.isEmpty() || isSelected(entryName, matchers);
+    }
+
+    private static boolean isSelected(String entryName, List<PathMatcher> matchers) {
+        Path name = Paths.get(trimSlash(entryName));
+        for (PathMatcher matcher : matchers) {
+            // 条目本身或其任一上级目录匹配即选中
+            for (Path current = name; current != null; current = current.getParent()) {
+                if (matcher.matches(current)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static String trimSlash(String name) {
+        return name.endsWith("/") ? name.substring(0, name.length() - 1) : name;
+    }
+
+    /**
+     * 解析条目在解压目录中的路径, 拒绝越出解压目录的条目名(如 "../x")。
+     */
+    private static Path resolveEntry(Path destination, String entryName) throws IOException {
+        Path target = destination.resolve(entryName).normalize();
+        if (!target.startsWith(destination)) {
+            throw new IOException("entry is outside of the target directory: " + entryName);
+        }
+        return target;
+    }
+
+    /**
+     * 按原有 zipFile 的命名规则收集条目: 目录以 "/" 结尾, 子条目以 "父目录名/子名称" 命名。
+     */
+    private static void collect(File file, String name, List<Source> sources) {
+        if (file.isDirectory()) {
+            sources.add(new Source(file, name.endsWith("/") ? name : name + "/"));
+            File[] children = file.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    collect(child, name + "/" + child.getName(), sources);
+                }
+            }
+            return;
+        }
+        sources.add(new Source(file, name));
+    }
+
+    private static Compressed compress(Source source, int level, Set<Path> spillFiles) throws IOException {
+        Compressed entry = new Compressed(source.name, source.file.lastModified());
+        if (source.file.isDirectory()) {
+            entry.method = METHOD_STORED;
+            entry.memory = new byte[0];
+            return entry;
+        }
+        entry.method = METHOD_DEFLATED;
+        CRC32 crc = new CRC32();
+        Deflater deflater = new Deflater(level, true);
+        SpillOutputStream sink = new SpillOutputStream(spillFiles);
+        boolean completed = false;
+        try (InputStream in = new FileInputStream(source.file);
+             DeflaterOutputStream deflaterOut = new DeflaterOutputStream(sink, deflater, 64 * 1024)) {
+            byte[] buffer = new byte[64 * 1024];
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("compression cancelled");
+                }
+                crc.update(buffer, 0, length);
+                deflaterOut.write(buffer, 0, length);
+                entry.size += length;
+            }
+            deflaterOut.finish();
+            completed = true;
+        } finally {
+            deflater.end();
+            if (!completed) {
+                sink.discard();
+            }
+        }
+        entry.crc = crc.getValue();
+        entry.compressedSize = sink.count;
+        entry.memory = sink.memory == null ? null : sink.memory.toByteArray();
+        entry.spillFile = sink.spillFile;
+        return entry;
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static void writeLocalHeader(CountingOutputStream out, Compressed entry) throws IOException {
+        boolean zip64 = entry.size >= ZIP64_MAGIC || entry.compressedSize >= ZIP64_MAGIC;
+        byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+        writeInt(out, LOCAL_HEADER_SIGNATURE);
+        writeShort(out, zip64 ? 45 : 20);
+        writeShort(out, UTF8_FLAG);
+        writeShort(out, entry.method);
+        writeInt(out, entry.dosTime());
+        writeInt(out, entry.crc);
+        writeInt(out, zip64 ? ZIP64_MAGIC : entry.compressedSize);
+        writeInt(out, zip64 ? ZIP64_MAGIC : entry.size);
+        writeShort(out, name.length);
+        writeShort(out, zip64 ? 20 : 0);
+        out.write(name);
+        if (zip64) {
+            writeShort(out, ZIP64_EXTRA_ID);
+            writeShort(out, 16);
+            writeLong(out, entry.size);
+            writeLong(out, entry.compressedSize);
+        }
+    }
+
+    private static void writeCentralDirectory(CountingOutputStream out, List<Compressed> entries) throws IOException {
+        long start = out.getCount();
+        for (Compressed entry : entries) {
+            boolean sizeOverflow = entry.size >= ZIP64_MAGIC;
+            boolean compressedOverflow = entry.compressedSize >= ZIP64_MAGIC;
+            boolean offsetOverflow = entry.localHeaderOffset >= ZIP64_MAGIC;
+            int extraLength = (sizeOverflow ? 8 : 0) + (compressedOverflow ? 8 : 0) + (offsetOverflow ? 8 : 0);
+            boolean zip64 = extraLength > 0;
+            byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+            writeInt(out, CENTRAL_HEADER_SIGNATURE);
+            writeShort(out, zip64 ? 45 : 20);
+            writeShort(out, zip64 ? 45 : 20);
+            writeShort(out, UTF8_FLAG);
+            writeShort(out, entry.method);
+            writeInt(out, entry.dosTime());
+            writeInt(out, entry.crc);
+            writeInt(out, compressedOverflow ? ZIP64_MAGIC : entry.compressedSize);
+            writeInt(out, sizeOverflow ? ZIP64_MAGIC : entry.size);
+            writeShort(out, name.length);
+            writeShort(out, zip64 ? extraLength + 4 : 0);
+            writeShort(out, 0);
+            writeShort(out, 0);
+            writeShort(out, 0);
+            writeInt(out, entry.name.endsWith("/") ? 0x10 : 0);
+            writeInt(out, offsetOverflow ? ZIP64_MAGIC : entry.localHeaderOffset);
+            out.write(name);
+            if (zip64) {
+                writeShort(out, ZIP64_EXTRA_ID);
+                writeShort(out, extraLength);
+                if (sizeOverflow) {
+                    writeLong(out, entry.size);
+                }
+                if (compressedOverflow) {
+                    writeLong(out, entry.compressedSize);
+                }
+                if (offsetOverflow) {
+                    writeLong(out, entry.localHeaderOffset);
+                }
+            }
+        }
+        long end = out.getCount();
+        long size = end - start;
+        boolean zip64 = entries.size() >= ZIP64_MAGIC_COUNT || size >= ZIP64_MAGIC || start >= ZIP64_MAGIC;
+        if (zip64) {
+            writeInt(out, ZIP64_END_SIGNATURE);
+            writeLong(out, 44);
+            writeShort(out, 45);
+            writeShort(out, 45);
+            writeInt(out, 0);
+            writeInt(out, 0);
+            writeLong(out, entries.size());
+            writeLong(out, entries.size());
+            writeLong(out, size);
+            writeLong(out, start);
+            writeInt(out, ZIP64_LOCATOR_SIGNATURE);
+            writeInt(out, 0);
+            writeLong(out, end);
+            writeInt(out, 1);
+        }
+        writeInt(out, END_SIGNATURE);
+        writeShort(out, 0);
+        writeShort(out, 0);
+        writeShort(out, zip64 ? ZIP64_MAGIC_COUNT : entries.size());
+        writeShort(out, zip64 ? ZIP64_MAGIC_COUNT : entries.size());
+        writeInt(out, zip64 ? ZIP64_MAGIC : size);
+        writeInt(out, zip64 ? ZIP64_MAGIC : start);
+        writeShort(out, 0);
+    }
+
+    private static void writeShort(OutputStream out, int value) throws IOException {
+        out.write(value & 0xFF);
+        out.write((value >>> 8) & 0xFF);
+    }
+
+    private static void writeInt(OutputStream out, long value) throws IOException {
+        writeShort(out, (int) (value & 0xFFFF));
+        writeShort(out, (int) ((value >>> 16) & 0xFFFF));
+    }
+
+    private static void writeLong(OutputStream out, long value) throws IOException {
+        writeInt(out, value & 0xFFFFFFFFL);
+        writeInt(out, value >>> 32);
+    }
+
+    /**
+     * 待压缩的条目
+     */
+    private static final class Source {
+        private final File file;
+        private final String name;
+
+        Source(File file, String name) {
+            this.file = file;
+            this.name = name;
+        }
+    }
+
+    /**
+     * 压缩完成的条目, 压缩数据保存在内存或临时文件中
+     */
+    private static final class Compressed {
+        private final String name;
+        private final long lastModified;
+        private int method;
+        private long crc;
+        private long size;
+        private long compressedSize;
+        private long localHeaderOffset;
+        private byte[] memory;
+        private Path spillFile;
+
+        Compressed(String name, long lastModified) {
+            this.name = name;
+            this.lastModified = lastModified;
+        }
+
+        void writeDataTo(OutputStream out) throws IOException {
+            if (memory != null) {
+                out.write(memory);
+            } else if (spillFile != null) {
+                Files.copy(spillFile, out);
+            }
+        }
+
+        void release() {
+            memory = null;
+            if (spillFile != null) {
+                try {
+                    Files.deleteIfExists(spillFile);
+                } catch (IOException ignored) {
+                    // 临时文件删除失败不影响压缩结果
+                }
+                spillFile = null;
+            }
+        }
+
+        long dosTime() {
+            LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(lastModified), ZoneId.systemDefault());
+            if (time.getYear() < 1980) {
+                return (1 << 21) | (1 << 16);
+            }
+            return ((long) (time.getYear() - 1980) << 25) | ((long) time.getMonthValue() << 21) | ((long) time.getDayOfMonth() << 16)
+                    | ((long) time.getHour() << 11) | ((long) time.getMinute() << 5) | (time.getSecond() >> 1);
+        }
+    }
+
+    /**
+     * 先写入内存, 超过阈值后将已有数据转存到临时文件的输出流
+     */
+    private static final class SpillOutputStream extends OutputStream {
+        private final Set<Path> spillFiles;
+        private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        private Path spillFile;
+        private OutputStream spill;
+        private long count;
+
+        SpillOutputStream(Set<Path> spillFiles) {
+            this.spillFiles = spillFiles;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (spill == null && memory.size() + len > SPILL_THRESHOLD) {
+                spillFile = Files.createTempFile("sfs-zip-", ".tmp");
+                spillFiles.add(spillFile);
+                spill = new BufferedOutputStream(Files.newOutputStream(spillFile), 64 * 1024);
+                memory.writeTo(spill);
+                memory = null;
+            }
+            if (spill != null) {
+                spill.write(b, off, len);
+            } else {
+                memory.write(b, off, len);
+            }
+            count += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (spill != null) {
+                spill.close();
+            }
+        }
+
+        void discard() {
+            try {
+                close();
+                if (spillFile != null) {
+                    Files.deleteIfExists(spillFile);
+                }
+            } catch (IOException ignored) {
+                // 临时文件删除失败不影响后续处理
+            }
+        }
+    }
+
+    /**
+     * 记录已写出字节数的输出流, 用于计算各条目本地文件头的偏移
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+}